@@ -3,12 +3,15 @@ package mg.jwe.codegen;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 
@@ -28,7 +31,12 @@ public class ModelCodeGenerator {
         this.type = new TypeMapper();
     }
     
-    public void generateModelForTable(Connection connection, String tableName, String outputPath) 
+    /**
+     * Generates the model class of a table.
+     *
+     * @return The name of the generated class
+     */
+    public String generateModelForTable(Connection connection, String tableName, String outputPath) 
         throws SQLException, IOException 
     {
         DatabaseMetaData metaData = connection.getMetaData();
@@ -127,5 +135,34 @@ public class ModelCodeGenerator {
         try (FileWriter writer = new FileWriter(outputFile)) {
             writer.write(code.toString());
         }
+
+        return className;
+    }
+
+    /**
+     * Adds a generated model to the model index read by the ORM at startup
+     * (mg.jwe.orm.bootstrap.ModelRegistry), creating the index if needed.
+     * The index lives in META-INF/jwe-orm/models.idx under the output root,
+     * to be packaged with the models.
+     *
+     * @param baseOutputPath The root output directory
+     * @param className The fully qualified name of the model class
+     */
+    public void addToModelIndex(String baseOutputPath, String className) throws IOException {
+        File index = new File(baseOutputPath, "META-INF" + File.separator + "jwe-orm" + File.separator + "models.idx");
+        index.getParentFile().mkdirs();
+
+        Set<String> models = new LinkedHashSet<>();
+        if (index.exists()) {
+            models.addAll(Files.readAllLines(index.toPath(), StandardCharsets.UTF_8));
+        }
+
+        if (models.add(className)) {
+            try (FileWriter writer = new FileWriter(index, StandardCharsets.UTF_8)) {
+                for (String model : models) {
+                    writer.write(model + "\n");
+                }
+            }
+        }
     }
 }
\ No newline at end of file
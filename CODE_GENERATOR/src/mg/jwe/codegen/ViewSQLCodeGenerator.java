@@ -117,10 +117,7 @@ public class ViewSQLCodeGenerator {
         
         code.append("import java.io.IOException;\n");
         code.append("import java.sql.Connection;\n");
-        code.append("import java.sql.PreparedStatement;\n");
-        code.append("import java.sql.ResultSet;\n");
         code.append("import java.sql.SQLException;\n");
-        code.append("import java.util.ArrayList;\n");
         code.append("import java.util.List;\n");
         code.append("import javax.servlet.RequestDispatcher;\n");
         code.append("import javax.servlet.ServletException;\n");
@@ -128,7 +125,8 @@ public class ViewSQLCodeGenerator {
         code.append("import javax.servlet.http.HttpServlet;\n");
         code.append("import javax.servlet.http.HttpServletRequest;\n");
         code.append("import javax.servlet.http.HttpServletResponse;\n\n");
-        code.append("import mg.itu.database.Database;\n\n");
+        code.append("import mg.itu.database.Database;\n");
+        code.append("import mg.jwe.orm.query.SqlQuery;\n\n");
         code.append("import mg.itu.model." + formater.toPascalCase(viewName) + ";\n\n");
 
         // Create Controller class
@@ -152,30 +150,10 @@ public class ViewSQLCodeGenerator {
         code.append("        }\n");
         code.append("    }\n\n");
 
-        // fetchViewData method
+        // fetchViewData method: rows are mapped to the view model by column name
         code.append("    private List<"+ formater.toPascalCase(viewName) +"> fetchViewData(Connection connection) throws SQLException {\n");
-        code.append("        List<"+ formater.toPascalCase(viewName) +"> viewDataList = new ArrayList<>();\n");
-        code.append("        String sql = \"SELECT * FROM ").append("v_" + viewName).append("\";\n\n");
-        code.append("        try (PreparedStatement stmt = connection.prepareStatement(sql)) {\n");
-        code.append("            ResultSet rs = stmt.executeQuery();\n");
-        code.append("            while (rs.next()) {\n");
-        code.append("                " + formater.toPascalCase(viewName) + " data = new " + formater.toPascalCase(viewName)+ "();\n");
-
-        // Set values from ResultSet
-        columns.beforeFirst();
-        while (columns.next()) {
-            String columnName = columns.getString("COLUMN_NAME");
-            String dataType = columns.getString("TYPE_NAME");
-            String getter = type.getResultSetGetter(dataType);
-            
-            code.append("                data.set").append(formater.toPascalCase(columnName))
-                .append("(rs.").append(getter).append("(\"").append(columnName).append("\"));\n");
-        }
-
-        code.append("                viewDataList.add(data);\n");
-        code.append("            }\n");
-        code.append("        }\n");
-        code.append("        return viewDataList;\n");
+        code.append("        String sql = \"SELECT * FROM ").append("v_" + viewName).append("\";\n");
+        code.append("        return SqlQuery.query(connection, sql, " + formater.toPascalCase(viewName) + ".class);\n");
         code.append("    }\n\n");
 
         // forwardToPage method
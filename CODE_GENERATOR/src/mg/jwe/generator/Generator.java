@@ -164,7 +164,8 @@ public class Generator extends JFrame {
                         sqlView.generateViewFilesForSQLView(connection, name, outputPath);
                     } else if (type.equals("TABLE") && generateCrudCheckbox.isSelected()) {
                         // Generate CRUD components
-                        model.generateModelForTable(connection, name, outputPath);
+                        String className = model.generateModelForTable(connection, name, outputPath);
+                        model.addToModelIndex(baseOutputPath, className);
                         controller.generateControllerForTable(connection, name, outputPath);
                         view.generateViewsForTable(connection, name, outputPath);
                     }
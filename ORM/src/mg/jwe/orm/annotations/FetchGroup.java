@@ -0,0 +1,28 @@
+package mg.jwe.orm.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Lists the named fetch groups loading a {@link Column} or {@link ForeignKey} field.
+ * <p>
+ * A fetch group is a use case such as "summary" or "full", passed to
+ * {@link mg.jwe.orm.base.BaseModel#getAll(java.sql.Connection, Class, String) getAll},
+ * findById or findByCriteria. Fields without this annotation are loaded by every group, except
+ * {@link Lob} columns, which are only read with the entity by the groups listing them. A foreign
+ * key listed by a group is loaded eagerly for it.
+ * </p>
+ * Example usage:
+ * <pre>
+ * &#64;FetchGroup({"detail", "full"})
+ * &#64;Column(name = "description")
+ * private String description;
+ * </pre>
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface FetchGroup {
+    String[] value();
+}
@@ -0,0 +1,19 @@
+package mg.jwe.orm.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares an in-memory secondary index on a {@link Column} field of a cached entity.
+ * A hash index answers "=", "!=" and "IN"; a sorted index also answers range operators
+ * and LIKE prefix patterns.
+ *
+ * @see mg.jwe.orm.cache.EntityCache
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface Indexed {
+    boolean sorted() default false;
+}
@@ -0,0 +1,16 @@
+package mg.jwe.orm.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a large TEXT or BYTEA {@link Column} field, of type {@link mg.jwe.orm.lob.LobHandle}.
+ * The column is left out of the entity SELECTs and its content is streamed on demand.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface Lob {
+    
+}
@@ -0,0 +1,27 @@
+package mg.jwe.orm.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a {@code List} field holding the entities whose {@link ForeignKey} references this one.
+ * <p>
+ * {@link #mappedBy()} names the foreign key field of the child entity. The field is not a column:
+ * it is never written, and it stays null until loaded, either with its parent when not
+ * {@link #lazy()}, or on demand through {@link mg.jwe.orm.base.BaseModel#loadCollection}.
+ * The children of many parents are read with one {@code IN} query.
+ * </p>
+ * Example usage:
+ * <pre>
+ * &#64;OneToMany(mappedBy = "order", lazy = false)
+ * private List&lt;OrderLine&gt; lines;
+ * </pre>
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface OneToMany {
+    String mappedBy();
+    boolean lazy() default true;
+}
@@ -1,27 +1,58 @@
 package mg.jwe.orm.base;
 
-import java.lang.reflect.Field;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.sql.DataSource;
 
 
 import mg.jwe.orm.annotations.Column;
 import mg.jwe.orm.annotations.ForeignKey;
 import mg.jwe.orm.annotations.Id;
 import mg.jwe.orm.annotations.Table;
+import mg.jwe.orm.annotations.Version;
+import mg.jwe.orm.cache.EntityCache;
 import mg.jwe.orm.criteria.Criterion;
+import mg.jwe.orm.diagnostic.OrmEvent;
+import mg.jwe.orm.diagnostic.QueryScope;
+import mg.jwe.orm.dialect.Dialect;
+import mg.jwe.orm.dialect.Dialects;
+import mg.jwe.orm.foreignkey.FetchPlan;
 import mg.jwe.orm.foreignkey.UtilFK;
+import mg.jwe.orm.invalidation.InvalidationBus;
+import mg.jwe.orm.lob.LobHandle;
+import mg.jwe.orm.mapper.ColumnPlan;
 import mg.jwe.orm.mapper.UtilMapper;
+import mg.jwe.orm.metadata.ColumnMetadata;
+import mg.jwe.orm.metadata.EntityMetadata;
+import mg.jwe.orm.metadata.FetchGroupMetadata;
+import mg.jwe.orm.metadata.ForeignKeyMetadata;
+import mg.jwe.orm.query.BoundStatement;
 import mg.jwe.orm.query.UtilQuery;
+import mg.jwe.orm.routing.ReadWriteRouter;
+import mg.jwe.orm.transaction.OptimisticLockException;
 
 @SuppressWarnings("unchecked")
 public abstract class BaseModel {
 
+    /** The fetch group this instance was loaded with, or null once it is fully loaded. */
+    private transient FetchGroupMetadata fetchGroup;
+
     public BaseModel()
     { }
 
@@ -39,68 +70,33 @@ public abstract class BaseModel {
      */
     public void save(Connection connection) throws SQLException {
         Class<?> clazz = this.getClass();
+        EntityMetadata metadata = EntityMetadata.of(clazz);
 
-        Table tableAnnotation = clazz.getAnnotation(Table.class);
-        String tableName = tableAnnotation.name();
-
-        List<String> columns = new ArrayList<>();
-        List<Object> values = new ArrayList<>();
-        
-        for (Field field : clazz.getDeclaredFields()) {
-            field.setAccessible(true);
-
-            Column columnAnnotation = field.getAnnotation(Column.class);
-            ForeignKey fkAnnotation = field.getAnnotation(ForeignKey.class);
-            
-            if (columnAnnotation != null) {
-                try {
-                    Object value = field.get(this);
-                    if (value != null) {
-                        columns.add(columnAnnotation.name());
-                        values.add(value);
-                    }
-                } 
-                
-                catch (IllegalAccessException e) 
-                { throw new RuntimeException("Failed to access field", e); }
-            } 
-            
-            // check for FK
-            else if (fkAnnotation != null) {
-                try {
-                    Object value = field.get(this);
-                    
-                    if (value != null && value instanceof BaseModel) {
-                        // get the ID of the referenced object
-                        Object foreignId = new UtilFK().getForeignKeyId((BaseModel) value);
-
-                        if (foreignId != null) {
-                            // Convention: foreign key column begins with id_
-                            columns.add(UtilFK.camelToSnake("id_" + field.getName())); 
-                            values.add(foreignId);
-                        }
-                    }
-                } 
-                
-                catch (IllegalAccessException e) 
-                { throw new RuntimeException("Failed to access foreign key field", e); }
-            }
-        }
+        BoundStatement statement = new UtilQuery().buildInsert(this);
+        String sql = statement.getSql();
 
-        String sql = new UtilQuery().buildInsertQuery(tableName, columns);
-        try (PreparedStatement stmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-            for (int i = 0; i < values.size(); i++) 
-            { stmt.setObject(i + 1, values.get(i)); }
+        OrmEvent event = OrmEvent.start(clazz, "save");
+        try (PreparedStatement stmt = Dialects.of(connection).prepareInsert(connection, sql, metadata)) {
+            statement.bind(stmt);
+            event.bound();
 
             System.out.println("SQL from save: " + sql);
-            stmt.executeUpdate();
+            QueryScope.record(clazz, sql, statement.getParams());
+            int count = stmt.executeUpdate();
+            event.executed();
+            event.written(count);
             
             // Handle generated keys
             try (ResultSet generatedKeys = stmt.getGeneratedKeys()) {
                 if (generatedKeys.next()) 
-                { new UtilMapper().setGeneratedId(generatedKeys.getObject(1)); }
+                { new UtilMapper().setGeneratedId(this, UtilMapper.getGeneratedKey(generatedKeys, metadata)); }
             }
         }
+
+        LobHandle.afterWrite(this);
+        EntityCache.afterWrite(connection, this);
+        InvalidationBus.afterWrite(connection, this);
+        event.finish(sql);
     }
 
     /**
@@ -112,59 +108,38 @@ public abstract class BaseModel {
      * to specify which record should be updated, and handles foreign key relationships
      * by retrieving the ID of referenced objects.
      * </p>
+     * <p>
+     * If the class has a {@link Version} field, the row is only updated if it still has the
+     * version read with this instance, and the version is incremented.
+     * </p>
      *
      * @param connection The database connection to use for executing the update operation.
      * @throws SQLException If a database access error occurs or this method is called on a closed connection.
+     * @throws OptimisticLockException If the row was changed or deleted since this instance was read.
      */
     public void update(Connection connection) throws SQLException {
-        Class<?> clazz = this.getClass();
-        Table tableAnnotation = clazz.getAnnotation(Table.class);
-        String tableName = tableAnnotation.name();
+        BoundStatement statement = new UtilQuery().buildUpdate(this);
+        String sql = statement.getSql();
 
-        List<String> columns = new ArrayList<>();
-        List<Object> values = new ArrayList<>();
-
-        Object idValue = null;
-        String idColumn = null;
-
-        for (Field field : clazz.getDeclaredFields()) {
-            field.setAccessible(true);
-            Column columnAnnotation = field.getAnnotation(Column.class);
-            ForeignKey fkAnnotation = field.getAnnotation(ForeignKey.class);
-
-            try {
-                Object value = field.get(this);
-                if (columnAnnotation != null) {
-                    if (field.isAnnotationPresent(Id.class)) {
-                        idColumn = columnAnnotation.name();
-                        idValue = value;
-                    } else if (value != null) {
-                        columns.add(columnAnnotation.name());
-                        values.add(value);
-                    }
-                } else if (fkAnnotation != null && value instanceof BaseModel) {
-                    // Handle foreign key
-                    Object foreignId = new UtilFK().getForeignKeyId((BaseModel) value);
-                    if (foreignId != null) {
-                        columns.add("id_" + field.getName());
-                        values.add(foreignId);
-                    }
-                }
-            } catch (IllegalAccessException e) {
-                throw new RuntimeException("Failed to access field", e);
-            }
+        OrmEvent event = OrmEvent.start(this.getClass(), "update");
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            statement.bind(stmt);
+            event.bound();
+            QueryScope.record(this.getClass(), sql, statement.getParams());
+            int count = stmt.executeUpdate();
+            event.executed();
+            event.written(count);
+            new UtilQuery().afterVersionedWrite(this, count, true);
         }
 
-        String sql = new UtilQuery().buildUpdateQuery(tableName, columns, idColumn);
+        // a cache holds complete entities
+        if (!isFullyLoaded() && EntityCache.forClass(this.getClass()) != null)
+        { ensureLoaded(connection); }
 
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-            int paramIndex = 1;
-            for (Object value : values) {
-                stmt.setObject(paramIndex++, value);
-            }
-            stmt.setObject(paramIndex, idValue);
-            stmt.executeUpdate();
-        }
+        LobHandle.afterWrite(this);
+        EntityCache.afterWrite(connection, this);
+        InvalidationBus.afterWrite(connection, this);
+        event.finish(sql);
 
         System.out.println("Update query: " + sql);
     }
@@ -175,41 +150,227 @@ public abstract class BaseModel {
      * <p>
      * This method constructs a DELETE SQL statement based on the annotations present on
      * the class fields. It identifies which record to delete using the ID column specified
-     * by the {@link Id} annotation and retrieves its value.
+     * by the {@link Id} annotation and retrieves its value. A {@link Version versioned} row
+     * is only deleted if it still has the version read with this instance.
      * </p>
      *
      * @param connection The database connection to use for executing the delete operation.
      * @throws SQLException If a database access error occurs or this method is called on a closed connection.
+     * @throws OptimisticLockException If the row was changed or deleted since this instance was read.
      */
     public void delete(Connection connection) throws SQLException {
-        Class<?> clazz = this.getClass();
+        BoundStatement statement = new UtilQuery().buildDelete(this);
+        String sql = statement.getSql();
 
-        Table tableAnnotation = clazz.getAnnotation(Table.class);
-        String tableName = tableAnnotation.name();
-        
-        String idColumn = null;
-        Object idValue = null;
-
-        for (Field field : clazz.getDeclaredFields()) {
-            field.setAccessible(true);
-            if (field.isAnnotationPresent(Id.class)) {
-                Column columnAnnotation = field.getAnnotation(Column.class);
-                idColumn = columnAnnotation.name();
-                try {
-                    idValue = field.get(this);
-                    break;
-                } catch (IllegalAccessException e) {
-                    throw new RuntimeException("Failed to access field", e);
+        OrmEvent event = OrmEvent.start(this.getClass(), "delete");
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            statement.bind(stmt);
+            event.bound();
+            QueryScope.record(this.getClass(), sql, statement.getParams());
+            int count = stmt.executeUpdate();
+            event.executed();
+            event.written(count);
+            new UtilQuery().afterVersionedWrite(this, count, false);
+        }
+
+        EntityCache.afterDelete(connection, this);
+        InvalidationBus.afterWrite(connection, this);
+        event.finish(sql);
+    }  
+
+    /**
+     * Saves the current instance on the primary of a router.
+     *
+     * @param router The router giving the primary connection.
+     * @throws SQLException If a database access error occurs.
+     * @see #save(Connection)
+     */
+    public void save(ReadWriteRouter router) throws SQLException {
+        router.write(connection -> {
+            save(connection);
+            return null;
+        });
+    }
+
+    /**
+     * Updates the current instance on the primary of a router.
+     *
+     * @param router The router giving the primary connection.
+     * @throws SQLException If a database access error occurs.
+     * @throws OptimisticLockException If the row was changed or deleted since this instance was read.
+     * @see #update(Connection)
+     */
+    public void update(ReadWriteRouter router) throws SQLException {
+        router.write(connection -> {
+            update(connection);
+            return null;
+        });
+    }
+
+    /**
+     * Deletes the current instance on the primary of a router.
+     *
+     * @param router The router giving the primary connection.
+     * @throws SQLException If a database access error occurs.
+     * @throws OptimisticLockException If the row was changed or deleted since this instance was read.
+     * @see #delete(Connection)
+     */
+    public void delete(ReadWriteRouter router) throws SQLException {
+        router.write(connection -> {
+            delete(connection);
+            return null;
+        });
+    }
+
+    /**
+     * Loads the fields left out by the fetch group this instance was read with, in one query by
+     * id, then the eager foreign keys it left out. Does nothing for a fully loaded instance.
+     * <p>
+     * Fields are plain Java fields, so the ORM cannot notice their first access: call this before
+     * reading a field outside the group.
+     * </p>
+     *
+     * @param connection The database connection.
+     * @throws SQLException If a database access error occurs.
+     */
+    public void ensureLoaded(Connection connection) throws SQLException {
+        FetchGroupMetadata group = fetchGroup;
+        EntityMetadata metadata = EntityMetadata.of(this.getClass());
+        Object id = metadata.getId(this);
+        if (group == null || id == null)
+        { return; }
+
+        String sql = "SELECT " + group.getMissingSelectList() + " FROM " + metadata.getTableName() + " WHERE " + metadata.getIdColumnName() + " = ?";
+        List<ColumnMetadata> columns = group.getMissingColumns();
+        List<ForeignKeyMetadata> foreignKeys = group.getMissingForeignKeys();
+        Object[] foreignIds = new Object[foreignKeys.size()];
+
+        OrmEvent event = OrmEvent.start(this.getClass(), "ensureLoaded");
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            metadata.getIdColumn().bind(stmt, 1, id);
+            event.bound();
+            QueryScope.record(this.getClass(), sql, id);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                event.executed();
+                if (rs.next()) {
+                    for (int i = 0; i < columns.size(); i++)
+                    { columns.get(i).readInto(rs, i + 1, this); }
+
+                    for (int i = 0; i < foreignIds.length; i++)
+                    { foreignIds[i] = rs.getObject(columns.size() + i + 1); }
+
+                    event.mapped(1);
                 }
             }
         }
 
-        String sql = "DELETE FROM " + tableName + " WHERE " + idColumn + " = ?";
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-            stmt.setObject(1, idValue);
-            stmt.executeUpdate();
+        for (int i = 0; i < foreignIds.length; i++) {
+            if (foreignIds[i] != null)
+            { foreignKeys.get(i).set(this, findById(connection, foreignKeys.get(i).getTargetType(), foreignIds[i])); }
         }
-    }  
+
+        fetchGroup = null;
+        event.finish(sql);
+    }
+
+    /**
+     * Loads a {@link mg.jwe.orm.annotations.OneToMany} collection of this instance, such as a lazy one.
+     * To load the collection of many instances with one query, use
+     * {@link UtilFK#loadCollection(Connection, List, String)}.
+     *
+     * @param connection The database connection.
+     * @param fieldName The name of the collection field.
+     * @throws SQLException If a database access error occurs.
+     */
+    public void loadCollection(Connection connection, String fieldName) throws SQLException
+    { UtilFK.loadCollection(connection, Collections.singletonList(this), fieldName); }
+
+    /**
+     * Tells whether every field of the default fetch group is loaded.
+     *
+     * @return false if the instance was read with a fetch group leaving fields out
+     */
+    public boolean isFullyLoaded()
+    { return fetchGroup == null; }
+
+    /**
+     * Gets the fetch group the instance was read with, while it leaves fields unloaded.
+     *
+     * @return The group, or null if the instance is fully loaded
+     */
+    public FetchGroupMetadata getFetchGroup()
+    { return fetchGroup; }
+
+    /**
+     * Maps every remaining row of a result set read with a fetch group, keeping for each row the ids
+     * it references through the eager foreign keys of the group.
+     */
+    private static <T extends BaseModel> List<T> mapAll(ResultSet rs, Class<T> clazz, FetchGroupMetadata group,
+        List<Object[]> referencedIds) throws SQLException
+    {
+        ColumnPlan<T> plan = ColumnPlan.of(rs, clazz);
+        List<ForeignKeyMetadata> foreignKeys = group.getEagerForeignKeys();
+        int[] indexes = new int[foreignKeys.size()];
+        for (int i = 0; i < indexes.length; i++)
+        { indexes[i] = plan.indexOf(foreignKeys.get(i).getColumnName()); }
+
+        List<T> results = new ArrayList<>();
+        while (rs.next()) {
+            results.add(plan.mapRow(rs));
+
+            Object[] ids = new Object[indexes.length];
+            for (int i = 0; i < indexes.length; i++) {
+                if (indexes[i] > 0)
+                { ids[i] = foreignKeys.get(i).getTargetMetadata().getIdColumn().getConverter().read(rs, indexes[i]); }
+            }
+            referencedIds.add(ids);
+        }
+
+        return results;
+    }
+
+    /**
+     * Records what the instances are missing, then loads the eager foreign keys of the fetch group
+     * for all of them at once, level by level.
+     *
+     * @see FetchPlan#loadEager(Connection, List, List, List)
+     */
+    private static void afterFetch(Connection connection, List<? extends BaseModel> instances, FetchGroupMetadata group,
+        List<Object[]> referencedIds) throws SQLException
+    {
+        for (BaseModel instance : instances)
+        { instance.fetchGroup = group.isComplete() ? null : group; }
+
+        FetchPlan.loadEager(connection, instances, group.getEagerForeignKeys(), referencedIds);
+    }
+
+    /**
+     * Binds criteria values, with the converter of the criterion column when the entity maps it.
+     *
+     * @param stmt The statement built for the criteria
+     * @param metadata The metadata of the queried entity
+     * @param criteria The criteria, in placeholder order
+     * @return The bound values, in parameter order
+     * @throws SQLException If the driver rejects a value
+     */
+    public static Object[] bindCriteria(PreparedStatement stmt, EntityMetadata metadata, Criterion[] criteria) 
+        throws SQLException 
+    {
+        Object[] params = new Object[criteria.length];
+        for (int i = 0; i < criteria.length; i++) {
+            ColumnMetadata column = metadata.getColumn(criteria[i].getColumn());
+            params[i] = criteria[i].getValue();
+
+            if (column != null && !"IN".equalsIgnoreCase(criteria[i].getOperator())) 
+            { column.bind(stmt, i + 1, params[i]); }
+
+            else 
+            { stmt.setObject(i + 1, params[i]); }
+        }
+
+        return params;
+    }
 
     /**
      * Retrieves all records for a given entity type
@@ -221,24 +382,42 @@ public abstract class BaseModel {
     public static <T extends BaseModel> T[] getAll(Connection connection, Class<T> clazz) 
         throws SQLException 
     {
-        Table tableAnnotation = clazz.getAnnotation(Table.class);
-        if (tableAnnotation == null) 
-        { throw new RuntimeException("No Table annotation found for class " + clazz.getName()); }
-        
-        String tableName = tableAnnotation.name();
-        List<T> results = new ArrayList<>();
+        return getAll(connection, clazz, null);
+    }
+
+    /**
+     * Retrieves all records for a given entity type, loading the fields of a fetch group.
+     *
+     * @param connection The database connection
+     * @param clazz The class of the entity
+     * @param fetchGroup The {@link mg.jwe.orm.annotations.FetchGroup fetch group} to load, or null for the default one
+     * @return An array of all entities
+     * @throws SQLException if a database error occurs
+     * @see #ensureLoaded(Connection)
+     */
+    public static <T extends BaseModel> T[] getAll(Connection connection, Class<T> clazz, String fetchGroup) 
+        throws SQLException 
+    {
+        EntityMetadata metadata = EntityMetadata.of(clazz);
+        FetchGroupMetadata group = metadata.getFetchGroup(fetchGroup);
+        List<T> results;
         
-        String sql = "SELECT * FROM " + tableName + " ORDER BY id";
+        String sql = "SELECT " + group.getSelectList() + " FROM " + metadata.getTableName() + " ORDER BY " + metadata.getIdColumnName();
+        QueryScope.record(clazz, sql);
         
+        OrmEvent event = OrmEvent.start(clazz, "getAll");
         try (PreparedStatement stmt = connection.prepareStatement(sql);
              ResultSet rs = stmt.executeQuery()) {
+            event.executed();
             
-            while (rs.next()) {
-                T instance = UtilMapper.mapResultSetToObject(rs, clazz);
-                UtilFK.loadForeignKeys(connection, instance);
-                results.add(instance);
-            }
+            List<Object[]> referencedIds = new ArrayList<>();
+            results = mapAll(rs, clazz, group, referencedIds);
+            event.mapped(results.size());
+            afterFetch(connection, results, group, referencedIds);
         }
+
+        UtilFK.loadEagerCollections(connection, results);
+        event.finish(sql);
         
         T[] array = (T[]) java.lang.reflect.Array.newInstance(clazz, results.size());
         return results.toArray(array);
@@ -262,28 +441,266 @@ public abstract class BaseModel {
     public static <T extends BaseModel> T findById(Connection connection, Class<T> clazz, Object id) 
         throws SQLException 
     {
-        Table tableAnnotation = clazz.getAnnotation(Table.class);
+        return findById(connection, clazz, id, null);
+    }
 
-        String tableName = tableAnnotation.name();
-        String idColumn = UtilFK.getIdColumnName(clazz);
+    /**
+     * Retrieves an instance by its ID, loading the fields of a fetch group.
+     *
+     * @param connection The database connection to use for executing the query.
+     * @param clazz The class type of the object to retrieve, which must extend {@link BaseModel}.
+     * @param id The ID of the object to find in the database.
+     * @param fetchGroup The {@link mg.jwe.orm.annotations.FetchGroup fetch group} to load, or null for the default one
+     * @return The matching instance, or null if no record is found.
+     * @throws SQLException If a database access error occurs or this method is called on a closed connection.
+     * @see #ensureLoaded(Connection)
+     */
+    public static <T extends BaseModel> T findById(Connection connection, Class<T> clazz, Object id, String fetchGroup) 
+        throws SQLException 
+    {
+        EntityMetadata metadata = EntityMetadata.of(clazz);
+        FetchGroupMetadata group = metadata.getFetchGroup(fetchGroup);
 
-        String sql = "SELECT * FROM " + tableName + " WHERE " + idColumn + " = ?";
+        String sql = "SELECT " + group.getSelectList() + " FROM " + metadata.getTableName() + " WHERE " + metadata.getIdColumnName() + " = ?";
 
+        OrmEvent event = OrmEvent.start(clazz, "findById");
         try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-            stmt.setObject(1, id);
+            metadata.getIdColumn().bind(stmt, 1, id);
+            event.bound();
+            QueryScope.record(clazz, sql, id);
             ResultSet rs = stmt.executeQuery();
+            event.executed();
             
-            if (rs.next()) {
-                T instance = UtilMapper.mapResultSetToObject(rs, clazz);
-                UtilFK.loadForeignKeys(connection, instance);
-
-                return instance;
+            List<Object[]> referencedIds = new ArrayList<>();
+            List<T> found = mapAll(rs, clazz, group, referencedIds);
+            if (!found.isEmpty()) {
+                event.mapped(1);
+                afterFetch(connection, found, group, referencedIds);
+                UtilFK.loadEagerCollections(connection, found);
+
+                event.finish(sql);
+                return found.get(0);
             }
         }
 
+        event.finish(sql);
         return null;
     }
 
+    /**
+     * Retrieves the instances of many ids, with one query per chunk of ids instead of one per id.
+     * <p>
+     * Duplicate and null ids are dropped. The ids are read with {@code id = ANY(?)} on databases
+     * binding arrays, in a single query, and otherwise with IN lists of at most
+     * {@link Dialect#getMaxInValues the dialect's limit}.
+     * </p>
+     *
+     * @param connection The database connection.
+     * @param clazz The entity class.
+     * @param ids The ids to read.
+     * @return The instances found, keyed by id in the type of the id field and in the order of the given ids; missing ids have no entry.
+     * @throws SQLException If a database access error occurs.
+     */
+    public static <T extends BaseModel> Map<Object, T> findAllByIds(Connection connection, Class<T> clazz, Collection<?> ids)
+        throws SQLException
+    {
+        Dialect dialect = Dialects.of(connection);
+        List<Object> distinct = distinctIds(clazz, ids);
+
+        Map<Object, T> found = new HashMap<>();
+        for (List<Object> chunk : idChunks(dialect, clazz, distinct, 1))
+        { putById(found, readByIds(connection, dialect, clazz, chunk)); }
+
+        return inIdOrder(distinct, found);
+    }
+
+    /**
+     * Retrieves the instances of many ids on a pooled connection.
+     *
+     * @see #findAllByIds(DataSource, Class, Collection, int)
+     */
+    public static <T extends BaseModel> Map<Object, T> findAllByIds(DataSource dataSource, Class<T> clazz, Collection<?> ids)
+        throws SQLException
+    {
+        return findAllByIds(dataSource, clazz, ids, 1);
+    }
+
+    /**
+     * Retrieves the instances of many ids, reading chunks of ids in parallel, each on its own pooled
+     * connection.
+     * <p>
+     * The ids are split into chunks as by {@link #findAllByIds(Connection, Class, Collection)}, and
+     * further into at least as many chunks as the parallelism. The chunks do not share a
+     * transaction, so each sees the data committed when it runs.
+     * </p>
+     *
+     * @param dataSource The pool to take connections from.
+     * @param clazz The entity class.
+     * @param ids The ids to read.
+     * @param parallelism The most chunks read at the same time, 1 to read them one after another.
+     * @return The instances found, keyed by id in the type of the id field and in the order of the given ids; missing ids have no entry.
+     * @throws SQLException If a chunk fails.
+     */
+    public static <T extends BaseModel> Map<Object, T> findAllByIds(DataSource dataSource, Class<T> clazz, Collection<?> ids,
+        int parallelism) throws SQLException
+    {
+        List<Object> distinct = distinctIds(clazz, ids);
+        if (distinct.isEmpty())
+        { return new LinkedHashMap<>(); }
+
+        Map<Object, T> found = new HashMap<>();
+        List<List<Object>> chunks;
+
+        try (Connection connection = dataSource.getConnection()) {
+            Dialect dialect = Dialects.of(connection);
+            chunks = idChunks(dialect, clazz, distinct, parallelism);
+
+            if (parallelism <= 1 || chunks.size() <= 1) {
+                for (List<Object> chunk : chunks)
+                { putById(found, readByIds(connection, dialect, clazz, chunk)); }
+
+                return inIdOrder(distinct, found);
+            }
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(parallelism, chunks.size()), runnable -> {
+            Thread thread = new Thread(runnable, "find-by-ids-" + clazz.getSimpleName());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            List<Future<List<T>>> futures = new ArrayList<>();
+            for (List<Object> chunk : chunks) {
+                futures.add(pool.submit(() -> {
+                    try (Connection connection = dataSource.getConnection())
+                    { return readByIds(connection, Dialects.of(connection), clazz, chunk); }
+                }));
+            }
+
+            for (Future<List<T>> future : futures)
+            { putById(found, future.get()); }
+        }
+
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException)
+            { throw (SQLException) e.getCause(); }
+
+            if (e.getCause() instanceof RuntimeException)
+            { throw (RuntimeException) e.getCause(); }
+
+            throw new RuntimeException("Reading " + clazz.getName() + " by ids failed", e.getCause());
+        }
+
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while reading " + clazz.getName() + " by ids", e);
+        }
+
+        finally
+        { pool.shutdownNow(); }
+
+        return inIdOrder(distinct, found);
+    }
+
+    /**
+     * Drops null and duplicate ids, after converting numbers to the type of the id field so that
+     * 7 and 7L are the same id.
+     */
+    private static List<Object> distinctIds(Class<?> clazz, Collection<?> ids) {
+        Class<?> idType = EntityMetadata.of(clazz).getIdColumn().getField().getType();
+
+        Set<Object> distinct = new LinkedHashSet<>();
+        for (Object id : ids) {
+            if (id != null)
+            { distinct.add(toIdType(id, idType)); }
+        }
+
+        return new ArrayList<>(distinct);
+    }
+
+    private static Object toIdType(Object id, Class<?> idType) {
+        if (!(id instanceof Number) || idType.isInstance(id))
+        { return id; }
+
+        Number number = (Number) id;
+        if (idType == Long.class || idType == long.class)
+        { return number.longValue(); }
+
+        if (idType == Integer.class || idType == int.class)
+        { return number.intValue(); }
+
+        if (idType == Short.class || idType == short.class)
+        { return number.shortValue(); }
+
+        return id;
+    }
+
+    /**
+     * Splits ids into chunks the dialect accepts in one condition, and into at least as many
+     * chunks as the parallelism.
+     */
+    private static List<List<Object>> idChunks(Dialect dialect, Class<?> clazz, List<Object> ids, int parallelism) {
+        int perWorker = (ids.size() + Math.max(1, parallelism) - 1) / Math.max(1, parallelism);
+        int size = Math.max(1, Math.min(perWorker, dialect.getMaxInValues(EntityMetadata.of(clazz).getIdColumn())));
+
+        List<List<Object>> chunks = new ArrayList<>();
+        for (int from = 0; from < ids.size(); from += size)
+        { chunks.add(ids.subList(from, Math.min(ids.size(), from + size))); }
+
+        return chunks;
+    }
+
+    /**
+     * Reads the instances of one chunk of ids with their eager foreign keys and collections.
+     */
+    private static <T extends BaseModel> List<T> readByIds(Connection connection, Dialect dialect, Class<T> clazz, List<Object> ids)
+        throws SQLException
+    {
+        EntityMetadata metadata = EntityMetadata.of(clazz);
+        FetchGroupMetadata group = metadata.getFetchGroup(null);
+        List<T> results;
+
+        String sql = "SELECT " + group.getSelectList() + " FROM " + metadata.getTableName()
+            + " WHERE " + dialect.inCondition(metadata.getIdColumnName(), metadata.getIdColumn(), ids.size());
+
+        OrmEvent event = OrmEvent.start(clazz, "findAllByIds");
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            dialect.bindIn(stmt, 1, metadata.getIdColumn(), ids);
+            event.bound();
+            QueryScope.record(clazz, sql, ids.toArray());
+
+            List<Object[]> referencedIds = new ArrayList<>();
+            try (ResultSet rs = stmt.executeQuery()) {
+                event.executed();
+                results = mapAll(rs, clazz, group, referencedIds);
+                event.mapped(results.size());
+            }
+
+            afterFetch(connection, results, group, referencedIds);
+        }
+
+        UtilFK.loadEagerCollections(connection, results);
+        event.finish(sql);
+        return results;
+    }
+
+    private static <T extends BaseModel> void putById(Map<Object, T> found, List<T> instances) {
+        for (T instance : instances)
+        { found.put(EntityMetadata.of(instance.getClass()).getId(instance), instance); }
+    }
+
+    private static <T extends BaseModel> Map<Object, T> inIdOrder(List<Object> ids, Map<Object, T> found) {
+        Map<Object, T> ordered = new LinkedHashMap<>();
+        for (Object id : ids) {
+            T instance = found.get(id);
+            if (instance != null)
+            { ordered.put(id, instance); }
+        }
+
+        return ordered;
+    }
+
     /**
      * Retrieves the last inserted record based on auto-incrementing ID
      * Note: This assumes the ID is auto-incrementing and the highest ID is the last inserted
@@ -304,18 +721,29 @@ public abstract class BaseModel {
         String tableName = tableAnnotation.name();
         String idColumn = UtilFK.getIdColumnName(clazz);
         
-        String sql = "SELECT * FROM " + tableName + " ORDER BY " + idColumn + " DESC LIMIT 1";
+        String sql = Dialects.of(connection).limit(
+            "SELECT " + EntityMetadata.of(clazz).getSelectList() + " FROM " + tableName + " ORDER BY " + idColumn + " DESC", 1, 0
+        );
+        QueryScope.record(clazz, sql);
         
+        OrmEvent event = OrmEvent.start(clazz, "getLastInserted");
         try (PreparedStatement stmt = connection.prepareStatement(sql);
              ResultSet rs = stmt.executeQuery()) {
+            event.executed();
             
-            if (rs.next()) {
-                T instance = UtilMapper.mapResultSetToObject(rs, clazz);
-                UtilFK.loadForeignKeys(connection, instance);
-                return instance;
+            FetchGroupMetadata group = EntityMetadata.of(clazz).getFetchGroup(null);
+            List<Object[]> referencedIds = new ArrayList<>();
+            List<T> found = mapAll(rs, clazz, group, referencedIds);
+            if (!found.isEmpty()) {
+                event.mapped(1);
+                afterFetch(connection, found, group, referencedIds);
+                UtilFK.loadEagerCollections(connection, found);
+                event.finish(sql);
+                return found.get(0);
             }
         }
         
+        event.finish(sql);
         return null;
     }
 
@@ -336,45 +764,54 @@ public abstract class BaseModel {
     public static <T extends BaseModel> T[] findByCriteria(Connection connection, Class<T> clazz, Criterion... criteria) 
         throws SQLException 
     {
-        Table tableAnnotation = clazz.getAnnotation(Table.class);
-        if (tableAnnotation == null) {
-            throw new RuntimeException("No Table annotation found for class " + clazz.getName());
-        }
-        
-        String tableName = tableAnnotation.name();
-        List<T> results = new ArrayList<>();
-        
-        StringBuilder sql = new StringBuilder("SELECT * FROM " + tableName);
-        
-        if (criteria.length > 0) {
-            sql.append(" WHERE ");
-            for (int i = 0; i < criteria.length; i++) {
-                if (i > 0) {
-                    sql.append(" AND ");
-                }
-                sql.append(criteria[i].getColumn())
-                   .append(" ")
-                   .append(criteria[i].getOperator())
-                   .append(" ?");
-            }
+        return findByCriteria(connection, clazz, (String) null, criteria);
+    }
+
+    /**
+     * Finds records matching all specified criteria (AND condition), loading the fields of a fetch group.
+     * An {@link EntityCache} able to answer the criteria returns its complete entities.
+     *
+     * @param connection Database connection
+     * @param clazz The entity class
+     * @param fetchGroup The {@link mg.jwe.orm.annotations.FetchGroup fetch group} to load, or null for the default one
+     * @param criteria Variable number of criteria to match
+     * @return Array of matching entities
+     * @throws SQLException If a database error occurs
+     * @see #ensureLoaded(Connection)
+     */
+    public static <T extends BaseModel> T[] findByCriteria(Connection connection, Class<T> clazz, String fetchGroup, Criterion... criteria) 
+        throws SQLException 
+    {
+        EntityCache<T> cache = EntityCache.forClass(clazz);
+        if (cache != null && cache.canAnswer(criteria)) {
+            List<T> cached = cache.find(criteria, true);
+            return cached.toArray((T[]) java.lang.reflect.Array.newInstance(clazz, cached.size()));
         }
+
+        EntityMetadata metadata = EntityMetadata.of(clazz);
+        FetchGroupMetadata group = metadata.getFetchGroup(fetchGroup);
+        List<T> results;
         
-        sql.append(" ORDER BY id");
+        String sql = new UtilQuery().buildCriteriaQuery(group.getSelectList(), metadata.getTableName(), criteria, "AND", metadata.getIdColumnName());
         
-        try (PreparedStatement stmt = connection.prepareStatement(sql.toString())) {
+        OrmEvent event = OrmEvent.start(clazz, "findByCriteria");
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
             // Set parameters
-            for (int i = 0; i < criteria.length; i++) {
-                stmt.setObject(i + 1, criteria[i].getValue());
-            }
+            Object[] params = bindCriteria(stmt, metadata, criteria);
+            event.bound();
             
+            QueryScope.record(clazz, sql, params);
             ResultSet rs = stmt.executeQuery();
+            event.executed();
             
-            while (rs.next()) {
-                T instance = UtilMapper.mapResultSetToObject(rs, clazz);
-                UtilFK.loadForeignKeys(connection, instance);
-                results.add(instance);
-            }
+            List<Object[]> referencedIds = new ArrayList<>();
+            results = mapAll(rs, clazz, group, referencedIds);
+            event.mapped(results.size());
+            afterFetch(connection, results, group, referencedIds);
         }
+
+        UtilFK.loadEagerCollections(connection, results);
+        event.finish(sql);
         
         T[] array = (T[]) java.lang.reflect.Array.newInstance(clazz, results.size());
         return results.toArray(array);
@@ -397,47 +834,147 @@ public abstract class BaseModel {
     public static <T extends BaseModel> T[] findByAnyCriteria(Connection connection, Class<T> clazz, Criterion... criteria) 
         throws SQLException 
     {
-        Table tableAnnotation = clazz.getAnnotation(Table.class);
-        if (tableAnnotation == null) {
-            throw new RuntimeException("No Table annotation found for class " + clazz.getName());
-        }
-        
-        String tableName = tableAnnotation.name();
-        List<T> results = new ArrayList<>();
-        
-        StringBuilder sql = new StringBuilder("SELECT * FROM " + tableName);
-        
-        if (criteria.length > 0) {
-            sql.append(" WHERE ");
-            for (int i = 0; i < criteria.length; i++) {
-                if (i > 0) {
-                    sql.append(" OR ");
-                }
-                sql.append(criteria[i].getColumn())
-                   .append(" ")
-                   .append(criteria[i].getOperator())
-                   .append(" ?");
-            }
+        EntityCache<T> cache = EntityCache.forClass(clazz);
+        if (cache != null && cache.canAnswer(criteria)) {
+            List<T> cached = cache.find(criteria, false);
+            return cached.toArray((T[]) java.lang.reflect.Array.newInstance(clazz, cached.size()));
         }
+
+        List<T> results;
         
-        sql.append(" ORDER BY id");
+        String sql = new UtilQuery().buildCriteriaQuery(EntityMetadata.of(clazz), criteria, "OR");
         
-        try (PreparedStatement stmt = connection.prepareStatement(sql.toString())) {
+        OrmEvent event = OrmEvent.start(clazz, "findByAnyCriteria");
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
             // Set parameters
-            for (int i = 0; i < criteria.length; i++) {
-                stmt.setObject(i + 1, criteria[i].getValue());
-            }
+            Object[] params = bindCriteria(stmt, EntityMetadata.of(clazz), criteria);
+            event.bound();
             
+            QueryScope.record(clazz, sql, params);
             ResultSet rs = stmt.executeQuery();
+            event.executed();
             
-            while (rs.next()) {
-                T instance = UtilMapper.mapResultSetToObject(rs, clazz);
-                UtilFK.loadForeignKeys(connection, instance);
-                results.add(instance);
-            }
+            FetchGroupMetadata group = EntityMetadata.of(clazz).getFetchGroup(null);
+            List<Object[]> referencedIds = new ArrayList<>();
+            results = mapAll(rs, clazz, group, referencedIds);
+            event.mapped(results.size());
+            afterFetch(connection, results, group, referencedIds);
         }
+
+        UtilFK.loadEagerCollections(connection, results);
+        event.finish(sql);
         
         T[] array = (T[]) java.lang.reflect.Array.newInstance(clazz, results.size());
         return results.toArray(array);
     }
+
+    /**
+     * Counts the records matching all specified criteria (AND condition), or every record if none is given.
+     *
+     * @param connection Database connection
+     * @param clazz The entity class
+     * @param criteria Variable number of criteria to match
+     * @return The number of matching rows
+     * @throws SQLException If a database error occurs
+     */
+    public static <T extends BaseModel> long count(Connection connection, Class<T> clazz, Criterion... criteria) 
+        throws SQLException 
+    {
+        EntityMetadata metadata = EntityMetadata.of(clazz);
+        String sql = new UtilQuery().buildCountQuery(metadata.getTableName(), criteria);
+
+        OrmEvent event = OrmEvent.start(clazz, "count");
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            Object[] params = bindCriteria(stmt, metadata, criteria);
+            event.bound();
+            QueryScope.record(clazz, sql, params);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                event.executed();
+                long count = rs.next() ? rs.getLong(1) : 0;
+                event.mapped(1);
+                event.finish(sql);
+                return count;
+            }
+        }
+    }
+
+    /**
+     * Retrieves all records for a given entity type from a replica of a router.
+     *
+     * @param router The router choosing the connection.
+     * @param clazz The class of the entity
+     * @return An array of all entities
+     * @throws SQLException if a database error occurs
+     * @see #getAll(Connection, Class)
+     */
+    public static <T extends BaseModel> T[] getAll(ReadWriteRouter router, Class<T> clazz) 
+        throws SQLException 
+    {
+        return router.read(connection -> getAll(connection, clazz));
+    }
+
+    /**
+     * Retrieves an instance by its ID from a replica of a router.
+     *
+     * @param router The router choosing the connection.
+     * @param clazz The class type of the object to retrieve.
+     * @param id The ID of the object to find in the database.
+     * @return The matching instance, or null if no record is found.
+     * @throws SQLException If a database access error occurs.
+     * @see #findById(Connection, Class, Object)
+     */
+    public static <T extends BaseModel> T findById(ReadWriteRouter router, Class<T> clazz, Object id) 
+        throws SQLException 
+    {
+        return router.read(connection -> findById(connection, clazz, id));
+    }
+
+    /**
+     * Finds records matching all specified criteria (AND condition) on a replica of a router.
+     *
+     * @param router The router choosing the connection.
+     * @param clazz The entity class
+     * @param criteria Variable number of criteria to match
+     * @return Array of matching entities
+     * @throws SQLException If a database error occurs
+     * @see #findByCriteria(Connection, Class, Criterion...)
+     */
+    public static <T extends BaseModel> T[] findByCriteria(ReadWriteRouter router, Class<T> clazz, Criterion... criteria) 
+        throws SQLException 
+    {
+        return router.read(connection -> findByCriteria(connection, clazz, criteria));
+    }
+
+    /**
+     * Finds records matching any of the specified criteria (OR condition) on a replica of a router.
+     *
+     * @param router The router choosing the connection.
+     * @param clazz The entity class
+     * @param criteria Variable number of criteria to match
+     * @return Array of matching entities
+     * @throws SQLException If a database error occurs
+     * @see #findByAnyCriteria(Connection, Class, Criterion...)
+     */
+    public static <T extends BaseModel> T[] findByAnyCriteria(ReadWriteRouter router, Class<T> clazz, Criterion... criteria) 
+        throws SQLException 
+    {
+        return router.read(connection -> findByAnyCriteria(connection, clazz, criteria));
+    }
+
+    /**
+     * Counts matching records on a replica of a router.
+     *
+     * @param router The router choosing the connection.
+     * @param clazz The entity class
+     * @param criteria Variable number of criteria to match
+     * @return The number of matching rows
+     * @throws SQLException If a database error occurs
+     * @see #count(Connection, Class, Criterion...)
+     */
+    public static <T extends BaseModel> long count(ReadWriteRouter router, Class<T> clazz, Criterion... criteria) 
+        throws SQLException 
+    {
+        return router.read(connection -> count(connection, clazz, criteria));
+    }
 }
\ No newline at end of file
@@ -0,0 +1,40 @@
+package mg.jwe.orm.batch;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Where a {@link ChunkJob} records the last id it committed, so that a failed or stopped job
+ * resumes after it. Checkpoints are written on the connection of the chunk, in its transaction.
+ */
+public interface CheckpointStore {
+
+    /**
+     * Reads the checkpoint of a job.
+     *
+     * @param connection The connection of the job.
+     * @param job The job name, with its partition.
+     * @return The last committed id as text, or null to start from the first row.
+     * @throws SQLException If the checkpoint cannot be read.
+     */
+    String load(Connection connection, String job) throws SQLException;
+
+    /**
+     * Records the checkpoint of a job, committed with the chunk.
+     *
+     * @param connection The connection of the job.
+     * @param job The job name, with its partition.
+     * @param lastId The last id of the chunk, as text.
+     * @throws SQLException If the checkpoint cannot be written.
+     */
+    void save(Connection connection, String job, String lastId) throws SQLException;
+
+    /**
+     * Removes the checkpoint of a finished job, so that its next run starts over.
+     *
+     * @param connection The connection of the job.
+     * @param job The job name, with its partition.
+     * @throws SQLException If the checkpoint cannot be removed.
+     */
+    void clear(Connection connection, String job) throws SQLException;
+}
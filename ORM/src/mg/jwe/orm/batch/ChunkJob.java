@@ -0,0 +1,316 @@
+package mg.jwe.orm.batch;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+
+import javax.sql.DataSource;
+
+import mg.jwe.orm.base.BaseModel;
+import mg.jwe.orm.cache.EntityCache;
+import mg.jwe.orm.criteria.Criterion;
+import mg.jwe.orm.foreignkey.FetchPlan;
+import mg.jwe.orm.metadata.EntityMetadata;
+
+/**
+ * Read-process-write job over the rows matching criteria, one transaction per chunk.
+ * <p>
+ * Rows are read by id, {@link #setChunkSize(int) chunk size} at a time, each page starting after
+ * the last id of the previous one, so every page costs the same however far the job is. Each
+ * chunk goes to the {@link ChunkProcessor}, the entities it returns are written back with
+ * {@link UtilBatch#updateAll}, and the chunk is committed. A failing chunk is rolled back and ends
+ * the job; the chunks before it stay committed.
+ * </p>
+ * <p>
+ * With a {@link #setCheckpointStore(CheckpointStore) checkpoint store}, the last id of each chunk
+ * is saved in its transaction, and a new run of a job with the same name resumes after it. The
+ * checkpoint is removed once the job reaches the end of its rows.
+ * </p>
+ * <p>
+ * With {@link #setPartitions(int) partitions}, rows are split by {@code MOD(id, partitions)}. Each
+ * partition has its own checkpoint, and {@link #run(DataSource)} processes them in parallel, each
+ * on its own pooled connection. Partitioning needs numeric ids, and a restart must use the same
+ * number of partitions.
+ * </p>
+ * <p>
+ * Foreign keys are loaded with a {@link FetchPlan}, {@link FetchPlan#eager(Class)} by default, with
+ * one query per referenced class and chunk. OneToMany collections are not loaded; a processor
+ * needing them loads them for the whole chunk with
+ * {@link mg.jwe.orm.foreignkey.UtilFK#loadCollection(Connection, List, String)}.
+ * </p>
+ * Example usage:
+ * <pre>
+ * ChunkJob&lt;Account&gt; job = new ChunkJob&lt;&gt;("recalculate-interest", Account.class, (connection, accounts) -&gt; {
+ *     for (Account account : accounts)
+ *         account.setInterest(account.getBalance().multiply(rate));
+ *     return accounts;
+ * });
+ * job.setCriteria(new Criterion("status", "=", "OPEN"));
+ * job.setCheckpointStore(new JdbcCheckpointStore("batch_checkpoint"));
+ * job.setPartitions(4);
+ * long processed = job.run(dataSource);
+ * </pre>
+ *
+ * @param <T> The entity type
+ */
+public class ChunkJob<T extends BaseModel> {
+
+    private final String name;
+    private final Class<T> entityClass;
+    private final EntityMetadata metadata;
+    private final ChunkProcessor<T> processor;
+
+    private int chunkSize = UtilBatch.MAX_BATCH_SIZE;
+    private int partitions = 1;
+    private Criterion[] criteria = new Criterion[0];
+    private CheckpointStore checkpointStore;
+    private FetchPlan<T> fetchPlan;
+    private BiConsumer<String, Object> resumeListener;
+
+    /** Set when a partition fails, so that the others stop after their current chunk. */
+    private volatile boolean stopped;
+
+    public ChunkJob(String name, Class<T> entityClass, ChunkProcessor<T> processor) {
+        this.name = name;
+        this.entityClass = entityClass;
+        this.metadata = EntityMetadata.of(entityClass);
+        this.processor = processor;
+    }
+
+    /**
+     * Runs every partition, one after another, on a connection.
+     *
+     * @param connection The connection; its auto-commit mode is restored at the end.
+     * @return The number of entities processed.
+     * @throws SQLException If a chunk fails; it is rolled back and the job stops.
+     */
+    public long run(Connection connection) throws SQLException {
+        stopped = false;
+
+        long processed = 0;
+        for (int partition = 0; partition < partitions; partition++)
+        { processed += runPartition(connection, partition); }
+
+        return processed;
+    }
+
+    /**
+     * Runs the partitions in parallel, each on its own pooled connection.
+     * <p>
+     * When a partition fails, the others stop after their current chunk, and the first failure is
+     * thrown once they have stopped.
+     * </p>
+     *
+     * @param dataSource The pool to take connections from.
+     * @return The number of entities processed.
+     * @throws SQLException If a chunk fails.
+     */
+    public long run(DataSource dataSource) throws SQLException {
+        stopped = false;
+
+        if (partitions == 1) {
+            try (Connection connection = dataSource.getConnection())
+            { return runPartition(connection, 0); }
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(partitions, runnable -> {
+            Thread thread = new Thread(runnable, "chunk-job-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            List<Future<Long>> futures = new ArrayList<>();
+            for (int partition = 0; partition < partitions; partition++) {
+                int current = partition;
+                futures.add(pool.submit(() -> {
+                    try (Connection connection = dataSource.getConnection())
+                    { return runPartition(connection, current); }
+
+                    catch (SQLException | RuntimeException e) {
+                        stopped = true;
+                        throw e;
+                    }
+                }));
+            }
+
+            long processed = 0;
+            Throwable failure = null;
+            for (Future<Long> future : futures) {
+                try
+                { processed += future.get(); }
+
+                catch (ExecutionException e) {
+                    if (failure == null)
+                    { failure = e.getCause(); }
+                }
+            }
+
+            if (failure instanceof SQLException)
+            { throw (SQLException) failure; }
+
+            if (failure instanceof RuntimeException)
+            { throw (RuntimeException) failure; }
+
+            if (failure != null)
+            { throw new RuntimeException("Job " + name + " failed", failure); }
+
+            return processed;
+        }
+
+        catch (InterruptedException e) {
+            stopped = true;
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while running job " + name, e);
+        }
+
+        finally
+        { pool.shutdown(); }
+    }
+
+    /**
+     * Processes the rows of a partition from its checkpoint to the end, one transaction per chunk.
+     */
+    private long runPartition(Connection connection, int partition) throws SQLException {
+        String checkpoint = partitions == 1 ? name : name + "#" + partition + "/" + partitions;
+        FetchPlan<T> plan = fetchPlan != null ? fetchPlan : FetchPlan.eager(entityClass);
+
+        boolean autoCommit = connection.getAutoCommit();
+        if (autoCommit)
+        { connection.setAutoCommit(false); }
+
+        try {
+            Object lastId = checkpointStore == null ? null : parseId(checkpointStore.load(connection, checkpoint));
+            BiConsumer<String, Object> listener = resumeListener;
+            if (lastId != null && listener != null)
+            { listener.accept(checkpoint, lastId); }
+
+            long processed = 0;
+            boolean finished = false;
+            while (!stopped && !finished) {
+                T[] page = plan.findPage(connection, chunkSize, pageCriteria(partition, lastId));
+                if (page.length == 0) {
+                    finished = true;
+                    break;
+                }
+
+                List<T> chunk = Arrays.asList(page);
+                List<? extends T> changed = processor.process(connection, chunk);
+                if (changed != null && !changed.isEmpty())
+                { UtilBatch.updateAll(connection, changed); }
+
+                lastId = metadata.getId(page[page.length - 1]);
+                if (checkpointStore != null)
+                { checkpointStore.save(connection, checkpoint, lastId.toString()); }
+
+                EntityCache.commit(connection);
+                processed += page.length;
+                finished = page.length < chunkSize;
+            }
+
+            if (finished && checkpointStore != null) {
+                checkpointStore.clear(connection, checkpoint);
+                EntityCache.commit(connection);
+            }
+
+            return processed;
+        }
+
+        catch (SQLException | RuntimeException e) {
+            EntityCache.rollback(connection);
+            throw e;
+        }
+
+        finally {
+            if (autoCommit)
+            { connection.setAutoCommit(true); }
+        }
+    }
+
+    /**
+     * The criteria of the job, restricted to a partition and to the ids after the last one read.
+     */
+    private Criterion[] pageCriteria(int partition, Object lastId) {
+        List<Criterion> page = new ArrayList<>(Arrays.asList(criteria));
+        String idColumn = metadata.getIdColumnName();
+
+        if (partitions > 1)
+        { page.add(new Criterion("MOD(" + idColumn + ", " + partitions + ")", "=", partition)); }
+
+        if (lastId != null)
+        { page.add(new Criterion(idColumn, ">", lastId)); }
+
+        return page.toArray(new Criterion[0]);
+    }
+
+    /**
+     * Reads a checkpoint back into the type of the id field.
+     */
+    private Object parseId(String lastId) {
+        if (lastId == null)
+        { return null; }
+
+        Class<?> type = metadata.getIdColumn().getField().getType();
+        if (type == Long.class || type == long.class)
+        { return Long.valueOf(lastId); }
+
+        if (type == Integer.class || type == int.class)
+        { return Integer.valueOf(lastId); }
+
+        if (type == Short.class || type == short.class)
+        { return Short.valueOf(lastId); }
+
+        if (type == UUID.class)
+        { return UUID.fromString(lastId); }
+
+        if (type == String.class)
+        { return lastId; }
+
+        throw new RuntimeException("Cannot restore a checkpoint of job " + name + " for an id of type " + type.getName());
+    }
+
+    /**
+     * @param chunkSize The most entities processed and committed together, {@value UtilBatch#MAX_BATCH_SIZE} by default
+     */
+    public void setChunkSize(int chunkSize)
+    { this.chunkSize = chunkSize; }
+
+    /**
+     * @param partitions The number of partitions of the rows, 1 by default
+     */
+    public void setPartitions(int partitions)
+    { this.partitions = partitions; }
+
+    /**
+     * @param criteria The criteria selecting the rows to process, joined with AND; every row by default
+     */
+    public void setCriteria(Criterion... criteria)
+    { this.criteria = criteria; }
+
+    /**
+     * @param checkpointStore Where to record progress, or null to start over on every run
+     */
+    public void setCheckpointStore(CheckpointStore checkpointStore)
+    { this.checkpointStore = checkpointStore; }
+
+    /**
+     * @param fetchPlan The foreign keys to load with each chunk, or null for every eager one
+     */
+    public void setFetchPlan(FetchPlan<T> fetchPlan)
+    { this.fetchPlan = fetchPlan; }
+
+    /**
+     * @param resumeListener Receives the checkpoint name and the last id processed when a partition
+     *                       resumes from a checkpoint, on the thread running it; null for none
+     */
+    public void setResumeListener(BiConsumer<String, Object> resumeListener)
+    { this.resumeListener = resumeListener; }
+}
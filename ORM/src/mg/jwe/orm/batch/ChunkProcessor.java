@@ -0,0 +1,26 @@
+package mg.jwe.orm.batch;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+import mg.jwe.orm.base.BaseModel;
+
+/**
+ * The work of a {@link ChunkJob} on one chunk of entities.
+ *
+ * @param <T> The entity type
+ */
+@FunctionalInterface
+public interface ChunkProcessor<T extends BaseModel> {
+
+    /**
+     * Processes a chunk, inside the transaction of the chunk.
+     *
+     * @param connection The connection of the chunk's transaction, for extra reads or writes.
+     * @param chunk The entities of the chunk, ordered by id.
+     * @return The entities to update, often the changed part of the chunk; null or empty for none.
+     * @throws SQLException If the chunk cannot be processed; the chunk is rolled back.
+     */
+    List<? extends T> process(Connection connection, List<T> chunk) throws SQLException;
+}
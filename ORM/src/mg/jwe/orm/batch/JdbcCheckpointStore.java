@@ -0,0 +1,61 @@
+package mg.jwe.orm.batch;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Checkpoints kept in a table of the processed database. A checkpoint commits or rolls back with
+ * the updates of its chunk, so a restarted job never processes a committed chunk twice.
+ * <p>
+ * The table needs a job name key and a text column:
+ * </p>
+ * <pre>
+ * CREATE TABLE batch_checkpoint (
+ *     job_name VARCHAR(200) PRIMARY KEY,
+ *     last_id  VARCHAR(100) NOT NULL
+ * );
+ * </pre>
+ */
+public class JdbcCheckpointStore implements CheckpointStore {
+
+    private final String tableName;
+
+    public JdbcCheckpointStore(String tableName)
+    { this.tableName = tableName; }
+
+    @Override
+    public String load(Connection connection, String job) throws SQLException {
+        String sql = "SELECT last_id FROM " + tableName + " WHERE job_name = ?";
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setString(1, job);
+            try (ResultSet rs = stmt.executeQuery())
+            { return rs.next() ? rs.getString(1) : null; }
+        }
+    }
+
+    @Override
+    public void save(Connection connection, String job, String lastId) throws SQLException {
+        try (PreparedStatement update = connection.prepareStatement("UPDATE " + tableName + " SET last_id = ? WHERE job_name = ?")) {
+            update.setString(1, lastId);
+            update.setString(2, job);
+            if (update.executeUpdate() > 0)
+            { return; }
+        }
+
+        try (PreparedStatement insert = connection.prepareStatement("INSERT INTO " + tableName + " (job_name, last_id) VALUES (?, ?)")) {
+            insert.setString(1, job);
+            insert.setString(2, lastId);
+            insert.executeUpdate();
+        }
+    }
+
+    @Override
+    public void clear(Connection connection, String job) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement("DELETE FROM " + tableName + " WHERE job_name = ?")) {
+            stmt.setString(1, job);
+            stmt.executeUpdate();
+        }
+    }
+}
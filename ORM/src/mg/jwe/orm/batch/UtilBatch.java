@@ -0,0 +1,337 @@
+package mg.jwe.orm.batch;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import mg.jwe.orm.base.BaseModel;
+import mg.jwe.orm.cache.EntityCache;
+import mg.jwe.orm.diagnostic.QueryScope;
+import mg.jwe.orm.dialect.Dialect;
+import mg.jwe.orm.dialect.Dialects;
+import mg.jwe.orm.invalidation.InvalidationBus;
+import mg.jwe.orm.lob.LobHandle;
+import mg.jwe.orm.mapper.UtilMapper;
+import mg.jwe.orm.metadata.ColumnMetadata;
+import mg.jwe.orm.metadata.EntityMetadata;
+import mg.jwe.orm.metadata.ForeignKeyMetadata;
+import mg.jwe.orm.query.BoundStatement;
+import mg.jwe.orm.query.UtilQuery;
+import mg.jwe.orm.transaction.OptimisticLockException;
+
+/**
+ * Batched writes of many entity instances.
+ * <p>
+ * Instances are turned into bound statements, grouped by SQL shape, and every group is sent as
+ * JDBC batches of at most {@link #MAX_BATCH_SIZE} rows: one round trip per batch instead of one per
+ * instance. These methods do not manage transactions; callers decide where to commit.
+ * </p>
+ */
+public class UtilBatch {
+
+    /** Maximum number of rows sent in a single JDBC batch. */
+    public static final int MAX_BATCH_SIZE = 500;
+
+    /**
+     * Inserts instances in batches and sets the generated ids of the new ones.
+     * <p>
+     * Statements are built when this method is called, so the foreign keys of the instances must
+     * already reference objects that have an id.
+     * </p>
+     *
+     * @param connection The connection to write with.
+     * @param instances The instances to insert.
+     * @throws SQLException If a statement fails, or if the driver does not return the generated ids.
+     */
+    public static void insertAll(Connection connection, List<? extends BaseModel> instances)
+        throws SQLException
+    {
+        UtilQuery query = new UtilQuery();
+        Dialect dialect = Dialects.of(connection);
+
+        Map<String, List<BaseModel>> groups = new LinkedHashMap<>();
+        Map<BaseModel, BoundStatement> statements = new IdentityHashMap<>();
+        for (BaseModel instance : instances) {
+            BoundStatement statement = query.buildInsert(instance);
+            statements.put(instance, statement);
+            groups.computeIfAbsent(statement.getSql(), sql -> new ArrayList<>()).add(instance);
+        }
+
+        for (Map.Entry<String, List<BaseModel>> group : groups.entrySet()) {
+            String sql = group.getKey();
+            List<BaseModel> rows = group.getValue();
+            EntityMetadata metadata = EntityMetadata.of(rows.get(0).getClass());
+            boolean generatesIds = metadata.getIdColumn() != null && metadata.isNew(rows.get(0));
+
+            try (PreparedStatement stmt = generatesIds
+                    ? dialect.prepareInsert(connection, sql, metadata)
+                    : connection.prepareStatement(sql)) {
+
+                for (int from = 0; from < rows.size(); from += MAX_BATCH_SIZE) {
+                    List<BaseModel> chunk = rows.subList(from, Math.min(rows.size(), from + MAX_BATCH_SIZE));
+                    for (BaseModel instance : chunk) {
+                        statements.get(instance).bind(stmt);
+                        stmt.addBatch();
+                    }
+
+                    QueryScope.record(metadata.getEntityClass(), sql, "batch of " + chunk.size());
+                    stmt.executeBatch();
+
+                    if (generatesIds)
+                    { assignGeneratedIds(stmt, metadata, chunk); }
+                }
+            }
+        }
+
+        for (BaseModel instance : instances) {
+            LobHandle.afterWrite(instance);
+            EntityCache.afterWrite(connection, instance);
+        }
+
+        InvalidationBus.afterWrite(connection, instances);
+    }
+
+    private static void assignGeneratedIds(PreparedStatement stmt, EntityMetadata metadata, List<BaseModel> chunk)
+        throws SQLException
+    {
+        UtilMapper mapper = new UtilMapper();
+        int assigned = 0;
+
+        try (ResultSet generatedKeys = stmt.getGeneratedKeys()) {
+            while (assigned < chunk.size() && generatedKeys.next()) {
+                mapper.setGeneratedId(chunk.get(assigned), UtilMapper.getGeneratedKey(generatedKeys, metadata));
+                assigned++;
+            }
+        }
+
+        if (assigned < chunk.size()) {
+            throw new SQLException("Driver returned " + assigned + " generated keys for " + chunk.size()
+                + " batched inserts into " + metadata.getTableName());
+        }
+    }
+
+    /**
+     * Updates instances in batches.
+     * <p>
+     * Versioned instances are moved to their new version only once every batch succeeded.
+     * </p>
+     *
+     * @param connection The connection to write with.
+     * @param instances The instances to update.
+     * @return The update count of each instance, in the order given.
+     * @throws SQLException If a statement fails.
+     * @throws OptimisticLockException If a versioned instance matched no row.
+     */
+    public static int[] updateAll(Connection connection, List<? extends BaseModel> instances)
+        throws SQLException
+    {
+        UtilQuery query = new UtilQuery();
+        List<BoundStatement> statements = new ArrayList<>();
+        for (BaseModel instance : instances)
+        { statements.add(query.buildUpdate(instance)); }
+
+        int[] counts = executeAll(connection, instances, statements);
+        checkVersions(instances, counts);
+
+        for (int i = 0; i < instances.size(); i++) {
+            query.afterVersionedWrite(instances.get(i), counts[i], true);
+            // a cache holds complete entities
+            if (!instances.get(i).isFullyLoaded() && EntityCache.forClass(instances.get(i).getClass()) != null)
+            { instances.get(i).ensureLoaded(connection); }
+
+            LobHandle.afterWrite(instances.get(i));
+            EntityCache.afterWrite(connection, instances.get(i));
+        }
+
+        InvalidationBus.afterWrite(connection, instances);
+
+        return counts;
+    }
+
+    /**
+     * Inserts instances that have their id, or updates the rows already holding those ids, in
+     * batches, with the upsert statement of the connection's {@link Dialect}.
+     * <p>
+     * Only non-null columns are written, so existing rows keep the values of the columns left null.
+     * </p>
+     *
+     * @param connection The connection to write with.
+     * @param instances The instances to write, each with its id.
+     * @return The update count of each instance, in the order given.
+     * @throws SQLException If a statement fails.
+     * @throws RuntimeException If an instance has no id, or the dialect has no upsert statement.
+     */
+    public static int[] upsertAll(Connection connection, List<? extends BaseModel> instances)
+        throws SQLException
+    {
+        UtilQuery query = new UtilQuery();
+        Dialect dialect = Dialects.of(connection);
+
+        List<BoundStatement> statements = new ArrayList<>();
+        for (BaseModel instance : instances)
+        { statements.add(query.buildUpsert(dialect, instance)); }
+
+        int[] counts = executeAll(connection, instances, statements);
+
+        for (BaseModel instance : instances) {
+            LobHandle.afterWrite(instance);
+            // the row may hold columns the instance left null
+            EntityCache.afterUpsert(connection, instance);
+        }
+
+        InvalidationBus.afterWrite(connection, instances);
+
+        return counts;
+    }
+
+    /**
+     * Loads many new rows of one entity by the fastest path of the database, such as {@code COPY}
+     * on PostgreSQL; the rows are not read back, so the instances do not get generated ids.
+     * <p>
+     * Every mapped column and foreign key is loaded, NULLs included; ids are loaded only when the
+     * first instance has one. LOB columns are left out. Meant for imports into tables that nothing
+     * caches yet: entity caches are not updated.
+     * </p>
+     *
+     * @param connection The connection to load with.
+     * @param clazz The entity class.
+     * @param instances The instances to load.
+     * @return The number of rows loaded.
+     * @throws SQLException If the load fails.
+     */
+    public static <T extends BaseModel> long bulkLoad(Connection connection, Class<T> clazz, List<T> instances)
+        throws SQLException
+    {
+        if (instances.isEmpty())
+        { return 0; }
+
+        EntityMetadata metadata = EntityMetadata.of(clazz);
+        boolean withIds = metadata.getIdColumn() != null && !metadata.isNew(instances.get(0));
+        ColumnMetadata version = metadata.getVersionColumn();
+
+        List<ColumnMetadata> loadedColumns = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        for (ColumnMetadata column : metadata.getColumns()) {
+            if (!column.isId() || withIds) {
+                loadedColumns.add(column);
+                names.add(column.getColumnName());
+            }
+        }
+
+        for (ForeignKeyMetadata foreignKey : metadata.getForeignKeys())
+        { names.add(foreignKey.getColumnName()); }
+
+        List<Object[]> rows = new ArrayList<>(instances.size());
+        for (T instance : instances) {
+            // a new versioned entity starts at version 1
+            if (version != null && version.get(instance) == null)
+            { version.set(instance, metadata.nextVersion(null)); }
+
+            Object[] row = new Object[names.size()];
+            int i = 0;
+            for (ColumnMetadata column : loadedColumns)
+            { row[i++] = column.get(instance); }
+
+            for (ForeignKeyMetadata foreignKey : metadata.getForeignKeys())
+            { row[i++] = foreignKey.getReferencedId(instance); }
+
+            rows.add(row);
+        }
+
+        Dialect dialect = Dialects.of(connection);
+        QueryScope.record(clazz, "bulk load into " + metadata.getTableName() + " (" + dialect + ")", "rows " + rows.size());
+        long loaded = dialect.bulkLoad(connection, metadata.getTableName(), names, rows);
+
+        InvalidationBus.afterWrite(connection, instances);
+
+        return loaded;
+    }
+
+    /**
+     * Deletes instances in batches.
+     *
+     * @param connection The connection to write with.
+     * @param instances The instances to delete.
+     * @return The update count of each instance, in the order given.
+     * @throws SQLException If a statement fails.
+     * @throws OptimisticLockException If a versioned instance matched no row.
+     */
+    public static int[] deleteAll(Connection connection, List<? extends BaseModel> instances)
+        throws SQLException
+    {
+        UtilQuery query = new UtilQuery();
+        List<BoundStatement> statements = new ArrayList<>();
+        for (BaseModel instance : instances)
+        { statements.add(query.buildDelete(instance)); }
+
+        int[] counts = executeAll(connection, instances, statements);
+        checkVersions(instances, counts);
+
+        for (BaseModel instance : instances)
+        { EntityCache.afterDelete(connection, instance); }
+
+        InvalidationBus.afterWrite(connection, instances);
+
+        return counts;
+    }
+
+    /**
+     * Fails on the first versioned instance whose statement matched no row. Drivers reporting
+     * {@link Statement#SUCCESS_NO_INFO} cannot be checked.
+     */
+    private static void checkVersions(List<? extends BaseModel> instances, int[] counts) {
+        for (int i = 0; i < instances.size(); i++) {
+            BaseModel instance = instances.get(i);
+            EntityMetadata metadata = EntityMetadata.of(instance.getClass());
+
+            if (counts[i] == 0 && metadata.getVersionColumn() != null) {
+                throw new OptimisticLockException(
+                    instance.getClass(), metadata.getId(instance), metadata.getVersionColumn().get(instance)
+                );
+            }
+        }
+    }
+
+    /**
+     * Executes statements grouped by shape and maps the batch update counts back to input order.
+     */
+    private static int[] executeAll(Connection connection, List<? extends BaseModel> instances, List<BoundStatement> statements)
+        throws SQLException
+    {
+        Map<String, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < statements.size(); i++)
+        { groups.computeIfAbsent(statements.get(i).getSql(), sql -> new ArrayList<>()).add(i); }
+
+        int[] counts = new int[statements.size()];
+        for (Map.Entry<String, List<Integer>> group : groups.entrySet()) {
+            String sql = group.getKey();
+            List<Integer> positions = group.getValue();
+            Class<?> entity = instances.get(positions.get(0)).getClass();
+
+            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+                for (int from = 0; from < positions.size(); from += MAX_BATCH_SIZE) {
+                    List<Integer> chunk = positions.subList(from, Math.min(positions.size(), from + MAX_BATCH_SIZE));
+                    for (int position : chunk) {
+                        statements.get(position).bind(stmt);
+                        stmt.addBatch();
+                    }
+
+                    QueryScope.record(entity, sql, "batch of " + chunk.size());
+                    int[] chunkCounts = stmt.executeBatch();
+
+                    for (int i = 0; i < chunk.size(); i++)
+                    { counts[chunk.get(i)] = i < chunkCounts.length ? chunkCounts[i] : Statement.SUCCESS_NO_INFO; }
+                }
+            }
+        }
+
+        return counts;
+    }
+}
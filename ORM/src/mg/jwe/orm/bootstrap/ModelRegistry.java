@@ -0,0 +1,241 @@
+package mg.jwe.orm.bootstrap;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import mg.jwe.orm.annotations.Table;
+import mg.jwe.orm.base.BaseModel;
+import mg.jwe.orm.metadata.ColumnMetadata;
+import mg.jwe.orm.metadata.EntityMetadata;
+import mg.jwe.orm.metadata.ForeignKeyMetadata;
+import mg.jwe.orm.query.UtilQuery;
+
+/**
+ * The entity classes of an application, known at startup instead of discovered on first use.
+ * <p>
+ * Models are listed in the index file {@value #INDEX_RESOURCE}, one fully qualified class name per
+ * line, which the code generator maintains next to the generated models. Reading it avoids scanning
+ * the classpath. A bootstrap then pays, before the first request, the costs that request would pay:
+ * <ul>
+ *   <li>{@link #warmUp()} builds the metadata and converters of every model and runs the statement
+ *       builders once</li>
+ *   <li>{@link #validate(Connection)} checks every mapped column against the database in a single
+ *       metadata query</li>
+ * </ul>
+ * </p>
+ * Example usage:
+ * <pre>
+ * ModelRegistry registry = ModelRegistry.load();
+ * try (Connection connection = pool.getConnection()) {
+ *     registry.bootstrap(connection);
+ * }
+ * </pre>
+ */
+public class ModelRegistry {
+
+    /** Classpath location of the model index. */
+    public static final String INDEX_RESOURCE = "META-INF/jwe-orm/models.idx";
+
+    private final List<Class<? extends BaseModel>> models;
+
+    private ModelRegistry(List<Class<? extends BaseModel>> models) {
+        this.models = Collections.unmodifiableList(models);
+    }
+
+    /**
+     * Reads the model index files visible from the context class loader.
+     *
+     * @return The registry of the listed models.
+     * @throws RuntimeException If an index cannot be read or lists a class that is not a {@link Table} model.
+     */
+    public static ModelRegistry load() {
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        return load(loader != null ? loader : ModelRegistry.class.getClassLoader());
+    }
+
+    /**
+     * Reads the model index files visible from a class loader. Lines starting with '#' are comments.
+     *
+     * @param loader The class loader of the models.
+     * @return The registry of the listed models.
+     * @throws RuntimeException If an index cannot be read or lists a class that is not a {@link Table} model.
+     */
+    @SuppressWarnings("unchecked")
+    public static ModelRegistry load(ClassLoader loader) {
+        Set<String> classNames = new LinkedHashSet<>();
+
+        try {
+            Enumeration<URL> indexes = loader.getResources(INDEX_RESOURCE);
+            while (indexes.hasMoreElements()) {
+                URL index = indexes.nextElement();
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(index.openStream(), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        line = line.trim();
+                        if (!line.isEmpty() && !line.startsWith("#"))
+                        { classNames.add(line); }
+                    }
+                }
+            }
+        }
+
+        catch (IOException e)
+        { throw new RuntimeException("Failed to read model index " + INDEX_RESOURCE, e); }
+
+        List<Class<? extends BaseModel>> models = new ArrayList<>();
+        for (String className : classNames) {
+            Class<?> clazz;
+            try
+            { clazz = Class.forName(className, false, loader); }
+
+            catch (ClassNotFoundException e)
+            { throw new RuntimeException("Model listed in " + INDEX_RESOURCE + " not found: " + className, e); }
+
+            if (!BaseModel.class.isAssignableFrom(clazz) || !clazz.isAnnotationPresent(Table.class))
+            { throw new RuntimeException("Class listed in " + INDEX_RESOURCE + " is not a @Table model: " + className); }
+
+            models.add((Class<? extends BaseModel>) clazz);
+        }
+
+        return new ModelRegistry(models);
+    }
+
+    /**
+     * Builds a registry from explicit classes, for applications without an index file.
+     *
+     * @param models The model classes.
+     * @return The registry.
+     */
+    @SafeVarargs
+    public static ModelRegistry of(Class<? extends BaseModel>... models) {
+        List<Class<? extends BaseModel>> list = new ArrayList<>();
+        for (Class<? extends BaseModel> model : models)
+        { list.add(model); }
+
+        return new ModelRegistry(list);
+    }
+
+    /**
+     * Warms up, then validates every model.
+     *
+     * @param connection A connection of the pool the application uses.
+     * @throws SQLException If the database cannot be queried.
+     * @throws SchemaValidationException If a mapped table or column does not exist.
+     */
+    public void bootstrap(Connection connection) throws SQLException {
+        warmUp();
+        validate(connection);
+    }
+
+    /**
+     * Builds the metadata of every model and of the entities they reference, then builds an insert,
+     * an update and a delete of an empty instance so the statement builders and converters are loaded.
+     * No statement is executed.
+     */
+    public void warmUp() {
+        UtilQuery query = new UtilQuery();
+
+        for (Class<? extends BaseModel> model : models) {
+            EntityMetadata metadata = EntityMetadata.of(model);
+            for (ForeignKeyMetadata foreignKey : metadata.getForeignKeys())
+            { foreignKey.getTargetMetadata(); }
+
+            BaseModel instance = metadata.newInstance();
+            query.buildInsert(instance);
+            if (metadata.getIdColumn() != null) {
+                query.buildUpdate(instance);
+                query.buildDelete(instance);
+            }
+        }
+    }
+
+    /**
+     * Checks that every mapped table has every mapped column and foreign key column.
+     * <p>
+     * All the tables are checked with one information_schema query over the current schema, and
+     * every mismatch is reported at once. Names are compared ignoring case.
+     * </p>
+     *
+     * @param connection The connection to query.
+     * @throws SQLException If the metadata query fails.
+     * @throws SchemaValidationException If a mapped table or column does not exist.
+     */
+    public void validate(Connection connection) throws SQLException {
+        if (models.isEmpty())
+        { return; }
+
+        Set<String> tables = new LinkedHashSet<>();
+        for (Class<? extends BaseModel> model : models)
+        { tables.add(EntityMetadata.of(model).getTableName().toLowerCase(Locale.ROOT)); }
+
+        StringBuilder sql = new StringBuilder(
+            "SELECT table_name, column_name FROM information_schema.columns "
+            + "WHERE table_schema = CURRENT_SCHEMA AND LOWER(table_name) IN ("
+        );
+        for (int i = 0; i < tables.size(); i++)
+        { sql.append(i == 0 ? "?" : ", ?"); }
+        sql.append(")");
+
+        Map<String, Set<String>> existing = new HashMap<>();
+        try (PreparedStatement stmt = connection.prepareStatement(sql.toString())) {
+            int index = 1;
+            for (String table : tables)
+            { stmt.setString(index++, table); }
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    existing.computeIfAbsent(rs.getString(1).toLowerCase(Locale.ROOT), table -> new HashSet<>())
+                        .add(rs.getString(2).toLowerCase(Locale.ROOT));
+                }
+            }
+        }
+
+        List<String> problems = new ArrayList<>();
+        for (Class<? extends BaseModel> model : models) {
+            EntityMetadata metadata = EntityMetadata.of(model);
+            Set<String> columns = existing.get(metadata.getTableName().toLowerCase(Locale.ROOT));
+            if (columns == null) {
+                problems.add(model.getName() + ": table " + metadata.getTableName() + " does not exist");
+                continue;
+            }
+
+            for (ColumnMetadata column : metadata.getColumns()) {
+                if (!columns.contains(column.getColumnName().toLowerCase(Locale.ROOT)))
+                { problems.add(model.getName() + ": column " + metadata.getTableName() + "." + column.getColumnName() + " does not exist"); }
+            }
+
+            for (ColumnMetadata column : metadata.getLobColumns()) {
+                if (!columns.contains(column.getColumnName().toLowerCase(Locale.ROOT)))
+                { problems.add(model.getName() + ": LOB column " + metadata.getTableName() + "." + column.getColumnName() + " does not exist"); }
+            }
+
+            for (ForeignKeyMetadata foreignKey : metadata.getForeignKeys()) {
+                if (!columns.contains(foreignKey.getColumnName().toLowerCase(Locale.ROOT)))
+                { problems.add(model.getName() + ": foreign key column " + metadata.getTableName() + "." + foreignKey.getColumnName() + " does not exist"); }
+            }
+        }
+
+        if (!problems.isEmpty())
+        { throw new SchemaValidationException(problems); }
+    }
+
+    public List<Class<? extends BaseModel>> getModels()
+    { return models; }
+}
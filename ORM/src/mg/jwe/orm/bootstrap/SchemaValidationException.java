@@ -0,0 +1,22 @@
+package mg.jwe.orm.bootstrap;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Thrown by {@link ModelRegistry#validate} when models map tables or columns the database does not have.
+ */
+public class SchemaValidationException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<String> problems;
+
+    public SchemaValidationException(List<String> problems) {
+        super("Models do not match the database schema:\n  " + String.join("\n  ", problems));
+        this.problems = Collections.unmodifiableList(problems);
+    }
+
+    public List<String> getProblems()
+    { return problems; }
+}
@@ -0,0 +1,573 @@
+package mg.jwe.orm.cache;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import mg.jwe.orm.annotations.Indexed;
+import mg.jwe.orm.base.BaseModel;
+import mg.jwe.orm.criteria.Criterion;
+import mg.jwe.orm.invalidation.InvalidationBus;
+import mg.jwe.orm.metadata.ColumnMetadata;
+import mg.jwe.orm.metadata.EntityMetadata;
+import mg.jwe.orm.type.UtilType;
+
+/**
+ * All the rows of an entity table held in memory, with secondary indexes on its {@link Indexed} columns.
+ * <p>
+ * Once a cache is {@link #register(EntityCache) registered}, {@link BaseModel#findByCriteria} and
+ * {@link BaseModel#findByAnyCriteria} answer from memory whenever every criterion hits an index,
+ * and fall back to SQL otherwise. Results are the same as the SQL path: ordered by id, NULL never
+ * matching, numbers compared by value whatever their Java type.
+ * </p>
+ * <p>
+ * {@link BaseModel#save}, {@link BaseModel#update}, {@link BaseModel#delete} and the batched writes
+ * keep registered caches up to date. A write in auto-commit mode reaches the cache at once; a write
+ * inside a transaction is queued on its connection, applied by {@link #commit(Connection)} and
+ * dropped by {@link #rollback(Connection)}, so other threads never find rows that are not
+ * committed. {@link mg.jwe.orm.transaction.UnitOfWork}, the group commit executor, chunk jobs and
+ * the read-write router commit this way; code managing its own transactions calls these methods
+ * instead of {@link Connection#commit()} and {@link Connection#rollback()}, or
+ * {@link #afterCommit(Connection)} and {@link #afterRollback(Connection)} after them.
+ * </p>
+ * <p>
+ * Writes made by other processes are not seen until the cache is {@link #reload(Connection)
+ * reloaded}, or an {@link mg.jwe.orm.invalidation.InvalidationBus} refreshes them. Cached instances
+ * are shared: change them only to write them back. A rollback reads the rows it touched again, which
+ * also undoes such changes.
+ * </p>
+ * Example usage:
+ * <pre>
+ * EntityCache.register(EntityCache.load(connection, Product.class));
+ * Product[] phones = BaseModel.findByCriteria(connection, Product.class,
+ *     new Criterion("category", "=", "phone"),       // &#64;Indexed
+ *     new Criterion("price", "&lt;", 1000));             // &#64;Indexed(sorted = true)
+ * </pre>
+ *
+ * @param <T> The entity type
+ */
+@SuppressWarnings("unchecked")
+public class EntityCache<T extends BaseModel> {
+
+    private static final Map<Class<?>, EntityCache<?>> REGISTRY = new ConcurrentHashMap<>();
+
+    /** Writes of uncommitted transactions, by connection; guarded by itself. */
+    private static final Map<Connection, List<PendingWrite>> PENDING = new WeakHashMap<>();
+
+    private final Class<T> entityClass;
+    private final EntityMetadata metadata;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final TreeMap<Object, T> entities = new TreeMap<>();
+    private final Map<String, SecondaryIndex> indexes = new HashMap<>();
+    /** Indexed values of each cached entity, as last indexed, to unindex them on change. */
+    private final Map<Object, Object[]> indexedValues = new HashMap<>();
+
+    private EntityCache(Class<T> entityClass) {
+        this.entityClass = entityClass;
+        this.metadata = EntityMetadata.of(entityClass);
+
+        for (ColumnMetadata column : metadata.getColumns()) {
+            Indexed indexed = column.getField().getAnnotation(Indexed.class);
+            if (indexed != null) {
+                SecondaryIndex index = indexed.sorted()
+                    ? new SecondaryIndex.SortedIndex(column)
+                    : new SecondaryIndex.HashIndex(column);
+                indexes.put(column.getColumnName().toLowerCase(Locale.ROOT), index);
+            }
+        }
+    }
+
+    /**
+     * Loads every row of an entity table into a new cache.
+     *
+     * @param connection The connection to read with.
+     * @param clazz The entity class, with an id.
+     * @return The loaded cache, not registered yet.
+     * @throws SQLException If the table cannot be read.
+     */
+    public static <T extends BaseModel> EntityCache<T> load(Connection connection, Class<T> clazz)
+        throws SQLException
+    {
+        EntityCache<T> cache = new EntityCache<>(clazz);
+        cache.reload(connection);
+        return cache;
+    }
+
+    /**
+     * Builds a cache from entities read elsewhere, such as a snapshot file.
+     *
+     * @param clazz The entity class, with an id.
+     * @param rows The entities.
+     * @return The cache, not registered yet.
+     */
+    static <T extends BaseModel> EntityCache<T> of(Class<T> clazz, List<T> rows) {
+        EntityCache<T> cache = new EntityCache<>(clazz);
+        for (T row : rows)
+        { cache.putUnlocked(row); }
+
+        return cache;
+    }
+
+    /**
+     * Makes a cache answer the queries and receive the writes of its entity class.
+     *
+     * @param cache The cache to register, replacing any previous cache of the class.
+     */
+    public static void register(EntityCache<?> cache)
+    { REGISTRY.put(cache.entityClass, cache); }
+
+    /**
+     * Stops using the cache of an entity class.
+     *
+     * @param clazz The entity class.
+     */
+    public static void unregister(Class<?> clazz)
+    { REGISTRY.remove(clazz); }
+
+    /**
+     * Gets the registered cache of an entity class.
+     *
+     * @param clazz The entity class.
+     * @return The cache, or null if the class is not cached.
+     */
+    public static <T extends BaseModel> EntityCache<T> forClass(Class<T> clazz)
+    { return (EntityCache<T>) REGISTRY.get(clazz); }
+
+    /**
+     * Gets the registered caches.
+     *
+     * @return A copy of the registered caches.
+     */
+    public static List<EntityCache<?>> registered()
+    { return new ArrayList<>(REGISTRY.values()); }
+
+    /**
+     * Replaces the content of the cache with the current rows of the table.
+     *
+     * @param connection The connection to read with.
+     * @throws SQLException If the table cannot be read.
+     */
+    public void reload(Connection connection) throws SQLException {
+        T[] rows = BaseModel.getAll(connection, entityClass);
+
+        lock.writeLock().lock();
+        try {
+            entities.clear();
+            indexedValues.clear();
+            for (SecondaryIndex index : indexes.values())
+            { index.clear(); }
+
+            for (T row : rows)
+            { putUnlocked(row); }
+        }
+
+        finally
+        { lock.writeLock().unlock(); }
+    }
+
+    /**
+     * Reads one row again, after another process wrote it: the entity is replaced, or removed if
+     * the row no longer exists.
+     *
+     * @param connection The connection to read with.
+     * @param id The id of the row, converted to the id type.
+     * @throws SQLException If the row cannot be read.
+     */
+    public void refresh(Connection connection, Object id) throws SQLException {
+        Object key = new UtilType().convertToFieldType(id, metadata.getIdColumn().getField().getType());
+        T row = BaseModel.findById(connection, entityClass, key);
+
+        lock.writeLock().lock();
+        try {
+            unindex(key);
+            entities.remove(key);
+            if (row != null)
+            { putUnlocked(row); }
+        }
+
+        finally
+        { lock.writeLock().unlock(); }
+    }
+
+    /**
+     * Reads many rows again, with one query per chunk of ids: each entity is replaced, or removed if
+     * its row no longer exists.
+     *
+     * @param connection The connection to read with.
+     * @param ids The ids of the rows, converted to the id type.
+     * @throws SQLException If the rows cannot be read.
+     * @see BaseModel#findAllByIds(Connection, Class, Collection)
+     */
+    public void refreshAll(Connection connection, Collection<?> ids) throws SQLException {
+        Class<?> idType = metadata.getIdColumn().getField().getType();
+        List<Object> keys = new ArrayList<>();
+        for (Object id : ids)
+        { keys.add(new UtilType().convertToFieldType(id, idType)); }
+
+        Map<Object, T> rows = BaseModel.findAllByIds(connection, entityClass, keys);
+
+        lock.writeLock().lock();
+        try {
+            for (Object key : keys) {
+                unindex(key);
+                entities.remove(key);
+                T row = rows.get(key);
+                if (row != null)
+                { putUnlocked(row); }
+            }
+        }
+
+        finally
+        { lock.writeLock().unlock(); }
+    }
+
+    /**
+     * Tells whether every criterion can be answered by an index.
+     *
+     * @param criteria The criteria of a query.
+     * @return True if {@link #find(Criterion[], boolean)} can answer them.
+     */
+    public boolean canAnswer(Criterion[] criteria) {
+        for (Criterion criterion : criteria) {
+            SecondaryIndex index = indexes.get(criterion.getColumn().toLowerCase(Locale.ROOT));
+            if (index == null || !index.supports(SecondaryIndex.normalizeOperator(criterion.getOperator()), criterion.getValue()))
+            { return false; }
+        }
+
+        return true;
+    }
+
+    /**
+     * Evaluates criteria against the indexes.
+     *
+     * @param criteria Criteria for which {@link #canAnswer(Criterion[])} is true.
+     * @param matchAll True to combine the criteria with AND, false for OR.
+     * @return The matching entities, ordered by id.
+     */
+    public List<T> find(Criterion[] criteria, boolean matchAll) {
+        lock.readLock().lock();
+        try {
+            if (criteria.length == 0)
+            { return new ArrayList<>(entities.values()); }
+
+            Set<Object> ids = null;
+            for (Criterion criterion : criteria) {
+                SecondaryIndex index = indexes.get(criterion.getColumn().toLowerCase(Locale.ROOT));
+                Set<Object> matches = index.lookup(
+                    SecondaryIndex.normalizeOperator(criterion.getOperator()), criterion.getValue(), entities.keySet()
+                );
+
+                if (ids == null)
+                { ids = new HashSet<>(matches); }
+
+                else if (matchAll)
+                { ids.retainAll(matches); }
+
+                else
+                { ids.addAll(matches); }
+            }
+
+            List<Object> ordered = new ArrayList<>(ids);
+            ordered.sort((a, b) -> ((Comparable<Object>) a).compareTo(b));
+
+            List<T> results = new ArrayList<>(ordered.size());
+            for (Object id : ordered)
+            { results.add(entities.get(id)); }
+
+            return results;
+        }
+
+        finally
+        { lock.readLock().unlock(); }
+    }
+
+    /**
+     * Gets a cached entity by id.
+     *
+     * @param id The id.
+     * @return The entity, or null if it is not cached.
+     */
+    public T get(Object id) {
+        Object key = new UtilType().convertToFieldType(id, metadata.getIdColumn().getField().getType());
+
+        lock.readLock().lock();
+        try
+        { return entities.get(key); }
+
+        finally
+        { lock.readLock().unlock(); }
+    }
+
+    /**
+     * Adds or re-indexes an entity after it was written.
+     *
+     * @param instance The saved or updated entity.
+     */
+    public void put(T instance) {
+        lock.writeLock().lock();
+        try
+        { putUnlocked(instance); }
+
+        finally
+        { lock.writeLock().unlock(); }
+    }
+
+    /**
+     * Removes an entity after it was deleted.
+     *
+     * @param instance The deleted entity.
+     */
+    public void remove(T instance) {
+        Object id = metadata.getId(instance);
+        if (id == null)
+        { return; }
+
+        lock.writeLock().lock();
+        try {
+            unindex(id);
+            entities.remove(id);
+        }
+
+        finally
+        { lock.writeLock().unlock(); }
+    }
+
+    private void putUnlocked(T instance) {
+        Object id = metadata.getId(instance);
+        if (id == null)
+        { return; }
+
+        unindex(id);
+
+        Object[] values = new Object[indexes.size()];
+        int i = 0;
+        for (SecondaryIndex index : indexes.values()) {
+            values[i] = index.getColumn().get(instance);
+            index.add(values[i], id);
+            i++;
+        }
+
+        entities.put(id, instance);
+        indexedValues.put(id, values);
+    }
+
+    private void unindex(Object id) {
+        Object[] previous = indexedValues.remove(id);
+        if (previous == null)
+        { return; }
+
+        int i = 0;
+        for (SecondaryIndex index : indexes.values())
+        { index.remove(previous[i++], id); }
+    }
+
+    /**
+     * Writes an entity through to the registered cache of its class, if any, at once in auto-commit
+     * mode and on commit otherwise.
+     *
+     * @param connection The connection the entity was written with.
+     * @param instance The entity just saved or updated.
+     * @throws SQLException If the transaction mode of the connection cannot be read.
+     */
+    public static void afterWrite(Connection connection, BaseModel instance) throws SQLException
+    { record(connection, instance, Change.WRITE); }
+
+    /**
+     * Removes an entity from the registered cache of its class, if any, at once in auto-commit mode
+     * and on commit otherwise.
+     *
+     * @param connection The connection the entity was deleted with.
+     * @param instance The entity just deleted.
+     * @throws SQLException If the transaction mode of the connection cannot be read.
+     */
+    public static void afterDelete(Connection connection, BaseModel instance) throws SQLException
+    { record(connection, instance, Change.DELETE); }
+
+    /**
+     * Reads the row of an entity again into the registered cache of its class, if any, at once in
+     * auto-commit mode and on commit otherwise. For writes leaving the row partly unknown, such as
+     * upserts skipping null columns.
+     *
+     * @param connection The connection the entity was written with.
+     * @param instance The entity just written.
+     * @throws SQLException If the row cannot be read again.
+     */
+    public static void afterUpsert(Connection connection, BaseModel instance) throws SQLException
+    { record(connection, instance, Change.REREAD); }
+
+    private static void record(Connection connection, BaseModel instance, Change change) throws SQLException {
+        EntityCache<BaseModel> cache = (EntityCache<BaseModel>) REGISTRY.get(instance.getClass());
+        if (cache == null)
+        { return; }
+
+        PendingWrite write = new PendingWrite(instance, cache.metadata.getId(instance), change);
+        if (connection.getAutoCommit()) {
+            cache.apply(connection, write);
+            return;
+        }
+
+        synchronized (PENDING)
+        { PENDING.computeIfAbsent(connection, key -> new ArrayList<>()).add(write); }
+    }
+
+    private void apply(Connection connection, PendingWrite write) throws SQLException {
+        switch (write.change) {
+            case WRITE:
+                put((T) write.instance);
+                break;
+            case DELETE:
+                remove((T) write.instance);
+                break;
+            default:
+                if (write.id != null)
+                { refresh(connection, write.id); }
+        }
+    }
+
+    /**
+     * Commits a connection, then applies its queued writes to the caches. The invalidation messages
+     * of the transaction are sent on the connection just before, merged by table.
+     *
+     * @param connection The connection in a transaction.
+     * @throws SQLException If the messages or the commit fail, the writes stay queued for the
+     *         rollback; or if a committed row cannot be read again, its cache is then unregistered.
+     */
+    public static void commit(Connection connection) throws SQLException {
+        InvalidationBus.beforeCommit(connection);
+        connection.commit();
+        afterCommit(connection);
+    }
+
+    /**
+     * Applies the queued writes of a connection to the caches, once its transaction committed.
+     * A cache whose committed rows cannot be read again is unregistered, rather than kept wrong.
+     * Invalidation messages of the transaction not sent yet are queued.
+     *
+     * @param connection The connection just committed.
+     * @throws SQLException If a committed row cannot be read again.
+     */
+    public static void afterCommit(Connection connection) throws SQLException {
+        InvalidationBus.afterCommit(connection);
+
+        SQLException failure = null;
+        for (PendingWrite write : takePending(connection)) {
+            EntityCache<BaseModel> cache = (EntityCache<BaseModel>) REGISTRY.get(write.instance.getClass());
+            if (cache == null)
+            { continue; }
+
+            try
+            { cache.apply(connection, write); }
+
+            catch (SQLException e) {
+                REGISTRY.remove(cache.entityClass, cache);
+                failure = e;
+            }
+        }
+
+        if (failure != null)
+        { throw failure; }
+    }
+
+    /**
+     * Rolls a connection back, then drops its queued writes.
+     *
+     * @param connection The connection in a transaction.
+     * @throws SQLException If the rollback fails.
+     */
+    public static void rollback(Connection connection) throws SQLException {
+        connection.rollback();
+        afterRollback(connection);
+    }
+
+    /**
+     * Drops the queued writes of a connection, once its transaction rolled back, and reads the
+     * cached rows they touched again: a cached instance may have been changed in memory before it
+     * was written. A cache whose rows cannot be read again is unregistered, rather than kept wrong.
+     * Invalidation messages of the transaction are dropped.
+     *
+     * @param connection The connection just rolled back.
+     */
+    public static void afterRollback(Connection connection) {
+        InvalidationBus.afterRollback(connection);
+
+        for (PendingWrite write : takePending(connection)) {
+            EntityCache<BaseModel> cache = (EntityCache<BaseModel>) REGISTRY.get(write.instance.getClass());
+            if (cache == null || write.id == null || cache.get(write.id) == null)
+            { continue; }
+
+            try
+            { cache.refresh(connection, write.id); }
+
+            catch (SQLException | RuntimeException e)
+            { REGISTRY.remove(cache.entityClass, cache); }
+        }
+    }
+
+    private static List<PendingWrite> takePending(Connection connection) {
+        List<PendingWrite> writes;
+        synchronized (PENDING)
+        { writes = PENDING.remove(connection); }
+
+        return writes == null ? new ArrayList<>() : writes;
+    }
+
+    /**
+     * Gets every cached entity.
+     *
+     * @return A copy of the entities, ordered by id.
+     */
+    List<T> entities() {
+        lock.readLock().lock();
+        try
+        { return new ArrayList<>(entities.values()); }
+
+        finally
+        { lock.readLock().unlock(); }
+    }
+
+    /**
+     * Gets the number of cached entities.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try
+        { return entities.size(); }
+
+        finally
+        { lock.readLock().unlock(); }
+    }
+
+    public Class<T> getEntityClass()
+    { return entityClass; }
+
+    /**
+     * A write waiting for the commit of its transaction, with the id it had when written.
+     */
+    private static final class PendingWrite {
+
+        private final BaseModel instance;
+        private final Object id;
+        private final Change change;
+
+        PendingWrite(BaseModel instance, Object id, Change change) {
+            this.instance = instance;
+            this.id = id;
+            this.change = change;
+        }
+    }
+
+    private enum Change { WRITE, DELETE, REREAD }
+}
@@ -0,0 +1,644 @@
+package mg.jwe.orm.cache;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import mg.jwe.orm.base.BaseModel;
+import mg.jwe.orm.lob.LobHandle;
+import mg.jwe.orm.metadata.ColumnMetadata;
+import mg.jwe.orm.metadata.EntityMetadata;
+import mg.jwe.orm.metadata.ForeignKeyMetadata;
+
+/**
+ * Entity caches persisted to disk, so a restarted instance comes up with warm caches instead of
+ * reading every cached table again.
+ * <p>
+ * Each table is written to its own file, {@code <table>.snap} in the snapshot directory, in a compact
+ * binary form: a header with the entity class, the mapped columns and the change stamp of the table
+ * when its rows were read, then the typed values of every row. {@link #restore(Connection, Class)}
+ * maps the file with a read-only {@link FileChannel} and decodes it only if the stamp still matches
+ * the table; a stale, missing or unreadable file is replaced by reading the table. Why a file was
+ * unreadable is kept as the {@link #getLastFailure() last failure} and handed to the
+ * {@link #setFailureHandler(Consumer) failure handler}.
+ * </p>
+ * <p>
+ * The default change stamp is {@code COUNT(*)}, {@code MAX(id)} and, for {@link
+ * mg.jwe.orm.annotations.Version versioned} entities, {@code SUM(version)}: it sees inserts, deletes
+ * and versioned updates. It misses in-place updates of a table without a version column, so such a
+ * table is always read from the database unless it has a {@link #setStampQuery(Class, String) stamp
+ * query} of its own, such as a last-modified column or a trigger-maintained counter. The stamp is
+ * always read before the rows, so a write racing the read makes the file stale rather than wrong.
+ * </p>
+ * <p>
+ * Foreign keys are restored from the registered cache of the referenced class when it holds the
+ * row, and as references holding only their id otherwise; restore referenced tables first. LOB
+ * columns are not written: restored entities hold stored {@link mg.jwe.orm.lob.LobHandle handles}
+ * and read them on demand. Fields of a type the file format does not know make the table fall
+ * back to a database read, and no file is written for it: {@link #save(Connection, EntityCache)}
+ * returns false.
+ * </p>
+ * Example usage:
+ * <pre>
+ * EntityCacheFile snapshots = new EntityCacheFile(Paths.get("/var/cache/app"));
+ * snapshots.restoreAll(connection, Category.class, Product.class);   // registered, warm
+ * ...
+ * snapshots.saveAll(connection);                                      // on shutdown
+ * </pre>
+ */
+public class EntityCacheFile {
+
+    private static final int MAGIC = 0x4A574543;       // "JWEC"
+    private static final int FORMAT_VERSION = 1;
+
+    private static final byte NULL = 0;
+    private static final byte INT = 1;
+    private static final byte LONG = 2;
+    private static final byte SHORT = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte FLOAT = 5;
+    private static final byte BOOLEAN = 6;
+    private static final byte STRING = 7;
+    private static final byte BIG_DECIMAL = 8;
+    private static final byte BIG_INTEGER = 9;
+    private static final byte TIMESTAMP = 10;
+    private static final byte SQL_DATE = 11;
+    private static final byte SQL_TIME = 12;
+    private static final byte LOCAL_DATE = 13;
+    private static final byte LOCAL_DATE_TIME = 14;
+    private static final byte LOCAL_TIME = 15;
+    private static final byte OFFSET_DATE_TIME = 16;
+    private static final byte INSTANT = 17;
+    private static final byte UTIL_DATE = 18;
+    private static final byte UUID_VALUE = 19;
+    private static final byte BYTES = 20;
+    private static final byte ENUM = 21;
+
+    private final Path directory;
+    private final Map<Class<?>, String> stampQueries = new ConcurrentHashMap<>();
+    private volatile Exception lastFailure;
+    private volatile Consumer<? super Exception> failureHandler;
+
+    /**
+     * @param directory The directory of the snapshot files, created on first save
+     */
+    public EntityCacheFile(Path directory)
+    { this.directory = directory; }
+
+    /**
+     * Restores the caches of several entity classes, in order, and registers them.
+     *
+     * @param connection The connection to read stamps and stale tables with.
+     * @param classes The entity classes, referenced classes first.
+     * @return The number of tables read from the database because their file was stale or missing.
+     * @throws SQLException If a stamp or a table cannot be read.
+     */
+    @SafeVarargs
+    public final int restoreAll(Connection connection, Class<? extends BaseModel>... classes) throws SQLException {
+        int refetched = 0;
+        for (Class<? extends BaseModel> clazz : classes) {
+            Restored<?> restored = restoreCache(connection, clazz);
+            EntityCache.register(restored.cache);
+            if (!restored.fromFile)
+            { refetched++; }
+        }
+
+        return refetched;
+    }
+
+    /**
+     * Builds the cache of an entity class from its snapshot file if the table has not changed since
+     * the file was written, or from the table otherwise, writing a new file.
+     *
+     * @param connection The connection to read the stamp and, if stale, the table with.
+     * @param clazz The entity class, with an id.
+     * @return The cache, not registered yet.
+     * @throws SQLException If the stamp or the table cannot be read.
+     */
+    public <T extends BaseModel> EntityCache<T> restore(Connection connection, Class<T> clazz) throws SQLException
+    { return restoreCache(connection, clazz).cache; }
+
+    private <T extends BaseModel> Restored<T> restoreCache(Connection connection, Class<T> clazz) throws SQLException {
+        EntityMetadata metadata = EntityMetadata.of(clazz);
+        if (!hasReliableStamp(metadata))
+        { return new Restored<>(EntityCache.load(connection, clazz), false); }
+
+        String stamp = stamp(connection, metadata);
+
+        List<T> rows = read(metadata, stamp);
+        if (rows != null)
+        { return new Restored<>(EntityCache.of(clazz, rows), true); }
+
+        EntityCache<T> cache = EntityCache.load(connection, clazz);
+        write(metadata, stamp, cache.entities());
+        return new Restored<>(cache, false);
+    }
+
+    /**
+     * Writes the snapshot files of every registered cache.
+     *
+     * @param connection The connection to read the stamps and the tables with.
+     * @throws SQLException If a stamp or a table cannot be read.
+     */
+    public void saveAll(Connection connection) throws SQLException {
+        for (EntityCache<?> cache : EntityCache.registered())
+        { save(connection, cache); }
+    }
+
+    /**
+     * Writes the snapshot file of a cache. The cache is reloaded right after the stamp is read, so
+     * the file holds no row older than the stamp, including the writes of other processes.
+     *
+     * @param connection The connection to read the stamp and the table with.
+     * @param cache The cache to persist.
+     * @return False if the entity has a field the file format cannot hold, or has no reliable change
+     *         stamp, and no file was written.
+     * @throws SQLException If the stamp or the table cannot be read.
+     */
+    public boolean save(Connection connection, EntityCache<?> cache) throws SQLException {
+        EntityMetadata metadata = EntityMetadata.of(cache.getEntityClass());
+        if (!hasReliableStamp(metadata))
+        { return false; }
+
+        String stamp = stamp(connection, metadata);
+        cache.reload(connection);
+
+        return write(metadata, stamp, cache.entities());
+    }
+
+    /**
+     * Deletes the snapshot file of an entity class, if any.
+     *
+     * @param clazz The entity class.
+     */
+    public void delete(Class<? extends BaseModel> clazz) {
+        try
+        { Files.deleteIfExists(fileOf(EntityMetadata.of(clazz))); }
+
+        catch (IOException e)
+        { throw new RuntimeException("Failed to delete the snapshot of " + clazz.getName(), e); }
+    }
+
+    /**
+     * Replaces the default change stamp of a table.
+     *
+     * @param clazz The entity class.
+     * @param sql A query returning one row whose columns change whenever the table does.
+     */
+    public void setStampQuery(Class<? extends BaseModel> clazz, String sql)
+    { stampQueries.put(clazz, sql); }
+
+    /**
+     * Gets why the last unreadable snapshot file was ignored.
+     *
+     * @return The exception, or null if no file was unreadable
+     */
+    public Exception getLastFailure()
+    { return lastFailure; }
+
+    /**
+     * @param failureHandler Receives why unreadable snapshot files are ignored, on the restoring thread; null for none
+     */
+    public void setFailureHandler(Consumer<? super Exception> failureHandler)
+    { this.failureHandler = failureHandler; }
+
+    /**
+     * Tells whether the stamp of a table sees every write: the default stamp misses the in-place
+     * updates of an unversioned table.
+     */
+    private boolean hasReliableStamp(EntityMetadata metadata)
+    { return stampQueries.containsKey(metadata.getEntityClass()) || metadata.getVersionColumn() != null; }
+
+    /**
+     * Reads the change stamp of a table: the columns of the stamp query, joined.
+     */
+    private String stamp(Connection connection, EntityMetadata metadata) throws SQLException {
+        String sql = stampQueries.get(metadata.getEntityClass());
+        if (sql == null) {
+            String idColumn = metadata.getIdColumnName();
+            ColumnMetadata version = metadata.getVersionColumn();
+            sql = "SELECT COUNT(*), MAX(" + idColumn + ")"
+                + (version != null ? ", SUM(" + version.getColumnName() + ")" : "")
+                + " FROM " + metadata.getTableName();
+        }
+
+        StringBuilder stamp = new StringBuilder();
+        try (PreparedStatement stmt = connection.prepareStatement(sql);
+             ResultSet rs = stmt.executeQuery())
+        {
+            if (rs.next()) {
+                int columns = rs.getMetaData().getColumnCount();
+                for (int i = 1; i <= columns; i++)
+                { stamp.append(i == 1 ? "" : "|").append(rs.getString(i)); }
+            }
+        }
+
+        return stamp.toString();
+    }
+
+    /**
+     * Describes the mapped columns, so a file written before a model change is not decoded.
+     */
+    private static String layout(EntityMetadata metadata) {
+        StringBuilder layout = new StringBuilder(metadata.getEntityClass().getName());
+        for (ColumnMetadata column : metadata.getColumns())
+        { layout.append(';').append(column.getColumnName()).append(':').append(column.getField().getType().getName()); }
+
+        for (ForeignKeyMetadata foreignKey : metadata.getForeignKeys())
+        { layout.append(";fk ").append(foreignKey.getColumnName()).append(':').append(foreignKey.getTargetType().getName()); }
+
+        return layout.toString();
+    }
+
+    private Path fileOf(EntityMetadata metadata)
+    { return directory.resolve(metadata.getTableName() + ".snap"); }
+
+    // ---------------------------------------------------------------- writing
+
+    private boolean write(EntityMetadata metadata, String stamp, List<? extends BaseModel> rows) {
+        for (ColumnMetadata column : metadata.getColumns()) {
+            if (!isSupported(column.getField().getType()))
+            { return false; }
+        }
+
+        for (ForeignKeyMetadata foreignKey : metadata.getForeignKeys()) {
+            if (!isSupported(foreignKey.getTargetMetadata().getIdColumn().getField().getType()))
+            { return false; }
+        }
+
+        Path file = fileOf(metadata);
+        Path temporary = null;
+        try {
+            Files.createDirectories(directory);
+            temporary = Files.createTempFile(directory, metadata.getTableName(), ".tmp");
+
+            try (OutputStream stream = Files.newOutputStream(temporary);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 64 * 1024)))
+            {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                writeString(out, layout(metadata));
+                writeString(out, stamp);
+                out.writeInt(rows.size());
+
+                for (BaseModel row : rows) {
+                    for (ColumnMetadata column : metadata.getColumns())
+                    { writeValue(out, column.get(row)); }
+
+                    for (ForeignKeyMetadata foreignKey : metadata.getForeignKeys())
+                    { writeValue(out, foreignKey.getReferencedId(row)); }
+                }
+            }
+
+            // readers never see a half-written file
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            temporary = null;
+            return true;
+        }
+
+        catch (IOException e)
+        { throw new RuntimeException("Failed to write the snapshot of " + metadata.getTableName() + " to " + file, e); }
+
+        finally {
+            // a failed write or move leaves no temporary file behind
+            if (temporary != null) {
+                try
+                { Files.deleteIfExists(temporary); }
+
+                catch (IOException ignored)
+                { }
+            }
+        }
+    }
+
+    private static boolean isSupported(Class<?> type) {
+        return type.isPrimitive() || type.isEnum() || type == byte[].class
+            || Number.class.isAssignableFrom(type) && (type.getName().startsWith("java.lang.") || type == BigDecimal.class || type == BigInteger.class)
+            || type == Boolean.class || type == String.class || type == UUID.class
+            || java.util.Date.class.isAssignableFrom(type)
+            || type == LocalDate.class || type == LocalDateTime.class || type == LocalTime.class
+            || type == OffsetDateTime.class || type == Instant.class;
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null)
+        { out.writeByte(NULL); }
+
+        else if (value instanceof Integer) {
+            out.writeByte(INT);
+            out.writeInt((Integer) value);
+        }
+
+        else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        }
+
+        else if (value instanceof Short) {
+            out.writeByte(SHORT);
+            out.writeShort((Short) value);
+        }
+
+        else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        }
+
+        else if (value instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) value);
+        }
+
+        else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        }
+
+        else if (value instanceof String) {
+            out.writeByte(STRING);
+            writeString(out, (String) value);
+        }
+
+        else if (value instanceof BigDecimal) {
+            out.writeByte(BIG_DECIMAL);
+            writeString(out, value.toString());
+        }
+
+        else if (value instanceof BigInteger) {
+            out.writeByte(BIG_INTEGER);
+            writeString(out, value.toString());
+        }
+
+        else if (value instanceof Timestamp) {
+            out.writeByte(TIMESTAMP);
+            out.writeLong(((Timestamp) value).getTime());
+            out.writeInt(((Timestamp) value).getNanos());
+        }
+
+        else if (value instanceof Date) {
+            out.writeByte(SQL_DATE);
+            out.writeLong(((Date) value).getTime());
+        }
+
+        else if (value instanceof Time) {
+            out.writeByte(SQL_TIME);
+            out.writeLong(((Time) value).getTime());
+        }
+
+        else if (value instanceof java.util.Date) {
+            out.writeByte(UTIL_DATE);
+            out.writeLong(((java.util.Date) value).getTime());
+        }
+
+        else if (value instanceof LocalDate) {
+            out.writeByte(LOCAL_DATE);
+            out.writeLong(((LocalDate) value).toEpochDay());
+        }
+
+        else if (value instanceof LocalDateTime) {
+            out.writeByte(LOCAL_DATE_TIME);
+            out.writeLong(((LocalDateTime) value).toLocalDate().toEpochDay());
+            out.writeLong(((LocalDateTime) value).toLocalTime().toNanoOfDay());
+        }
+
+        else if (value instanceof LocalTime) {
+            out.writeByte(LOCAL_TIME);
+            out.writeLong(((LocalTime) value).toNanoOfDay());
+        }
+
+        else if (value instanceof OffsetDateTime) {
+            out.writeByte(OFFSET_DATE_TIME);
+            writeString(out, value.toString());
+        }
+
+        else if (value instanceof Instant) {
+            out.writeByte(INSTANT);
+            out.writeLong(((Instant) value).getEpochSecond());
+            out.writeInt(((Instant) value).getNano());
+        }
+
+        else if (value instanceof UUID) {
+            out.writeByte(UUID_VALUE);
+            out.writeLong(((UUID) value).getMostSignificantBits());
+            out.writeLong(((UUID) value).getLeastSignificantBits());
+        }
+
+        else if (value instanceof byte[]) {
+            out.writeByte(BYTES);
+            out.writeInt(((byte[]) value).length);
+            out.write((byte[]) value);
+        }
+
+        else if (value instanceof Enum) {
+            out.writeByte(ENUM);
+            writeString(out, ((Enum<?>) value).name());
+        }
+
+        else
+        { throw new IOException("Unsupported snapshot value of type " + value.getClass().getName()); }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    // ---------------------------------------------------------------- reading
+
+    /**
+     * Decodes the snapshot file of a table if it matches the stamp.
+     *
+     * @return The entities, or null if the file is missing, stale or unreadable.
+     */
+    private <T extends BaseModel> List<T> read(EntityMetadata metadata, String stamp) {
+        Path file = fileOf(metadata);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION)
+            { return null; }
+
+            if (!readString(buffer).equals(layout(metadata)) || !readString(buffer).equals(stamp))
+            { return null; }
+
+            int count = buffer.getInt();
+            List<T> rows = new ArrayList<>(count);
+            List<ColumnMetadata> columns = metadata.getColumns();
+            List<ForeignKeyMetadata> foreignKeys = metadata.getForeignKeys();
+
+            for (int i = 0; i < count; i++) {
+                T instance = metadata.newInstance();
+
+                for (ColumnMetadata column : columns)
+                { column.set(instance, readValue(buffer, column.getField().getType())); }
+
+                for (ForeignKeyMetadata foreignKey : foreignKeys) {
+                    Object referencedId = readValue(buffer, foreignKey.getTargetMetadata().getIdColumn().getField().getType());
+                    if (referencedId != null)
+                    { foreignKey.set(instance, reference(foreignKey, referencedId)); }
+                }
+
+                Object id = metadata.getId(instance);
+                for (ColumnMetadata lob : metadata.getLobColumns()) {
+                    if (id != null)
+                    { lob.set(instance, LobHandle.stored(metadata, lob, id)); }
+                }
+
+                rows.add(instance);
+            }
+
+            return rows;
+        }
+
+        catch (NoSuchFileException e)
+        { return null; }
+
+        catch (IOException | RuntimeException e) {
+            fail(new RuntimeException("Ignoring the unreadable snapshot " + file, e));
+            return null;
+        }
+    }
+
+    private void fail(Exception e) {
+        lastFailure = e;
+
+        Consumer<? super Exception> handler = failureHandler;
+        if (handler == null)
+        { return; }
+
+        try
+        { handler.accept(e); }
+
+        catch (RuntimeException ignored)
+        { }
+    }
+
+    /**
+     * Gets the entity a restored foreign key points to: the cached one when its class is cached.
+     */
+    private static Object reference(ForeignKeyMetadata foreignKey, Object referencedId) {
+        EntityCache<? extends BaseModel> targetCache = EntityCache.forClass(foreignKey.getTargetType());
+        if (targetCache != null) {
+            Object cached = targetCache.get(referencedId);
+            if (cached != null)
+            { return cached; }
+        }
+
+        EntityMetadata target = foreignKey.getTargetMetadata();
+        Object reference = target.newInstance();
+        target.setId(reference, referencedId);
+        return reference;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static Object readValue(ByteBuffer buffer, Class<?> type) {
+        byte tag = buffer.get();
+
+        switch (tag) {
+            case NULL:
+                return null;
+            case INT:
+                return buffer.getInt();
+            case LONG:
+                return buffer.getLong();
+            case SHORT:
+                return buffer.getShort();
+            case DOUBLE:
+                return buffer.getDouble();
+            case FLOAT:
+                return buffer.getFloat();
+            case BOOLEAN:
+                return buffer.get() != 0;
+            case STRING:
+                return readString(buffer);
+            case BIG_DECIMAL:
+                return new BigDecimal(readString(buffer));
+            case BIG_INTEGER:
+                return new BigInteger(readString(buffer));
+            case TIMESTAMP: {
+                Timestamp timestamp = new Timestamp(buffer.getLong());
+                timestamp.setNanos(buffer.getInt());
+                return timestamp;
+            }
+            case SQL_DATE:
+                return new Date(buffer.getLong());
+            case SQL_TIME:
+                return new Time(buffer.getLong());
+            case UTIL_DATE:
+                return new java.util.Date(buffer.getLong());
+            case LOCAL_DATE:
+                return LocalDate.ofEpochDay(buffer.getLong());
+            case LOCAL_DATE_TIME:
+                return LocalDateTime.of(LocalDate.ofEpochDay(buffer.getLong()), LocalTime.ofNanoOfDay(buffer.getLong()));
+            case LOCAL_TIME:
+                return LocalTime.ofNanoOfDay(buffer.getLong());
+            case OFFSET_DATE_TIME:
+                return OffsetDateTime.parse(readString(buffer));
+            case INSTANT:
+                return Instant.ofEpochSecond(buffer.getLong(), buffer.getInt());
+            case UUID_VALUE:
+                return new UUID(buffer.getLong(), buffer.getLong());
+            case BYTES: {
+                byte[] bytes = new byte[buffer.getInt()];
+                buffer.get(bytes);
+                return bytes;
+            }
+            case ENUM:
+                return Enum.valueOf((Class<? extends Enum>) type, readString(buffer));
+            default:
+                throw new IllegalStateException("Corrupt snapshot: unknown value tag " + tag);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A restored cache, and whether it came from its file.
+     */
+    private static final class Restored<T extends BaseModel> {
+
+        private final EntityCache<T> cache;
+        private final boolean fromFile;
+
+        Restored(EntityCache<T> cache, boolean fromFile) {
+            this.cache = cache;
+            this.fromFile = fromFile;
+        }
+    }
+}
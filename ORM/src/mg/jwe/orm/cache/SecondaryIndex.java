@@ -0,0 +1,288 @@
+package mg.jwe.orm.cache;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+import mg.jwe.orm.metadata.ColumnMetadata;
+
+/**
+ * In-memory index of the ids of cached entities by the value of one column.
+ * <p>
+ * Values are indexed as keys normalized so that they compare like SQL values: every number becomes
+ * a {@link BigDecimal} without trailing zeros, so an Integer criterion matches a long or a NUMERIC
+ * column. Rows whose column is NULL are never returned, as no SQL comparison matches NULL.
+ * </p>
+ */
+abstract class SecondaryIndex {
+
+    /** Marks a criterion value the index cannot compare like the database would. */
+    private static final Object UNSUPPORTED = new Object();
+
+    private final ColumnMetadata column;
+    private final Class<?> valueType;
+    private final Set<Object> nullIds = new HashSet<>();
+
+    SecondaryIndex(ColumnMetadata column) {
+        this.column = column;
+        this.valueType = column.getConverter().getJavaType();
+    }
+
+    /**
+     * Gets the ids by normalized key.
+     */
+    abstract Map<Object, Set<Object>> entries();
+
+    /**
+     * Tells whether this index answers an operator, with the same result as the database.
+     */
+    boolean supports(String operator, Object value) {
+        switch (operator) {
+            case "=":
+            case "!=":
+            case "<>":
+                return value == null || key(value) != UNSUPPORTED;
+
+            case "IN":
+                for (Object element : elements(value)) {
+                    if (element != null && key(element) == UNSUPPORTED)
+                    { return false; }
+                }
+                return true;
+
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Gets the ids matching a criterion this index {@link #supports(String, Object) supports}.
+     *
+     * @param allIds The ids of every cached entity, for negations
+     */
+    Set<Object> lookup(String operator, Object value, Collection<Object> allIds) {
+        if (value == null)
+        { return Collections.emptySet(); }
+
+        switch (operator) {
+            case "=":
+                return ids(key(value));
+
+            case "!=":
+            case "<>":
+                Set<Object> result = new HashSet<>(allIds);
+                result.removeAll(ids(key(value)));
+                result.removeAll(nullIds);
+                return result;
+
+            case "IN":
+                Set<Object> union = new HashSet<>();
+                for (Object element : elements(value)) {
+                    if (element != null)
+                    { union.addAll(ids(key(element))); }
+                }
+                return union;
+
+            default:
+                throw new IllegalArgumentException("Unsupported operator for " + column.getColumnName() + ": " + operator);
+        }
+    }
+
+    void add(Object value, Object id) {
+        if (value == null)
+        { nullIds.add(id); }
+
+        else
+        { entries().computeIfAbsent(key(value), k -> new HashSet<>()).add(id); }
+    }
+
+    void remove(Object value, Object id) {
+        if (value == null) {
+            nullIds.remove(id);
+            return;
+        }
+
+        Object key = key(value);
+        Set<Object> ids = entries().get(key);
+        if (ids != null) {
+            ids.remove(id);
+            if (ids.isEmpty())
+            { entries().remove(key); }
+        }
+    }
+
+    void clear() {
+        entries().clear();
+        nullIds.clear();
+    }
+
+    Set<Object> ids(Object key) {
+        Set<Object> ids = entries().get(key);
+        return ids != null ? ids : Collections.emptySet();
+    }
+
+    /**
+     * Normalizes a value of the column, or a criterion value, to an index key.
+     *
+     * @return The key, or {@link #UNSUPPORTED} if the value cannot be compared with the column in memory
+     */
+    Object key(Object value) {
+        if (value instanceof Number && Number.class.isAssignableFrom(valueType)) {
+            if (value instanceof Double || value instanceof Float) {
+                double number = ((Number) value).doubleValue();
+                if (Double.isNaN(number) || Double.isInfinite(number))
+                { return UNSUPPORTED; }
+            }
+
+            return new BigDecimal(value.toString()).stripTrailingZeros();
+        }
+
+        return valueType.isInstance(value) ? value : UNSUPPORTED;
+    }
+
+    static boolean isUnsupported(Object key)
+    { return key == UNSUPPORTED; }
+
+    static Collection<?> elements(Object value) {
+        if (value instanceof Collection)
+        { return (Collection<?>) value; }
+
+        if (value instanceof Object[])
+        { return Arrays.asList((Object[]) value); }
+
+        return Collections.singletonList(value);
+    }
+
+    static String normalizeOperator(String operator)
+    { return operator.trim().toUpperCase(Locale.ROOT); }
+
+    ColumnMetadata getColumn()
+    { return column; }
+
+    Class<?> getValueType()
+    { return valueType; }
+
+    /**
+     * Index answering equality, inequality and IN.
+     */
+    static final class HashIndex extends SecondaryIndex {
+
+        private final Map<Object, Set<Object>> entries = new HashMap<>();
+
+        HashIndex(ColumnMetadata column)
+        { super(column); }
+
+        Map<Object, Set<Object>> entries()
+        { return entries; }
+    }
+
+    /**
+     * Index also answering the range operators and LIKE patterns made of a literal prefix followed by '%'.
+     * <p>
+     * Strings are ordered by their UTF-16 code units, which matches the "C" collation; with another
+     * database collation, range criteria on string columns may differ from the SQL result.
+     * </p>
+     */
+    static final class SortedIndex extends SecondaryIndex {
+
+        private final TreeMap<Object, Set<Object>> entries = new TreeMap<>();
+
+        SortedIndex(ColumnMetadata column)
+        { super(column); }
+
+        Map<Object, Set<Object>> entries()
+        { return entries; }
+
+        boolean supports(String operator, Object value) {
+            switch (operator) {
+                case "<":
+                case "<=":
+                case ">":
+                case ">=":
+                    return value == null || (!isUnsupported(key(value)) && key(value) instanceof Comparable);
+
+                case "LIKE":
+                    return value == null || (getValueType() == String.class && value instanceof String && prefixOf((String) value) != null);
+
+                default:
+                    return super.supports(operator, value);
+            }
+        }
+
+        Set<Object> lookup(String operator, Object value, Collection<Object> allIds) {
+            if (value == null)
+            { return Collections.emptySet(); }
+
+            switch (operator) {
+                case "<":
+                    return union(entries.headMap(key(value), false));
+
+                case "<=":
+                    return union(entries.headMap(key(value), true));
+
+                case ">":
+                    return union(entries.tailMap(key(value), false));
+
+                case ">=":
+                    return union(entries.tailMap(key(value), true));
+
+                case "LIKE":
+                    String pattern = (String) value;
+                    String prefix = prefixOf(pattern);
+                    if (prefix.length() == pattern.length())
+                    { return ids(prefix); }
+
+                    List<Set<Object>> matches = new ArrayList<>();
+                    for (Map.Entry<Object, Set<Object>> entry : entries.tailMap(prefix, true).entrySet()) {
+                        if (!((String) entry.getKey()).startsWith(prefix))
+                        { break; }
+
+                        matches.add(entry.getValue());
+                    }
+                    return union(matches);
+
+                default:
+                    return super.lookup(operator, value, allIds);
+            }
+        }
+
+        private static Set<Object> union(NavigableMap<Object, Set<Object>> range)
+        { return union(range.values()); }
+
+        private static Set<Object> union(Collection<Set<Object>> sets) {
+            Set<Object> result = new HashSet<>();
+            for (Set<Object> ids : sets)
+            { result.addAll(ids); }
+
+            return result;
+        }
+
+        /**
+         * Gets the literal part of a LIKE pattern that is either a literal or a literal followed by
+         * '%' wildcards only.
+         *
+         * @return The literal prefix, or null for any other pattern
+         */
+        static String prefixOf(String pattern) {
+            int end = pattern.length();
+            while (end > 0 && pattern.charAt(end - 1) == '%')
+            { end--; }
+
+            String prefix = pattern.substring(0, end);
+            if (prefix.indexOf('%') >= 0 || prefix.indexOf('_') >= 0 || prefix.indexOf('\\') >= 0)
+            { return null; }
+
+            return prefix;
+        }
+    }
+}
@@ -0,0 +1,439 @@
+package mg.jwe.orm.diagnostic;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.sql.DataSource;
+
+import mg.jwe.orm.annotations.Table;
+import mg.jwe.orm.metadata.EntityMetadata;
+
+/**
+ * Diagnostic mode that runs EXPLAIN (FORMAT JSON) on the SELECT statements built by the ORM and
+ * aggregates what the plans reveal, per entity.
+ * <p>
+ * While an advisor is {@link #start() started}, every SELECT shape recorded through
+ * {@link QueryScope#record} is explained once, in the background, on a connection of its own, with
+ * the parameters of its first execution. A statement recorded without one value per placeholder is
+ * not explained. EXPLAIN without ANALYZE only plans the statement. The
+ * advisor reports:
+ * <ul>
+ *   <li>sequential scans of tables with at least {@link #setLargeTableRows(long) large table rows}</li>
+ *   <li>sorts on the id column, caused by the ORDER BY id of getAll and findByCriteria</li>
+ *   <li>criterion columns that are not the leading column of any index</li>
+ * </ul>
+ * with the CREATE INDEX statements that would avoid them. Only PostgreSQL is supported. A statement
+ * that cannot be explained is kept as the {@link #getLastFailure() last failure} and handed to the
+ * {@link #setFailureHandler(Consumer) failure handler}.
+ * </p>
+ * Example usage:
+ * <pre>
+ * try (ExplainAdvisor advisor = new ExplainAdvisor(dataSource)) {
+ *     advisor.start();
+ *     runTheApplicationScenario();
+ *     advisor.awaitIdle(5_000);
+ *     advisor.printReport();
+ * }
+ * </pre>
+ */
+public class ExplainAdvisor implements AutoCloseable {
+
+    private static volatile ExplainAdvisor active;
+
+    /** "column operator ?" conditions, as built by UtilQuery. */
+    private static final Pattern CONDITION = Pattern.compile(
+        "(\\w+)\\s+(=|!=|<>|<=|>=|<|>|NOT LIKE|LIKE|ILIKE|NOT IN|IN)\\s+\\?", Pattern.CASE_INSENSITIVE
+    );
+    /** Leading column of an index definition from pg_indexes. */
+    private static final Pattern LEADING_COLUMN = Pattern.compile("USING \\w+ \\(\"?(\\w+)\"?");
+
+    private final DataSource dataSource;
+    private final Set<String> explained = ConcurrentHashMap.newKeySet();
+    private final Map<String, Long> tableRows = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> indexedColumns = new ConcurrentHashMap<>();
+    private final Map<Class<?>, Map<String, PlanFinding>> findings = new LinkedHashMap<>();
+
+    private long largeTableRows = 10_000;
+    private int maxShapes = 1_000;
+    private ThreadPoolExecutor executor;
+    private volatile Exception lastFailure;
+    private volatile Consumer<? super Exception> failureHandler;
+
+    /**
+     * @param dataSource The pool to run EXPLAIN with, of the database the ORM queries
+     */
+    public ExplainAdvisor(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * Starts explaining the queries of the ORM, replacing any other started advisor.
+     */
+    public synchronized void start() {
+        if (executor == null) {
+            // a full queue drops the shape: diagnostics must not slow the application down
+            executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(100), runnable -> {
+                Thread thread = new Thread(runnable, "explain-advisor");
+                thread.setDaemon(true);
+                return thread;
+            }, new ThreadPoolExecutor.DiscardPolicy());
+        }
+
+        active = this;
+    }
+
+    /**
+     * Stops explaining queries. The findings stay available.
+     */
+    @Override
+    public synchronized void close() {
+        if (active == this)
+        { active = null; }
+
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Hands a recorded statement to the started advisor, if any.
+     */
+    static void sample(Class<?> entity, String sql, Object[] params) {
+        ExplainAdvisor advisor = active;
+        if (advisor != null)
+        { advisor.submit(entity, sql, params); }
+    }
+
+    private void submit(Class<?> entity, String sql, Object[] params) {
+        if (entity == null || !entity.isAnnotationPresent(Table.class) || !sql.regionMatches(true, 0, "SELECT", 0, 6))
+        { return; }
+
+        // the plan is only meaningful with the values the statement was executed with
+        if (!bindable(sql, params))
+        { return; }
+
+        if (explained.size() >= maxShapes || explained.contains(sql))
+        { return; }
+
+        ThreadPoolExecutor current = executor;
+        if (current == null)
+        { return; }
+
+        Object[] copy = params.clone();
+        // marked explained only once it runs, so a shape dropped by a full queue is sampled again
+        current.execute(() -> {
+            if (explained.size() >= maxShapes || !explained.add(sql))
+            { return; }
+
+            try {
+                explain(entity, sql, copy);
+                lastFailure = null;
+            }
+
+            catch (SQLException | RuntimeException e)
+            { fail(new RuntimeException("EXPLAIN failed for [" + sql + "]", e)); }
+        });
+    }
+
+    private void fail(Exception e) {
+        lastFailure = e;
+
+        Consumer<? super Exception> handler = failureHandler;
+        if (handler == null)
+        { return; }
+
+        try
+        { handler.accept(e); }
+
+        catch (RuntimeException ignored)
+        { }
+    }
+
+    /**
+     * Tells whether the parameters are one plain value per placeholder, such as the ids of an IN list.
+     * An {@code = ANY(?)} array recorded as its elements has more parameters than placeholders.
+     */
+    private static boolean bindable(String sql, Object[] params) {
+        int placeholders = 0;
+        for (int i = 0; i < sql.length(); i++) {
+            if (sql.charAt(i) == '?')
+            { placeholders++; }
+        }
+
+        if (placeholders != params.length)
+        { return false; }
+
+        for (Object param : params) {
+            if (param != null && param.getClass().isArray())
+            { return false; }
+        }
+
+        return true;
+    }
+
+    /**
+     * Explains one statement and records its findings.
+     *
+     * @param entity The entity class the statement is issued for.
+     * @param sql The SELECT statement, with ? placeholders.
+     * @param params The parameters to plan it with.
+     * @throws SQLException If the statement cannot be explained.
+     */
+    public void explain(Class<?> entity, String sql, Object... params) throws SQLException {
+        EntityMetadata metadata = EntityMetadata.of(entity);
+        String table = metadata.getTableName();
+
+        try (Connection connection = dataSource.getConnection()) {
+            Object plan;
+            try (PreparedStatement stmt = connection.prepareStatement("EXPLAIN (FORMAT JSON) " + sql)) {
+                for (int i = 0; i < params.length; i++)
+                { stmt.setObject(i + 1, params[i]); }
+
+                try (ResultSet rs = stmt.executeQuery()) {
+                    StringBuilder json = new StringBuilder();
+                    while (rs.next())
+                    { json.append(rs.getString(1)); }
+
+                    plan = PlanJson.parse(json.toString());
+                }
+            }
+
+            List<PlanFinding> found = new ArrayList<>();
+            Object root = plan instanceof List && !((List<?>) plan).isEmpty() ? ((List<?>) plan).get(0) : plan;
+            if (root instanceof Map)
+            { inspect(connection, entity, sql, metadata, ((Map<?, ?>) root).get("Plan"), found); }
+
+            Set<String> indexed = indexedColumns(connection, table);
+            List<String> criteria = criterionColumns(sql);
+            for (String column : criteria) {
+                if (!indexed.contains(column)) {
+                    found.add(new PlanFinding(PlanFinding.Kind.UNINDEXED_CRITERION, entity, table, sql,
+                        "criterion column " + table + "." + column + " leads no index", createIndex(table, column)));
+                }
+            }
+
+            synchronized (findings) {
+                Map<String, PlanFinding> ofEntity = findings.computeIfAbsent(entity, key -> new LinkedHashMap<>());
+                for (PlanFinding finding : found)
+                { ofEntity.putIfAbsent(finding.getKind() + " " + finding.getDetail(), finding); }
+            }
+        }
+    }
+
+    /**
+     * Walks a plan node and its children.
+     */
+    private void inspect(Connection connection, Class<?> entity, String sql, EntityMetadata metadata, Object node, List<PlanFinding> found)
+        throws SQLException
+    {
+        if (!(node instanceof Map))
+        { return; }
+
+        Map<?, ?> plan = (Map<?, ?>) node;
+        String nodeType = String.valueOf(plan.get("Node Type"));
+        String table = metadata.getTableName();
+        List<String> criteria = criterionColumns(sql);
+
+        if ("Seq Scan".equals(nodeType) && plan.get("Relation Name") != null) {
+            String relation = plan.get("Relation Name").toString();
+            long rows = tableRows(connection, relation);
+            if (rows >= largeTableRows) {
+                String suggestion = relation.equalsIgnoreCase(table) && !criteria.isEmpty()
+                    ? createIndex(relation, criteria.get(0))
+                    : null;
+                found.add(new PlanFinding(PlanFinding.Kind.SEQUENTIAL_SCAN, entity, relation, sql,
+                    "sequential scan of " + relation + " (about " + rows + " rows)", suggestion));
+            }
+        }
+
+        if ("Sort".equals(nodeType) && plan.get("Sort Key") instanceof List) {
+            String idColumn = metadata.getIdColumn() != null ? metadata.getIdColumnName().toLowerCase(Locale.ROOT) : "id";
+            for (Object key : (List<?>) plan.get("Sort Key")) {
+                String sortColumn = key.toString().toLowerCase(Locale.ROOT).replaceAll(".*\\.", "").replace("\"", "").trim();
+                if (sortColumn.equals(idColumn)) {
+                    // an index on the criterion and the id returns the rows already ordered
+                    String suggestion = criteria.isEmpty() ? null : createIndex(table, criteria.get(0), idColumn);
+                    found.add(new PlanFinding(PlanFinding.Kind.SORT_ON_ID, entity, table, sql,
+                        "rows of " + table + " sorted for ORDER BY " + idColumn, suggestion));
+                }
+            }
+        }
+
+        if (plan.get("Plans") instanceof List) {
+            for (Object child : (List<?>) plan.get("Plans"))
+            { inspect(connection, entity, sql, metadata, child, found); }
+        }
+    }
+
+    /**
+     * Lists the columns of the WHERE conditions of a statement.
+     */
+    static List<String> criterionColumns(String sql) {
+        int where = sql.toUpperCase(Locale.ROOT).indexOf(" WHERE ");
+        if (where < 0)
+        { return Collections.emptyList(); }
+
+        Set<String> columns = new LinkedHashSet<>();
+        Matcher matcher = CONDITION.matcher(sql.substring(where));
+        while (matcher.find())
+        { columns.add(matcher.group(1).toLowerCase(Locale.ROOT)); }
+
+        return new ArrayList<>(columns);
+    }
+
+    private long tableRows(Connection connection, String table) throws SQLException {
+        Long rows = tableRows.get(table);
+        if (rows == null) {
+            try (PreparedStatement stmt = connection.prepareStatement("SELECT reltuples FROM pg_class WHERE relname = ?")) {
+                stmt.setString(1, table.toLowerCase(Locale.ROOT));
+                try (ResultSet rs = stmt.executeQuery())
+                { rows = rs.next() ? (long) rs.getDouble(1) : 0L; }
+            }
+
+            tableRows.put(table, rows);
+        }
+
+        return rows;
+    }
+
+    private Set<String> indexedColumns(Connection connection, String table) throws SQLException {
+        Set<String> columns = indexedColumns.get(table);
+        if (columns == null) {
+            columns = new LinkedHashSet<>();
+            try (PreparedStatement stmt = connection.prepareStatement("SELECT indexdef FROM pg_indexes WHERE tablename = ?")) {
+                stmt.setString(1, table.toLowerCase(Locale.ROOT));
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        Matcher matcher = LEADING_COLUMN.matcher(rs.getString(1));
+                        if (matcher.find())
+                        { columns.add(matcher.group(1).toLowerCase(Locale.ROOT)); }
+                    }
+                }
+            }
+
+            indexedColumns.put(table, columns);
+        }
+
+        return columns;
+    }
+
+    private static String createIndex(String table, String... columns) {
+        return "CREATE INDEX idx_" + table + "_" + String.join("_", columns)
+            + " ON " + table + " (" + String.join(", ", columns) + ");";
+    }
+
+    /**
+     * Waits until the sampled statements are explained.
+     *
+     * @param timeoutMillis The maximum wait, in milliseconds
+     * @return true if nothing is left to explain
+     */
+    public boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        ThreadPoolExecutor current = executor;
+        while (current != null && (current.getActiveCount() > 0 || !current.getQueue().isEmpty())) {
+            if (System.currentTimeMillis() >= deadline)
+            { return false; }
+
+            Thread.sleep(10);
+        }
+
+        return true;
+    }
+
+    /**
+     * Gets the findings, grouped by entity, each reported once.
+     *
+     * @return The findings by entity class, in the order entities were first seen
+     */
+    public Map<Class<?>, List<PlanFinding>> getFindings() {
+        Map<Class<?>, List<PlanFinding>> result = new LinkedHashMap<>();
+        synchronized (findings) {
+            for (Map.Entry<Class<?>, Map<String, PlanFinding>> entry : findings.entrySet()) {
+                if (!entry.getValue().isEmpty())
+                { result.put(entry.getKey(), new ArrayList<>(entry.getValue().values())); }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets the distinct CREATE INDEX statements suggested by the findings.
+     *
+     * @return The statements, in the order they were first suggested
+     */
+    public List<String> getSuggestedIndexes() {
+        Set<String> suggestions = new LinkedHashSet<>();
+        for (List<PlanFinding> ofEntity : getFindings().values()) {
+            for (PlanFinding finding : ofEntity) {
+                if (finding.getSuggestion() != null)
+                { suggestions.add(finding.getSuggestion()); }
+            }
+        }
+
+        return new ArrayList<>(suggestions);
+    }
+
+    /**
+     * Prints the findings per entity, then the suggested indexes.
+     */
+    public void printReport() {
+        Map<Class<?>, List<PlanFinding>> byEntity = getFindings();
+        System.out.println("EXPLAIN advisor: " + explained.size() + " statement shapes, "
+            + byEntity.values().stream().mapToInt(List::size).sum() + " findings");
+
+        for (Map.Entry<Class<?>, List<PlanFinding>> entry : byEntity.entrySet()) {
+            System.out.println("  " + entry.getKey().getSimpleName() + ":");
+            for (PlanFinding finding : entry.getValue())
+            { System.out.println("    " + finding); }
+        }
+
+        for (String suggestion : getSuggestedIndexes())
+        { System.out.println("  " + suggestion); }
+    }
+
+    /**
+     * @param largeTableRows The estimated row count from which a sequential scan is reported, 10 000 by default
+     */
+    public void setLargeTableRows(long largeTableRows)
+    { this.largeTableRows = largeTableRows; }
+
+    /**
+     * @param maxShapes The number of distinct statements explained at most, 1 000 by default
+     */
+    public void setMaxShapes(int maxShapes)
+    { this.maxShapes = maxShapes; }
+
+    /**
+     * Gets the failure of the last statement explained in the background.
+     *
+     * @return The exception, with the statement in its message, or null if the last EXPLAIN succeeded
+     */
+    public Exception getLastFailure()
+    { return lastFailure; }
+
+    /**
+     * @param failureHandler Receives the failures of background EXPLAINs, on the advisor thread; null for none
+     */
+    public void setFailureHandler(Consumer<? super Exception> failureHandler)
+    { this.failureHandler = failureHandler; }
+}
@@ -0,0 +1,66 @@
+package mg.jwe.orm.diagnostic;
+
+/**
+ * A statement shape that a {@link QueryScope} saw executed repeatedly with different parameters.
+ */
+public class NPlusOneSuspect {
+
+    private String sql;
+    private Class<?> entity;
+    private String foreignKey;
+    private int executions;
+
+    /**
+     * Constructs a new suspect.
+     *
+     * @param sql The repeated SQL shape
+     * @param entity The entity class the statements were issued for
+     * @param foreignKey The foreign key field that caused them, as "Owner.field", or null
+     * @param executions How many times the shape was executed
+     */
+    public NPlusOneSuspect(String sql, Class<?> entity, String foreignKey, int executions) {
+        this.sql = sql;
+        this.entity = entity;
+        this.foreignKey = foreignKey;
+        this.executions = executions;
+    }
+
+    /**
+     * Gets the repeated SQL shape.
+     *
+     * @return The SQL text with placeholders
+     */
+    public String getSql()
+    { return sql; }
+
+    /**
+     * Gets the entity class the statements were issued for.
+     *
+     * @return The entity class
+     */
+    public Class<?> getEntity()
+    { return entity; }
+
+    /**
+     * Gets the foreign key field that triggered the statements.
+     *
+     * @return The field as "Owner.field", or null if not issued by foreign key loading
+     */
+    public String getForeignKey()
+    { return foreignKey; }
+
+    /**
+     * Gets the number of executions of the shape.
+     *
+     * @return The execution count
+     */
+    public int getExecutions()
+    { return executions; }
+
+    @Override
+    public String toString() {
+        return executions + "x " + (entity != null ? entity.getSimpleName() : "?")
+            + (foreignKey != null ? " via " + foreignKey : "")
+            + " [" + sql + "]";
+    }
+}
@@ -0,0 +1,145 @@
+package mg.jwe.orm.diagnostic;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JDK Flight Recorder event of one ORM operation: a {@link mg.jwe.orm.base.BaseModel} read or
+ * write, or a foreign key or collection load, with the time spent binding, executing and mapping.
+ * <p>
+ * The event is disabled by default. Enable it in a recording, for example with
+ * {@code jcmd <pid> JFR.start settings=profile +mg.jwe.orm.Operation#enabled=true} or a custom .jfc
+ * file; nested loads then appear inside the operation that triggered them, next to GC and lock
+ * events. While disabled, each phase mark is one {@link #isEnabled()} check and the JIT removes
+ * the event allocation.
+ * </p>
+ * Usage in the ORM:
+ * <pre>
+ * OrmEvent event = OrmEvent.start(clazz, "findById");
+ * bind(stmt);
+ * event.bound();
+ * ResultSet rs = stmt.executeQuery();
+ * event.executed();
+ * ... map rows ...
+ * event.mapped(rows);
+ * event.finish(sql);
+ * </pre>
+ */
+@Name("mg.jwe.orm.Operation")
+@Label("ORM Operation")
+@Category({ "JWE ORM" })
+@Description("A BaseModel operation or foreign key load")
+@Enabled(false)
+@StackTrace(false)
+public class OrmEvent extends Event {
+
+    @Label("Entity")
+    private String entity;
+
+    @Label("Operation")
+    private String operation;
+
+    @Label("SQL")
+    @Description("The statement, with ? placeholders")
+    private String sql;
+
+    @Label("Rows")
+    @Description("Rows read or written")
+    private long rows;
+
+    @Label("Bind Time")
+    @Timespan(Timespan.NANOSECONDS)
+    private long bindTime;
+
+    @Label("Execute Time")
+    @Timespan(Timespan.NANOSECONDS)
+    private long executeTime;
+
+    @Label("Map Time")
+    @Timespan(Timespan.NANOSECONDS)
+    private long mapTime;
+
+    private transient long mark;
+
+    /**
+     * Starts timing an operation.
+     *
+     * @param entity The entity class.
+     * @param operation The operation, such as "getAll" or "save".
+     * @return The event, to mark and end on the same thread.
+     */
+    public static OrmEvent start(Class<?> entity, String operation) {
+        OrmEvent event = new OrmEvent();
+        if (event.isEnabled()) {
+            event.entity = entity.getName();
+            event.operation = operation;
+            event.begin();
+            event.mark = System.nanoTime();
+        }
+
+        return event;
+    }
+
+    /**
+     * Marks the end of parameter binding.
+     */
+    public void bound() {
+        if (isEnabled())
+        { bindTime += lap(); }
+    }
+
+    /**
+     * Marks the end of statement execution.
+     */
+    public void executed() {
+        if (isEnabled())
+        { executeTime += lap(); }
+    }
+
+    /**
+     * Marks the end of row mapping.
+     *
+     * @param count The number of rows mapped.
+     */
+    public void mapped(long count) {
+        if (isEnabled()) {
+            mapTime += lap();
+            rows += count;
+        }
+    }
+
+    /**
+     * Records the rows written by the statement.
+     *
+     * @param count The update count.
+     */
+    public void written(long count) {
+        if (isEnabled())
+        { rows += count; }
+    }
+
+    /**
+     * Ends the operation and commits the event if the recording keeps it.
+     *
+     * @param statement The SQL executed, or the last one for operations running several.
+     */
+    public void finish(String statement) {
+        if (shouldCommit()) {
+            this.sql = statement;
+            commit();
+        }
+    }
+
+    private long lap() {
+        long now = System.nanoTime();
+        long elapsed = now - mark;
+        mark = now;
+        return elapsed;
+    }
+}
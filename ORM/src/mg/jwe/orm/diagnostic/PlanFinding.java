@@ -0,0 +1,72 @@
+package mg.jwe.orm.diagnostic;
+
+/**
+ * A problem an {@link ExplainAdvisor} found in the plan of an ORM query, with the index that would fix it.
+ */
+public class PlanFinding {
+
+    public enum Kind {
+        /** A sequential scan of a large table. */
+        SEQUENTIAL_SCAN,
+        /** A sort of the rows for the ORDER BY id of the ORM. */
+        SORT_ON_ID,
+        /** A criterion column that is not the leading column of any index. */
+        UNINDEXED_CRITERION
+    }
+
+    private Kind kind;
+    private Class<?> entity;
+    private String table;
+    private String sql;
+    private String detail;
+    private String suggestion;
+
+    /**
+     * Constructs a new finding.
+     *
+     * @param kind The kind of problem
+     * @param entity The entity class the query was issued for
+     * @param table The table concerned
+     * @param sql The SQL shape whose plan shows the problem
+     * @param detail A description of the problem
+     * @param suggestion A CREATE INDEX statement, or null if none applies
+     */
+    public PlanFinding(Kind kind, Class<?> entity, String table, String sql, String detail, String suggestion) {
+        this.kind = kind;
+        this.entity = entity;
+        this.table = table;
+        this.sql = sql;
+        this.detail = detail;
+        this.suggestion = suggestion;
+    }
+
+    public Kind getKind()
+    { return kind; }
+
+    public Class<?> getEntity()
+    { return entity; }
+
+    public String getTable()
+    { return table; }
+
+    public String getSql()
+    { return sql; }
+
+    public String getDetail()
+    { return detail; }
+
+    /**
+     * Gets the suggested index.
+     *
+     * @return A CREATE INDEX statement, or null
+     */
+    public String getSuggestion()
+    { return suggestion; }
+
+    @Override
+    public String toString() {
+        return kind + " " + entity.getSimpleName() + ": " + detail
+            + (suggestion != null ? " -> " + suggestion : "")
+            + " [" + sql + "]";
+    }
+}
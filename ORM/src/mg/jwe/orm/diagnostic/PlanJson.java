@@ -0,0 +1,165 @@
+package mg.jwe.orm.diagnostic;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal JSON reader for the output of EXPLAIN (FORMAT JSON): objects become maps, arrays lists,
+ * numbers BigDecimal.
+ */
+class PlanJson {
+
+    private final String text;
+    private int position;
+
+    private PlanJson(String text)
+    { this.text = text; }
+
+    static Object parse(String text) {
+        PlanJson reader = new PlanJson(text);
+        Object value = reader.readValue();
+        reader.skipWhitespace();
+        if (reader.position != text.length())
+        { throw reader.error("Unexpected trailing content"); }
+
+        return value;
+    }
+
+    private Object readValue() {
+        skipWhitespace();
+        if (position >= text.length())
+        { throw error("Unexpected end of JSON"); }
+
+        char c = text.charAt(position);
+        switch (c) {
+            case '{':
+                return readObject();
+            case '[':
+                return readArray();
+            case '"':
+                return readString();
+            case 't':
+                return readLiteral("true", Boolean.TRUE);
+            case 'f':
+                return readLiteral("false", Boolean.FALSE);
+            case 'n':
+                return readLiteral("null", null);
+            default:
+                return readNumber();
+        }
+    }
+
+    private Map<String, Object> readObject() {
+        Map<String, Object> object = new LinkedHashMap<>();
+        position++;
+        skipWhitespace();
+        if (text.charAt(position) == '}') {
+            position++;
+            return object;
+        }
+
+        while (true) {
+            skipWhitespace();
+            String key = readString();
+            skipWhitespace();
+            expect(':');
+            object.put(key, readValue());
+            skipWhitespace();
+            if (text.charAt(position) == ',') {
+                position++;
+                continue;
+            }
+
+            expect('}');
+            return object;
+        }
+    }
+
+    private List<Object> readArray() {
+        List<Object> array = new ArrayList<>();
+        position++;
+        skipWhitespace();
+        if (text.charAt(position) == ']') {
+            position++;
+            return array;
+        }
+
+        while (true) {
+            array.add(readValue());
+            skipWhitespace();
+            if (text.charAt(position) == ',') {
+                position++;
+                continue;
+            }
+
+            expect(']');
+            return array;
+        }
+    }
+
+    private String readString() {
+        expect('"');
+        StringBuilder value = new StringBuilder();
+        while (true) {
+            char c = text.charAt(position++);
+            if (c == '"')
+            { return value.toString(); }
+
+            if (c != '\\') {
+                value.append(c);
+                continue;
+            }
+
+            char escaped = text.charAt(position++);
+            switch (escaped) {
+                case 'n': value.append('\n'); break;
+                case 't': value.append('\t'); break;
+                case 'r': value.append('\r'); break;
+                case 'b': value.append('\b'); break;
+                case 'f': value.append('\f'); break;
+                case 'u':
+                    value.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                    position += 4;
+                    break;
+                default: value.append(escaped);
+            }
+        }
+    }
+
+    private Object readLiteral(String literal, Object value) {
+        if (!text.startsWith(literal, position))
+        { throw error("Unexpected token"); }
+
+        position += literal.length();
+        return value;
+    }
+
+    private BigDecimal readNumber() {
+        int start = position;
+        while (position < text.length() && "+-0123456789.eE".indexOf(text.charAt(position)) >= 0)
+        { position++; }
+
+        if (start == position)
+        { throw error("Unexpected character '" + text.charAt(position) + "'"); }
+
+        return new BigDecimal(text.substring(start, position));
+    }
+
+    private void expect(char c) {
+        if (position >= text.length() || text.charAt(position) != c)
+        { throw error("Expected '" + c + "'"); }
+
+        position++;
+    }
+
+    private void skipWhitespace() {
+        while (position < text.length() && Character.isWhitespace(text.charAt(position)))
+        { position++; }
+    }
+
+    private RuntimeException error(String message)
+    { return new RuntimeException(message + " at position " + position + " of the EXPLAIN output"); }
+}
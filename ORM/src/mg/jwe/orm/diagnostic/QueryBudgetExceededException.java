@@ -0,0 +1,33 @@
+package mg.jwe.orm.diagnostic;
+
+import java.util.List;
+
+/**
+ * Thrown when a block of code issues more queries than its {@link QueryScope} budget allows.
+ */
+public class QueryBudgetExceededException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private int budget;
+    private int actual;
+    private List<NPlusOneSuspect> suspects;
+
+    public QueryBudgetExceededException(String scope, int budget, int actual, List<NPlusOneSuspect> suspects) {
+        super("Query budget exceeded in scope '" + scope + "': " + actual + " queries, budget " + budget
+            + (suspects.isEmpty() ? "" : ", N+1 suspects: " + suspects));
+
+        this.budget = budget;
+        this.actual = actual;
+        this.suspects = suspects;
+    }
+
+    public int getBudget()
+    { return budget; }
+
+    public int getActual()
+    { return actual; }
+
+    public List<NPlusOneSuspect> getSuspects()
+    { return suspects; }
+}
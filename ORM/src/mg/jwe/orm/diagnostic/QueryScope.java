@@ -0,0 +1,279 @@
+package mg.jwe.orm.diagnostic;
+
+import java.lang.reflect.Field;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Opt-in diagnostic scope that tracks the queries issued by the ORM on the current thread.
+ * <p>
+ * A scope is opened around a unit of work such as a request or a test. While it is open, every
+ * statement executed by {@link mg.jwe.orm.base.BaseModel} and {@link mg.jwe.orm.foreignkey.UtilFK}
+ * is counted and grouped by SQL shape. A shape executed repeatedly with different parameters is
+ * reported as an N+1 suspect, together with the entity and the foreign key field that triggered it.
+ * When no scope is open, recording is a single thread-local lookup. Suspects are reported to the
+ * {@link #setSuspectListener(SuspectListener) suspect listener} when the scope closes, and by
+ * {@link #assertMaxQueries(int)} in its exception.
+ * </p>
+ * Example usage:
+ * <pre>
+ * try (QueryScope scope = QueryScope.open("orders-page")) {
+ *     Order.getAll(connection, Order.class);
+ *     scope.assertMaxQueries(2);
+ * }
+ * </pre>
+ */
+public class QueryScope implements AutoCloseable {
+
+    private static final ThreadLocal<QueryScope> CURRENT = new ThreadLocal<>();
+    private static final ThreadLocal<String> FOREIGN_KEY_ORIGIN = new ThreadLocal<>();
+
+    private static volatile SuspectListener suspectListener;
+
+    /** Default number of distinct parameter sets after which a repeated shape is flagged. */
+    public static final int DEFAULT_THRESHOLD = 3;
+
+    private final String name;
+    private final QueryScope parent;
+    private final int threshold;
+    private final Map<String, ShapeStats> shapes = new LinkedHashMap<>();
+    private int queryCount;
+    private boolean closed;
+
+    private QueryScope(String name, QueryScope parent, int threshold) {
+        this.name = name;
+        this.parent = parent;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Opens a new scope on the current thread using the default N+1 threshold.
+     *
+     * @param name A label used in reports, such as a request path or a test name.
+     * @return The opened scope, to be closed with try-with-resources.
+     */
+    public static QueryScope open(String name) {
+        return open(name, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Opens a new scope on the current thread.
+     * <p>
+     * Scopes can be nested: queries are counted by every enclosing scope.
+     * </p>
+     *
+     * @param name A label used in reports.
+     * @param threshold The number of distinct parameter sets from which a repeated shape is flagged.
+     * @return The opened scope, to be closed with try-with-resources.
+     */
+    public static QueryScope open(String name, int threshold) {
+        if (threshold < 2)
+        { throw new IllegalArgumentException("N+1 threshold must be at least 2"); }
+
+        QueryScope scope = new QueryScope(name, CURRENT.get(), threshold);
+        CURRENT.set(scope);
+        return scope;
+    }
+
+    /**
+     * Sets the listener receiving the N+1 suspects of every closing scope.
+     *
+     * @param listener The listener, or null to keep suspects only in the scopes.
+     */
+    public static void setSuspectListener(SuspectListener listener)
+    { suspectListener = listener; }
+
+    /**
+     * Returns the innermost scope open on the current thread.
+     *
+     * @return The current scope, or null if diagnostics are not active.
+     */
+    public static QueryScope current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Records a statement executed by the ORM in every scope open on the current thread, and hands
+     * it to the started {@link ExplainAdvisor}, if any.
+     *
+     * @param entity The entity class the statement was issued for.
+     * @param sql The SQL text with its placeholders, used as the statement shape.
+     * @param params The values bound to the statement, in placeholder order; an {@code = ANY(?)}
+     *               array may be given as its elements, which the {@link ExplainAdvisor} then skips.
+     */
+    public static void record(Class<?> entity, String sql, Object... params) {
+        ExplainAdvisor.sample(entity, sql, params);
+
+        QueryScope scope = CURRENT.get();
+        if (scope == null)
+        { return; }
+
+        String origin = FOREIGN_KEY_ORIGIN.get();
+        List<Object> paramList = Arrays.asList(params);
+
+        for (; scope != null; scope = scope.parent)
+        { scope.add(entity, sql, paramList, origin); }
+    }
+
+    /**
+     * Marks the queries issued until {@link #exitForeignKey(String)} as caused by loading a foreign key.
+     *
+     * @param owner The class declaring the foreign key field.
+     * @param field The foreign key field being loaded.
+     * @return The previous origin, to be restored with {@link #exitForeignKey(String)}.
+     */
+    public static String enterForeignKey(Class<?> owner, Field field) {
+        String previous = FOREIGN_KEY_ORIGIN.get();
+        if (CURRENT.get() != null)
+        { FOREIGN_KEY_ORIGIN.set(owner.getSimpleName() + "." + field.getName()); }
+
+        return previous;
+    }
+
+    /**
+     * Restores the foreign key origin saved by {@link #enterForeignKey(Class, Field)}.
+     *
+     * @param previous The origin returned by the matching enter call.
+     */
+    public static void exitForeignKey(String previous) {
+        if (previous == null)
+        { FOREIGN_KEY_ORIGIN.remove(); }
+
+        else
+        { FOREIGN_KEY_ORIGIN.set(previous); }
+    }
+
+    /**
+     * Runs a block of code and fails if it issues more queries than allowed.
+     * <p>
+     * Intended for tests guarding against loading regressions:
+     * <pre>
+     * QueryScope.withBudget(2, () -&gt; Order.getAll(connection, Order.class));
+     * </pre>
+     * </p>
+     *
+     * @param maxQueries The maximum number of queries the block may issue.
+     * @param block The code to run.
+     * @return The closed scope, so callers can inspect counts and suspects.
+     * @throws SQLException If the block throws one.
+     * @throws QueryBudgetExceededException If the block exceeds the budget.
+     */
+    public static QueryScope withBudget(int maxQueries, SqlBlock block)
+        throws SQLException
+    {
+        try (QueryScope scope = open("budget(" + maxQueries + ")")) {
+            block.run();
+            scope.assertMaxQueries(maxQueries);
+            return scope;
+        }
+    }
+
+    private synchronized void add(Class<?> entity, String sql, List<Object> params, String origin) {
+        queryCount++;
+
+        ShapeStats stats = shapes.get(sql);
+        if (stats == null) {
+            stats = new ShapeStats(entity, origin);
+            shapes.put(sql, stats);
+        }
+
+        stats.executions++;
+
+        // only keep enough parameter sets to decide whether the threshold is reached
+        if (stats.distinctParams.size() < threshold)
+        { stats.distinctParams.add(params); }
+
+        if (stats.origin == null)
+        { stats.origin = origin; }
+    }
+
+    /**
+     * Asserts that no more than the given number of queries were issued so far in this scope.
+     *
+     * @param maxQueries The allowed number of queries.
+     * @throws QueryBudgetExceededException If the count is above the budget.
+     */
+    public void assertMaxQueries(int maxQueries) {
+        int count = getQueryCount();
+        if (count > maxQueries)
+        { throw new QueryBudgetExceededException(name, maxQueries, count, getSuspects()); }
+    }
+
+    /**
+     * Gets the number of queries recorded in this scope.
+     *
+     * @return The query count
+     */
+    public synchronized int getQueryCount()
+    { return queryCount; }
+
+    /**
+     * Gets the name of this scope.
+     *
+     * @return The scope label
+     */
+    public String getName()
+    { return name; }
+
+    /**
+     * Lists the statement shapes executed with at least the threshold number of distinct parameter sets.
+     *
+     * @return The N+1 suspects, in the order their shapes were first seen.
+     */
+    public synchronized List<NPlusOneSuspect> getSuspects() {
+        List<NPlusOneSuspect> suspects = new ArrayList<>();
+
+        for (Map.Entry<String, ShapeStats> entry : shapes.entrySet()) {
+            ShapeStats stats = entry.getValue();
+            if (stats.distinctParams.size() >= threshold) {
+                suspects.add(new NPlusOneSuspect(
+                    entry.getKey(), stats.entity, stats.origin, stats.executions
+                ));
+            }
+        }
+
+        return suspects;
+    }
+
+    /**
+     * Closes the scope, restores the enclosing one and reports any N+1 suspects to the listener.
+     */
+    @Override
+    public void close() {
+        if (closed)
+        { return; }
+        closed = true;
+
+        if (CURRENT.get() == this)
+        { CURRENT.set(parent); }
+
+        if (parent == null)
+        { FOREIGN_KEY_ORIGIN.remove(); }
+
+        SuspectListener listener = suspectListener;
+        if (listener == null)
+        { return; }
+
+        List<NPlusOneSuspect> suspects = getSuspects();
+        if (!suspects.isEmpty())
+        { listener.onSuspects(this, suspects); }
+    }
+
+    private static class ShapeStats {
+        private final Class<?> entity;
+        private final Set<List<Object>> distinctParams = new HashSet<>();
+        private String origin;
+        private int executions;
+
+        private ShapeStats(Class<?> entity, String origin) {
+            this.entity = entity;
+            this.origin = origin;
+        }
+    }
+}
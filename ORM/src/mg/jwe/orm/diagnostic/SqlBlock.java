@@ -0,0 +1,11 @@
+package mg.jwe.orm.diagnostic;
+
+import java.sql.SQLException;
+
+/**
+ * A block of database code run under a {@link QueryScope}.
+ */
+@FunctionalInterface
+public interface SqlBlock {
+    void run() throws SQLException;
+}
@@ -0,0 +1,18 @@
+package mg.jwe.orm.diagnostic;
+
+import java.util.List;
+
+/**
+ * Receives the N+1 suspects of a {@link QueryScope} when it closes, to log or collect them.
+ */
+@FunctionalInterface
+public interface SuspectListener {
+
+    /**
+     * Called when a scope with at least one suspect closes.
+     *
+     * @param scope The closed scope
+     * @param suspects Its N+1 suspects, never empty
+     */
+    void onSuspects(QueryScope scope, List<NPlusOneSuspect> suspects);
+}
@@ -0,0 +1,182 @@
+package mg.jwe.orm.dialect;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.StringJoiner;
+
+import mg.jwe.orm.metadata.ColumnMetadata;
+import mg.jwe.orm.metadata.EntityMetadata;
+
+/**
+ * The statements of one database product where databases differ: pagination, generated keys,
+ * upserts, IN lists and bulk loads.
+ * <p>
+ * The base class gives the portable forms: {@code LIMIT}/{@code OFFSET}, generated keys through
+ * {@link Statement#RETURN_GENERATED_KEYS}, one placeholder per IN value, and bulk loads as JDBC
+ * batches. Subclasses override what their database does better. {@link Dialects} picks the dialect
+ * of a connection; other dialects are registered there, or listed as a {@link java.util.ServiceLoader}
+ * service of this class.
+ * </p>
+ */
+public abstract class Dialect {
+
+    /**
+     * @return The name of the dialect, for logs
+     */
+    public abstract String getName();
+
+    /**
+     * Tells whether this dialect is the one of a database product.
+     *
+     * @param productName The {@link java.sql.DatabaseMetaData#getDatabaseProductName() product name} of a connection
+     * @return True if the dialect handles that product
+     */
+    public abstract boolean matches(String productName);
+
+    /**
+     * Restricts a SELECT to a page of its rows.
+     *
+     * @param sql The SELECT statement, with its ORDER BY.
+     * @param limit The most rows to return.
+     * @param offset The rows to skip, 0 for none.
+     * @return The paginated statement.
+     */
+    public String limit(String sql, int limit, int offset)
+    { return sql + " LIMIT " + limit + (offset > 0 ? " OFFSET " + offset : ""); }
+
+    /**
+     * Prepares an INSERT whose generated id is read with {@link PreparedStatement#getGeneratedKeys()}.
+     *
+     * @param connection The connection to prepare on.
+     * @param sql The INSERT statement.
+     * @param metadata The metadata of the inserted entity.
+     * @return The prepared statement.
+     * @throws SQLException If the statement cannot be prepared.
+     */
+    public PreparedStatement prepareInsert(Connection connection, String sql, EntityMetadata metadata) throws SQLException
+    { return connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS); }
+
+    /**
+     * Builds a statement inserting a row, or updating the row with the same key.
+     *
+     * @param table The table.
+     * @param columns The inserted columns, one placeholder each, in order.
+     * @param keyColumns The columns identifying an existing row, among the inserted ones.
+     * @return The upsert statement.
+     * @throws RuntimeException If the database has no upsert statement.
+     */
+    public String upsert(String table, List<String> columns, List<String> keyColumns)
+    { throw new RuntimeException("No upsert statement in the " + getName() + " dialect"); }
+
+    /**
+     * Gets the SQL array type used to bind the values of a column type as one array parameter.
+     *
+     * @param type The Java type of the values.
+     * @return The element type name for {@link Connection#createArrayOf}, or null to bind one placeholder per value.
+     */
+    protected String arrayType(Class<?> type)
+    { return null; }
+
+    /**
+     * Builds a condition matching a column against a list of values.
+     *
+     * @param column The column compared.
+     * @param valueColumn The column whose type the values have, used to bind them.
+     * @param count The number of values.
+     * @return The condition, to bind with {@link #bindIn}.
+     */
+    public String inCondition(String column, ColumnMetadata valueColumn, int count) {
+        if (arrayType(valueColumn.getField().getType()) != null)
+        { return column + " = ANY(?)"; }
+
+        StringJoiner placeholders = new StringJoiner(", ", column + " IN (", ")");
+        for (int i = 0; i < count; i++)
+        { placeholders.add("?"); }
+
+        return placeholders.toString();
+    }
+
+    /**
+     * Gets the most values one condition built by {@link #inCondition} should hold.
+     *
+     * @param valueColumn The column whose type the values have.
+     * @return No limit when the values are bound as one array, else {@link #MAX_IN_LIST} placeholders.
+     */
+    public int getMaxInValues(ColumnMetadata valueColumn)
+    { return arrayType(valueColumn.getField().getType()) != null ? Integer.MAX_VALUE : MAX_IN_LIST; }
+
+    /**
+     * Binds the values of a condition built by {@link #inCondition}.
+     *
+     * @param stmt The statement.
+     * @param index The index of the first placeholder of the condition.
+     * @param valueColumn The column whose type the values have.
+     * @param values The values.
+     * @return The index of the placeholder after the condition.
+     * @throws SQLException If a value cannot be bound.
+     */
+    public int bindIn(PreparedStatement stmt, int index, ColumnMetadata valueColumn, List<?> values) throws SQLException {
+        String arrayType = arrayType(valueColumn.getField().getType());
+        if (arrayType != null) {
+            stmt.setArray(index, stmt.getConnection().createArrayOf(arrayType, values.toArray()));
+            return index + 1;
+        }
+
+        for (Object value : values)
+        { valueColumn.bind(stmt, index++, value); }
+
+        return index;
+    }
+
+    /**
+     * Loads rows into a table by the fastest path of the database. Generated ids are not read back.
+     *
+     * @param connection The connection to load with.
+     * @param table The table.
+     * @param columns The loaded columns.
+     * @param rows The values of each row, in column order.
+     * @return The number of rows loaded.
+     * @throws SQLException If the load fails.
+     */
+    public long bulkLoad(Connection connection, String table, List<String> columns, List<Object[]> rows) throws SQLException {
+        StringJoiner names = new StringJoiner(", ", "(", ")");
+        StringJoiner placeholders = new StringJoiner(", ", "(", ")");
+        for (String column : columns) {
+            names.add(column);
+            placeholders.add("?");
+        }
+
+        String sql = "INSERT INTO " + table + " " + names + " VALUES " + placeholders;
+        long loaded = 0;
+
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            for (int from = 0; from < rows.size(); from += BATCH_SIZE) {
+                List<Object[]> chunk = rows.subList(from, Math.min(rows.size(), from + BATCH_SIZE));
+                for (Object[] row : chunk) {
+                    for (int i = 0; i < row.length; i++)
+                    { stmt.setObject(i + 1, row[i]); }
+
+                    stmt.addBatch();
+                }
+
+                stmt.executeBatch();
+                loaded += chunk.size();
+            }
+        }
+
+        return loaded;
+    }
+
+    /** Most placeholders of one IN list: the limit of Oracle, well under the bind limits of other drivers. */
+    protected static final int MAX_IN_LIST = 1_000;
+
+    /** Rows per JDBC batch of the default bulk load. */
+    protected static final int BATCH_SIZE = 500;
+
+    @Override
+    public String toString()
+    { return getName(); }
+}
@@ -0,0 +1,119 @@
+package mg.jwe.orm.dialect;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Picks the {@link Dialect} of a connection from its database product name.
+ * <p>
+ * The PostgreSQL and H2 dialects are built in; others are added with {@link #register(Dialect)} or
+ * found as {@link ServiceLoader} services of {@link Dialect}. Connections of an unknown database
+ * get the {@link StandardDialect}. The dialect of each database URL is remembered, so connections
+ * of a pool share one lookup without locking; an application using a single database can skip the
+ * lookup with {@link #setDefault(Dialect)}.
+ * </p>
+ * Example usage:
+ * <pre>
+ * String sql = Dialects.of(connection).limit("SELECT * FROM orders ORDER BY id", 20, 40);
+ * </pre>
+ */
+public class Dialects {
+
+    private static final List<Dialect> DIALECTS = new CopyOnWriteArrayList<>();
+    private static final Map<String, Dialect> BY_URL = new ConcurrentHashMap<>();
+    private static final Dialect STANDARD = new StandardDialect();
+
+    private static volatile Dialect defaultDialect;
+
+    static {
+        for (Dialect dialect : ServiceLoader.load(Dialect.class))
+        { DIALECTS.add(dialect); }
+
+        DIALECTS.add(new PostgreSqlDialect());
+        DIALECTS.add(new H2Dialect());
+    }
+
+    private Dialects()
+    { }
+
+    /**
+     * Gets the dialect of a connection.
+     *
+     * @param connection The connection.
+     * @return The fixed default dialect if set, else the dialect matching the database, else the standard one.
+     * @throws RuntimeException If the database product of the connection cannot be read.
+     */
+    public static Dialect of(Connection connection) {
+        Dialect fixed = defaultDialect;
+        if (fixed != null)
+        { return fixed; }
+
+        DatabaseMetaData metaData;
+        String url;
+        try {
+            metaData = connection.getMetaData();
+            url = metaData == null ? null : metaData.getURL();
+        }
+
+        catch (SQLException e)
+        { throw new RuntimeException("Failed to read the database product of the connection", e); }
+
+        if (url == null)
+        { return detect(metaData); }
+
+        Dialect known = BY_URL.get(url);
+        if (known != null)
+        { return known; }
+
+        Dialect dialect = detect(metaData);
+        Dialect raced = BY_URL.putIfAbsent(url, dialect);
+        return raced != null ? raced : dialect;
+    }
+
+    /**
+     * Gets the dialect of a database product.
+     *
+     * @param productName The database product name.
+     * @return The matching dialect, or the standard one.
+     */
+    public static Dialect forProduct(String productName) {
+        for (Dialect dialect : DIALECTS) {
+            if (dialect.matches(productName))
+            { return dialect; }
+        }
+
+        return STANDARD;
+    }
+
+    private static Dialect detect(DatabaseMetaData metaData) {
+        try
+        { return metaData == null ? STANDARD : forProduct(metaData.getDatabaseProductName()); }
+
+        catch (SQLException e)
+        { throw new RuntimeException("Failed to read the database product of the connection", e); }
+    }
+
+    /**
+     * Adds a dialect, tried before the built-in ones.
+     *
+     * @param dialect The dialect.
+     */
+    public static void register(Dialect dialect) {
+        DIALECTS.add(0, dialect);
+        BY_URL.clear();
+    }
+
+    /**
+     * Uses one dialect for every connection, without looking at the database.
+     *
+     * @param dialect The dialect, or null to detect it again.
+     */
+    public static void setDefault(Dialect dialect)
+    { defaultDialect = dialect; }
+}
@@ -0,0 +1,66 @@
+package mg.jwe.orm.dialect;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Locale;
+import java.util.StringJoiner;
+import java.util.UUID;
+
+import mg.jwe.orm.metadata.EntityMetadata;
+
+/**
+ * H2, mostly embedded for tests: {@code MERGE ... KEY} upserts, generated keys by column name and
+ * IN lists bound as one array.
+ */
+public class H2Dialect extends Dialect {
+
+    @Override
+    public String getName()
+    { return "H2"; }
+
+    @Override
+    public boolean matches(String productName)
+    { return productName.equalsIgnoreCase("H2"); }
+
+    /**
+     * Asks for the id column only; H2 folds unquoted names to upper case.
+     */
+    @Override
+    public PreparedStatement prepareInsert(Connection connection, String sql, EntityMetadata metadata) throws SQLException {
+        if (metadata.getIdColumn() == null)
+        { return connection.prepareStatement(sql); }
+
+        return connection.prepareStatement(sql, new String[] { metadata.getIdColumnName().toUpperCase(Locale.ROOT) });
+    }
+
+    @Override
+    public String upsert(String table, List<String> columns, List<String> keyColumns) {
+        StringJoiner names = new StringJoiner(", ", "(", ")");
+        StringJoiner placeholders = new StringJoiner(", ", "(", ")");
+        for (String column : columns) {
+            names.add(column);
+            placeholders.add("?");
+        }
+
+        return "MERGE INTO " + table + " " + names + " KEY (" + String.join(", ", keyColumns) + ") VALUES " + placeholders;
+    }
+
+    @Override
+    protected String arrayType(Class<?> type) {
+        if (type == Integer.class || type == int.class)
+        { return "INTEGER"; }
+
+        if (type == Long.class || type == long.class)
+        { return "BIGINT"; }
+
+        if (type == String.class)
+        { return "VARCHAR"; }
+
+        if (type == UUID.class)
+        { return "UUID"; }
+
+        return null;
+    }
+}
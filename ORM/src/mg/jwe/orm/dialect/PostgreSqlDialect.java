@@ -0,0 +1,174 @@
+package mg.jwe.orm.dialect;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Locale;
+import java.util.StringJoiner;
+import java.util.UUID;
+
+import mg.jwe.orm.metadata.EntityMetadata;
+
+/**
+ * PostgreSQL: {@code INSERT ... ON CONFLICT} upserts, {@code RETURNING} of the id column only,
+ * IN lists bound as one array with {@code = ANY(?)}, and bulk loads through {@code COPY FROM STDIN}.
+ * <p>
+ * COPY uses the CopyManager of the PostgreSQL driver, reached through reflection so the ORM does
+ * not depend on the driver; without it, bulk loads fall back to JDBC batches.
+ * </p>
+ */
+public class PostgreSqlDialect extends Dialect {
+
+    /** Rows sent by one COPY statement. */
+    private static final int COPY_CHUNK = 10_000;
+
+    @Override
+    public String getName()
+    { return "PostgreSQL"; }
+
+    @Override
+    public boolean matches(String productName)
+    { return productName.equalsIgnoreCase("PostgreSQL"); }
+
+    /**
+     * Asks for the id column only, which the driver turns into {@code RETURNING id} instead of
+     * {@code RETURNING *}; PostgreSQL folds unquoted names to lower case.
+     */
+    @Override
+    public PreparedStatement prepareInsert(Connection connection, String sql, EntityMetadata metadata) throws SQLException {
+        if (metadata.getIdColumn() == null)
+        { return connection.prepareStatement(sql); }
+
+        return connection.prepareStatement(sql, new String[] { metadata.getIdColumnName().toLowerCase(Locale.ROOT) });
+    }
+
+    @Override
+    public String upsert(String table, List<String> columns, List<String> keyColumns) {
+        StringJoiner names = new StringJoiner(", ", "(", ")");
+        StringJoiner placeholders = new StringJoiner(", ", "(", ")");
+        StringJoiner updates = new StringJoiner(", ");
+        for (String column : columns) {
+            names.add(column);
+            placeholders.add("?");
+            if (!containsIgnoreCase(keyColumns, column))
+            { updates.add(column + " = EXCLUDED." + column); }
+        }
+
+        String sql = "INSERT INTO " + table + " " + names + " VALUES " + placeholders
+            + " ON CONFLICT (" + String.join(", ", keyColumns) + ")";
+
+        return updates.length() == 0 ? sql + " DO NOTHING" : sql + " DO UPDATE SET " + updates;
+    }
+
+    @Override
+    protected String arrayType(Class<?> type) {
+        if (type == Integer.class || type == int.class)
+        { return "int4"; }
+
+        if (type == Long.class || type == long.class)
+        { return "int8"; }
+
+        if (type == Short.class || type == short.class)
+        { return "int2"; }
+
+        if (type == String.class)
+        { return "text"; }
+
+        if (type == UUID.class)
+        { return "uuid"; }
+
+        if (type == BigDecimal.class)
+        { return "numeric"; }
+
+        return null;
+    }
+
+    /**
+     * Sends the rows as CSV with {@code COPY table (columns) FROM STDIN}, in chunks.
+     */
+    @Override
+    public long bulkLoad(Connection connection, String table, List<String> columns, List<Object[]> rows) throws SQLException {
+        Object copyManager;
+        Method copyIn;
+
+        try {
+            ClassLoader loader = connection.getClass().getClassLoader();
+            Class<?> baseConnection = Class.forName("org.postgresql.core.BaseConnection", true, loader);
+            Class<?> copyManagerClass = Class.forName("org.postgresql.copy.CopyManager", true, loader);
+
+            copyManager = copyManagerClass.getConstructor(baseConnection).newInstance(connection.unwrap(baseConnection));
+            copyIn = copyManagerClass.getMethod("copyIn", String.class, Reader.class);
+        }
+
+        catch (ReflectiveOperationException | SQLException e)
+        { return super.bulkLoad(connection, table, columns, rows); }
+
+        String sql = "COPY " + table + " (" + String.join(", ", columns) + ") FROM STDIN WITH (FORMAT csv)";
+        long loaded = 0;
+
+        for (int from = 0; from < rows.size(); from += COPY_CHUNK) {
+            StringBuilder csv = new StringBuilder();
+            for (Object[] row : rows.subList(from, Math.min(rows.size(), from + COPY_CHUNK))) {
+                for (int i = 0; i < row.length; i++) {
+                    if (i > 0)
+                    { csv.append(','); }
+
+                    appendCsv(csv, row[i]);
+                }
+
+                csv.append('\n');
+            }
+
+            try
+            { loaded += (Long) copyIn.invoke(copyManager, sql, new StringReader(csv.toString())); }
+
+            catch (InvocationTargetException e) {
+                if (e.getCause() instanceof SQLException)
+                { throw (SQLException) e.getCause(); }
+
+                throw new SQLException("COPY into " + table + " failed", e.getCause());
+            }
+
+            catch (IllegalAccessException e)
+            { throw new SQLException("COPY into " + table + " failed", e); }
+        }
+
+        return loaded;
+    }
+
+    /**
+     * Appends a CSV field: NULL unquoted and empty, every other value quoted.
+     */
+    private static void appendCsv(StringBuilder csv, Object value) {
+        if (value == null)
+        { return; }
+
+        String text;
+        if (value instanceof byte[]) {
+            StringBuilder hex = new StringBuilder("\\x");
+            for (byte b : (byte[]) value)
+            { hex.append(String.format(Locale.ROOT, "%02x", b)); }
+            text = hex.toString();
+        }
+
+        else
+        { text = value.toString(); }
+
+        csv.append('"').append(text.replace("\"", "\"\"")).append('"');
+    }
+
+    private static boolean containsIgnoreCase(List<String> names, String name) {
+        for (String candidate : names) {
+            if (candidate.equalsIgnoreCase(name))
+            { return true; }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,15 @@
+package mg.jwe.orm.dialect;
+
+/**
+ * The portable statements of {@link Dialect}, used for databases without a dedicated dialect.
+ */
+public class StandardDialect extends Dialect {
+
+    @Override
+    public String getName()
+    { return "Standard"; }
+
+    @Override
+    public boolean matches(String productName)
+    { return false; }
+}
@@ -0,0 +1,462 @@
+package mg.jwe.orm.export;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+
+import mg.jwe.orm.base.BaseModel;
+import mg.jwe.orm.criteria.Criterion;
+import mg.jwe.orm.diagnostic.QueryScope;
+import mg.jwe.orm.metadata.ColumnMetadata;
+import mg.jwe.orm.metadata.EntityMetadata;
+import mg.jwe.orm.metadata.ForeignKeyMetadata;
+import mg.jwe.orm.query.UtilQuery;
+import mg.jwe.orm.type.FieldConverter;
+
+/**
+ * Streams the rows of an entity query to CSV or JSON Lines, straight from the cursor.
+ * <p>
+ * No entity is built: each column is read with the typed getter chosen once from its field type
+ * and appended to a row buffer reused for the whole export, which is copied to a buffered writer.
+ * Memory stays flat whatever the number of rows. Columns are the mapped columns of the entity, in
+ * declaration order, then its foreign key columns holding the referenced ids; LOB columns are not
+ * exported.
+ * </p>
+ * <p>
+ * CSV follows RFC 4180 with a header line; NULL is an empty field. JSON Lines writes one object per
+ * row, numbers and booleans unquoted, NULL as null, dates and times in ISO-8601 and binary values
+ * in Base64. PostgreSQL only streams the rows when auto-commit is off; otherwise the driver reads
+ * the whole result before the first row is written.
+ * </p>
+ * Example usage:
+ * <pre>
+ * EntityExporter&lt;Order&gt; exporter = new EntityExporter&lt;&gt;(Order.class, EntityExporter.Format.CSV);
+ * exporter.export(connection, response.getOutputStream(), new Criterion("status", "=", "PAID"));
+ * </pre>
+ *
+ * @param <T> The entity type
+ */
+public class EntityExporter<T extends BaseModel> {
+
+    /** The output formats. */
+    public enum Format { CSV, JSON_LINES }
+
+    private static final int WHOLE = 0;
+    private static final int DECIMAL = 1;
+    private static final int FLOAT = 2;
+    private static final int BOOLEAN = 3;
+    private static final int NUMBER_TEXT = 4;
+    private static final int TEXT = 5;
+    private static final int BINARY = 6;
+    private static final int TEMPORAL = 7;
+
+    private final Class<T> entityClass;
+    private final EntityMetadata metadata;
+    private final Format format;
+    private final List<ExportColumn> columns = new ArrayList<>();
+    private final String selectList;
+
+    private int fetchSize = 1_000;
+    private boolean header = true;
+
+    public EntityExporter(Class<T> entityClass, Format format) {
+        this.entityClass = entityClass;
+        this.metadata = EntityMetadata.of(entityClass);
+        this.format = format;
+
+        for (ColumnMetadata column : metadata.getColumns())
+        { columns.add(new ExportColumn(column.getColumnName(), column.getField().getType(), column.getConverter())); }
+
+        for (ForeignKeyMetadata foreignKey : metadata.getForeignKeys()) {
+            ColumnMetadata targetId = foreignKey.getTargetMetadata().getIdColumn();
+            columns.add(new ExportColumn(foreignKey.getColumnName(), targetId.getField().getType(), targetId.getConverter()));
+        }
+
+        StringBuilder select = new StringBuilder();
+        for (ExportColumn column : columns)
+        { select.append(select.length() == 0 ? "" : ", ").append(column.name); }
+
+        this.selectList = select.toString();
+    }
+
+    /**
+     * Exports the rows matching every criterion, ordered by id, as UTF-8.
+     *
+     * @param connection The connection to read with.
+     * @param out The stream to write to, flushed but not closed.
+     * @param criteria The criteria, joined with AND; none for the whole table.
+     * @return The number of rows written.
+     * @throws SQLException If the query fails.
+     * @throws IOException If the stream cannot be written.
+     */
+    public long export(Connection connection, OutputStream out, Criterion... criteria) throws SQLException, IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+        long rows = export(connection, writer, criteria);
+        writer.flush();
+        return rows;
+    }
+
+    /**
+     * Exports the rows matching every criterion, ordered by id.
+     *
+     * @param connection The connection to read with.
+     * @param writer The writer to write to, flushed but not closed.
+     * @param criteria The criteria, joined with AND; none for the whole table.
+     * @return The number of rows written.
+     * @throws SQLException If the query fails.
+     * @throws IOException If the writer fails.
+     */
+    public long export(Connection connection, Writer writer, Criterion... criteria) throws SQLException, IOException {
+        String sql = new UtilQuery().buildCriteriaQuery(selectList, metadata.getTableName(), criteria, "AND", metadata.getIdColumnName());
+
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            Object[] params = BaseModel.bindCriteria(stmt, metadata, criteria);
+            stmt.setFetchSize(fetchSize);
+
+            QueryScope.record(entityClass, sql, params);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                long rows = write(rs, writer instanceof BufferedWriter ? writer : new BufferedWriter(writer, 64 * 1024));
+                writer.flush();
+                return rows;
+            }
+        }
+    }
+
+    private long write(ResultSet rs, Writer writer) throws SQLException, IOException {
+        int[] indexes = resolveIndexes(rs.getMetaData());
+        StringBuilder row = new StringBuilder(256);
+        char[] chunk = new char[256];
+
+        if (format == Format.CSV && header) {
+            for (int i = 0; i < columns.size(); i++) {
+                if (i > 0)
+                { row.append(','); }
+                appendCsv(row, columns.get(i).name);
+            }
+            row.append("\r\n");
+            chunk = flushRow(row, chunk, writer);
+        }
+
+        long count = 0;
+        while (rs.next()) {
+            if (format == Format.CSV)
+            { appendCsvRow(rs, indexes, row); }
+
+            else
+            { appendJsonRow(rs, indexes, row); }
+
+            chunk = flushRow(row, chunk, writer);
+            count++;
+        }
+
+        writer.flush();
+        return count;
+    }
+
+    /**
+     * Copies the row buffer to the writer through a reused char array, then clears it.
+     */
+    private static char[] flushRow(StringBuilder row, char[] chunk, Writer writer) throws IOException {
+        int length = row.length();
+        if (chunk.length < length)
+        { chunk = new char[Math.max(length, chunk.length * 2)]; }
+
+        row.getChars(0, length, chunk, 0);
+        writer.write(chunk, 0, length);
+        row.setLength(0);
+        return chunk;
+    }
+
+    private int[] resolveIndexes(ResultSetMetaData rsMeta) throws SQLException {
+        int[] indexes = new int[columns.size()];
+        int count = rsMeta.getColumnCount();
+
+        for (int i = 0; i < columns.size(); i++) {
+            String name = columns.get(i).name;
+            for (int j = 1; j <= count && indexes[i] == 0; j++) {
+                if (rsMeta.getColumnLabel(j).equalsIgnoreCase(name))
+                { indexes[i] = j; }
+            }
+
+            if (indexes[i] == 0)
+            { throw new SQLException("Column " + name + " missing from the export of " + metadata.getTableName()); }
+        }
+
+        return indexes;
+    }
+
+    private void appendCsvRow(ResultSet rs, int[] indexes, StringBuilder row) throws SQLException {
+        for (int i = 0; i < indexes.length; i++) {
+            if (i > 0)
+            { row.append(','); }
+
+            ExportColumn column = columns.get(i);
+            int index = indexes[i];
+
+            switch (column.kind) {
+                case WHOLE: {
+                    long value = rs.getLong(index);
+                    if (!rs.wasNull())
+                    { row.append(value); }
+                    break;
+                }
+                case DECIMAL: {
+                    double value = rs.getDouble(index);
+                    if (!rs.wasNull())
+                    { row.append(value); }
+                    break;
+                }
+                case FLOAT: {
+                    // read as a float, so it is written as the field holds it: 0.1, not 0.10000000149011612
+                    float value = rs.getFloat(index);
+                    if (!rs.wasNull())
+                    { row.append(value); }
+                    break;
+                }
+                case BOOLEAN: {
+                    boolean value = rs.getBoolean(index);
+                    if (!rs.wasNull())
+                    { row.append(value); }
+                    break;
+                }
+                case NUMBER_TEXT:
+                case TEXT: {
+                    String value = rs.getString(index);
+                    if (value != null)
+                    { appendCsv(row, value); }
+                    break;
+                }
+                default: {
+                    String value = formatObject(column, rs, index);
+                    if (value != null)
+                    { appendCsv(row, value); }
+                    break;
+                }
+            }
+        }
+
+        row.append("\r\n");
+    }
+
+    private void appendJsonRow(ResultSet rs, int[] indexes, StringBuilder row) throws SQLException {
+        row.append('{');
+
+        for (int i = 0; i < indexes.length; i++) {
+            ExportColumn column = columns.get(i);
+            int index = indexes[i];
+            row.append(i == 0 ? "" : ",").append(column.jsonKey);
+
+            switch (column.kind) {
+                case WHOLE: {
+                    long value = rs.getLong(index);
+                    if (rs.wasNull())
+                    { row.append("null"); }
+
+                    else
+                    { row.append(value); }
+                    break;
+                }
+                case DECIMAL: {
+                    double value = rs.getDouble(index);
+                    if (rs.wasNull() || Double.isNaN(value) || Double.isInfinite(value))
+                    { row.append("null"); }
+
+                    else
+                    { row.append(value); }
+                    break;
+                }
+                case FLOAT: {
+                    float value = rs.getFloat(index);
+                    if (rs.wasNull() || Float.isNaN(value) || Float.isInfinite(value))
+                    { row.append("null"); }
+
+                    else
+                    { row.append(value); }
+                    break;
+                }
+                case BOOLEAN: {
+                    boolean value = rs.getBoolean(index);
+                    row.append(rs.wasNull() ? "null" : value ? "true" : "false");
+                    break;
+                }
+                case NUMBER_TEXT: {
+                    String value = rs.getString(index);
+                    row.append(value == null ? "null" : value);
+                    break;
+                }
+                case TEXT: {
+                    String value = rs.getString(index);
+                    appendJsonString(row, value);
+                    break;
+                }
+                default:
+                    appendJsonString(row, formatObject(column, rs, index));
+                    break;
+            }
+        }
+
+        row.append("}\n");
+    }
+
+    /**
+     * Reads a binary or temporal column through its converter and formats it.
+     */
+    private static String formatObject(ExportColumn column, ResultSet rs, int index) throws SQLException {
+        Object value = column.converter.read(rs, index);
+        if (value == null)
+        { return null; }
+
+        if (column.kind == BINARY)
+        { return Base64.getEncoder().encodeToString((byte[]) value); }
+
+        if (value instanceof Timestamp)
+        { return ((Timestamp) value).toLocalDateTime().toString(); }
+
+        if (value instanceof Date)
+        { return ((Date) value).toLocalDate().toString(); }
+
+        if (value instanceof Time)
+        { return ((Time) value).toLocalTime().toString(); }
+
+        if (value instanceof java.util.Date)
+        { return ((java.util.Date) value).toInstant().toString(); }
+
+        return value.toString();
+    }
+
+    private static void appendCsv(StringBuilder row, String value) {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+
+        if (!quote) {
+            row.append(value);
+            return;
+        }
+
+        row.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"')
+            { row.append('"'); }
+            row.append(c);
+        }
+        row.append('"');
+    }
+
+    private static void appendJsonString(StringBuilder row, String value) {
+        if (value == null) {
+            row.append("null");
+            return;
+        }
+
+        row.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    row.append("\\\"");
+                    break;
+                case '\\':
+                    row.append("\\\\");
+                    break;
+                case '\n':
+                    row.append("\\n");
+                    break;
+                case '\r':
+                    row.append("\\r");
+                    break;
+                case '\t':
+                    row.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20)
+                    { row.append(String.format(Locale.ROOT, "\\u%04x", (int) c)); }
+
+                    else
+                    { row.append(c); }
+                    break;
+            }
+        }
+        row.append('"');
+    }
+
+    /**
+     * @param fetchSize The number of rows the driver fetches at once, 1 000 by default
+     */
+    public void setFetchSize(int fetchSize)
+    { this.fetchSize = fetchSize; }
+
+    /**
+     * @param header false to leave out the CSV header line, true by default
+     */
+    public void setHeader(boolean header)
+    { this.header = header; }
+
+    /**
+     * An exported column: its name, its precomputed JSON key and how its values are read.
+     */
+    private static final class ExportColumn {
+
+        private final String name;
+        private final String jsonKey;
+        private final int kind;
+        private final FieldConverter converter;
+
+        ExportColumn(String name, Class<?> type, FieldConverter converter) {
+            this.name = name;
+            this.converter = converter;
+            this.kind = kindOf(type);
+
+            StringBuilder key = new StringBuilder();
+            appendJsonString(key, name);
+            this.jsonKey = key.append(':').toString();
+        }
+
+        private static int kindOf(Class<?> type) {
+            if (type == int.class || type == Integer.class || type == long.class || type == Long.class
+                || type == short.class || type == Short.class)
+            { return WHOLE; }
+
+            if (type == double.class || type == Double.class)
+            { return DECIMAL; }
+
+            if (type == float.class || type == Float.class)
+            { return FLOAT; }
+
+            if (type == boolean.class || type == Boolean.class)
+            { return BOOLEAN; }
+
+            if (type == BigDecimal.class || type == BigInteger.class)
+            { return NUMBER_TEXT; }
+
+            if (type == byte[].class)
+            { return BINARY; }
+
+            if (type == String.class || type == java.util.UUID.class || type.isEnum())
+            { return TEXT; }
+
+            return TEMPORAL;
+        }
+    }
+}
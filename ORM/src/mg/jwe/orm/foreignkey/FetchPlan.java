@@ -0,0 +1,499 @@
+package mg.jwe.orm.foreignkey;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import mg.jwe.orm.base.BaseModel;
+import mg.jwe.orm.criteria.Criterion;
+import mg.jwe.orm.diagnostic.QueryScope;
+import mg.jwe.orm.dialect.Dialect;
+import mg.jwe.orm.dialect.Dialects;
+import mg.jwe.orm.mapper.ColumnPlan;
+import mg.jwe.orm.metadata.ColumnMetadata;
+import mg.jwe.orm.metadata.EntityMetadata;
+import mg.jwe.orm.metadata.ForeignKeyMetadata;
+import mg.jwe.orm.query.UtilQuery;
+
+/**
+ * The foreign keys to load with a query, as paths of foreign key fields, resolved breadth-first.
+ * <p>
+ * The roots are read with their foreign key columns. Then, level by level, the referenced ids of
+ * every entity of the level are collected and each referenced class is read with one {@code IN}
+ * query per level, instead of one query per entity and foreign key. Entities are shared by id
+ * within a load: an entity already read is never read again, so cycles end, and each row is one
+ * instance. Foreign keys outside the plan are left null, as lazy ones are.
+ * </p>
+ * <p>
+ * Paths are limited to {@link #setMaxDepth(int) max depth} foreign keys, {@value #DEFAULT_MAX_DEPTH}
+ * by default. {@link #eager(Class)} builds the plan of every non-lazy foreign key down to that
+ * depth, stopping where a path comes back to a class it went through.
+ * </p>
+ * Example usage:
+ * <pre>
+ * FetchPlan&lt;Order&gt; plan = FetchPlan.of(Order.class)
+ *     .fetch("customer.address")
+ *     .fetch("product");
+ * Order[] orders = plan.findByCriteria(connection, new Criterion("status", "=", "PAID"));
+ * // 4 queries whatever the number of orders: orders, customers, addresses, products
+ * </pre>
+ *
+ * @param <T> The root entity type
+ */
+@SuppressWarnings("unchecked")
+public class FetchPlan<T extends BaseModel> {
+
+    /** Default maximum number of foreign keys in a path. */
+    public static final int DEFAULT_MAX_DEPTH = 3;
+
+    private final Class<T> rootClass;
+    private final Node root;
+    private int maxDepth = DEFAULT_MAX_DEPTH;
+
+    private FetchPlan(Class<T> rootClass) {
+        this.rootClass = rootClass;
+        this.root = new Node(null, EntityMetadata.of(rootClass));
+    }
+
+    /**
+     * Creates a plan loading the roots only; add paths with {@link #fetch(String)}.
+     *
+     * @param rootClass The entity class queried.
+     * @return The empty plan.
+     */
+    public static <T extends BaseModel> FetchPlan<T> of(Class<T> rootClass)
+    { return new FetchPlan<>(rootClass); }
+
+    /**
+     * Creates the plan of every non-lazy foreign key, down to {@value #DEFAULT_MAX_DEPTH} levels.
+     *
+     * @param rootClass The entity class queried.
+     * @return The plan.
+     */
+    public static <T extends BaseModel> FetchPlan<T> eager(Class<T> rootClass)
+    { return eager(rootClass, DEFAULT_MAX_DEPTH); }
+
+    /**
+     * Creates the plan of every non-lazy foreign key, down to a given depth. A path stops before a
+     * class it already went through.
+     *
+     * @param rootClass The entity class queried.
+     * @param maxDepth The most foreign keys in a path.
+     * @return The plan.
+     */
+    public static <T extends BaseModel> FetchPlan<T> eager(Class<T> rootClass, int maxDepth) {
+        FetchPlan<T> plan = new FetchPlan<>(rootClass);
+        plan.maxDepth = maxDepth;
+
+        Set<Class<?>> visited = new LinkedHashSet<>();
+        visited.add(rootClass);
+        addEager(plan.root, visited, maxDepth);
+        return plan;
+    }
+
+    private static void addEager(Node node, Set<Class<?>> visited, int remaining) {
+        if (remaining == 0)
+        { return; }
+
+        for (ForeignKeyMetadata foreignKey : node.metadata.getForeignKeys()) {
+            if (foreignKey.isLazy() || !visited.add(foreignKey.getTargetType()))
+            { continue; }
+
+            Node child = node.child(foreignKey);
+            addEager(child, visited, remaining - 1);
+            visited.remove(foreignKey.getTargetType());
+        }
+    }
+
+    /**
+     * Adds a path of foreign key fields to load, such as {@code "customer.address"}. Lazy foreign keys
+     * are loaded too when named.
+     *
+     * @param path The field names, separated by dots, starting from the root class.
+     * @return This plan.
+     * @throws RuntimeException If a name is not a foreign key field, or the path is deeper than the max depth.
+     */
+    public FetchPlan<T> fetch(String path) {
+        String[] fields = path.split("\\.");
+        if (fields.length > maxDepth)
+        { throw new RuntimeException("Fetch path " + path + " is deeper than the max depth " + maxDepth); }
+
+        Node node = root;
+        for (String field : fields) {
+            ForeignKeyMetadata foreignKey = null;
+            for (ForeignKeyMetadata candidate : node.metadata.getForeignKeys()) {
+                if (candidate.getField().getName().equals(field))
+                { foreignKey = candidate; }
+            }
+
+            if (foreignKey == null)
+            { throw new RuntimeException("No foreign key " + field + " in " + node.metadata.getEntityClass().getName() + " for fetch path " + path); }
+
+            node = node.child(foreignKey);
+        }
+
+        return this;
+    }
+
+    /**
+     * @param maxDepth The most foreign keys in a path added with {@link #fetch(String)}
+     * @return This plan.
+     */
+    public FetchPlan<T> setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+        return this;
+    }
+
+    /**
+     * Reads every row of the root table, ordered by id, with the foreign keys of the plan.
+     *
+     * @param connection The connection to read with.
+     * @return The roots.
+     * @throws SQLException If a query fails.
+     */
+    public T[] getAll(Connection connection) throws SQLException
+    { return findByCriteria(connection); }
+
+    /**
+     * Reads one root by id, with the foreign keys of the plan.
+     *
+     * @param connection The connection to read with.
+     * @param id The id of the root.
+     * @return The root, or null if no row has this id.
+     * @throws SQLException If a query fails.
+     */
+    public T findById(Connection connection, Object id) throws SQLException {
+        T[] found = findByCriteria(connection, new Criterion(root.metadata.getIdColumnName(), "=", id));
+        return found.length == 0 ? null : found[0];
+    }
+
+    /**
+     * Reads the roots matching every criterion, ordered by id, with the foreign keys of the plan.
+     *
+     * @param connection The connection to read with.
+     * @param criteria The criteria, joined with AND.
+     * @return The roots.
+     * @throws SQLException If a query fails.
+     */
+    public T[] findByCriteria(Connection connection, Criterion... criteria) throws SQLException {
+        EntityMetadata metadata = root.metadata;
+        String sql = new UtilQuery().buildCriteriaQuery(selectList(metadata), metadata.getTableName(), criteria, "AND", metadata.getIdColumnName());
+        return read(connection, sql, criteria);
+    }
+
+    /**
+     * Reads the first roots by id matching every criterion, with the foreign keys of the plan. With
+     * an {@code id > last id} criterion, successive calls read a table page by page without OFFSET.
+     *
+     * @param connection The connection to read with.
+     * @param limit The most roots to read.
+     * @param criteria The criteria, joined with AND.
+     * @return The roots, ordered by id.
+     * @throws SQLException If a query fails.
+     */
+    public T[] findPage(Connection connection, int limit, Criterion... criteria) throws SQLException {
+        EntityMetadata metadata = root.metadata;
+        String sql = Dialects.of(connection).limit(
+            new UtilQuery().buildCriteriaQuery(selectList(metadata), metadata.getTableName(), criteria, "AND", metadata.getIdColumnName()), limit, 0
+        );
+        return read(connection, sql, criteria);
+    }
+
+    private T[] read(Connection connection, String sql, Criterion[] criteria) throws SQLException {
+        Load load = new Load();
+        EntityMetadata metadata = root.metadata;
+
+        List<BaseModel> roots;
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            Object[] params = BaseModel.bindCriteria(stmt, metadata, criteria);
+            QueryScope.record(rootClass, sql, params);
+
+            try (ResultSet rs = stmt.executeQuery())
+            { roots = load.read(rs, metadata); }
+        }
+
+        resolve(connection, load, roots);
+
+        T[] array = (T[]) java.lang.reflect.Array.newInstance(rootClass, roots.size());
+        return roots.toArray(array);
+    }
+
+    /**
+     * Loads the levels of the plan below the roots, breadth-first.
+     */
+    private void resolve(Connection connection, Load load, List<BaseModel> roots) throws SQLException {
+        Map<Node, List<BaseModel>> level = new LinkedHashMap<>();
+        if (!root.children.isEmpty())
+        { level.put(root, roots); }
+
+        while (!level.isEmpty()) {
+            // the ids still to read, by referenced class, for the whole level
+            Map<Class<?>, Set<Object>> missing = new LinkedHashMap<>();
+            for (Map.Entry<Node, List<BaseModel>> entry : level.entrySet()) {
+                for (Node child : entry.getKey().children.values()) {
+                    for (BaseModel instance : entry.getValue()) {
+                        Object id = load.referencedId(instance, child.foreignKey);
+                        if (id != null && !load.contains(child.metadata.getEntityClass(), id))
+                        { missing.computeIfAbsent(child.metadata.getEntityClass(), clazz -> new LinkedHashSet<>()).add(id); }
+                    }
+                }
+            }
+
+            for (Map.Entry<Class<?>, Set<Object>> entry : missing.entrySet())
+            { readByIds(connection, load, EntityMetadata.of(entry.getKey()), new ArrayList<>(entry.getValue())); }
+
+            Map<Node, List<BaseModel>> next = new LinkedHashMap<>();
+            for (Map.Entry<Node, List<BaseModel>> entry : level.entrySet()) {
+                for (Node child : entry.getKey().children.values()) {
+                    Set<BaseModel> targets = Collections.newSetFromMap(new IdentityHashMap<>());
+
+                    for (BaseModel instance : entry.getValue()) {
+                        Object id = load.referencedId(instance, child.foreignKey);
+                        BaseModel target = id == null ? null : load.get(child.metadata.getEntityClass(), id);
+                        child.foreignKey.set(instance, target);
+                        if (target != null)
+                        { targets.add(target); }
+                    }
+
+                    if (!child.children.isEmpty() && !targets.isEmpty())
+                    { next.computeIfAbsent(child, node -> new ArrayList<>()).addAll(targets); }
+                }
+            }
+
+            level = next;
+        }
+    }
+
+    /**
+     * Loads foreign keys of entities already read, then the non-lazy foreign keys of the entities
+     * they reference, level by level, until a level reads no new entity.
+     * <p>
+     * Each level reads the missing ids of each referenced class with one {@code IN} or
+     * {@code = ANY(?)} query per chunk the dialect accepts. An entity referenced several times is
+     * read once and shared, so cyclic foreign keys end; the given entities are shared too when they
+     * are fully loaded. The non-lazy collections of the entities read are loaded, as
+     * {@link BaseModel#findById} loads them.
+     * </p>
+     *
+     * @param connection The connection to read with.
+     * @param instances The entities, of one class.
+     * @param foreignKeys The foreign keys of the entities to load.
+     * @param referencedIds For each entity, the ids its row references, in the order of the foreign keys.
+     * @throws SQLException If a query fails.
+     */
+    public static void loadEager(Connection connection, List<? extends BaseModel> instances,
+        List<ForeignKeyMetadata> foreignKeys, List<Object[]> referencedIds) throws SQLException
+    {
+        if (instances.isEmpty() || foreignKeys.isEmpty())
+        { return; }
+
+        Load load = new Load();
+        for (int i = 0; i < instances.size(); i++)
+        { load.add(instances.get(i), foreignKeys, referencedIds.get(i)); }
+
+        Map<Class<?>, List<ForeignKeyMetadata>> nonLazy = new HashMap<>();
+        Map<Class<?>, List<BaseModel>> read = new LinkedHashMap<>();
+        List<? extends BaseModel> level = instances;
+        boolean roots = true;
+
+        while (!level.isEmpty()) {
+            Map<Class<?>, Set<Object>> missing = new LinkedHashMap<>();
+            for (BaseModel instance : level) {
+                for (ForeignKeyMetadata foreignKey : roots ? foreignKeys : nonLazy(nonLazy, instance)) {
+                    Object id = load.referencedId(instance, foreignKey);
+                    if (id != null && !load.contains(foreignKey.getTargetType(), id))
+                    { missing.computeIfAbsent(foreignKey.getTargetType(), clazz -> new LinkedHashSet<>()).add(id); }
+                }
+            }
+
+            List<BaseModel> next = new ArrayList<>();
+            for (Map.Entry<Class<?>, Set<Object>> entry : missing.entrySet()) {
+                List<BaseModel> rows = readByIds(connection, load, EntityMetadata.of(entry.getKey()), new ArrayList<>(entry.getValue()));
+                read.computeIfAbsent(entry.getKey(), clazz -> new ArrayList<>()).addAll(rows);
+                next.addAll(rows);
+            }
+
+            for (BaseModel instance : level) {
+                for (ForeignKeyMetadata foreignKey : roots ? foreignKeys : nonLazy(nonLazy, instance)) {
+                    Object id = load.referencedId(instance, foreignKey);
+                    if (id != null)
+                    { foreignKey.set(instance, load.get(foreignKey.getTargetType(), id)); }
+                }
+            }
+
+            level = next;
+            roots = false;
+        }
+
+        for (List<BaseModel> entities : read.values())
+        { UtilFK.loadEagerCollections(connection, entities); }
+    }
+
+    private static List<ForeignKeyMetadata> nonLazy(Map<Class<?>, List<ForeignKeyMetadata>> byClass, BaseModel instance) {
+        return byClass.computeIfAbsent(instance.getClass(), clazz -> {
+            List<ForeignKeyMetadata> foreignKeys = new ArrayList<>();
+            for (ForeignKeyMetadata foreignKey : EntityMetadata.of(clazz).getForeignKeys()) {
+                if (!foreignKey.isLazy())
+                { foreignKeys.add(foreignKey); }
+            }
+            return foreignKeys;
+        });
+    }
+
+    /**
+     * Reads entities by id into a load, in chunks the dialect accepts.
+     *
+     * @return The entities read.
+     */
+    private static List<BaseModel> readByIds(Connection connection, Load load, EntityMetadata metadata, List<Object> ids)
+        throws SQLException
+    {
+        ColumnMetadata idColumn = metadata.getIdColumn();
+        Dialect dialect = Dialects.of(connection);
+        int chunkSize = Math.min(ids.size(), dialect.getMaxInValues(idColumn));
+        List<BaseModel> read = new ArrayList<>();
+
+        for (int from = 0; from < ids.size(); from += chunkSize) {
+            List<Object> chunk = ids.subList(from, Math.min(ids.size(), from + chunkSize));
+
+            String sql = "SELECT " + selectList(metadata) + " FROM " + metadata.getTableName()
+                + " WHERE " + dialect.inCondition(metadata.getIdColumnName(), idColumn, chunk.size());
+
+            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+                dialect.bindIn(stmt, 1, idColumn, chunk);
+
+                QueryScope.record(metadata.getEntityClass(), sql, chunk.toArray());
+
+                try (ResultSet rs = stmt.executeQuery())
+                { read.addAll(load.read(rs, metadata)); }
+            }
+        }
+
+        return read;
+    }
+
+    /**
+     * The mapped columns and the foreign key columns of an entity; LOB columns are read on demand.
+     */
+    private static String selectList(EntityMetadata metadata) {
+        StringBuilder list = new StringBuilder();
+        for (ColumnMetadata column : metadata.getColumns())
+        { list.append(list.length() == 0 ? "" : ", ").append(column.getColumnName()); }
+
+        for (ForeignKeyMetadata foreignKey : metadata.getForeignKeys())
+        { list.append(", ").append(foreignKey.getColumnName()); }
+
+        return list.toString();
+    }
+
+    /**
+     * A foreign key of the plan, and the foreign keys to load below it.
+     */
+    private static final class Node {
+
+        private final ForeignKeyMetadata foreignKey;
+        private final EntityMetadata metadata;
+        private final Map<String, Node> children = new LinkedHashMap<>();
+
+        Node(ForeignKeyMetadata foreignKey, EntityMetadata metadata) {
+            this.foreignKey = foreignKey;
+            this.metadata = metadata;
+        }
+
+        Node child(ForeignKeyMetadata foreignKey) {
+            return children.computeIfAbsent(foreignKey.getField().getName(),
+                name -> new Node(foreignKey, foreignKey.getTargetMetadata()));
+        }
+    }
+
+    /**
+     * The entities read by one load, by class and id, with the foreign key ids of their rows.
+     */
+    private static final class Load {
+
+        private final Map<Class<?>, Map<Object, BaseModel>> entities = new HashMap<>();
+        private final Map<BaseModel, Object[]> referencedIds = new IdentityHashMap<>();
+
+        /**
+         * Maps the rows of a result set, keeping the instance already read for a known id.
+         */
+        List<BaseModel> read(ResultSet rs, EntityMetadata metadata) throws SQLException {
+            Class<? extends BaseModel> clazz = (Class<? extends BaseModel>) metadata.getEntityClass();
+            ColumnPlan<? extends BaseModel> plan = ColumnPlan.of(rs, clazz);
+            List<ForeignKeyMetadata> foreignKeys = metadata.getForeignKeys();
+            int[] fkIndexes = new int[foreignKeys.size()];
+            for (int i = 0; i < fkIndexes.length; i++)
+            { fkIndexes[i] = plan.indexOf(foreignKeys.get(i).getColumnName()); }
+
+            Map<Object, BaseModel> byId = entities.computeIfAbsent(clazz, key -> new HashMap<>());
+            List<BaseModel> rows = new ArrayList<>();
+
+            while (rs.next()) {
+                BaseModel instance = plan.mapRow(rs);
+                BaseModel known = byId.putIfAbsent(metadata.getId(instance), instance);
+                if (known != null) {
+                    rows.add(known);
+                    continue;
+                }
+
+                Object[] ids = new Object[fkIndexes.length];
+                for (int i = 0; i < fkIndexes.length; i++) {
+                    if (fkIndexes[i] > 0)
+                    { ids[i] = foreignKeys.get(i).getTargetMetadata().getIdColumn().getConverter().read(rs, fkIndexes[i]); }
+                }
+
+                referencedIds.put(instance, ids);
+                rows.add(instance);
+            }
+
+            return rows;
+        }
+
+        /**
+         * Adds an entity read elsewhere, with the ids of some of its foreign keys.
+         */
+        void add(BaseModel instance, List<ForeignKeyMetadata> foreignKeys, Object[] ids) {
+            EntityMetadata metadata = EntityMetadata.of(instance.getClass());
+            List<ForeignKeyMetadata> all = metadata.getForeignKeys();
+            Object[] aligned = new Object[all.size()];
+            for (int i = 0; i < foreignKeys.size(); i++) {
+                int index = all.indexOf(foreignKeys.get(i));
+                if (index >= 0)
+                { aligned[index] = ids[i]; }
+            }
+
+            referencedIds.put(instance, aligned);
+
+            // a partially loaded entity is not handed out as a reference
+            Object id = metadata.getId(instance);
+            if (id != null && instance.isFullyLoaded())
+            { entities.computeIfAbsent(instance.getClass(), key -> new HashMap<>()).putIfAbsent(id, instance); }
+        }
+
+        Object referencedId(BaseModel instance, ForeignKeyMetadata foreignKey) {
+            Object[] ids = referencedIds.get(instance);
+            int index = EntityMetadata.of(instance.getClass()).getForeignKeys().indexOf(foreignKey);
+            return ids == null || index < 0 ? null : ids[index];
+        }
+
+        boolean contains(Class<?> clazz, Object id) {
+            Map<Object, BaseModel> byId = entities.get(clazz);
+            return byId != null && byId.containsKey(id);
+        }
+
+        BaseModel get(Class<?> clazz, Object id) {
+            Map<Object, BaseModel> byId = entities.get(clazz);
+            return byId == null ? null : byId.get(id);
+        }
+    }
+}
@@ -5,16 +5,34 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import mg.jwe.orm.annotations.Column;
 import mg.jwe.orm.annotations.ForeignKey;
 import mg.jwe.orm.annotations.Id;
-import mg.jwe.orm.annotations.Table;
+import mg.jwe.orm.annotations.OneToMany;
 import mg.jwe.orm.base.BaseModel;
+import mg.jwe.orm.diagnostic.OrmEvent;
+import mg.jwe.orm.diagnostic.QueryScope;
+import mg.jwe.orm.dialect.Dialect;
+import mg.jwe.orm.dialect.Dialects;
+import mg.jwe.orm.mapper.ColumnPlan;
+import mg.jwe.orm.metadata.EntityMetadata;
+import mg.jwe.orm.metadata.ForeignKeyMetadata;
+import mg.jwe.orm.metadata.OneToManyMetadata;
+import mg.jwe.orm.type.UtilType;
 
 @SuppressWarnings("unchecked")
 public class UtilFK {
 
+    /** Entities whose foreign keys are being loaded on this thread, by class and id. */
+    private static final ThreadLocal<Map<List<Object>, BaseModel>> LOADING = ThreadLocal.withInitial(HashMap::new);
+
     /**
      * Loads foreign key relationships for a given instance from the database.
      * <p>
@@ -30,15 +48,10 @@ public class UtilFK {
     public static <T extends BaseModel> void loadForeignKeys(Connection connection, T instance) 
         throws SQLException 
     {
-        Class<?> clazz = instance.getClass();
-        
-        for (Field field : clazz.getDeclaredFields()) {
-            field.setAccessible(true);
-            ForeignKey fkAnnotation = field.getAnnotation(ForeignKey.class);
-            
-            if (fkAnnotation != null && !fkAnnotation.lazy()) {
+        for (ForeignKeyMetadata foreignKey : EntityMetadata.of(instance.getClass()).getForeignKeys()) {
+            if (!foreignKey.isLazy()) {
                 // Eager loading of foreign key relationship
-                loadForeignKeyField(connection, instance, field, fkAnnotation);
+                loadForeignKeyField(connection, instance, foreignKey.getField(), foreignKey.getAnnotation());
             }
         }
     }
@@ -50,6 +63,11 @@ public class UtilFK {
      * sets the corresponding object in the instance. It constructs the foreign key column name
      * by appending "id_" to the field name and uses the provided connection to fetch the related object.
      * </p>
+     * <p>
+     * A reference back to an entity whose foreign keys are still being loaded up the call stack is
+     * set to that entity instead of being read again, so cyclic foreign keys end. For depth limits
+     * and batched loading, use a {@link FetchPlan}.
+     * </p>
      *
      * @param connection The database connection used to retrieve foreign key data.
      * @param instance The instance whose foreign key relationship is being loaded.
@@ -60,13 +78,24 @@ public class UtilFK {
     public static <T extends BaseModel> void loadForeignKeyField(Connection connection, T instance, Field field, ForeignKey fkAnnotation) 
         throws SQLException 
     {
+        String previousOrigin = QueryScope.enterForeignKey(instance.getClass(), field);
+
+        Map<List<Object>, BaseModel> loading = LOADING.get();
+        List<Object> key = Arrays.asList(instance.getClass(), EntityMetadata.of(instance.getClass()).getId(instance));
+        boolean outermost = loading.putIfAbsent(key, instance) == null;
+
         try {
             String fkColumnName = camelToSnake("id_" + field.getName());
             Object fkValue = UtilFK.getForeignKeyValue(connection, instance, fkColumnName);
             
             if (fkValue != null) {
                 Class<?> targetClass = field.getType();
-                Object referencedObject = BaseModel.findById(connection, (Class<? extends BaseModel>) targetClass, fkValue);
+                EntityMetadata target = EntityMetadata.of(targetClass);
+                Object targetId = new UtilType().convertToFieldType(fkValue, target.getIdColumn().getField().getType());
+
+                Object referencedObject = loading.get(Arrays.asList(targetClass, targetId));
+                if (referencedObject == null)
+                { referencedObject = BaseModel.findById(connection, (Class<? extends BaseModel>) targetClass, fkValue); }
 
                 field.set(instance, referencedObject);
             }
@@ -74,6 +103,156 @@ public class UtilFK {
         
         catch (IllegalAccessException e) 
         { throw new RuntimeException("Failed to load foreign key relationship", e); }
+
+        finally {
+            if (outermost)
+            { loading.remove(key); }
+
+            QueryScope.exitForeignKey(previousOrigin);
+        }
+    }
+
+    /**
+     * Loads the non-lazy {@link OneToMany} collections of entities of one class, each with a single
+     * query for all the entities, then the non-lazy collections of the children read.
+     *
+     * @param connection The database connection used to read the children.
+     * @param parents The entities, all of the same class.
+     * @throws SQLException If a database access error occurs.
+     */
+    public static void loadEagerCollections(Connection connection, List<? extends BaseModel> parents)
+        throws SQLException
+    {
+        if (parents.isEmpty())
+        { return; }
+
+        for (OneToManyMetadata collection : EntityMetadata.of(parents.get(0).getClass()).getCollections()) {
+            if (!collection.isLazy())
+            { loadCollection(connection, parents, collection); }
+        }
+    }
+
+    /**
+     * Loads a {@link OneToMany} collection of entities of one class with a single query.
+     *
+     * @param connection The database connection used to read the children.
+     * @param parents The entities, all of the same class.
+     * @param fieldName The name of the collection field.
+     * @throws SQLException If a database access error occurs.
+     * @throws RuntimeException If the field is not a OneToMany collection.
+     */
+    public static void loadCollection(Connection connection, List<? extends BaseModel> parents, String fieldName)
+        throws SQLException
+    {
+        if (parents.isEmpty())
+        { return; }
+
+        EntityMetadata metadata = EntityMetadata.of(parents.get(0).getClass());
+        for (OneToManyMetadata collection : metadata.getCollections()) {
+            if (collection.getField().getName().equals(fieldName)) {
+                loadCollection(connection, parents, collection);
+                return;
+            }
+        }
+
+        throw new RuntimeException("Field is not a OneToMany collection: " + fieldName);
+    }
+
+    /**
+     * Reads the children of every parent with {@code WHERE fk IN (...)} on the parent ids already
+     * held, groups them by parent in memory and points their foreign key back at the parent. The
+     * other eager foreign keys of the children are then loaded together, one query per referenced
+     * class and level.
+     */
+    private static void loadCollection(Connection connection, List<? extends BaseModel> parents, OneToManyMetadata collection)
+        throws SQLException
+    {
+        EntityMetadata parentMetadata = EntityMetadata.of(parents.get(0).getClass());
+        EntityMetadata childMetadata = collection.getChildMetadata();
+        ForeignKeyMetadata mappedBy = collection.getMappedBy();
+
+        Map<Object, BaseModel> parentsById = new LinkedHashMap<>();
+        Map<Object, List<BaseModel>> childrenById = new HashMap<>();
+        for (BaseModel parent : parents) {
+            List<BaseModel> children = new ArrayList<>();
+            collection.set(parent, children);
+
+            Object id = parentMetadata.getId(parent);
+            if (id != null && parentsById.putIfAbsent(id, parent) == null)
+            { childrenById.put(id, children); }
+        }
+
+        // the other eager foreign keys of the children, loaded for all of them once they are read
+        List<ForeignKeyMetadata> eager = new ArrayList<>();
+        for (ForeignKeyMetadata foreignKey : childMetadata.getForeignKeys()) {
+            if (!foreignKey.isLazy() && foreignKey != mappedBy)
+            { eager.add(foreignKey); }
+        }
+
+        List<Object> ids = new ArrayList<>(parentsById.keySet());
+        List<BaseModel> loaded = new ArrayList<>();
+        List<Object[]> referencedIds = new ArrayList<>();
+        OrmEvent event = OrmEvent.start(collection.getChildType(), "loadCollection");
+        String lastSql = null;
+        String previousOrigin = QueryScope.enterForeignKey(parentMetadata.getEntityClass(), collection.getField());
+        Dialect dialect = Dialects.of(connection);
+        int chunkSize = Math.max(1, Math.min(ids.size(), dialect.getMaxInValues(parentMetadata.getIdColumn())));
+
+        try {
+            for (int from = 0; from < ids.size(); from += chunkSize) {
+                List<Object> chunk = ids.subList(from, Math.min(ids.size(), from + chunkSize));
+                lastSql = "SELECT " + childMetadata.getSelectList() + " FROM " + childMetadata.getTableName()
+                    + " WHERE " + dialect.inCondition(mappedBy.getColumnName(), parentMetadata.getIdColumn(), chunk.size())
+                    + " ORDER BY " + childMetadata.getIdColumnName();
+
+                try (PreparedStatement stmt = connection.prepareStatement(lastSql)) {
+                    dialect.bindIn(stmt, 1, parentMetadata.getIdColumn(), chunk);
+                    event.bound();
+
+                    QueryScope.record(collection.getChildType(), lastSql, chunk.toArray());
+
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        event.executed();
+                        int before = loaded.size();
+                        ColumnPlan<? extends BaseModel> plan = ColumnPlan.of(rs, collection.getChildType());
+                        int parentIndex = plan.indexOf(mappedBy.getColumnName());
+                        int[] eagerIndexes = new int[eager.size()];
+                        for (int i = 0; i < eagerIndexes.length; i++)
+                        { eagerIndexes[i] = plan.indexOf(eager.get(i).getColumnName()); }
+
+                        while (rs.next()) {
+                            BaseModel child = plan.mapRow(rs);
+                            Object parentId = parentMetadata.getIdColumn().getConverter().read(rs, parentIndex);
+                            List<BaseModel> children = childrenById.get(parentId);
+                            if (children == null)
+                            { continue; }
+
+                            // the parent is already in memory: no query back to it
+                            mappedBy.set(child, parentsById.get(parentId));
+                            children.add(child);
+                            loaded.add(child);
+
+                            Object[] referenced = new Object[eagerIndexes.length];
+                            for (int i = 0; i < eagerIndexes.length; i++) {
+                                if (eagerIndexes[i] > 0)
+                                { referenced[i] = eager.get(i).getTargetMetadata().getIdColumn().getConverter().read(rs, eagerIndexes[i]); }
+                            }
+                            referencedIds.add(referenced);
+                        }
+
+                        event.mapped(loaded.size() - before);
+                    }
+                }
+            }
+        }
+
+        finally
+        { QueryScope.exitForeignKey(previousOrigin); }
+
+        event.finish(lastSql);
+
+        FetchPlan.loadEager(connection, loaded, eager, referencedIds);
+        loadEagerCollections(connection, loaded);
     }
 
     /**
@@ -87,20 +266,7 @@ public class UtilFK {
      * @return The ID value of the model instance, or null if no ID field is found.
      */
     public Object getForeignKeyId(BaseModel model) {
-        try {
-            for (Field field : model.getClass().getDeclaredFields()) {
-                field.setAccessible(true);
-
-                if (field.isAnnotationPresent(Id.class)) 
-                { return field.get(model); }
-            }
-            
-        } 
-        
-        catch (IllegalAccessException e) 
-        { throw new RuntimeException("Failed to get foreign key ID", e); }
-
-        return null;
+        return EntityMetadata.of(model.getClass()).getId(model);
     }
 
 
@@ -116,18 +282,7 @@ public class UtilFK {
      * @return The name of the ID column associated with this class.
      */
     public static String getIdColumnName(Class<?> clazz) {
-        for (Field field : clazz.getDeclaredFields()) {
-            if (field.isAnnotationPresent(Id.class)) {
-                Column columnAnnotation = field.getAnnotation(Column.class);
-                if (columnAnnotation != null) {
-                    return columnAnnotation.name();
-                }
-                // If no Column annotation is present, use the field name
-                return field.getName();
-            }
-        }
-
-        throw new RuntimeException("No ID field found in class " + clazz.getName());
+        return EntityMetadata.of(clazz).getIdColumnName();
     }
 
     /**
@@ -148,40 +303,35 @@ public class UtilFK {
         throws SQLException 
     {
         Class<?> clazz = instance.getClass();
-        
-        Table tableAnnotation = clazz.getAnnotation(Table.class);
-        String tableName = tableAnnotation.name();
-        String idColumn = getIdColumnName(clazz);
+        EntityMetadata metadata = EntityMetadata.of(clazz);
 
-        String sql = "SELECT " + fkColumnName + " FROM " + tableName + " WHERE " + idColumn + " = ?";
+        String sql = "SELECT " + fkColumnName + " FROM " + metadata.getTableName() + " WHERE " + metadata.getIdColumnName() + " = ?";
         
-        try {
-            // Find the ID value of the instance
-            Object idValue = null;
-            for (Field field : clazz.getDeclaredFields()) {
-                if (field.isAnnotationPresent(Id.class)) {
-                    field.setAccessible(true);
-                    idValue = field.get(instance);
-                    break;
-                }
-            }
+        // Find the ID value of the instance
+        Object idValue = metadata.getId(instance);
 
-            if (idValue == null) 
-            { return null; }
+        if (idValue == null) 
+        { return null; }
 
-            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-                stmt.setObject(1, idValue);
-                ResultSet rs = stmt.executeQuery();
-                
-                if (rs.next()) 
-                { return rs.getObject(fkColumnName); }
+        OrmEvent event = OrmEvent.start(clazz, "loadForeignKey");
+        Object value = null;
+
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            metadata.getIdColumn().bind(stmt, 1, idValue);
+            event.bound();
+            QueryScope.record(clazz, sql, idValue);
+            ResultSet rs = stmt.executeQuery();
+            event.executed();
+            
+            if (rs.next()) {
+                value = rs.getObject(fkColumnName);
+                event.mapped(1);
             }
-        } 
-        
-        catch (IllegalAccessException e) 
-        { throw new RuntimeException("Failed to get foreign key value", e); }
+        }
         
-        return null;
+        // the referenced row is read by findById, with its own event
+        event.finish(sql);
+        return value;
     }
 
     /**
@@ -0,0 +1,545 @@
+package mg.jwe.orm.invalidation;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.WeakHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.sql.DataSource;
+
+import mg.jwe.orm.base.BaseModel;
+import mg.jwe.orm.cache.EntityCache;
+import mg.jwe.orm.diagnostic.QueryScope;
+import mg.jwe.orm.metadata.EntityMetadata;
+import mg.jwe.orm.snapshot.SnapshotHolder;
+
+/**
+ * Keeps the caches of several application nodes consistent through PostgreSQL LISTEN/NOTIFY.
+ * <p>
+ * Once {@link #start() started}, every write made through the ORM publishes the table and id of the
+ * written rows on a channel, and a background thread listens on that channel. On each message, the
+ * rows are read again into the registered {@link EntityCache}, and the registered
+ * {@link SnapshotHolder snapshots} and {@link InvalidationListener listeners} of the table are
+ * invalidated. Messages of this node are applied too: they are only delivered once their writes
+ * committed, so they also correct a cache whose transaction was committed without
+ * {@link EntityCache#commit(Connection)}.
+ * </p>
+ * <p>
+ * Writes on a connection in auto-commit are already committed: their messages are queued, merged
+ * and sent every {@link #setFlushIntervalMillis(long) flush interval}, so a burst of writes sends a
+ * few messages. Writes inside a transaction are merged per connection and notified on that
+ * connection by {@link EntityCache#commit(Connection)}, just before it commits, so PostgreSQL
+ * delivers them on commit; {@link EntityCache#rollback(Connection)} drops them. A transaction
+ * committed with {@link EntityCache#afterCommit(Connection)} instead has its messages queued like
+ * auto-commit writes. A table with too many pending ids is sent as a whole-table invalidation. After the listener loses its connection, it reconnects and
+ * invalidates everything, since messages may have been missed.
+ * </p>
+ * The listener needs the PostgreSQL JDBC driver, used through reflection.
+ * <p>
+ * Example usage:
+ * </p>
+ * <pre>
+ * EntityCache.register(EntityCache.load(connection, Product.class));
+ * InvalidationBus bus = new InvalidationBus(dataSource);
+ * bus.register(countries);   // a SnapshotHolder
+ * bus.start();
+ * </pre>
+ */
+public class InvalidationBus implements AutoCloseable {
+
+    public static final String DEFAULT_CHANNEL = "jwe_orm_invalidation";
+
+    /** NOTIFY payloads must be shorter than 8000 bytes. */
+    static final int MAX_PAYLOAD = 7900;
+    private static final String WHOLE_TABLE = "*";
+
+    private static final List<InvalidationBus> ACTIVE = new CopyOnWriteArrayList<>();
+
+    /** Ids written by the transaction of each connection, by table, until it commits or rolls back. */
+    private static final Map<Connection, Map<String, Set<String>>> IN_TRANSACTION = new WeakHashMap<>();
+
+    private final DataSource dataSource;
+    private final String channel;
+    private final String nodeId = UUID.randomUUID().toString().substring(0, 8);
+    private final List<InvalidationListener> listeners = new CopyOnWriteArrayList<>();
+
+    /** Pending ids by table; a null set invalidates the whole table. */
+    private final Map<String, Set<String>> pending = new LinkedHashMap<>();
+
+    private long flushIntervalMillis = 50;
+    private int maxIdsPerTable = 500;
+    private long reconnectDelayMillis = 1000;
+    private int pollTimeoutMillis = 500;
+
+    private volatile boolean running;
+    private ScheduledExecutorService publisher;
+    private Thread listener;
+    private volatile Exception lastFailure;
+    private volatile Consumer<? super Exception> failureHandler;
+
+    public InvalidationBus(DataSource dataSource) {
+        this(dataSource, DEFAULT_CHANNEL);
+    }
+
+    /**
+     * @param dataSource The pool to publish and listen with, of a PostgreSQL database
+     * @param channel The channel name, a lower case SQL identifier shared by every node
+     */
+    public InvalidationBus(DataSource dataSource, String channel) {
+        if (!channel.matches("[a-z_][a-z0-9_]*"))
+        { throw new IllegalArgumentException("Invalid channel name: " + channel); }
+
+        this.dataSource = dataSource;
+        this.channel = channel;
+    }
+
+    /**
+     * Adds a listener called on every invalidation.
+     */
+    public void addListener(InvalidationListener listener)
+    { listeners.add(listener); }
+
+    /**
+     * Invalidates a snapshot when its table is written.
+     *
+     * @param holder The snapshot holder
+     */
+    public void register(SnapshotHolder<?> holder)
+    { listeners.add(new SnapshotListener(holder)); }
+
+    /**
+     * Publishes the writes of the ORM and starts listening to the other nodes.
+     */
+    public synchronized void start() {
+        if (running)
+        { return; }
+
+        running = true;
+        ACTIVE.add(this);
+
+        publisher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "invalidation-publisher-" + channel);
+            thread.setDaemon(true);
+            return thread;
+        });
+        publisher.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+
+        listener = new Thread(this::listen, "invalidation-listener-" + channel);
+        listener.setDaemon(true);
+        listener.start();
+    }
+
+    /**
+     * Sends the pending messages and stops publishing and listening.
+     */
+    @Override
+    public synchronized void close() {
+        if (!running)
+        { return; }
+
+        running = false;
+        ACTIVE.remove(this);
+
+        publisher.shutdownNow();
+        flush();
+        listener.interrupt();
+    }
+
+    /**
+     * Publishes the write of an entity on the started buses.
+     *
+     * @param connection The connection the entity was written with.
+     * @param instance The entity inserted, updated or deleted.
+     * @throws SQLException If the transaction mode of the connection cannot be read.
+     */
+    public static void afterWrite(Connection connection, BaseModel instance) throws SQLException {
+        if (!ACTIVE.isEmpty())
+        { afterWrite(connection, Collections.singletonList(instance)); }
+    }
+
+    /**
+     * Publishes the writes of a batch of entities on the started buses.
+     *
+     * @see #afterWrite(Connection, BaseModel)
+     */
+    public static void afterWrite(Connection connection, List<? extends BaseModel> instances) throws SQLException {
+        if (ACTIVE.isEmpty() || instances.isEmpty())
+        { return; }
+
+        Map<String, Set<String>> written = new LinkedHashMap<>();
+        for (BaseModel instance : instances) {
+            EntityMetadata metadata = EntityMetadata.of(instance.getClass());
+            Object id = metadata.getId(instance);
+            merge(written, metadata.getTableName(), id == null ? null : Collections.singleton(id.toString()), Integer.MAX_VALUE);
+        }
+
+        if (connection.getAutoCommit()) {
+            for (InvalidationBus bus : ACTIVE)
+            { bus.enqueue(written); }
+
+            return;
+        }
+
+        int limit = 0;
+        for (InvalidationBus bus : ACTIVE)
+        { limit = Math.max(limit, bus.maxIdsPerTable); }
+
+        synchronized (IN_TRANSACTION) {
+            Map<String, Set<String>> transaction = IN_TRANSACTION.computeIfAbsent(connection, key -> new LinkedHashMap<>());
+            for (Map.Entry<String, Set<String>> entry : written.entrySet())
+            { merge(transaction, entry.getKey(), entry.getValue(), limit); }
+        }
+    }
+
+    /**
+     * Sends the messages of the writes made in the transaction of a connection, merged by table, on
+     * that connection, so they are only delivered if it commits.
+     *
+     * @param connection The connection about to commit.
+     * @throws SQLException If the messages cannot be sent; the transaction is then to be rolled back.
+     */
+    public static void beforeCommit(Connection connection) throws SQLException {
+        Map<String, Set<String>> written = takeTransaction(connection);
+        if (written == null)
+        { return; }
+
+        for (InvalidationBus bus : ACTIVE)
+        { bus.send(connection, written); }
+    }
+
+    /**
+     * Queues the messages of a transaction committed without {@link #beforeCommit(Connection)},
+     * to be sent with the auto-commit writes.
+     *
+     * @param connection The connection just committed.
+     */
+    public static void afterCommit(Connection connection) {
+        Map<String, Set<String>> written = takeTransaction(connection);
+        if (written == null)
+        { return; }
+
+        for (InvalidationBus bus : ACTIVE)
+        { bus.enqueue(written); }
+    }
+
+    /**
+     * Drops the messages of a transaction rolled back.
+     *
+     * @param connection The connection just rolled back.
+     */
+    public static void afterRollback(Connection connection)
+    { takeTransaction(connection); }
+
+    private static Map<String, Set<String>> takeTransaction(Connection connection) {
+        synchronized (IN_TRANSACTION)
+        { return IN_TRANSACTION.remove(connection); }
+    }
+
+    private void enqueue(Map<String, Set<String>> written) {
+        synchronized (pending) {
+            for (Map.Entry<String, Set<String>> entry : written.entrySet())
+            { merge(pending, entry.getKey(), entry.getValue(), maxIdsPerTable); }
+        }
+    }
+
+    /**
+     * Adds ids to the ids of a table, turning them into a whole-table invalidation past a limit.
+     */
+    private static void merge(Map<String, Set<String>> target, String table, Set<String> ids, int limit) {
+        if (target.containsKey(table) && target.get(table) == null)
+        { return; }
+
+        if (ids == null) {
+            target.put(table, null);
+            return;
+        }
+
+        Set<String> tableIds = target.computeIfAbsent(table, key -> new LinkedHashSet<>());
+        tableIds.addAll(ids);
+        if (tableIds.size() > limit)
+        { target.put(table, null); }
+    }
+
+    /**
+     * Sends the pending messages, putting them back if the database cannot be reached.
+     */
+    void flush() {
+        Map<String, Set<String>> batch;
+        synchronized (pending) {
+            if (pending.isEmpty())
+            { return; }
+
+            batch = new LinkedHashMap<>(pending);
+            pending.clear();
+        }
+
+        try (Connection connection = dataSource.getConnection()) {
+            send(connection, batch);
+            if (!connection.getAutoCommit())
+            { connection.commit(); }
+
+            lastFailure = null;
+        }
+
+        // a failure escaping the scheduled task would cancel the later flushes
+        catch (SQLException | RuntimeException e) {
+            enqueue(batch);
+            fail(e);
+        }
+    }
+
+    private void send(Connection connection, Map<String, Set<String>> written) throws SQLException {
+        String sql = "SELECT pg_notify(?, ?)";
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            for (String payload : encode(nodeId, written, maxIdsPerTable)) {
+                stmt.setString(1, channel);
+                stmt.setString(2, payload);
+                QueryScope.record(InvalidationBus.class, sql, channel, payload);
+                stmt.executeQuery().close();
+            }
+        }
+    }
+
+    /**
+     * Encodes invalidations as "node|table|id,id,..." payloads, or "node|table|*" for a whole table,
+     * splitting long id lists.
+     */
+    static List<String> encode(String nodeId, Map<String, Set<String>> written, int maxIdsPerTable) {
+        List<String> payloads = new ArrayList<>();
+
+        for (Map.Entry<String, Set<String>> entry : written.entrySet()) {
+            String prefix = nodeId + "|" + entry.getKey() + "|";
+            Set<String> ids = entry.getValue();
+
+            boolean encodable = ids != null && ids.size() <= maxIdsPerTable;
+            for (String id : ids != null ? ids : Collections.<String>emptySet())
+            { encodable &= id.indexOf(',') < 0 && prefix.length() + id.length() < MAX_PAYLOAD; }
+
+            if (!encodable) {
+                payloads.add(prefix + WHOLE_TABLE);
+                continue;
+            }
+
+            StringBuilder payload = new StringBuilder(prefix);
+            for (String id : ids) {
+                if (payload.length() > prefix.length() && payload.length() + 1 + id.length() > MAX_PAYLOAD) {
+                    payloads.add(payload.toString());
+                    payload.setLength(prefix.length());
+                }
+
+                if (payload.length() > prefix.length())
+                { payload.append(','); }
+
+                payload.append(id);
+            }
+
+            payloads.add(payload.toString());
+        }
+
+        return payloads;
+    }
+
+    private void listen() {
+        boolean connectedBefore = false;
+
+        while (running) {
+            try (Connection connection = dataSource.getConnection()) {
+                connection.setAutoCommit(true);
+                try (Statement stmt = connection.createStatement())
+                { stmt.execute("LISTEN " + channel); }
+
+                Class<?> pgConnectionClass = Class.forName("org.postgresql.PGConnection", true, connection.getClass().getClassLoader());
+                Object pgConnection = connection.unwrap(pgConnectionClass);
+                Method getNotifications = pgConnectionClass.getMethod("getNotifications", int.class);
+
+                // messages sent while disconnected are lost
+                if (connectedBefore)
+                { invalidateAll(connection); }
+
+                connectedBefore = true;
+
+                while (running) {
+                    Object[] notifications = (Object[]) getNotifications.invoke(pgConnection, pollTimeoutMillis);
+                    if (notifications != null && notifications.length > 0)
+                    { receive(connection, notifications); }
+                }
+            }
+
+            catch (InvocationTargetException e)
+            { reconnectAfter(e.getCause()); }
+
+            catch (SQLException | ReflectiveOperationException | RuntimeException e)
+            { reconnectAfter(e); }
+        }
+    }
+
+    private void reconnectAfter(Throwable failure) {
+        if (!running)
+        { return; }
+
+        fail(failure instanceof Exception ? (Exception) failure : new RuntimeException(failure));
+        try
+        { Thread.sleep(reconnectDelayMillis); }
+
+        catch (InterruptedException e)
+        { Thread.currentThread().interrupt(); }
+    }
+
+    /**
+     * Applies the notifications of one poll, merged by table.
+     */
+    private void receive(Connection connection, Object[] notifications) throws ReflectiveOperationException, SQLException {
+        Map<String, Set<String>> all = new LinkedHashMap<>();
+
+        for (Object notification : notifications) {
+            String payload = (String) notification.getClass().getMethod("getParameter").invoke(notification);
+            String[] parts = payload.split("\\|", 3);
+            if (parts.length < 3)
+            { continue; }
+
+            Set<String> ids = WHOLE_TABLE.equals(parts[2]) ? null : new LinkedHashSet<>(List.of(parts[2].split(",")));
+            merge(all, parts[1], ids, maxIdsPerTable);
+        }
+
+        for (EntityCache<?> cache : EntityCache.registered()) {
+            String table = EntityMetadata.of(cache.getEntityClass()).getTableName();
+            if (!all.containsKey(table))
+            { continue; }
+
+            Set<String> ids = all.get(table);
+            if (ids == null)
+            { cache.reload(connection); }
+
+            else {
+                Class<?> idType = EntityMetadata.of(cache.getEntityClass()).getIdColumn().getField().getType();
+                List<Object> parsed = new ArrayList<>();
+                for (String id : ids)
+                { parsed.add(parseId(id, idType)); }
+
+                cache.refreshAll(connection, parsed);
+            }
+        }
+
+        for (Map.Entry<String, Set<String>> entry : all.entrySet()) {
+            for (InvalidationListener listener : listeners)
+            { listener.invalidate(entry.getKey(), entry.getValue()); }
+        }
+    }
+
+    private void fail(Exception e) {
+        lastFailure = e;
+
+        Consumer<? super Exception> handler = failureHandler;
+        if (handler == null)
+        { return; }
+
+        try
+        { handler.accept(e); }
+
+        catch (RuntimeException ignored)
+        { }
+    }
+
+    private void invalidateAll(Connection connection) throws SQLException {
+        for (EntityCache<?> cache : EntityCache.registered())
+        { cache.reload(connection); }
+
+        for (InvalidationListener listener : listeners)
+        { listener.invalidateAll(); }
+    }
+
+    /**
+     * Reads an id sent as text back into the type of the id field; other types are converted by the cache.
+     */
+    private static Object parseId(String id, Class<?> type) {
+        if (type == Long.class || type == long.class)
+        { return Long.valueOf(id); }
+
+        if (type == Integer.class || type == int.class)
+        { return Integer.valueOf(id); }
+
+        if (type == Short.class || type == short.class)
+        { return Short.valueOf(id); }
+
+        if (type == UUID.class)
+        { return UUID.fromString(id); }
+
+        return id;
+    }
+
+    /**
+     * @param flushIntervalMillis The time auto-commit writes are merged before being sent, 50 ms by default
+     */
+    public void setFlushIntervalMillis(long flushIntervalMillis)
+    { this.flushIntervalMillis = flushIntervalMillis; }
+
+    /**
+     * @param maxIdsPerTable The number of pending ids of a table past which the whole table is invalidated, 500 by default
+     */
+    public void setMaxIdsPerTable(int maxIdsPerTable)
+    { this.maxIdsPerTable = maxIdsPerTable; }
+
+    /**
+     * @param reconnectDelayMillis The wait before the listener reconnects, 1 s by default
+     */
+    public void setReconnectDelayMillis(long reconnectDelayMillis)
+    { this.reconnectDelayMillis = reconnectDelayMillis; }
+
+    /**
+     * Gets the last failure to publish or to listen. Failed messages are sent again on the next
+     * flush, and the listener reconnects.
+     *
+     * @return The exception, or null if the last publish succeeded and the listener has not failed since
+     */
+    public Exception getLastFailure()
+    { return lastFailure; }
+
+    /**
+     * @param failureHandler Receives the failures to publish or to listen, on the bus threads; null for none
+     */
+    public void setFailureHandler(Consumer<? super Exception> failureHandler)
+    { this.failureHandler = failureHandler; }
+
+    public String getChannel()
+    { return channel; }
+
+    /**
+     * Invalidates a snapshot when its table is written.
+     */
+    private static final class SnapshotListener implements InvalidationListener {
+
+        private final SnapshotHolder<?> holder;
+        private final String table;
+
+        SnapshotListener(SnapshotHolder<?> holder) {
+            this.holder = holder;
+            this.table = EntityMetadata.of(holder.getEntityClass()).getTableName();
+        }
+
+        @Override
+        public void invalidate(String table, Set<String> ids) {
+            if (this.table.equals(table))
+            { holder.invalidate(); }
+        }
+
+        @Override
+        public void invalidateAll()
+        { holder.invalidate(); }
+    }
+}
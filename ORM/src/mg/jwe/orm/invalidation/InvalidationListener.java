@@ -0,0 +1,23 @@
+package mg.jwe.orm.invalidation;
+
+import java.util.Set;
+
+/**
+ * Receives the invalidations of an {@link InvalidationBus}, to evict the entries of a cache.
+ */
+public interface InvalidationListener {
+
+    /**
+     * Called when rows of a table were written, by this node or another one.
+     *
+     * @param table The table name, as given by the {@link mg.jwe.orm.annotations.Table} annotation
+     * @param ids The ids written, as text, or null if any row of the table may have changed
+     */
+    void invalidate(String table, Set<String> ids);
+
+    /**
+     * Called when invalidations may have been missed, after the listener reconnected: every
+     * entry has to be evicted.
+     */
+    void invalidateAll();
+}
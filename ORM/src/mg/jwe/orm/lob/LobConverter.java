@@ -0,0 +1,32 @@
+package mg.jwe.orm.lob;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+
+import mg.jwe.orm.type.FieldConverter;
+
+/**
+ * Converter of {@link LobHandle} fields: binds pending content as a stream. A LOB column selected
+ * explicitly is read into an in-memory handle, which is not written back on update.
+ */
+public class LobConverter extends FieldConverter {
+
+    public LobConverter() {
+        super(LobHandle.class, Types.BINARY);
+    }
+
+    @Override
+    public Object read(ResultSet rs, int index) throws SQLException {
+        Object value = rs.getObject(index);
+        if (value instanceof byte[])
+        { return LobHandle.loaded(value); }
+
+        return value == null ? null : LobHandle.loaded(value.toString());
+    }
+
+    @Override
+    protected void bindValue(PreparedStatement stmt, int index, Object value) throws SQLException
+    { ((LobHandle) value).bind(stmt, index); }
+}
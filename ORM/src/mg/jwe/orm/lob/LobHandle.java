@@ -0,0 +1,327 @@
+package mg.jwe.orm.lob;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import mg.jwe.orm.diagnostic.QueryScope;
+import mg.jwe.orm.metadata.ColumnMetadata;
+import mg.jwe.orm.metadata.EntityMetadata;
+
+/**
+ * Content of a {@link mg.jwe.orm.annotations.Lob} column.
+ * <p>
+ * A handle is either:
+ * <ul>
+ *   <li>stored: set on entities read from the database, it only knows the row and column, and reads
+ *       the content with its own query when {@link #openStream(Connection)} or
+ *       {@link #openReader(Connection)} is called</li>
+ *   <li>pending: created by one of the {@code of} factories to write new content, which is bound
+ *       with setBinaryStream or setCharacterStream, so a large payload never has to be in memory</li>
+ *   <li>loaded: read with the entity when the column was selected, e.g. by a fetch group, and
+ *       served from memory</li>
+ * </ul>
+ * A pending stream can only be written once; after a save or update the field holds a stored
+ * handle again.
+ * </p>
+ * Example usage:
+ * <pre>
+ * try (InputStream pdf = document.getContent().openStream(connection)) {
+ *     pdf.transferTo(response.getOutputStream());
+ * }
+ *
+ * document.setContent(LobHandle.of(Files.newInputStream(path), Files.size(path)));
+ * document.update(connection);
+ * </pre>
+ */
+public final class LobHandle {
+
+    private final EntityMetadata metadata;
+    private final String columnName;
+    private final Object id;
+
+    private final InputStream stream;
+    private final Reader reader;
+    private final long length;
+
+    /** Content read with the entity, a byte[] or a String. */
+    private final Object loaded;
+
+    private LobHandle(EntityMetadata metadata, String columnName, Object id, InputStream stream, Reader reader, long length) {
+        this(metadata, columnName, id, stream, reader, length, null);
+    }
+
+    private LobHandle(EntityMetadata metadata, String columnName, Object id, InputStream stream, Reader reader, long length, Object loaded) {
+        this.metadata = metadata;
+        this.columnName = columnName;
+        this.id = id;
+        this.stream = stream;
+        this.reader = reader;
+        this.length = length;
+        this.loaded = loaded;
+    }
+
+    /**
+     * Creates the handle of a stored column value.
+     *
+     * @param metadata The entity holding the column
+     * @param column The LOB column
+     * @param id The id of the row
+     * @return A stored handle
+     */
+    public static LobHandle stored(EntityMetadata metadata, ColumnMetadata column, Object id)
+    { return new LobHandle(metadata, column.getColumnName(), id, null, null, -1); }
+
+    /**
+     * Creates a pending binary content read from a stream when the entity is written.
+     *
+     * @param content The content, closed by the caller after the write
+     * @param length The number of bytes, or -1 if unknown
+     * @return A pending handle
+     */
+    public static LobHandle of(InputStream content, long length)
+    { return new LobHandle(null, null, null, content, null, length); }
+
+    /**
+     * Creates a pending text content read from a reader when the entity is written.
+     *
+     * @param content The content, closed by the caller after the write
+     * @param length The number of characters, or -1 if unknown
+     * @return A pending handle
+     */
+    public static LobHandle of(Reader content, long length)
+    { return new LobHandle(null, null, null, null, content, length); }
+
+    public static LobHandle of(byte[] content)
+    { return of(new ByteArrayInputStream(content), content.length); }
+
+    public static LobHandle of(String content)
+    { return of(new StringReader(content), content.length()); }
+
+    /**
+     * Creates the handle of content read with its entity, which is not written back.
+     *
+     * @param content A byte[] or a String
+     */
+    static LobHandle loaded(Object content)
+    { return new LobHandle(null, null, null, null, null, -1, content); }
+
+    /**
+     * Tells whether this handle holds content still to be written.
+     */
+    public boolean isPending()
+    { return stream != null || reader != null; }
+
+    /**
+     * Opens the binary content of a stored column. Closing the stream releases the statement.
+     *
+     * @param connection The connection to read with, open while the stream is read.
+     * @return The content, or null if the column is NULL.
+     * @throws SQLException If the row cannot be read.
+     */
+    public InputStream openStream(Connection connection) throws SQLException {
+        if (stream != null)
+        { return stream; }
+
+        if (loaded != null)
+        { return new ByteArrayInputStream(loaded instanceof byte[] ? (byte[]) loaded : ((String) loaded).getBytes(StandardCharsets.UTF_8)); }
+
+        PreparedStatement stmt = select(connection);
+        try {
+            ResultSet rs = stmt.executeQuery();
+            InputStream content = rs.next() ? rs.getBinaryStream(1) : null;
+            if (content == null) {
+                stmt.close();
+                return null;
+            }
+
+            return new FilterInputStream(content) {
+                @Override
+                public void close() throws IOException {
+                    try
+                    { super.close(); }
+
+                    finally
+                    { closeQuietly(stmt); }
+                }
+            };
+        }
+
+        catch (SQLException | RuntimeException e) {
+            stmt.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the text content of a stored column. Closing the reader releases the statement.
+     *
+     * @param connection The connection to read with, open while the reader is read.
+     * @return The content, or null if the column is NULL.
+     * @throws SQLException If the row cannot be read.
+     */
+    public Reader openReader(Connection connection) throws SQLException {
+        if (reader != null)
+        { return reader; }
+
+        if (loaded != null)
+        { return new StringReader(loaded instanceof String ? (String) loaded : new String((byte[]) loaded, StandardCharsets.UTF_8)); }
+
+        PreparedStatement stmt = select(connection);
+        try {
+            ResultSet rs = stmt.executeQuery();
+            Reader content = rs.next() ? rs.getCharacterStream(1) : null;
+            if (content == null) {
+                stmt.close();
+                return null;
+            }
+
+            return new FilterReader(content) {
+                @Override
+                public void close() throws IOException {
+                    try
+                    { super.close(); }
+
+                    finally
+                    { closeQuietly(stmt); }
+                }
+            };
+        }
+
+        catch (SQLException | RuntimeException e) {
+            stmt.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the whole binary content into memory, for small values.
+     *
+     * @param connection The connection to read with.
+     * @return The content, or null if the column is NULL.
+     * @throws SQLException If the row cannot be read.
+     */
+    public byte[] readBytes(Connection connection) throws SQLException {
+        try (InputStream content = openStream(connection)) {
+            if (content == null)
+            { return null; }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            content.transferTo(bytes);
+            return bytes.toByteArray();
+        }
+
+        catch (IOException e)
+        { throw new SQLException("Failed to read " + describe(), e); }
+    }
+
+    /**
+     * Reads the whole text content into memory, for small values.
+     *
+     * @param connection The connection to read with.
+     * @return The content, or null if the column is NULL.
+     * @throws SQLException If the row cannot be read.
+     */
+    public String readString(Connection connection) throws SQLException {
+        try (Reader content = openReader(connection)) {
+            if (content == null)
+            { return null; }
+
+            StringWriter text = new StringWriter();
+            content.transferTo(text);
+            return text.toString();
+        }
+
+        catch (IOException e)
+        { throw new SQLException("Failed to read " + describe(), e); }
+    }
+
+    /**
+     * Binds pending content to a statement parameter.
+     *
+     * @param stmt The statement to bind to.
+     * @param index The 1-based parameter index.
+     * @throws SQLException If the driver rejects the stream.
+     * @throws IllegalStateException If the handle is stored, not pending.
+     */
+    public void bind(PreparedStatement stmt, int index) throws SQLException {
+        if (stream != null && length >= 0)
+        { stmt.setBinaryStream(index, stream, length); }
+
+        else if (stream != null)
+        { stmt.setBinaryStream(index, stream); }
+
+        else if (reader != null && length >= 0)
+        { stmt.setCharacterStream(index, reader, length); }
+
+        else if (reader != null)
+        { stmt.setCharacterStream(index, reader); }
+
+        else
+        { throw new IllegalStateException("Stored " + describe() + " has no content to write"); }
+    }
+
+    /**
+     * Replaces the pending LOB contents of an entity by stored handles, once they were written.
+     *
+     * @param instance The entity just inserted or updated.
+     */
+    public static void afterWrite(Object instance) {
+        EntityMetadata metadata = EntityMetadata.of(instance.getClass());
+        Object id = metadata.getId(instance);
+
+        for (ColumnMetadata column : metadata.getLobColumns()) {
+            Object value = column.get(instance);
+            if (value instanceof LobHandle && ((LobHandle) value).isPending() && id != null)
+            { column.set(instance, stored(metadata, column, id)); }
+        }
+    }
+
+    private PreparedStatement select(Connection connection) throws SQLException {
+        String sql = "SELECT " + columnName + " FROM " + metadata.getTableName() + " WHERE " + metadata.getIdColumnName() + " = ?";
+        PreparedStatement stmt = connection.prepareStatement(sql);
+
+        try {
+            metadata.getIdColumn().bind(stmt, 1, id);
+            QueryScope.record(metadata.getEntityClass(), sql, id);
+            return stmt;
+        }
+
+        catch (SQLException | RuntimeException e) {
+            stmt.close();
+            throw e;
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement stmt) {
+        try
+        { stmt.close(); }
+
+        catch (SQLException e)
+        { }
+    }
+
+    private String describe() {
+        if (loaded != null)
+        { return "loaded LOB content"; }
+
+        return metadata == null
+            ? "pending LOB content"
+            : "LOB " + metadata.getTableName() + "." + columnName + " of id " + id;
+    }
+
+    @Override
+    public String toString()
+    { return describe(); }
+}
@@ -0,0 +1,148 @@
+package mg.jwe.orm.mapper;
+
+import java.lang.ref.WeakReference;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import mg.jwe.orm.lob.LobHandle;
+import mg.jwe.orm.metadata.ColumnMetadata;
+import mg.jwe.orm.metadata.EntityMetadata;
+
+/**
+ * Column-index plan for mapping the rows of one {@link ResultSet} to an entity class.
+ * <p>
+ * The plan is resolved once from {@link ResultSetMetaData}: every mapped field gets the index of its
+ * column, so rows are then read by index only, without a name lookup per column per row. Fields
+ * whose column is absent from the result are skipped, and extra columns are ignored.
+ * </p>
+ * <p>
+ * A {@link mg.jwe.orm.annotations.Lob} column left out of the result gets a stored
+ * {@link LobHandle} that reads the content on demand.
+ * </p>
+ *
+ * @param <T> The entity type
+ */
+public class ColumnPlan<T> {
+
+    private static final ThreadLocal<ColumnPlan<?>> LAST_PLAN = new ThreadLocal<>();
+
+    private final EntityMetadata metadata;
+    private final ColumnMetadata[] columns;
+    private final int[] indices;
+    private final List<ColumnMetadata> lobColumns;
+    private final int[] lobIndices;
+    private final Map<String, Integer> indexByLabel;
+    private final WeakReference<ResultSet> resultSet;
+
+    private ColumnPlan(ResultSet rs, EntityMetadata metadata) throws SQLException {
+        ResultSetMetaData rsMetaData = rs.getMetaData();
+
+        Map<String, Integer> labels = new HashMap<>();
+        for (int i = rsMetaData.getColumnCount(); i >= 1; i--) {
+            // first occurrence wins when a label is repeated, as with findColumn
+            labels.put(rsMetaData.getColumnLabel(i).toLowerCase(Locale.ROOT), i);
+        }
+
+        List<ColumnMetadata> mapped = metadata.getColumns();
+        int present = 0;
+        for (ColumnMetadata column : mapped) {
+            if (labels.containsKey(column.getColumnName().toLowerCase(Locale.ROOT)))
+            { present++; }
+        }
+
+        this.metadata = metadata;
+        this.columns = new ColumnMetadata[present];
+        this.indices = new int[present];
+        this.indexByLabel = labels;
+        this.resultSet = new WeakReference<>(rs);
+
+        int position = 0;
+        for (ColumnMetadata column : mapped) {
+            Integer index = labels.get(column.getColumnName().toLowerCase(Locale.ROOT));
+            if (index != null) {
+                columns[position] = column;
+                indices[position] = index;
+                position++;
+            }
+        }
+
+        this.lobColumns = metadata.getLobColumns();
+        this.lobIndices = new int[lobColumns.size()];
+        for (int i = 0; i < lobIndices.length; i++) {
+            Integer index = labels.get(lobColumns.get(i).getColumnName().toLowerCase(Locale.ROOT));
+            lobIndices[i] = index != null ? index : 0;
+        }
+    }
+
+    /**
+     * Resolves the plan for mapping a result set to an entity class.
+     *
+     * @param rs The result set to map.
+     * @param clazz The entity class.
+     * @return A plan to reuse for every row of the result set.
+     * @throws SQLException If the result set metadata cannot be read.
+     */
+    public static <T> ColumnPlan<T> of(ResultSet rs, Class<T> clazz) throws SQLException {
+        return new ColumnPlan<>(rs, EntityMetadata.of(clazz));
+    }
+
+    /**
+     * Gets the plan of the result set last mapped on this thread, resolving a new one if the result
+     * set or the class changed. This keeps row-by-row callers of
+     * {@link UtilMapper#mapResultSetToObject} on index-based access.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> ColumnPlan<T> cached(ResultSet rs, Class<T> clazz) throws SQLException {
+        ColumnPlan<?> last = LAST_PLAN.get();
+        if (last != null && last.resultSet.get() == rs && last.metadata.getEntityClass() == clazz)
+        { return (ColumnPlan<T>) last; }
+
+        ColumnPlan<T> plan = of(rs, clazz);
+        LAST_PLAN.set(plan);
+        return plan;
+    }
+
+    /**
+     * Maps the current row to a new entity instance.
+     *
+     * @param rs The result set this plan was resolved for, positioned on a row.
+     * @return The populated instance.
+     * @throws SQLException If a column cannot be read.
+     */
+    public T mapRow(ResultSet rs) throws SQLException {
+        T instance = metadata.newInstance();
+
+        for (int i = 0; i < columns.length; i++)
+        { columns[i].readInto(rs, indices[i], instance); }
+
+        for (int i = 0; i < lobIndices.length; i++) {
+            ColumnMetadata lob = lobColumns.get(i);
+            if (lobIndices[i] > 0)
+            { lob.readInto(rs, lobIndices[i], instance); }
+
+            else if (metadata.getId(instance) != null)
+            { lob.set(instance, LobHandle.stored(metadata, lob, metadata.getId(instance))); }
+        }
+
+        return instance;
+    }
+
+    /**
+     * Gets the index of a column of the result set.
+     *
+     * @param columnName The column label, case insensitive.
+     * @return The 1-based index, or 0 if the result set has no such column.
+     */
+    public int indexOf(String columnName) {
+        Integer index = indexByLabel.get(columnName.toLowerCase(Locale.ROOT));
+        return index != null ? index : 0;
+    }
+
+    public EntityMetadata getMetadata()
+    { return metadata; }
+}
@@ -0,0 +1,222 @@
+package mg.jwe.orm.mapper;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.RecordComponent;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+import mg.jwe.orm.annotations.Column;
+import mg.jwe.orm.type.FieldConverter;
+import mg.jwe.orm.type.FieldConverters;
+
+/**
+ * Maps the rows of an arbitrary query to a plain class or a record.
+ * <p>
+ * Columns are matched to fields, or record components, by name: a {@link Column} annotation wins,
+ * otherwise names are compared ignoring case and underscores, so "created_at" fills createdAt.
+ * Each match gets the typed converter of its field, and the resolved plan is cached per SQL text
+ * and target class, so a query run again maps its rows without any name lookup. The cache keeps the
+ * {@value #MAX_PLANS} most recently used plans, and a plan is rebuilt when the column labels of the
+ * result set differ from the ones it was resolved from. Unmatched columns are ignored; unmatched
+ * fields keep their default value.
+ * </p>
+ *
+ * @param <R> The target type
+ */
+public class DtoMapper<R> {
+
+    private static final int MAX_PLANS = 1_000;
+
+    private static final Map<Key, DtoMapper<?>> CACHE = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, DtoMapper<?>> eldest)
+        { return size() > MAX_PLANS; }
+    });
+
+    private final Class<R> type;
+    /** Column labels the plan was resolved from, in result set order. */
+    private final String[] columnLabels;
+    private final int[] indices;
+    private final FieldConverter[] converters;
+
+    /** Fields to set on a plain class, or null for a record. */
+    private final Field[] fields;
+    private final Constructor<R> constructor;
+    /** Default value of each record component, used when no column matches it. */
+    private final Object[] defaults;
+
+    private DtoMapper(Class<R> type, ResultSetMetaData rsMetaData) throws SQLException {
+        this.type = type;
+        this.columnLabels = columnLabels(rsMetaData);
+
+        Map<String, Integer> labels = new HashMap<>();
+        for (int i = columnLabels.length; i >= 1; i--)
+        { labels.put(normalize(columnLabels[i - 1]), i); }
+
+        try {
+            if (type.isRecord()) {
+                RecordComponent[] components = type.getRecordComponents();
+                Class<?>[] parameterTypes = new Class<?>[components.length];
+
+                this.indices = new int[components.length];
+                this.converters = new FieldConverter[components.length];
+                this.defaults = new Object[components.length];
+                for (int i = 0; i < components.length; i++) {
+                    Class<?> componentType = components[i].getType();
+                    // @Column targets fields, so on a record it lands on the component's private field
+                    Column column = type.getDeclaredField(components[i].getName()).getAnnotation(Column.class);
+                    Integer index = labels.get(normalize(column != null ? column.name() : components[i].getName()));
+
+                    parameterTypes[i] = componentType;
+                    indices[i] = index != null ? index : 0;
+                    converters[i] = FieldConverters.forType(componentType);
+                    defaults[i] = componentType.isPrimitive() ? Array.get(Array.newInstance(componentType, 1), 0) : null;
+                }
+
+                this.fields = null;
+                this.constructor = type.getDeclaredConstructor(parameterTypes);
+            }
+
+            else {
+                List<Field> matched = new ArrayList<>();
+                List<Integer> matchedIndices = new ArrayList<>();
+                for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+                    for (Field field : current.getDeclaredFields()) {
+                        if (Modifier.isStatic(field.getModifiers()) || Modifier.isFinal(field.getModifiers()))
+                        { continue; }
+
+                        Column column = field.getAnnotation(Column.class);
+                        Integer index = labels.get(normalize(column != null ? column.name() : field.getName()));
+                        if (index != null) {
+                            field.setAccessible(true);
+                            matched.add(field);
+                            matchedIndices.add(index);
+                        }
+                    }
+                }
+
+                this.fields = matched.toArray(new Field[0]);
+                this.indices = new int[fields.length];
+                this.converters = new FieldConverter[fields.length];
+                for (int i = 0; i < fields.length; i++) {
+                    indices[i] = matchedIndices.get(i);
+                    converters[i] = FieldConverters.forType(fields[i].getType());
+                }
+
+                this.defaults = null;
+                this.constructor = type.getDeclaredConstructor();
+            }
+        }
+
+        catch (NoSuchMethodException | NoSuchFieldException e)
+        { throw new RuntimeException("No default or canonical constructor found for class " + type.getName(), e); }
+
+        constructor.setAccessible(true);
+    }
+
+    /**
+     * Gets the mapper of a query and a target class, resolving it from the result set metadata the
+     * first time.
+     *
+     * @param sql The SQL text, part of the cache key.
+     * @param rs The result set of the query.
+     * @param type The target class.
+     * @return The cached mapper.
+     * @throws SQLException If the result set metadata cannot be read.
+     */
+    @SuppressWarnings("unchecked")
+    public static <R> DtoMapper<R> of(String sql, ResultSet rs, Class<R> type) throws SQLException {
+        Key key = new Key(sql, type);
+        DtoMapper<R> mapper = (DtoMapper<R>) CACHE.get(key);
+
+        ResultSetMetaData rsMetaData = rs.getMetaData();
+        // the same SQL can return other columns after a schema change, e.g. for SELECT *
+        if (mapper == null || !Arrays.equals(mapper.columnLabels, columnLabels(rsMetaData))) {
+            mapper = new DtoMapper<>(type, rsMetaData);
+            CACHE.put(key, mapper);
+        }
+
+        return mapper;
+    }
+
+    /**
+     * Maps the current row.
+     *
+     * @param rs The result set, positioned on a row.
+     * @return A new instance of the target type.
+     * @throws SQLException If a column cannot be read as its field type.
+     */
+    public R mapRow(ResultSet rs) throws SQLException {
+        try {
+            if (fields == null) {
+                Object[] arguments = new Object[indices.length];
+                for (int i = 0; i < indices.length; i++) {
+                    Object value = indices[i] > 0 ? converters[i].read(rs, indices[i]) : null;
+                    arguments[i] = value != null ? value : defaults[i];
+                }
+
+                return constructor.newInstance(arguments);
+            }
+
+            R instance = constructor.newInstance();
+            for (int i = 0; i < fields.length; i++)
+            { converters[i].readInto(rs, indices[i], instance, fields[i]); }
+
+            return instance;
+        }
+
+        catch (ReflectiveOperationException e)
+        { throw new RuntimeException("Failed to map a row to " + type.getName(), e); }
+    }
+
+    private static String[] columnLabels(ResultSetMetaData rsMetaData) throws SQLException {
+        String[] labels = new String[rsMetaData.getColumnCount()];
+        for (int i = 0; i < labels.length; i++)
+        { labels[i] = rsMetaData.getColumnLabel(i + 1); }
+
+        return labels;
+    }
+
+    /**
+     * Lower case without underscores, so snake_case columns match camelCase fields.
+     */
+    private static String normalize(String name)
+    { return name.replace("_", "").toLowerCase(Locale.ROOT); }
+
+    private static final class Key {
+
+        private final String sql;
+        private final Class<?> type;
+
+        Key(String sql, Class<?> type) {
+            this.sql = sql;
+            this.type = type;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key))
+            { return false; }
+
+            Key key = (Key) other;
+            return type == key.type && sql.equals(key.sql);
+        }
+
+        @Override
+        public int hashCode()
+        { return Objects.hash(sql, type); }
+    }
+}
@@ -0,0 +1,201 @@
+package mg.jwe.orm.mapper;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+
+import mg.jwe.orm.type.UtilType;
+
+/**
+ * Read-only {@link ResultSet} view of rows drained from a real result set with getObject, so the
+ * field converters can map them on another thread. Supports the getters the converters use, by
+ * column index.
+ */
+class RowBuffer implements InvocationHandler {
+
+    private Object[] row;
+    private boolean wasNull;
+
+    /**
+     * Creates a result set reading the rows given to {@link #setRow(Object[])}.
+     */
+    ResultSet asResultSet() {
+        return (ResultSet) Proxy.newProxyInstance(
+            ResultSet.class.getClassLoader(), new Class<?>[] { ResultSet.class }, this
+        );
+    }
+
+    void setRow(Object[] row)
+    { this.row = row; }
+
+    /**
+     * Copies the current row of a result set.
+     *
+     * @param rs The result set, positioned on a row.
+     * @param columnCount The number of columns to copy.
+     * @return The values, indexed from 0.
+     */
+    static Object[] drain(ResultSet rs, int columnCount) throws SQLException {
+        Object[] values = new Object[columnCount];
+        for (int i = 0; i < columnCount; i++)
+        { values[i] = rs.getObject(i + 1); }
+
+        return values;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws SQLException {
+        String name = method.getName();
+
+        switch (name) {
+            case "wasNull":
+                return wasNull;
+            case "isClosed":
+            case "isWrapperFor":
+                return false;
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            case "toString":
+                return "RowBuffer";
+            default:
+                break;
+        }
+
+        if (!name.startsWith("get") || args == null || !(args[0] instanceof Integer))
+        { throw new SQLException("Unsupported on a buffered row: " + name); }
+
+        Object value = row[(Integer) args[0] - 1];
+        wasNull = value == null;
+
+        if (name.equals("getObject") && args.length == 2)
+        { return convert(value, (Class<?>) args[1]); }
+
+        return convert(value, method.getReturnType());
+    }
+
+    /**
+     * Converts a value read by getObject to the type a typed getter returns.
+     */
+    private static Object convert(Object value, Class<?> type) throws SQLException {
+        if (value == null)
+        { return type.isPrimitive() ? defaultValue(type) : null; }
+
+        if (type == Object.class || type.isInstance(value))
+        { return value; }
+
+        if (type == String.class)
+        { return value.toString(); }
+
+        if (type == boolean.class || type == Boolean.class) {
+            if (value instanceof Number)
+            { return ((Number) value).intValue() != 0; }
+
+            String text = value.toString();
+            return text.equalsIgnoreCase("true") || text.equalsIgnoreCase("t") || text.equals("1");
+        }
+
+        if (type == BigDecimal.class)
+        { return new BigDecimal(value.toString()); }
+
+        if (type.isPrimitive() && value instanceof String)
+        { value = new BigDecimal((String) value); }
+
+        if (type == int.class)
+        { return ((Number) value).intValue(); }
+
+        if (type == long.class)
+        { return ((Number) value).longValue(); }
+
+        if (type == short.class)
+        { return ((Number) value).shortValue(); }
+
+        if (type == double.class)
+        { return ((Number) value).doubleValue(); }
+
+        if (type == float.class)
+        { return ((Number) value).floatValue(); }
+
+        Object temporal = convertTemporal(value, type);
+        if (temporal != null)
+        { return temporal; }
+
+        Object converted = new UtilType().convertToFieldType(value, type);
+        if (!type.isInstance(converted))
+        { throw new SQLException("Cannot read a " + value.getClass().getName() + " as " + type.getName()); }
+
+        return converted;
+    }
+
+    private static Object convertTemporal(Object value, Class<?> type) {
+        if (value instanceof Timestamp) {
+            Timestamp timestamp = (Timestamp) value;
+            if (type == LocalDateTime.class)
+            { return timestamp.toLocalDateTime(); }
+
+            if (type == OffsetDateTime.class)
+            { return timestamp.toInstant().atZone(ZoneId.systemDefault()).toOffsetDateTime(); }
+
+            if (type == Instant.class)
+            { return timestamp.toInstant(); }
+
+            if (type == Date.class)
+            { return new Date(timestamp.getTime()); }
+
+            if (type == LocalDate.class)
+            { return timestamp.toLocalDateTime().toLocalDate(); }
+        }
+
+        if (value instanceof Date && type == LocalDate.class)
+        { return ((Date) value).toLocalDate(); }
+
+        if (value instanceof Date && type == Timestamp.class)
+        { return new Timestamp(((Date) value).getTime()); }
+
+        if (value instanceof Time && type == LocalTime.class)
+        { return ((Time) value).toLocalTime(); }
+
+        if (value instanceof OffsetDateTime && type == Timestamp.class)
+        { return Timestamp.from(((OffsetDateTime) value).toInstant()); }
+
+        if (value instanceof LocalDateTime && type == Timestamp.class)
+        { return Timestamp.valueOf((LocalDateTime) value); }
+
+        if (value instanceof LocalDate && type == Date.class)
+        { return Date.valueOf((LocalDate) value); }
+
+        return null;
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class)
+        { return false; }
+
+        if (type == long.class)
+        { return 0L; }
+
+        if (type == double.class)
+        { return 0d; }
+
+        if (type == float.class)
+        { return 0f; }
+
+        if (type == short.class)
+        { return (short) 0; }
+
+        return 0;
+    }
+}
@@ -0,0 +1,391 @@
+package mg.jwe.orm.mapper;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import javax.sql.DataSource;
+
+import mg.jwe.orm.base.BaseModel;
+import mg.jwe.orm.diagnostic.QueryScope;
+import mg.jwe.orm.metadata.EntityMetadata;
+import mg.jwe.orm.metadata.ForeignKeyMetadata;
+import mg.jwe.orm.type.UtilType;
+
+/**
+ * Pipelined read of very large tables: one thread drains the result set into chunks of raw rows,
+ * a pool of workers turns the chunks into entities and resolves their foreign keys, and the
+ * calling thread hands the entities to a consumer.
+ * <p>
+ * Memory stays bounded: at most {@link #setMaxChunksInFlight(int) chunks in flight} rows are
+ * buffered or mapped at once, and the reader waits while the consumer is behind. Entities are
+ * delivered in result order by default; unordered delivery hands each chunk over as soon as it is
+ * mapped. The consumer is always called from the calling thread.
+ * </p>
+ * <p>
+ * Eager foreign keys are read from the buffered FK column. With a {@link #setDataSource(DataSource)
+ * data source}, each worker loads the referenced entities of its chunk on a pooled connection, with
+ * one IN or {@code = ANY(?)} query per foreign key; without one, they are set as references holding
+ * only their id.
+ * </p>
+ * Example usage:
+ * <pre>
+ * try (RowPipeline&lt;Order&gt; pipeline = new RowPipeline&lt;&gt;(Order.class)) {
+ *     pipeline.setDataSource(dataSource);
+ *     pipeline.getAll(connection, order -&gt; writer.write(order));
+ * }
+ * </pre>
+ *
+ * @param <T> The entity type
+ */
+@SuppressWarnings("unchecked")
+public class RowPipeline<T extends BaseModel> implements AutoCloseable {
+
+    private final Class<T> entityClass;
+    private final EntityMetadata metadata;
+
+    private int workers = Runtime.getRuntime().availableProcessors();
+    private int chunkSize = 1_000;
+    private int maxChunksInFlight = 0;
+    private boolean ordered = true;
+    private DataSource dataSource;
+
+    private ExecutorService pool;
+
+    public RowPipeline(Class<T> entityClass) {
+        this.entityClass = entityClass;
+        this.metadata = EntityMetadata.of(entityClass);
+    }
+
+    /**
+     * Reads every row of the entity table, ordered by id.
+     *
+     * @param connection The connection to read with, used by the reader thread only.
+     * @param consumer Receives each entity, on the calling thread.
+     * @return The number of entities delivered.
+     * @throws SQLException If the query, the mapping or a foreign key load fails.
+     */
+    public long getAll(Connection connection, Consumer<? super T> consumer) throws SQLException {
+        String sql = "SELECT " + metadata.getSelectList() + " FROM " + metadata.getTableName() + " ORDER BY " + metadata.getIdColumnName();
+        return run(connection, sql, consumer);
+    }
+
+    /**
+     * Reads the rows of a query returning the columns of the entity table.
+     *
+     * @param connection The connection to read with, used by the reader thread only.
+     * @param sql The SELECT statement, with ? placeholders.
+     * @param consumer Receives each entity, on the calling thread.
+     * @param params The parameter values, bound with setObject.
+     * @return The number of entities delivered.
+     * @throws SQLException If the query, the mapping or a foreign key load fails.
+     */
+    public long run(Connection connection, String sql, Consumer<? super T> consumer, Object... params)
+        throws SQLException
+    {
+        int inFlight = maxChunksInFlight > 0 ? maxChunksInFlight : 2 * workers;
+        Semaphore permits = new Semaphore(inFlight);
+        // chunks in reading order, futures when ordered; mapped chunks, then an end or failure marker
+        BlockingQueue<Object> ready = new LinkedBlockingQueue<>();
+        AtomicInteger submitted = new AtomicInteger();
+        ExecutorService workerPool = pool();
+
+        // recorded here, where the query scope of the caller is
+        QueryScope.record(entityClass, sql, params);
+
+        Thread reader = new Thread(() -> read(connection, sql, params, permits, ready, submitted, workerPool),
+            "row-pipeline-reader-" + entityClass.getSimpleName());
+        reader.setDaemon(true);
+        reader.start();
+
+        long delivered = 0;
+        int deliveredChunks = 0;
+        Integer totalChunks = null;
+
+        try {
+            while (totalChunks == null || deliveredChunks < totalChunks) {
+                Object next = ready.take();
+
+                if (next instanceof End) {
+                    totalChunks = ((End) next).chunks;
+                    continue;
+                }
+
+                if (next instanceof Throwable)
+                { throw failure((Throwable) next); }
+
+                List<T> chunk = next instanceof CompletableFuture
+                    ? awaitChunk((CompletableFuture<List<T>>) next)
+                    : (List<T>) next;
+
+                deliveredChunks++;
+                permits.release();
+
+                for (T instance : chunk)
+                { consumer.accept(instance); }
+
+                delivered += chunk.size();
+            }
+
+            return delivered;
+        }
+
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while reading " + metadata.getTableName(), e);
+        }
+
+        finally {
+            // the reader releases the statement before the connection is handed back
+            reader.interrupt();
+            joinQuietly(reader);
+        }
+    }
+
+    /**
+     * Body of the reader thread: drains the result set into chunks handed to the workers.
+     */
+    private void read(Connection connection, String sql, Object[] params, Semaphore permits,
+        BlockingQueue<Object> ready, AtomicInteger submitted, ExecutorService workerPool)
+    {
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            for (int i = 0; i < params.length; i++)
+            { stmt.setObject(i + 1, params[i]); }
+
+            // PostgreSQL only streams rows when auto-commit is off
+            stmt.setFetchSize(chunkSize);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                ColumnPlan<T> plan = ColumnPlan.of(rs, entityClass);
+                int columnCount = rs.getMetaData().getColumnCount();
+
+                boolean more = true;
+                while (more) {
+                    permits.acquire();
+
+                    List<Object[]> rows = new ArrayList<>(chunkSize);
+                    while (rows.size() < chunkSize && (more = rs.next()))
+                    { rows.add(RowBuffer.drain(rs, columnCount)); }
+
+                    if (rows.isEmpty()) {
+                        permits.release();
+                        break;
+                    }
+
+                    submitted.incrementAndGet();
+                    CompletableFuture<List<T>> mapped = CompletableFuture.supplyAsync(() -> map(plan, rows), workerPool);
+
+                    if (ordered)
+                    { ready.put(mapped); }
+
+                    else {
+                        mapped.whenComplete((chunk, failure) ->
+                            ready.add(failure != null ? failure : chunk)
+                        );
+                    }
+                }
+            }
+
+            ready.put(new End(submitted.get()));
+        }
+
+        catch (InterruptedException e)
+        { Thread.currentThread().interrupt(); }
+
+        catch (SQLException | RuntimeException e)
+        { ready.add(e); }
+    }
+
+    /**
+     * Body of a worker: maps a chunk and resolves its foreign keys.
+     */
+    private List<T> map(ColumnPlan<T> plan, List<Object[]> rows) {
+        RowBuffer buffer = new RowBuffer();
+        ResultSet rs = buffer.asResultSet();
+        List<T> entities = new ArrayList<>(rows.size());
+
+        try {
+            for (Object[] row : rows) {
+                buffer.setRow(row);
+                entities.add(plan.mapRow(rs));
+            }
+
+            resolveForeignKeys(plan, rows, entities);
+        }
+
+        catch (SQLException e)
+        { throw new RuntimeException("Failed to map rows of " + metadata.getTableName(), e); }
+
+        return entities;
+    }
+
+    private void resolveForeignKeys(ColumnPlan<T> plan, List<Object[]> rows, List<T> entities) throws SQLException {
+        List<ForeignKeyMetadata> eager = new ArrayList<>();
+        for (ForeignKeyMetadata foreignKey : metadata.getForeignKeys()) {
+            if (!foreignKey.isLazy() && plan.indexOf(foreignKey.getColumnName()) > 0)
+            { eager.add(foreignKey); }
+        }
+
+        if (eager.isEmpty())
+        { return; }
+
+        Connection connection = dataSource != null ? dataSource.getConnection() : null;
+        try {
+            for (ForeignKeyMetadata foreignKey : eager) {
+                int index = plan.indexOf(foreignKey.getColumnName());
+                EntityMetadata target = foreignKey.getTargetMetadata();
+                Class<?> idType = target.getIdColumn().getField().getType();
+                UtilType types = new UtilType();
+
+                // the referenced ids of the chunk, in the type of the target's id field
+                Object[] keys = new Object[rows.size()];
+                Set<Object> distinct = new LinkedHashSet<>();
+                for (int i = 0; i < rows.size(); i++) {
+                    Object referencedId = rows.get(i)[index - 1];
+                    if (referencedId != null) {
+                        keys[i] = types.convertToFieldType(referencedId, idType);
+                        distinct.add(keys[i]);
+                    }
+                }
+
+                if (distinct.isEmpty())
+                { continue; }
+
+                Map<Object, ? extends BaseModel> loaded;
+                if (connection != null)
+                { loaded = BaseModel.findAllByIds(connection, foreignKey.getTargetType(), distinct); }
+
+                else {
+                    Map<Object, BaseModel> references = new HashMap<>();
+                    for (Object key : distinct) {
+                        BaseModel reference = target.newInstance();
+                        target.setId(reference, key);
+                        references.put(key, reference);
+                    }
+                    loaded = references;
+                }
+
+                for (int i = 0; i < rows.size(); i++) {
+                    if (keys[i] != null)
+                    { foreignKey.set(entities.get(i), loaded.get(keys[i])); }
+                }
+            }
+        }
+
+        finally {
+            if (connection != null)
+            { connection.close(); }
+        }
+    }
+
+    private List<T> awaitChunk(CompletableFuture<List<T>> chunk) throws SQLException, InterruptedException {
+        try
+        { return chunk.get(); }
+
+        catch (ExecutionException e)
+        { throw failure(e.getCause()); }
+    }
+
+    private static void joinQuietly(Thread thread) {
+        try
+        { thread.join(); }
+
+        catch (InterruptedException e)
+        { Thread.currentThread().interrupt(); }
+    }
+
+    private static SQLException failure(Throwable cause) {
+        while (cause instanceof CompletionException && cause.getCause() != null)
+        { cause = cause.getCause(); }
+
+        if (cause instanceof RuntimeException && cause.getCause() instanceof SQLException)
+        { return (SQLException) cause.getCause(); }
+
+        if (cause instanceof SQLException)
+        { return (SQLException) cause; }
+
+        return new SQLException("Row pipeline failed", cause);
+    }
+
+    private synchronized ExecutorService pool() {
+        if (pool == null) {
+            AtomicInteger count = new AtomicInteger();
+            pool = Executors.newFixedThreadPool(workers, runnable -> {
+                Thread thread = new Thread(runnable, "row-pipeline-" + entityClass.getSimpleName() + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        return pool;
+    }
+
+    /**
+     * Stops the worker threads.
+     */
+    @Override
+    public synchronized void close() {
+        if (pool != null) {
+            pool.shutdownNow();
+            pool = null;
+        }
+    }
+
+    /**
+     * @param workers The number of mapping threads, the number of processors by default
+     */
+    public void setWorkers(int workers)
+    { this.workers = workers; }
+
+    /**
+     * @param chunkSize The number of rows mapped by a worker at once, also used as fetch size, 1 000 by default
+     */
+    public void setChunkSize(int chunkSize)
+    { this.chunkSize = chunkSize; }
+
+    /**
+     * @param maxChunksInFlight The number of chunks read but not yet consumed, twice the workers by default
+     */
+    public void setMaxChunksInFlight(int maxChunksInFlight)
+    { this.maxChunksInFlight = maxChunksInFlight; }
+
+    /**
+     * @param ordered false to deliver chunks as soon as they are mapped, true by default
+     */
+    public void setOrdered(boolean ordered)
+    { this.ordered = ordered; }
+
+    /**
+     * @param dataSource The pool workers load eager foreign keys with, or null for id-only references
+     */
+    public void setDataSource(DataSource dataSource)
+    { this.dataSource = dataSource; }
+
+    /**
+     * Marks the end of the chunks, with their number.
+     */
+    private static final class End {
+
+        private final int chunks;
+
+        End(int chunks)
+        { this.chunks = chunks; }
+    }
+}
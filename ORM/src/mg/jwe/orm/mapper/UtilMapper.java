@@ -1,12 +1,14 @@
 package mg.jwe.orm.mapper;
 
-import java.lang.reflect.Field;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 
 import mg.jwe.orm.annotations.Column;
-import mg.jwe.orm.annotations.Id;
 import mg.jwe.orm.base.BaseModel;
-import mg.jwe.orm.type.UtilType;
+import mg.jwe.orm.metadata.EntityMetadata;
 
 public class UtilMapper {
     
@@ -15,7 +17,13 @@ public class UtilMapper {
      * <p>
      * This method creates a new instance of the specified class and populates its fields
      * with values retrieved from the provided ResultSet. It uses the {@link Column} annotation
-     * on each field to match ResultSet column names with object properties.
+     * on each field to match ResultSet column names with object properties, and reads each
+     * column with the typed converter resolved once for its field, so primitive and java.time
+     * fields are supported.
+     * </p>
+     * <p>
+     * Column indices are resolved once per ResultSet through a {@link ColumnPlan}, which is kept
+     * for the following rows of the same ResultSet. Columns missing from the ResultSet are skipped.
      * </p>
      *
      * @param rs The ResultSet containing data from a database query.
@@ -24,52 +32,71 @@ public class UtilMapper {
      * @throws RuntimeException If there is an error during instantiation or field access.
      */
     public static <T extends BaseModel> T mapResultSetToObject(ResultSet rs, Class<T> clazz) {
-        try {
-            T instance = clazz.getDeclaredConstructor().newInstance();
-            
-            for (Field field : clazz.getDeclaredFields()) {
-                field.setAccessible(true);
-                Column columnAnnotation = field.getAnnotation(Column.class);
-                if (columnAnnotation != null) {
-                    String columnName = columnAnnotation.name();
-                    Object value = rs.getObject(columnName);
-                    field.set(instance, value);
-                }
-            }
-            
-            return instance;
-        } 
+        try 
+        { return ColumnPlan.cached(rs, clazz).mapRow(rs); } 
         
         catch (Exception e) 
         { throw new RuntimeException("Failed to map ResultSet to object", e); }
     }
 
     /**
-     * Sets the generated ID for this instance after an insert operation.
+     * Maps every remaining row of a ResultSet, resolving the column plan once.
+     *
+     * @param rs The ResultSet to drain.
+     * @param clazz The class type of the objects to create.
+     * @return The mapped instances, in row order.
+     * @throws SQLException If the ResultSet cannot be read.
+     */
+    public static <T extends BaseModel> List<T> mapAll(ResultSet rs, Class<T> clazz) 
+        throws SQLException 
+    {
+        ColumnPlan<T> plan = ColumnPlan.of(rs, clazz);
+        List<T> results = new ArrayList<>();
+
+        while (rs.next()) 
+        { results.add(plan.mapRow(rs)); }
+
+        return results;
+    }
+
+    /**
+     * Sets the generated ID of an instance after an insert operation.
      * <p>
-     * This method identifies the ID field in the current class and sets its value based on
+     * This method identifies the ID field of the instance class and sets its value based on
      * the generated ID returned from the database. It converts the generated ID to match
      * the appropriate type for that field.
      * </p>
      *
+     * @param instance The instance that was inserted.
      * @param generatedId The generated ID value returned from an insert operation.
      */
-    public void setGeneratedId(Object generatedId) {
-        Class<?> clazz = this.getClass();
-        
-        for (Field field : clazz.getDeclaredFields()) {
-            field.setAccessible(true);
-            if (field.isAnnotationPresent(Id.class)) {
-                try {
-                    // convert the generated ID to the appropriate type
-                    Object convertedId = new UtilType().convertToFieldType(generatedId, field.getType());
-                    field.set(this, convertedId);
-                    return;
-                } 
-                
-                catch (IllegalAccessException e) 
-                { throw new RuntimeException("Failed to set generated ID", e); }
-            }
+    public void setGeneratedId(BaseModel instance, Object generatedId) {
+        EntityMetadata.of(instance.getClass()).setId(instance, generatedId);
+    }
+
+    /**
+     * Reads the generated id from the generated keys of an insert.
+     * <p>
+     * Some drivers return only the key column, others the whole inserted row: the id column is
+     * looked up by name and the first column is used when no column matches.
+     * </p>
+     *
+     * @param generatedKeys The generated keys, positioned on a row.
+     * @param metadata The metadata of the inserted entity.
+     * @return The generated id value.
+     * @throws SQLException If the keys cannot be read.
+     */
+    public static Object getGeneratedKey(ResultSet generatedKeys, EntityMetadata metadata) 
+        throws SQLException 
+    {
+        ResultSetMetaData keysMetaData = generatedKeys.getMetaData();
+        String idColumn = metadata.getIdColumnName();
+
+        for (int i = 1; keysMetaData != null && i <= keysMetaData.getColumnCount(); i++) {
+            if (idColumn.equalsIgnoreCase(keysMetaData.getColumnLabel(i))) 
+            { return generatedKeys.getObject(i); }
         }
+
+        return generatedKeys.getObject(1);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,100 @@
+package mg.jwe.orm.metadata;
+
+import java.lang.reflect.Field;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import mg.jwe.orm.type.FieldConverter;
+import mg.jwe.orm.type.FieldConverters;
+
+/**
+ * Mapping of one {@link mg.jwe.orm.annotations.Column} field: its column name and its typed converter.
+ */
+public class ColumnMetadata {
+
+    private final Field field;
+    private final String columnName;
+    private final FieldConverter converter;
+    private final boolean id;
+
+    ColumnMetadata(Field field, String columnName, boolean id) {
+        field.setAccessible(true);
+
+        this.field = field;
+        this.columnName = columnName;
+        this.converter = FieldConverters.forType(field.getType());
+        this.id = id;
+    }
+
+    /**
+     * Gets the value of this field on an instance.
+     *
+     * @param instance The entity to read from
+     * @return The field value, boxed for primitive fields
+     */
+    public Object get(Object instance) {
+        try 
+        { return field.get(instance); } 
+        
+        catch (IllegalAccessException e) 
+        { throw new RuntimeException("Failed to access field " + field.getName(), e); }
+    }
+
+    /**
+     * Sets the value of this field on an instance. Null leaves primitive fields untouched.
+     *
+     * @param instance The entity to write to
+     * @param value The value, already of the field type
+     */
+    public void set(Object instance, Object value) {
+        if (value == null && field.getType().isPrimitive())
+        { return; }
+
+        try 
+        { field.set(instance, value); } 
+        
+        catch (IllegalAccessException e) 
+        { throw new RuntimeException("Failed to set field " + field.getName(), e); }
+    }
+
+    /**
+     * Reads the column at the given index of the current row into this field.
+     *
+     * @param rs The ResultSet positioned on a row
+     * @param index The 1-based column index
+     * @param instance The entity to populate
+     * @throws SQLException If the column cannot be read as the field type
+     */
+    public void readInto(ResultSet rs, int index, Object instance) throws SQLException {
+        try 
+        { converter.readInto(rs, index, instance, field); } 
+        
+        catch (IllegalAccessException e) 
+        { throw new RuntimeException("Failed to set field " + field.getName(), e); }
+    }
+
+    /**
+     * Binds a value of this field to a statement parameter with the typed setter.
+     *
+     * @param stmt The statement to bind to
+     * @param index The 1-based parameter index
+     * @param value The value to bind
+     * @throws SQLException If the driver rejects the value
+     */
+    public void bind(PreparedStatement stmt, int index, Object value) throws SQLException {
+        converter.bind(stmt, index, value);
+    }
+
+    public Field getField()
+    { return field; }
+
+    public String getColumnName()
+    { return columnName; }
+
+    public FieldConverter getConverter()
+    { return converter; }
+
+    public boolean isId()
+    { return id; }
+}
@@ -0,0 +1,296 @@
+package mg.jwe.orm.metadata;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import mg.jwe.orm.annotations.Column;
+import mg.jwe.orm.annotations.ForeignKey;
+import mg.jwe.orm.annotations.Id;
+import mg.jwe.orm.annotations.Lob;
+import mg.jwe.orm.annotations.OneToMany;
+import mg.jwe.orm.annotations.Table;
+import mg.jwe.orm.annotations.Version;
+import mg.jwe.orm.type.UtilType;
+
+/**
+ * Reflection metadata of an entity class, built once and cached.
+ * <p>
+ * Scanning annotations, making fields accessible and resolving a typed converter per field is done
+ * the first time a class is used; every later read, write and mapping reuses the result.
+ * </p>
+ */
+public class EntityMetadata {
+
+    private static final Map<Class<?>, EntityMetadata> CACHE = new ConcurrentHashMap<>();
+
+    private final Class<?> entityClass;
+    private final String tableName;
+    private final Constructor<?> constructor;
+    private final ColumnMetadata idColumn;
+    private final ColumnMetadata versionColumn;
+    private final List<ColumnMetadata> columns;
+    private final List<ColumnMetadata> lobColumns;
+    private final List<ForeignKeyMetadata> foreignKeys;
+    private final List<OneToManyMetadata> collections;
+    private final String selectList;
+    private final Map<String, ColumnMetadata> columnsByName;
+    private final Map<String, FetchGroupMetadata> fetchGroups = new ConcurrentHashMap<>();
+    private final FetchGroupMetadata defaultFetchGroup;
+
+    private EntityMetadata(Class<?> entityClass) {
+        Table tableAnnotation = entityClass.getAnnotation(Table.class);
+        if (tableAnnotation == null) 
+        { throw new RuntimeException("No Table annotation found for class " + entityClass.getName()); }
+
+        this.entityClass = entityClass;
+        this.tableName = tableAnnotation.name();
+
+        try {
+            this.constructor = entityClass.getDeclaredConstructor();
+            this.constructor.setAccessible(true);
+        } 
+        
+        catch (NoSuchMethodException e) 
+        { throw new RuntimeException("No default constructor found for class " + entityClass.getName(), e); }
+
+        ColumnMetadata id = null;
+        ColumnMetadata version = null;
+        List<ColumnMetadata> columnList = new ArrayList<>();
+        List<ColumnMetadata> lobList = new ArrayList<>();
+        List<ForeignKeyMetadata> foreignKeyList = new ArrayList<>();
+        List<OneToManyMetadata> collectionList = new ArrayList<>();
+        Map<String, ColumnMetadata> byName = new HashMap<>();
+
+        for (Field field : entityClass.getDeclaredFields()) {
+            Column columnAnnotation = field.getAnnotation(Column.class);
+            ForeignKey fkAnnotation = field.getAnnotation(ForeignKey.class);
+
+            // LOB columns are not part of the regular columns: they are neither selected nor mapped by value
+            if (columnAnnotation != null && field.isAnnotationPresent(Lob.class))
+            { lobList.add(new ColumnMetadata(field, columnAnnotation.name(), false)); }
+
+            else if (columnAnnotation != null) {
+                boolean isId = field.isAnnotationPresent(Id.class);
+                ColumnMetadata column = new ColumnMetadata(field, columnAnnotation.name(), isId);
+
+                columnList.add(column);
+                byName.put(column.getColumnName().toLowerCase(Locale.ROOT), column);
+                if (isId)
+                { id = column; }
+
+                if (field.isAnnotationPresent(Version.class))
+                { version = column; }
+            } 
+            
+            else if (fkAnnotation != null)
+            { foreignKeyList.add(new ForeignKeyMetadata(field, fkAnnotation)); }
+
+            else if (field.isAnnotationPresent(OneToMany.class))
+            { collectionList.add(new OneToManyMetadata(field, field.getAnnotation(OneToMany.class))); }
+
+            // An @Id without @Column uses the field name as column name
+            else if (field.isAnnotationPresent(Id.class)) {
+                id = new ColumnMetadata(field, field.getName(), true);
+                columnList.add(id);
+                byName.put(id.getColumnName().toLowerCase(Locale.ROOT), id);
+            }
+        }
+
+        this.idColumn = id;
+        this.versionColumn = version;
+        this.columns = Collections.unmodifiableList(columnList);
+        this.lobColumns = Collections.unmodifiableList(lobList);
+        this.foreignKeys = Collections.unmodifiableList(foreignKeyList);
+        this.collections = Collections.unmodifiableList(collectionList);
+        this.columnsByName = byName;
+        this.selectList = lobList.isEmpty() ? "*" : buildSelectList(columnList, foreignKeyList);
+        this.defaultFetchGroup = new FetchGroupMetadata(this, null);
+    }
+
+    private static String buildSelectList(List<ColumnMetadata> columns, List<ForeignKeyMetadata> foreignKeys) {
+        List<String> names = new ArrayList<>();
+        for (ColumnMetadata column : columns)
+        { names.add(column.getColumnName()); }
+
+        for (ForeignKeyMetadata foreignKey : foreignKeys)
+        { names.add(foreignKey.getColumnName()); }
+
+        return String.join(", ", names);
+    }
+
+    /**
+     * Gets the metadata of an entity class, building it on first use.
+     *
+     * @param entityClass A class annotated with {@link Table}
+     * @return The cached metadata
+     * @throws RuntimeException If the class has no {@link Table} annotation or no default constructor
+     */
+    public static EntityMetadata of(Class<?> entityClass) {
+        EntityMetadata metadata = CACHE.get(entityClass);
+        if (metadata == null) {
+            // not computeIfAbsent: building a class may describe the classes it references
+            metadata = new EntityMetadata(entityClass);
+            EntityMetadata existing = CACHE.putIfAbsent(entityClass, metadata);
+            if (existing != null)
+            { metadata = existing; }
+        }
+
+        return metadata;
+    }
+
+    /**
+     * Creates a new empty instance of the entity.
+     *
+     * @return The new instance
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T newInstance() {
+        try 
+        { return (T) constructor.newInstance(); } 
+        
+        catch (ReflectiveOperationException e) 
+        { throw new RuntimeException("Failed to instantiate " + entityClass.getName(), e); }
+    }
+
+    /**
+     * Gets the id value of an instance.
+     *
+     * @param instance The entity to read from
+     * @return The id, or null if the entity has none
+     */
+    public Object getId(Object instance) {
+        return idColumn == null ? null : idColumn.get(instance);
+    }
+
+    /**
+     * Sets the id of an instance, converting the value to the id field type.
+     *
+     * @param instance The entity to write to
+     * @param value The id value, for example a generated key
+     */
+    public void setId(Object instance, Object value) {
+        if (idColumn != null) 
+        { idColumn.set(instance, new UtilType().convertToFieldType(value, idColumn.getField().getType())); }
+    }
+
+    /**
+     * Tells whether an instance has no id yet. A primitive id equal to zero counts as unset.
+     *
+     * @param instance The entity to check
+     * @return true if the id should be generated by the database
+     */
+    public boolean isNew(Object instance) {
+        Object id = getId(instance);
+        return id == null || (idColumn.getField().getType().isPrimitive() && ((Number) id).longValue() == 0);
+    }
+
+    /**
+     * Gets the version an update or delete will write for a given current version.
+     *
+     * @param current The version read with the entity, null for a row never versioned
+     * @return The next version, of the version field type
+     */
+    public Object nextVersion(Object current) {
+        long next = current == null ? 1 : ((Number) current).longValue() + 1;
+        return new UtilType().convertToFieldType(next, versionColumn.getField().getType());
+    }
+
+    /**
+     * Gets the mapped column with the given name.
+     *
+     * @param columnName The column name, case insensitive
+     * @return The column, or null if the entity does not map it
+     */
+    public ColumnMetadata getColumn(String columnName) {
+        return columnsByName.get(columnName.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Gets the name of the id column.
+     *
+     * @return The id column name
+     * @throws RuntimeException If the entity has no id field
+     */
+    public String getIdColumnName() {
+        if (idColumn == null)
+        { throw new RuntimeException("No ID field found in class " + entityClass.getName()); }
+
+        return idColumn.getColumnName();
+    }
+
+    public Class<?> getEntityClass()
+    { return entityClass; }
+
+    public String getTableName()
+    { return tableName; }
+
+    public ColumnMetadata getIdColumn()
+    { return idColumn; }
+
+    /**
+     * Gets the {@link Version} column used for optimistic locking.
+     *
+     * @return The version column, or null if the entity is not versioned
+     */
+    public ColumnMetadata getVersionColumn()
+    { return versionColumn; }
+
+    public List<ColumnMetadata> getColumns()
+    { return columns; }
+
+    public List<ForeignKeyMetadata> getForeignKeys()
+    { return foreignKeys; }
+
+    /**
+     * Gets the {@link OneToMany} collections, which are not columns.
+     *
+     * @return The collection fields
+     */
+    public List<OneToManyMetadata> getCollections()
+    { return collections; }
+
+    /**
+     * Gets the {@link Lob} columns, which are not part of {@link #getColumns()}.
+     *
+     * @return The LOB columns
+     */
+    public List<ColumnMetadata> getLobColumns()
+    { return lobColumns; }
+
+    /**
+     * Gets the SELECT list reading an entity: "*", or the mapped columns when the entity has
+     * {@link Lob} columns to leave out.
+     *
+     * @return The columns to select
+     */
+    public String getSelectList()
+    { return selectList; }
+
+    /**
+     * Gets a {@link mg.jwe.orm.annotations.FetchGroup fetch group} of the entity, resolving it on
+     * first use.
+     *
+     * @param name The group name, or null for the default group
+     * @return The cached group
+     * @throws RuntimeException If no field of the entity belongs to the group
+     */
+    public FetchGroupMetadata getFetchGroup(String name) {
+        if (name == null)
+        { return defaultFetchGroup; }
+
+        FetchGroupMetadata group = fetchGroups.get(name);
+        if (group == null) {
+            group = new FetchGroupMetadata(this, name);
+            fetchGroups.putIfAbsent(name, group);
+        }
+
+        return group;
+    }
+}
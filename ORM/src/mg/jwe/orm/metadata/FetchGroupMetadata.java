@@ -0,0 +1,145 @@
+package mg.jwe.orm.metadata;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import mg.jwe.orm.annotations.FetchGroup;
+
+/**
+ * What a {@link FetchGroup fetch group} of an entity loads: the SELECT list, the foreign keys to
+ * load eagerly, and what is left for {@link mg.jwe.orm.base.BaseModel#ensureLoaded}.
+ * <p>
+ * The id and version columns are always loaded. The default group, of a null name, loads what
+ * the entity loads without fetch groups and is complete.
+ * </p>
+ */
+public class FetchGroupMetadata {
+
+    private final String name;
+    private final String selectList;
+    private final List<ForeignKeyMetadata> eagerForeignKeys;
+    private final List<ColumnMetadata> missingColumns;
+    private final List<ForeignKeyMetadata> missingForeignKeys;
+    private final String missingSelectList;
+
+    FetchGroupMetadata(EntityMetadata metadata, String name) {
+        List<String> selected = new ArrayList<>();
+        List<ForeignKeyMetadata> eager = new ArrayList<>();
+        List<ColumnMetadata> missing = new ArrayList<>();
+        List<ForeignKeyMetadata> missingKeys = new ArrayList<>();
+        boolean declared = name == null;
+
+        for (ColumnMetadata column : metadata.getColumns()) {
+            Boolean listed = listedIn(column.getField(), name);
+            declared |= Boolean.TRUE.equals(listed);
+
+            if (listed == null || listed || column.isId() || column == metadata.getVersionColumn())
+            { selected.add(column.getColumnName()); }
+
+            else
+            { missing.add(column); }
+        }
+
+        // a LOB column read with the entity is held in memory, so only the groups listing it select it
+        for (ColumnMetadata column : metadata.getLobColumns()) {
+            if (Boolean.TRUE.equals(listedIn(column.getField(), name))) {
+                declared = true;
+                selected.add(column.getColumnName());
+            }
+        }
+
+        for (ForeignKeyMetadata foreignKey : metadata.getForeignKeys()) {
+            Boolean listed = listedIn(foreignKey.getField(), name);
+            declared |= Boolean.TRUE.equals(listed);
+
+            if (listed == null) {
+                selected.add(foreignKey.getColumnName());
+                if (!foreignKey.isLazy())
+                { eager.add(foreignKey); }
+            }
+
+            else if (listed) {
+                selected.add(foreignKey.getColumnName());
+                eager.add(foreignKey);
+            }
+
+            // a lazy foreign key outside the group stays lazy
+            else if (!foreignKey.isLazy())
+            { missingKeys.add(foreignKey); }
+        }
+
+        if (!declared)
+        { throw new RuntimeException("No field of " + metadata.getEntityClass().getName() + " belongs to fetch group " + name); }
+
+        List<String> missingNames = new ArrayList<>();
+        for (ColumnMetadata column : missing)
+        { missingNames.add(column.getColumnName()); }
+
+        for (ForeignKeyMetadata foreignKey : missingKeys)
+        { missingNames.add(foreignKey.getColumnName()); }
+
+        this.name = name;
+        this.selectList = name == null ? metadata.getSelectList() : String.join(", ", selected);
+        this.eagerForeignKeys = Collections.unmodifiableList(eager);
+        this.missingColumns = Collections.unmodifiableList(missing);
+        this.missingForeignKeys = Collections.unmodifiableList(missingKeys);
+        this.missingSelectList = String.join(", ", missingNames);
+    }
+
+    /**
+     * Tells whether a field is listed by a group.
+     *
+     * @return null if the field has no {@link FetchGroup} annotation, or for the default group
+     */
+    private static Boolean listedIn(Field field, String name) {
+        FetchGroup annotation = field.getAnnotation(FetchGroup.class);
+        if (annotation == null || name == null)
+        { return null; }
+
+        return Arrays.asList(annotation.value()).contains(name);
+    }
+
+    /**
+     * Gets the name of the group.
+     *
+     * @return The name, or null for the default group
+     */
+    public String getName()
+    { return name; }
+
+    public String getSelectList()
+    { return selectList; }
+
+    /**
+     * Gets the foreign keys the group loads with the entity.
+     */
+    public List<ForeignKeyMetadata> getEagerForeignKeys()
+    { return eagerForeignKeys; }
+
+    /**
+     * Gets the columns the group leaves unloaded.
+     */
+    public List<ColumnMetadata> getMissingColumns()
+    { return missingColumns; }
+
+    /**
+     * Gets the eager foreign keys the group leaves unloaded.
+     */
+    public List<ForeignKeyMetadata> getMissingForeignKeys()
+    { return missingForeignKeys; }
+
+    /**
+     * Gets the SELECT list of the unloaded columns followed by the unloaded foreign key columns.
+     */
+    public String getMissingSelectList()
+    { return missingSelectList; }
+
+    /**
+     * Tells whether the group loads everything the default group does.
+     */
+    public boolean isComplete()
+    { return missingColumns.isEmpty() && missingForeignKeys.isEmpty(); }
+}
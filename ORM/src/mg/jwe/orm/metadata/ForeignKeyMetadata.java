@@ -0,0 +1,95 @@
+package mg.jwe.orm.metadata;
+
+import java.lang.reflect.Field;
+
+import mg.jwe.orm.annotations.ForeignKey;
+import mg.jwe.orm.base.BaseModel;
+import mg.jwe.orm.foreignkey.UtilFK;
+
+/**
+ * Mapping of one {@link ForeignKey} field: the local foreign key column and the referenced entity.
+ * <p>
+ * By convention the foreign key column is named after the field, prefixed with "id_" and converted
+ * to snake_case. The referenced entity metadata is resolved on first use, so that entities referencing
+ * each other do not recurse while being described.
+ * </p>
+ */
+public class ForeignKeyMetadata {
+
+    private final Field field;
+    private final ForeignKey annotation;
+    private final String columnName;
+
+    ForeignKeyMetadata(Field field, ForeignKey annotation) {
+        field.setAccessible(true);
+
+        this.field = field;
+        this.annotation = annotation;
+        this.columnName = UtilFK.camelToSnake("id_" + field.getName());
+    }
+
+    /**
+     * Gets the referenced object held by this field.
+     *
+     * @param instance The entity to read from
+     * @return The referenced entity, or null
+     */
+    public BaseModel get(Object instance) {
+        try {
+            Object value = field.get(instance);
+            return value instanceof BaseModel ? (BaseModel) value : null;
+        } 
+        
+        catch (IllegalAccessException e) 
+        { throw new RuntimeException("Failed to access foreign key field " + field.getName(), e); }
+    }
+
+    /**
+     * Sets the referenced object of this field.
+     *
+     * @param instance The entity to write to
+     * @param value The referenced entity
+     */
+    public void set(Object instance, Object value) {
+        try 
+        { field.set(instance, value); } 
+        
+        catch (IllegalAccessException e) 
+        { throw new RuntimeException("Failed to set foreign key field " + field.getName(), e); }
+    }
+
+    /**
+     * Gets the id of the referenced object held by this field.
+     *
+     * @param instance The entity to read from
+     * @return The referenced id, or null if the field is empty
+     */
+    public Object getReferencedId(Object instance) {
+        BaseModel referenced = get(instance);
+        return referenced == null ? null : getTargetMetadata().getId(referenced);
+    }
+
+    /**
+     * Gets the metadata of the referenced entity.
+     *
+     * @return The target entity metadata
+     */
+    public EntityMetadata getTargetMetadata()
+    { return EntityMetadata.of(getTargetType()); }
+
+    @SuppressWarnings("unchecked")
+    public Class<? extends BaseModel> getTargetType()
+    { return (Class<? extends BaseModel>) field.getType(); }
+
+    public Field getField()
+    { return field; }
+
+    public ForeignKey getAnnotation()
+    { return annotation; }
+
+    public String getColumnName()
+    { return columnName; }
+
+    public boolean isLazy()
+    { return annotation.lazy(); }
+}
@@ -0,0 +1,102 @@
+package mg.jwe.orm.metadata;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.List;
+
+import mg.jwe.orm.annotations.OneToMany;
+import mg.jwe.orm.base.BaseModel;
+
+/**
+ * Mapping of one {@link OneToMany} field: the child entity and its foreign key to the parent.
+ * <p>
+ * The child foreign key is resolved on first use, as the child entity usually references the
+ * parent being described.
+ * </p>
+ */
+public class OneToManyMetadata {
+
+    private final Field field;
+    private final OneToMany annotation;
+    private final Class<? extends BaseModel> childType;
+    private volatile ForeignKeyMetadata mappedBy;
+
+    @SuppressWarnings("unchecked")
+    OneToManyMetadata(Field field, OneToMany annotation) {
+        Type type = field.getGenericType();
+        if (!field.getType().isAssignableFrom(List.class) || !(type instanceof ParameterizedType))
+        { throw new RuntimeException("OneToMany field " + field.getName() + " must be declared as List<Entity>"); }
+
+        Type element = ((ParameterizedType) type).getActualTypeArguments()[0];
+        if (!(element instanceof Class) || !BaseModel.class.isAssignableFrom((Class<?>) element))
+        { throw new RuntimeException("OneToMany field " + field.getName() + " must hold BaseModel entities"); }
+
+        field.setAccessible(true);
+
+        this.field = field;
+        this.annotation = annotation;
+        this.childType = (Class<? extends BaseModel>) element;
+    }
+
+    /**
+     * Gets the collection held by this field.
+     *
+     * @param instance The parent to read from
+     * @return The children, or null if not loaded
+     */
+    @SuppressWarnings("unchecked")
+    public List<BaseModel> get(Object instance) {
+        try
+        { return (List<BaseModel>) field.get(instance); }
+
+        catch (IllegalAccessException e)
+        { throw new RuntimeException("Failed to access collection field " + field.getName(), e); }
+    }
+
+    /**
+     * Sets the collection of this field.
+     *
+     * @param instance The parent to write to
+     * @param children The children
+     */
+    public void set(Object instance, List<? extends BaseModel> children) {
+        try
+        { field.set(instance, children); }
+
+        catch (IllegalAccessException e)
+        { throw new RuntimeException("Failed to set collection field " + field.getName(), e); }
+    }
+
+    /**
+     * Gets the foreign key of the child entity that references the parent.
+     *
+     * @return The child foreign key
+     * @throws RuntimeException If the child has no foreign key field named by mappedBy
+     */
+    public ForeignKeyMetadata getMappedBy() {
+        if (mappedBy == null) {
+            for (ForeignKeyMetadata foreignKey : EntityMetadata.of(childType).getForeignKeys()) {
+                if (foreignKey.getField().getName().equals(annotation.mappedBy()))
+                { mappedBy = foreignKey; }
+            }
+
+            if (mappedBy == null)
+            { throw new RuntimeException("No foreign key " + annotation.mappedBy() + " in " + childType.getName() + " for collection " + field.getName()); }
+        }
+
+        return mappedBy;
+    }
+
+    public Field getField()
+    { return field; }
+
+    public Class<? extends BaseModel> getChildType()
+    { return childType; }
+
+    public EntityMetadata getChildMetadata()
+    { return EntityMetadata.of(childType); }
+
+    public boolean isLazy()
+    { return annotation.lazy(); }
+}
@@ -0,0 +1,74 @@
+package mg.jwe.orm.query;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import mg.jwe.orm.type.FieldConverter;
+
+/**
+ * SQL text together with the values to bind and the typed converter of each value.
+ * <p>
+ * Two statements with the same SQL have the same shape, so they can share a prepared statement
+ * and be sent in one JDBC batch.
+ * </p>
+ */
+public class BoundStatement {
+
+    private final String sql;
+    private final List<Object> values = new ArrayList<>();
+    private final List<FieldConverter> converters = new ArrayList<>();
+
+    public BoundStatement(String sql) {
+        this.sql = sql;
+    }
+
+    /**
+     * Appends a parameter value.
+     *
+     * @param value The value to bind
+     * @param converter The converter binding it with the right setter
+     * @return This statement, for chaining
+     */
+    public BoundStatement add(Object value, FieldConverter converter) {
+        values.add(value);
+        converters.add(converter);
+        return this;
+    }
+
+    /**
+     * Binds every parameter to a statement prepared from {@link #getSql()}.
+     *
+     * @param stmt The prepared statement
+     * @throws SQLException If a value is rejected by the driver
+     */
+    public void bind(PreparedStatement stmt) throws SQLException {
+        for (int i = 0; i < values.size(); i++)
+        { converters.get(i).bind(stmt, i + 1, values.get(i)); }
+    }
+
+    /**
+     * Copies this statement with another SQL text and the same parameters.
+     *
+     * @param newSql The SQL of the copy
+     * @return The new statement
+     */
+    public BoundStatement withSql(String newSql) {
+        BoundStatement copy = new BoundStatement(newSql);
+        copy.values.addAll(values);
+        copy.converters.addAll(converters);
+        return copy;
+    }
+
+    public String getSql()
+    { return sql; }
+
+    /**
+     * Gets the parameter values, in binding order.
+     *
+     * @return The values as an array
+     */
+    public Object[] getParams()
+    { return values.toArray(); }
+}
@@ -0,0 +1,150 @@
+package mg.jwe.orm.query;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import mg.jwe.orm.diagnostic.QueryScope;
+import mg.jwe.orm.mapper.DtoMapper;
+
+/**
+ * Runs arbitrary SQL, such as views, joins and reports, and maps the rows to plain classes or records
+ * through a cached {@link DtoMapper}.
+ * <p>
+ * The target class needs no annotation: columns fill the fields or record components of the same
+ * name, snake_case columns matching camelCase names.
+ * </p>
+ * Example usage:
+ * <pre>
+ * record SalesByMonth(String month, BigDecimal totalAmount) { }
+ *
+ * List&lt;SalesByMonth&gt; sales = SqlQuery.query(connection,
+ *     "SELECT month, total_amount FROM v_sales_by_month WHERE year = ?", SalesByMonth.class, 2024);
+ * </pre>
+ */
+public class SqlQuery {
+
+    /** Rows fetched per round trip by {@link #stream}, for drivers that honour fetch sizes. */
+    public static final int STREAM_FETCH_SIZE = 500;
+
+    /**
+     * Runs a query and maps every row.
+     *
+     * @param connection The connection to query.
+     * @param sql The SQL, with ? placeholders.
+     * @param type The class or record to map rows to.
+     * @param params The parameter values, bound with setObject.
+     * @return The mapped rows, in result order.
+     * @throws SQLException If the query fails or a column cannot be read as its field type.
+     */
+    public static <R> List<R> query(Connection connection, String sql, Class<R> type, Object... params)
+        throws SQLException
+    {
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            bind(stmt, params);
+            QueryScope.record(type, sql, params);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                DtoMapper<R> mapper = DtoMapper.of(sql, rs, type);
+
+                List<R> results = new ArrayList<>();
+                while (rs.next())
+                { results.add(mapper.mapRow(rs)); }
+
+                return results;
+            }
+        }
+    }
+
+    /**
+     * Runs a query and maps its first row.
+     *
+     * @return The first mapped row, or null if the query returns no row.
+     * @throws SQLException If the query fails or a column cannot be read as its field type.
+     * @see #query(Connection, String, Class, Object...)
+     */
+    public static <R> R queryFirst(Connection connection, String sql, Class<R> type, Object... params)
+        throws SQLException
+    {
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            bind(stmt, params);
+            stmt.setMaxRows(1);
+            QueryScope.record(type, sql, params);
+
+            try (ResultSet rs = stmt.executeQuery())
+            { return rs.next() ? DtoMapper.of(sql, rs, type).mapRow(rs) : null; }
+        }
+    }
+
+    /**
+     * Runs a query and maps its rows lazily, as the stream is consumed, so large results are not
+     * held in memory. The stream holds the statement open and must be closed, preferably with
+     * try-with-resources. PostgreSQL only fetches rows in chunks when auto-commit is off.
+     * <p>
+     * Read errors while consuming the stream are thrown as RuntimeException with the SQLException as cause.
+     * </p>
+     *
+     * @param connection The connection to query, open until the stream is closed.
+     * @param sql The SQL, with ? placeholders.
+     * @param type The class or record to map rows to.
+     * @param params The parameter values, bound with setObject.
+     * @return The stream of mapped rows.
+     * @throws SQLException If the query fails.
+     */
+    public static <R> Stream<R> stream(Connection connection, String sql, Class<R> type, Object... params)
+        throws SQLException
+    {
+        PreparedStatement stmt = connection.prepareStatement(sql);
+
+        try {
+            bind(stmt, params);
+            stmt.setFetchSize(STREAM_FETCH_SIZE);
+            QueryScope.record(type, sql, params);
+
+            ResultSet rs = stmt.executeQuery();
+            DtoMapper<R> mapper = DtoMapper.of(sql, rs, type);
+
+            Spliterator<R> rows = new Spliterators.AbstractSpliterator<R>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+                @Override
+                public boolean tryAdvance(Consumer<? super R> action) {
+                    try {
+                        if (!rs.next())
+                        { return false; }
+
+                        action.accept(mapper.mapRow(rs));
+                        return true;
+                    }
+
+                    catch (SQLException e)
+                    { throw new RuntimeException("Failed to read the next row of: " + sql, e); }
+                }
+            };
+
+            return StreamSupport.stream(rows, false).onClose(() -> {
+                try
+                { stmt.close(); }
+
+                catch (SQLException e)
+                { throw new RuntimeException("Failed to close the statement of: " + sql, e); }
+            });
+        }
+
+        catch (SQLException | RuntimeException e) {
+            stmt.close();
+            throw e;
+        }
+    }
+
+    private static void bind(PreparedStatement stmt, Object[] params) throws SQLException {
+        for (int i = 0; i < params.length; i++)
+        { stmt.setObject(i + 1, params[i]); }
+    }
+}
@@ -1,8 +1,20 @@
 package mg.jwe.orm.query;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.StringJoiner;
 
+import mg.jwe.orm.base.BaseModel;
+import mg.jwe.orm.criteria.Criterion;
+import mg.jwe.orm.dialect.Dialect;
+import mg.jwe.orm.lob.LobHandle;
+import mg.jwe.orm.metadata.ColumnMetadata;
+import mg.jwe.orm.metadata.EntityMetadata;
+import mg.jwe.orm.metadata.ForeignKeyMetadata;
+import mg.jwe.orm.transaction.OptimisticLockException;
+import mg.jwe.orm.type.FieldConverter;
+
 public class UtilQuery {
     
     /**
@@ -52,4 +64,319 @@ public class UtilQuery {
         return "UPDATE " + tableName + " SET " + setJoiner.toString() + 
                " WHERE " + idColumn + " = ?";
     }
-}
\ No newline at end of file
+
+    /**
+     * Appends the optimistic locking condition on a version column to a statement.
+     * <p>
+     * A row that was never versioned has a NULL version, which has to be matched with IS NULL.
+     * </p>
+     *
+     * @param statement The statement whose SQL ends with its WHERE clause.
+     * @param metadata The metadata of the versioned entity.
+     * @param currentVersion The version read with the entity.
+     * @return A new statement with the version condition and parameter appended.
+     */
+    private BoundStatement withVersionCondition(BoundStatement statement, EntityMetadata metadata, Object currentVersion) {
+        ColumnMetadata version = metadata.getVersionColumn();
+
+        if (currentVersion == null) 
+        { return statement.withSql(statement.getSql() + " AND " + version.getColumnName() + " IS NULL"); }
+
+        return statement.withSql(statement.getSql() + " AND " + version.getColumnName() + " = ?")
+                        .add(currentVersion, version.getConverter());
+    }
+
+    /**
+     * Constructs an SQL SELECT statement filtering a table with a list of criteria.
+     * <p>
+     * Each criterion becomes a "column operator ?" condition, and the conditions are joined
+     * with the given logical operator. Rows are ordered by id.
+     * </p>
+     *
+     * @param tableName The name of the table to select from.
+     * @param criteria The criteria to turn into WHERE conditions.
+     * @param logicalOperator The operator joining the conditions, "AND" or "OR".
+     * @return A string representing the constructed SELECT SQL statement.
+     */
+    public String buildCriteriaQuery(String tableName, Criterion[] criteria, String logicalOperator) {
+        return buildCriteriaQuery("*", tableName, criteria, logicalOperator);
+    }
+
+    /**
+     * Constructs an SQL SELECT statement filtering the table of an entity, selecting its
+     * {@link EntityMetadata#getSelectList() select list}.
+     *
+     * @see #buildCriteriaQuery(String, Criterion[], String)
+     */
+    public String buildCriteriaQuery(EntityMetadata metadata, Criterion[] criteria, String logicalOperator) {
+        return buildCriteriaQuery(metadata.getSelectList(), metadata.getTableName(), criteria, logicalOperator, metadata.getIdColumnName());
+    }
+
+    /**
+     * Constructs an SQL SELECT statement filtering a table, selecting the given columns.
+     *
+     * @param selectList The comma-separated columns to select, or "*".
+     * @see #buildCriteriaQuery(String, Criterion[], String)
+     */
+    public String buildCriteriaQuery(String selectList, String tableName, Criterion[] criteria, String logicalOperator) {
+        return buildCriteriaQuery(selectList, tableName, criteria, logicalOperator, "id");
+    }
+
+    /**
+     * Constructs an SQL SELECT statement filtering a table, selecting the given columns, ordered by
+     * the id column of the table.
+     *
+     * @param selectList The comma-separated columns to select, or "*".
+     * @param idColumn The id column to order the rows by.
+     * @see #buildCriteriaQuery(String, Criterion[], String)
+     */
+    public String buildCriteriaQuery(String selectList, String tableName, Criterion[] criteria, String logicalOperator, String idColumn) {
+        StringBuilder sql = new StringBuilder("SELECT " + selectList + " FROM " + tableName);
+        appendConditions(sql, criteria, logicalOperator);
+        
+        sql.append(" ORDER BY ").append(idColumn);
+        return sql.toString();
+    }
+
+    /**
+     * Constructs an SQL SELECT COUNT(*) statement over the rows matching every criterion.
+     *
+     * @param tableName The name of the table to count.
+     * @param criteria The criteria to turn into WHERE conditions, joined with AND.
+     * @return A string representing the constructed SELECT SQL statement.
+     */
+    public String buildCountQuery(String tableName, Criterion[] criteria) {
+        StringBuilder sql = new StringBuilder("SELECT COUNT(*) FROM " + tableName);
+        appendConditions(sql, criteria, "AND");
+        return sql.toString();
+    }
+
+    private void appendConditions(StringBuilder sql, Criterion[] criteria, String logicalOperator) {
+        if (criteria.length > 0) {
+            sql.append(" WHERE ");
+            for (int i = 0; i < criteria.length; i++) {
+                if (i > 0) {
+                    sql.append(" ").append(logicalOperator).append(" ");
+                }
+                sql.append(criteria[i].getColumn())
+                   .append(" ")
+                   .append(criteria[i].getOperator())
+                   .append(" ?");
+            }
+        }
+    }
+
+    /**
+     * Builds the INSERT statement of an entity instance with its values.
+     * <p>
+     * Only non-null columns are inserted. A missing id is left to the database, and foreign keys
+     * are inserted as the id of the referenced object. Instances with the same non-null columns
+     * produce the same SQL, which lets callers batch them.
+     * </p>
+     *
+     * @param instance The entity to insert.
+     * @return The bound INSERT statement.
+     */
+    public BoundStatement buildInsert(BaseModel instance) {
+        EntityMetadata metadata = EntityMetadata.of(instance.getClass());
+
+        List<String> columns = new ArrayList<>();
+        List<Object> values = new ArrayList<>();
+        List<FieldConverter> converters = new ArrayList<>();
+        addInsertValues(instance, metadata, columns, values, converters);
+
+        BoundStatement statement = new BoundStatement(buildInsertQuery(metadata.getTableName(), columns));
+        for (int i = 0; i < values.size(); i++)
+        { statement.add(values.get(i), converters.get(i)); }
+
+        return statement;
+    }
+
+    /**
+     * Builds the statement inserting an entity instance, or updating the row with its id.
+     * <p>
+     * The instance must have its id. Like {@link #buildInsert}, only non-null columns are written, so
+     * an existing row keeps the values of the columns left null.
+     * </p>
+     *
+     * @param dialect The dialect of the connection, which gives the upsert syntax.
+     * @param instance The entity to write.
+     * @return The bound upsert statement.
+     * @throws RuntimeException If the instance has no id, or the dialect has no upsert statement.
+     */
+    public BoundStatement buildUpsert(Dialect dialect, BaseModel instance) {
+        EntityMetadata metadata = EntityMetadata.of(instance.getClass());
+        if (metadata.getIdColumn() == null || metadata.isNew(instance))
+        { throw new RuntimeException("Cannot upsert an instance of " + instance.getClass().getName() + " without an id"); }
+
+        List<String> columns = new ArrayList<>();
+        List<Object> values = new ArrayList<>();
+        List<FieldConverter> converters = new ArrayList<>();
+        addInsertValues(instance, metadata, columns, values, converters);
+
+        BoundStatement statement = new BoundStatement(
+            dialect.upsert(metadata.getTableName(), columns, Collections.singletonList(metadata.getIdColumnName()))
+        );
+        for (int i = 0; i < values.size(); i++)
+        { statement.add(values.get(i), converters.get(i)); }
+
+        return statement;
+    }
+
+    private void addInsertValues(BaseModel instance, EntityMetadata metadata, List<String> columns,
+        List<Object> values, List<FieldConverter> converters)
+    {
+        // a new versioned entity starts at version 1
+        ColumnMetadata version = metadata.getVersionColumn();
+        if (version != null && version.get(instance) == null)
+        { version.set(instance, metadata.nextVersion(null)); }
+
+        for (ColumnMetadata column : metadata.getColumns()) {
+            // a missing id is left to the database
+            if (column.isId() && metadata.isNew(instance))
+            { continue; }
+
+            Object value = column.get(instance);
+            if (value != null) {
+                columns.add(column.getColumnName());
+                values.add(value);
+                converters.add(column.getConverter());
+            }
+        }
+
+        addForeignKeys(instance, metadata, columns, values, converters);
+        addPendingLobs(instance, metadata, columns, values, converters);
+    }
+
+    /**
+     * Builds the UPDATE statement of an entity instance with its values.
+     * <p>
+     * Every non-null column other than the id is set, and the row is identified by the id. The
+     * columns a fetch group left unloaded are not set: call
+     * {@link BaseModel#ensureLoaded(java.sql.Connection)} before changing them.
+     * For a {@link mg.jwe.orm.annotations.Version versioned} entity the version is incremented and
+     * the row must also still have the version read with the entity; the statement then updates
+     * no row if someone else changed it in the meantime.
+     * </p>
+     *
+     * @param instance The entity to update.
+     * @return The bound UPDATE statement.
+     */
+    public BoundStatement buildUpdate(BaseModel instance) {
+        EntityMetadata metadata = EntityMetadata.of(instance.getClass());
+
+        List<String> columns = new ArrayList<>();
+        List<Object> values = new ArrayList<>();
+        List<FieldConverter> converters = new ArrayList<>();
+
+        ColumnMetadata version = metadata.getVersionColumn();
+        // the fields a fetch group left unloaded hold defaults, not the row's values
+        List<ColumnMetadata> unloaded = instance.isFullyLoaded()
+            ? Collections.<ColumnMetadata>emptyList() : instance.getFetchGroup().getMissingColumns();
+
+        for (ColumnMetadata column : metadata.getColumns()) {
+            Object value = column.get(instance);
+            if (!column.isId() && column != version && value != null && !unloaded.contains(column)) {
+                columns.add(column.getColumnName());
+                values.add(value);
+                converters.add(column.getConverter());
+            }
+        }
+
+        addForeignKeys(instance, metadata, columns, values, converters);
+        addPendingLobs(instance, metadata, columns, values, converters);
+
+        Object currentVersion = null;
+        if (version != null) {
+            currentVersion = version.get(instance);
+            columns.add(version.getColumnName());
+            values.add(metadata.nextVersion(currentVersion));
+            converters.add(version.getConverter());
+        }
+
+        BoundStatement statement = new BoundStatement(
+            buildUpdateQuery(metadata.getTableName(), columns, metadata.getIdColumnName())
+        );
+        for (int i = 0; i < values.size(); i++)
+        { statement.add(values.get(i), converters.get(i)); }
+
+        statement.add(metadata.getId(instance), metadata.getIdColumn().getConverter());
+        return version == null ? statement : withVersionCondition(statement, metadata, currentVersion);
+    }
+
+    /**
+     * Builds the DELETE statement of an entity instance.
+     * <p>
+     * A {@link mg.jwe.orm.annotations.Version versioned} entity is only deleted if the row still has
+     * the version read with the entity.
+     * </p>
+     *
+     * @param instance The entity to delete.
+     * @return The bound DELETE statement.
+     */
+    public BoundStatement buildDelete(BaseModel instance) {
+        EntityMetadata metadata = EntityMetadata.of(instance.getClass());
+
+        String sql = "DELETE FROM " + metadata.getTableName() + " WHERE " + metadata.getIdColumnName() + " = ?";
+        BoundStatement statement = new BoundStatement(sql).add(metadata.getId(instance), metadata.getIdColumn().getConverter());
+
+        ColumnMetadata version = metadata.getVersionColumn();
+        return version == null ? statement : withVersionCondition(statement, metadata, version.get(instance));
+    }
+
+    /**
+     * Checks the update count of a statement built by {@link #buildUpdate} or {@link #buildDelete}
+     * and, after a successful update, moves a versioned instance to its new version.
+     *
+     * @param instance The entity that was written.
+     * @param updateCount The update count returned by the driver.
+     * @param update true for an update, false for a delete.
+     * @throws mg.jwe.orm.transaction.OptimisticLockException If a versioned write matched no row.
+     */
+    public void afterVersionedWrite(BaseModel instance, int updateCount, boolean update) {
+        EntityMetadata metadata = EntityMetadata.of(instance.getClass());
+        ColumnMetadata version = metadata.getVersionColumn();
+        if (version == null) 
+        { return; }
+
+        Object currentVersion = version.get(instance);
+        if (updateCount == 0) 
+        { throw new OptimisticLockException(instance.getClass(), metadata.getId(instance), currentVersion); }
+
+        if (update) 
+        { version.set(instance, metadata.nextVersion(currentVersion)); }
+    }
+
+    private void addForeignKeys(BaseModel instance, EntityMetadata metadata, List<String> columns, 
+        List<Object> values, List<FieldConverter> converters) 
+    {
+        for (ForeignKeyMetadata foreignKey : metadata.getForeignKeys()) {
+            // get the ID of the referenced object
+            Object foreignId = foreignKey.getReferencedId(instance);
+
+            if (foreignId != null) {
+                // Convention: foreign key column begins with id_
+                columns.add(foreignKey.getColumnName());
+                values.add(foreignId);
+                converters.add(foreignKey.getTargetMetadata().getIdColumn().getConverter());
+            }
+        }
+    }
+
+    /**
+     * Adds the {@link mg.jwe.orm.annotations.Lob} columns holding new content. A stored handle
+     * means the content is unchanged, so the column is left out.
+     */
+    private void addPendingLobs(BaseModel instance, EntityMetadata metadata, List<String> columns,
+        List<Object> values, List<FieldConverter> converters)
+    {
+        for (ColumnMetadata column : metadata.getLobColumns()) {
+            Object value = column.get(instance);
+            if (value instanceof LobHandle && ((LobHandle) value).isPending()) {
+                columns.add(column.getColumnName());
+                values.add(value);
+                converters.add(column.getConverter());
+            }
+        }
+    }
+}
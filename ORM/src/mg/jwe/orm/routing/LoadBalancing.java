@@ -0,0 +1,13 @@
+package mg.jwe.orm.routing;
+
+/**
+ * How a {@link ReadWriteRouter} spreads reads over the replicas that are up and within the lag tolerance.
+ */
+public enum LoadBalancing {
+    /** Each read goes to the next replica in turn. */
+    ROUND_ROBIN,
+    /** Each read goes to a random replica. */
+    RANDOM,
+    /** Each read goes to the replica with the lowest measured lag. */
+    LEAST_LAG
+}
@@ -0,0 +1,247 @@
+package mg.jwe.orm.routing;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import mg.jwe.orm.cache.EntityCache;
+import mg.jwe.orm.transaction.UnitOfWork;
+
+/**
+ * Routes ORM reads to replica connections and writes to the primary.
+ * <p>
+ * The read methods of {@link mg.jwe.orm.base.BaseModel} that take a router ({@code findById},
+ * {@code getAll}, {@code findByCriteria}, {@code findByAnyCriteria}, {@code count}) run on a replica;
+ * {@code save}, {@code update}, {@code delete} and unit of work commits run on the primary.
+ * </p>
+ * <p>
+ * Reads stay on the primary, so a thread always sees its own writes:
+ * <ul>
+ *   <li>inside {@link #inTransaction(SqlFunction)}, where every statement uses the transaction connection</li>
+ *   <li>for {@link #setStickyMillis(long) a short window} after the thread last wrote</li>
+ * </ul>
+ * Replicas whose lag exceeds {@link #setMaxLagMillis(long) the tolerance}, or that failed to give a
+ * connection, are skipped; when no replica is usable reads fall back to the primary.
+ * </p>
+ * Example usage:
+ * <pre>
+ * ReadWriteRouter router = new ReadWriteRouter(primaryPool, List.of(replicaPool));
+ * Product[] products = BaseModel.getAll(router, Product.class);   // replica
+ * product.update(router);                                          // primary
+ * </pre>
+ */
+public class ReadWriteRouter {
+
+    /** PostgreSQL replay lag in milliseconds; 0 on a caught-up replica or on a server that is not a standby. */
+    public static final String POSTGRESQL_LAG_QUERY =
+        "SELECT COALESCE(CASE WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 "
+        + "ELSE EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000 END, 0)::bigint";
+
+    private final ThreadLocal<Connection> transactionConnection = new ThreadLocal<>();
+    private final ThreadLocal<Long> lastWriteAt = new ThreadLocal<>();
+    private final AtomicInteger nextReplica = new AtomicInteger();
+
+    private final DataSource primary;
+    private final List<ReplicaState> replicas = new ArrayList<>();
+
+    private LoadBalancing loadBalancing = LoadBalancing.ROUND_ROBIN;
+    private long maxLagMillis = 5_000;
+    private long lagCheckIntervalMillis = 1_000;
+    private long stickyMillis = 0;
+    private String lagQuery = POSTGRESQL_LAG_QUERY;
+
+    /**
+     * Constructs a router.
+     *
+     * @param primary The pool of connections to the primary, used for writes
+     * @param replicas The pools of connections to the replicas, used for reads
+     */
+    public ReadWriteRouter(DataSource primary, List<DataSource> replicas) {
+        this.primary = primary;
+        for (DataSource replica : replicas)
+        { this.replicas.add(new ReplicaState(replica)); }
+    }
+
+    /**
+     * Runs read-only work on a replica, or on the primary when the thread needs to see its own writes.
+     *
+     * @param work The work to run.
+     * @return The result of the work.
+     * @throws SQLException If the work fails.
+     */
+    public <T> T read(SqlFunction<T> work) throws SQLException {
+        Connection bound = transactionConnection.get();
+        if (bound != null)
+        { return work.apply(bound); }
+
+        if (isSticky())
+        { return runOn(primary, work); }
+
+        ReplicaState replica = chooseReplica();
+        if (replica == null)
+        { return runOn(primary, work); }
+
+        Connection connection;
+        try
+        { connection = replica.getDataSource().getConnection(); }
+
+        catch (SQLException e) {
+            // skip this replica for a while, serve the read from the primary
+            replica.markDown(lagCheckIntervalMillis);
+            return runOn(primary, work);
+        }
+
+        try (Connection replicaConnection = connection)
+        { return work.apply(replicaConnection); }
+    }
+
+    /**
+     * Runs work that writes on the primary.
+     *
+     * @param work The work to run.
+     * @return The result of the work.
+     * @throws SQLException If the work fails.
+     */
+    public <T> T write(SqlFunction<T> work) throws SQLException {
+        try {
+            Connection bound = transactionConnection.get();
+            return bound != null ? work.apply(bound) : runOn(primary, work);
+        }
+
+        finally
+        { lastWriteAt.set(System.currentTimeMillis()); }
+    }
+
+    /**
+     * Runs work in a transaction on the primary. Every read and write routed through this router by
+     * the same thread during the work joins the transaction.
+     *
+     * @param work The work to run.
+     * @return The result of the work.
+     * @throws SQLException If the work fails; the transaction is then rolled back.
+     */
+    public <T> T inTransaction(SqlFunction<T> work) throws SQLException {
+        if (transactionConnection.get() != null)
+        { return work.apply(transactionConnection.get()); }
+
+        try (Connection connection = primary.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            transactionConnection.set(connection);
+
+            try {
+                T result = work.apply(connection);
+                EntityCache.commit(connection);
+                return result;
+            }
+
+            catch (SQLException | RuntimeException e) {
+                EntityCache.rollback(connection);
+                throw e;
+            }
+
+            finally {
+                transactionConnection.remove();
+                lastWriteAt.set(System.currentTimeMillis());
+                connection.setAutoCommit(autoCommit);
+            }
+        }
+    }
+
+    /**
+     * Commits a unit of work on the primary.
+     *
+     * @param unitOfWork The unit of work to flush.
+     * @throws SQLException If the flush fails.
+     */
+    public void commit(UnitOfWork unitOfWork) throws SQLException {
+        write(connection -> {
+            unitOfWork.commit(connection);
+            return null;
+        });
+    }
+
+    private boolean isSticky() {
+        Long writtenAt = lastWriteAt.get();
+        return writtenAt != null && System.currentTimeMillis() - writtenAt < stickyMillis;
+    }
+
+    private ReplicaState chooseReplica() {
+        List<ReplicaState> usable = new ArrayList<>(replicas.size());
+        for (ReplicaState replica : replicas) {
+            if (!replica.isUp())
+            { continue; }
+
+            replica.refreshLag(lagQuery, lagCheckIntervalMillis);
+            if (replica.isUp() && replica.getLagMillis() <= maxLagMillis)
+            { usable.add(replica); }
+        }
+
+        if (usable.isEmpty())
+        { return null; }
+
+        switch (loadBalancing) {
+            case RANDOM:
+                return usable.get(ThreadLocalRandom.current().nextInt(usable.size()));
+
+            case LEAST_LAG:
+                ReplicaState best = usable.get(0);
+                for (ReplicaState replica : usable) {
+                    if (replica.getLagMillis() < best.getLagMillis())
+                    { best = replica; }
+                }
+                return best;
+
+            default:
+                return usable.get(Math.floorMod(nextReplica.getAndIncrement(), usable.size()));
+        }
+    }
+
+    private static <T> T runOn(DataSource dataSource, SqlFunction<T> work) throws SQLException {
+        try (Connection connection = dataSource.getConnection())
+        { return work.apply(connection); }
+    }
+
+    public void setLoadBalancing(LoadBalancing loadBalancing)
+    { this.loadBalancing = loadBalancing; }
+
+    /**
+     * Sets the replica lag above which a replica stops receiving reads.
+     *
+     * @param maxLagMillis The tolerated lag in milliseconds
+     */
+    public void setMaxLagMillis(long maxLagMillis)
+    { this.maxLagMillis = maxLagMillis; }
+
+    /**
+     * Sets how often the lag of each replica is measured, which is also how long a failing replica is skipped.
+     *
+     * @param lagCheckIntervalMillis The interval in milliseconds
+     */
+    public void setLagCheckIntervalMillis(long lagCheckIntervalMillis)
+    { this.lagCheckIntervalMillis = lagCheckIntervalMillis; }
+
+    /**
+     * Sets how long after a write the same thread keeps reading from the primary.
+     *
+     * @param stickyMillis The window in milliseconds, 0 to disable
+     */
+    public void setStickyMillis(long stickyMillis)
+    { this.stickyMillis = stickyMillis; }
+
+    /**
+     * Sets the query measuring the lag of a replica, returning milliseconds in its first column.
+     *
+     * @param lagQuery The lag query, {@link #POSTGRESQL_LAG_QUERY} by default, null to never measure lag
+     */
+    public void setLagQuery(String lagQuery)
+    { this.lagQuery = lagQuery; }
+
+    public DataSource getPrimary()
+    { return primary; }
+}
@@ -0,0 +1,58 @@
+package mg.jwe.orm.routing;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+/**
+ * Health of one replica as seen by a {@link ReadWriteRouter}: its last measured lag and whether it
+ * is temporarily excluded after a connection failure.
+ */
+class ReplicaState {
+
+    private final DataSource dataSource;
+    private volatile long lagMillis;
+    private volatile long checkedAt;
+    private volatile long downUntil;
+
+    ReplicaState(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * Measures the replica lag if the last measure is older than the check interval, unless no lag
+     * query is configured.
+     * A replica that cannot be queried is marked down for the same interval.
+     */
+    void refreshLag(String lagQuery, long intervalMillis) {
+        long now = System.currentTimeMillis();
+        if (lagQuery == null || now - checkedAt < intervalMillis)
+        { return; }
+
+        checkedAt = now;
+        try (Connection connection = dataSource.getConnection();
+             Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(lagQuery)) {
+
+            lagMillis = rs.next() ? rs.getLong(1) : 0;
+        }
+
+        catch (SQLException e)
+        { markDown(intervalMillis); }
+    }
+
+    void markDown(long millis)
+    { downUntil = System.currentTimeMillis() + millis; }
+
+    boolean isUp()
+    { return System.currentTimeMillis() >= downUntil; }
+
+    DataSource getDataSource()
+    { return dataSource; }
+
+    long getLagMillis()
+    { return lagMillis; }
+}
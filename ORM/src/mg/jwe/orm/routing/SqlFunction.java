@@ -0,0 +1,14 @@
+package mg.jwe.orm.routing;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Database work run on a connection chosen by a {@link ReadWriteRouter}.
+ *
+ * @param <T> The result type
+ */
+@FunctionalInterface
+public interface SqlFunction<T> {
+    T apply(Connection connection) throws SQLException;
+}
@@ -0,0 +1,363 @@
+package mg.jwe.orm.snapshot;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+import mg.jwe.orm.base.BaseModel;
+import mg.jwe.orm.diagnostic.QueryScope;
+import mg.jwe.orm.mapper.ColumnPlan;
+import mg.jwe.orm.lob.LobHandle;
+import mg.jwe.orm.metadata.ColumnMetadata;
+import mg.jwe.orm.metadata.EntityMetadata;
+import mg.jwe.orm.metadata.ForeignKeyMetadata;
+
+/**
+ * Read-only copy of a whole table held column by column instead of one entity per row.
+ * <p>
+ * Each mapped column is stored in a {@link SnapshotColumn}: primitive arrays for numbers and
+ * booleans, dictionary codes for strings and a null bitmap, which costs a fraction of the heap of
+ * the equivalent entities and gives the garbage collector a handful of arrays to trace instead of
+ * millions of objects. Rows are looked up by numeric id with a binary search, scanned by row index,
+ * and turned into entities only when asked for.
+ * </p>
+ * <p>
+ * Foreign keys are stored as the referenced id. Entities built from a snapshot get a reference
+ * holding only that id, which can be loaded with {@link BaseModel#findById} or another snapshot.
+ * </p>
+ * Example usage:
+ * <pre>
+ * ColumnarSnapshot&lt;Country&gt; countries = ColumnarSnapshot.load(connection, Country.class);
+ * Country france = countries.findById(33);
+ * int[] european = countries.scan(row -&gt; countries.getString(row, "continent").equals("Europe"));
+ * </pre>
+ * A snapshot never changes once loaded; use a {@link SnapshotHolder} to refresh it.
+ *
+ * @param <T> The entity type
+ */
+public class ColumnarSnapshot<T extends BaseModel> {
+
+    private final EntityMetadata metadata;
+    private final Map<String, SnapshotColumn> columns;
+    private final SnapshotColumn idColumn;
+    private final SnapshotColumn[] fieldColumns;
+    private final SnapshotColumn[] foreignKeyColumns;
+    private final int size;
+    private final long loadedAt;
+
+    /** Numeric ids in ascending order, and the row of each one when rows are not already sorted by id. */
+    private final long[] sortedIds;
+    private final int[] rowsBySortedId;
+
+    private ColumnarSnapshot(EntityMetadata metadata, Map<String, SnapshotColumn> columns, int size) {
+        this.metadata = metadata;
+        this.columns = Collections.unmodifiableMap(columns);
+        this.size = size;
+        this.loadedAt = System.currentTimeMillis();
+
+        // storage of each mapped field, in metadata order, so entities are built without name lookups
+        this.fieldColumns = new SnapshotColumn[metadata.getColumns().size()];
+        for (int i = 0; i < fieldColumns.length; i++)
+        { fieldColumns[i] = columns.get(key(metadata.getColumns().get(i).getColumnName())); }
+
+        this.foreignKeyColumns = new SnapshotColumn[metadata.getForeignKeys().size()];
+        for (int i = 0; i < foreignKeyColumns.length; i++)
+        { foreignKeyColumns[i] = columns.get(key(metadata.getForeignKeys().get(i).getColumnName())); }
+
+        ColumnMetadata id = metadata.getIdColumn();
+        this.idColumn = id == null ? null : columns.get(key(id.getColumnName()));
+
+        if (idColumn instanceof SnapshotColumn.IntColumn || idColumn instanceof SnapshotColumn.LongColumn) {
+            long[] ids = new long[size];
+            boolean sorted = true;
+            for (int row = 0; row < size; row++) {
+                ids[row] = numericId(row);
+                if (row > 0 && ids[row] < ids[row - 1])
+                { sorted = false; }
+            }
+
+            this.sortedIds = sorted ? ids : sortIds(ids);
+            this.rowsBySortedId = sorted ? null : sortRows(ids);
+        }
+
+        else {
+            this.sortedIds = null;
+            this.rowsBySortedId = null;
+        }
+    }
+
+    /**
+     * Loads every row of an entity table.
+     *
+     * @param connection The connection to read with.
+     * @param clazz The entity class.
+     * @return The loaded snapshot.
+     * @throws SQLException If the table cannot be read.
+     */
+    public static <T extends BaseModel> ColumnarSnapshot<T> load(Connection connection, Class<T> clazz)
+        throws SQLException
+    {
+        EntityMetadata metadata = EntityMetadata.of(clazz);
+        String sql = "SELECT " + metadata.getSelectList() + " FROM " + metadata.getTableName() + " ORDER BY " + metadata.getIdColumnName();
+        QueryScope.record(clazz, sql);
+
+        try (PreparedStatement stmt = connection.prepareStatement(sql);
+             ResultSet rs = stmt.executeQuery()) {
+
+            ColumnPlan<T> plan = ColumnPlan.of(rs, clazz);
+            Map<String, SnapshotColumn> columns = new LinkedHashMap<>();
+            List<SnapshotColumn> loaded = new ArrayList<>();
+            List<Integer> indices = new ArrayList<>();
+
+            for (ColumnMetadata column : metadata.getColumns()) {
+                SnapshotColumn snapshotColumn = SnapshotColumn.forType(
+                    column.getColumnName(), column.getField().getType(), column.getConverter()
+                );
+                columns.put(key(column.getColumnName()), snapshotColumn);
+                register(plan, snapshotColumn, loaded, indices);
+            }
+
+            for (ForeignKeyMetadata foreignKey : metadata.getForeignKeys()) {
+                ColumnMetadata targetId = foreignKey.getTargetMetadata().getIdColumn();
+                SnapshotColumn snapshotColumn = SnapshotColumn.forType(
+                    foreignKey.getColumnName(), targetId.getField().getType(), targetId.getConverter()
+                );
+                columns.put(key(foreignKey.getColumnName()), snapshotColumn);
+                register(plan, snapshotColumn, loaded, indices);
+            }
+
+            int row = 0;
+            while (rs.next()) {
+                for (int i = 0; i < loaded.size(); i++)
+                { loaded.get(i).load(rs, indices.get(i), row); }
+
+                row++;
+            }
+
+            for (SnapshotColumn column : columns.values())
+            { column.trim(row); }
+
+            return new ColumnarSnapshot<>(metadata, columns, row);
+        }
+    }
+
+    /**
+     * Adds a column to the loaded ones if the result set has it. Absent columns stay empty and read as NULL.
+     */
+    private static void register(ColumnPlan<?> plan, SnapshotColumn column, List<SnapshotColumn> loaded, List<Integer> indices) {
+        int index = plan.indexOf(column.getName());
+        if (index > 0) {
+            loaded.add(column);
+            indices.add(index);
+        }
+
+        else
+        { column.markAbsent(); }
+    }
+
+    /**
+     * Gets the row holding an id.
+     *
+     * @param id The id to look for
+     * @return The row index, or -1 if no row has this id
+     * @throws IllegalStateException If the entity id is not an int or a long
+     */
+    public int rowOf(long id) {
+        if (sortedIds == null)
+        { throw new IllegalStateException("Id lookups need an int or long id in " + metadata.getEntityClass().getName()); }
+
+        int position = Arrays.binarySearch(sortedIds, id);
+        if (position < 0)
+        { return -1; }
+
+        return rowsBySortedId == null ? position : rowsBySortedId[position];
+    }
+
+    /**
+     * Builds the entity of an id.
+     *
+     * @param id The id to look for
+     * @return A new entity, or null if no row has this id
+     */
+    public T findById(long id) {
+        int row = rowOf(id);
+        return row < 0 ? null : get(row);
+    }
+
+    /**
+     * Builds the entity of a row.
+     *
+     * @param row The row index, from 0 to {@link #size()} - 1
+     * @return A new entity populated from the row
+     */
+    public T get(int row) {
+        T instance = metadata.newInstance();
+
+        try {
+            List<ColumnMetadata> mapped = metadata.getColumns();
+            for (int i = 0; i < fieldColumns.length; i++)
+            { fieldColumns[i].writeTo(row, instance, mapped.get(i).getField()); }
+
+            List<ForeignKeyMetadata> foreignKeys = metadata.getForeignKeys();
+            for (int i = 0; i < foreignKeyColumns.length; i++) {
+                Object referencedId = foreignKeyColumns[i].get(row);
+                if (referencedId != null) {
+                    ForeignKeyMetadata foreignKey = foreignKeys.get(i);
+                    EntityMetadata target = foreignKey.getTargetMetadata();
+                    Object reference = target.newInstance();
+                    target.setId(reference, referencedId);
+                    foreignKey.set(instance, reference);
+                }
+            }
+
+            Object id = metadata.getId(instance);
+            for (ColumnMetadata lob : metadata.getLobColumns()) {
+                if (id != null)
+                { lob.set(instance, LobHandle.stored(metadata, lob, id)); }
+            }
+        }
+
+        catch (IllegalAccessException e)
+        { throw new RuntimeException("Failed to build " + metadata.getEntityClass().getName() + " from snapshot", e); }
+
+        return instance;
+    }
+
+    /**
+     * Finds the rows matching a predicate on row indexes.
+     *
+     * @param predicate The row test, usually reading typed values through the column getters
+     * @return The matching row indexes, in row order
+     */
+    public int[] scan(IntPredicate predicate) {
+        int[] rows = new int[Math.min(size, 16)];
+        int count = 0;
+        for (int row = 0; row < size; row++) {
+            if (predicate.test(row)) {
+                if (count == rows.length)
+                { rows = Arrays.copyOf(rows, rows.length * 2); }
+
+                rows[count++] = row;
+            }
+        }
+
+        return Arrays.copyOf(rows, count);
+    }
+
+    /**
+     * Builds the entities of the rows matching a predicate.
+     *
+     * @param predicate The row test
+     * @return The matching entities, in row order
+     */
+    public List<T> findAll(IntPredicate predicate) {
+        List<T> results = new ArrayList<>();
+        for (int row : scan(predicate))
+        { results.add(get(row)); }
+
+        return results;
+    }
+
+    /**
+     * Gets a column by name.
+     *
+     * @param columnName The column name, case insensitive; foreign keys use their "id_" column
+     * @return The column storage
+     * @throws IllegalArgumentException If the entity does not map this column
+     */
+    public SnapshotColumn column(String columnName) {
+        SnapshotColumn column = columns.get(key(columnName));
+        if (column == null)
+        { throw new IllegalArgumentException("No column " + columnName + " in snapshot of " + metadata.getTableName()); }
+
+        return column;
+    }
+
+    public int getInt(int row, String columnName)
+    { return ((SnapshotColumn.IntColumn) column(columnName)).getInt(row); }
+
+    /**
+     * Gets a long value, widening int columns.
+     */
+    public long getLong(int row, String columnName) {
+        SnapshotColumn column = column(columnName);
+        return column instanceof SnapshotColumn.IntColumn
+            ? ((SnapshotColumn.IntColumn) column).getInt(row)
+            : ((SnapshotColumn.LongColumn) column).getLong(row);
+    }
+
+    /**
+     * Gets a double value, widening int and long columns.
+     */
+    public double getDouble(int row, String columnName) {
+        SnapshotColumn column = column(columnName);
+        if (column instanceof SnapshotColumn.DoubleColumn)
+        { return ((SnapshotColumn.DoubleColumn) column).getDouble(row); }
+
+        return getLong(row, columnName);
+    }
+
+    public boolean getBoolean(int row, String columnName)
+    { return ((SnapshotColumn.BooleanColumn) column(columnName)).getBoolean(row); }
+
+    public String getString(int row, String columnName)
+    { return ((SnapshotColumn.StringColumn) column(columnName)).getString(row); }
+
+    public boolean isNull(int row, String columnName)
+    { return column(columnName).isNull(row); }
+
+    /**
+     * Gets the number of rows.
+     */
+    public int size()
+    { return size; }
+
+    /**
+     * Gets the time this snapshot was loaded.
+     *
+     * @return Epoch milliseconds
+     */
+    public long getLoadedAt()
+    { return loadedAt; }
+
+    public EntityMetadata getMetadata()
+    { return metadata; }
+
+    private long numericId(int row) {
+        return idColumn instanceof SnapshotColumn.IntColumn
+            ? ((SnapshotColumn.IntColumn) idColumn).getInt(row)
+            : ((SnapshotColumn.LongColumn) idColumn).getLong(row);
+    }
+
+    private static long[] sortIds(long[] ids) {
+        long[] sorted = ids.clone();
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private static int[] sortRows(long[] ids) {
+        Integer[] rows = new Integer[ids.length];
+        for (int row = 0; row < rows.length; row++)
+        { rows[row] = row; }
+
+        Arrays.sort(rows, (a, b) -> Long.compare(ids[a], ids[b]));
+
+        int[] result = new int[rows.length];
+        for (int i = 0; i < rows.length; i++)
+        { result[i] = rows[i]; }
+
+        return result;
+    }
+
+    private static String key(String columnName)
+    { return columnName.toLowerCase(Locale.ROOT); }
+}
@@ -0,0 +1,367 @@
+package mg.jwe.orm.snapshot;
+
+import java.lang.reflect.Field;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import mg.jwe.orm.type.FieldConverter;
+
+/**
+ * Values of one column of a {@link ColumnarSnapshot}, stored by row index.
+ * <p>
+ * Numeric and boolean columns live in primitive arrays, strings are dictionary-encoded as int codes,
+ * and SQL NULLs are tracked in a bitmap; only columns of other types keep an object per row.
+ * </p>
+ */
+public abstract class SnapshotColumn {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final String name;
+    private final BitSet nulls = new BitSet();
+    private boolean absent;
+
+    SnapshotColumn(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Chooses the storage for values of a Java type.
+     *
+     * @param name The column name
+     * @param type The field type, or the id type of the referenced entity for a foreign key
+     * @param converter The converter used to read values without a primitive storage
+     */
+    static SnapshotColumn forType(String name, Class<?> type, FieldConverter converter) {
+        if (type == int.class || type == Integer.class)
+        { return new IntColumn(name); }
+
+        if (type == long.class || type == Long.class)
+        { return new LongColumn(name); }
+
+        if (type == double.class || type == Double.class)
+        { return new DoubleColumn(name); }
+
+        if (type == boolean.class || type == Boolean.class)
+        { return new BooleanColumn(name); }
+
+        if (type == String.class)
+        { return new StringColumn(name); }
+
+        return new ObjectColumn(name, converter);
+    }
+
+    /**
+     * Reads the column of the current result set row into a row of this column.
+     */
+    void load(ResultSet rs, int index, int row) throws SQLException {
+        loadValue(rs, index, row);
+        if (rs.wasNull())
+        { nulls.set(row); }
+    }
+
+    /**
+     * Marks a column missing from the loaded result set, which then reads as NULL on every row.
+     */
+    void markAbsent()
+    { absent = true; }
+
+    abstract void loadValue(ResultSet rs, int index, int row) throws SQLException;
+
+    /**
+     * Shrinks the storage to the number of loaded rows.
+     */
+    abstract void trim(int size);
+
+    /**
+     * Gets the value of a row, boxed.
+     *
+     * @param row The row index
+     * @return The value, or null if the column is NULL on this row
+     */
+    public abstract Object get(int row);
+
+    /**
+     * Writes the value of a row into an entity field. NULL leaves the field at its default.
+     */
+    void writeTo(int row, Object instance, Field field) throws IllegalAccessException {
+        if (!isNull(row))
+        { field.set(instance, get(row)); }
+    }
+
+    /**
+     * Tells whether the column is NULL on a row.
+     *
+     * @param row The row index
+     * @return True for SQL NULL
+     */
+    public boolean isNull(int row)
+    { return absent || nulls.get(row); }
+
+    public String getName()
+    { return name; }
+
+    /**
+     * Capacity of an array that must hold the given row, doubling the current length.
+     */
+    static int grow(int length, int row) {
+        return Math.max(INITIAL_CAPACITY, Math.max(length * 2, row + 1));
+    }
+
+    /**
+     * Column of int or Integer fields.
+     */
+    public static final class IntColumn extends SnapshotColumn {
+
+        private int[] values = new int[0];
+
+        IntColumn(String name)
+        { super(name); }
+
+        void loadValue(ResultSet rs, int index, int row) throws SQLException {
+            if (row >= values.length)
+            { values = Arrays.copyOf(values, grow(values.length, row)); }
+
+            values[row] = rs.getInt(index);
+        }
+
+        void trim(int size)
+        { values = Arrays.copyOf(values, size); }
+
+        void writeTo(int row, Object instance, Field field) throws IllegalAccessException {
+            if (field.getType() == int.class)
+            { field.setInt(instance, values[row]); }
+
+            else
+            { super.writeTo(row, instance, field); }
+        }
+
+        public Object get(int row)
+        { return isNull(row) ? null : values[row]; }
+
+        /**
+         * Gets the value of a row without boxing; 0 for NULL.
+         */
+        public int getInt(int row)
+        { return values[row]; }
+    }
+
+    /**
+     * Column of long or Long fields.
+     */
+    public static final class LongColumn extends SnapshotColumn {
+
+        private long[] values = new long[0];
+
+        LongColumn(String name)
+        { super(name); }
+
+        void loadValue(ResultSet rs, int index, int row) throws SQLException {
+            if (row >= values.length)
+            { values = Arrays.copyOf(values, grow(values.length, row)); }
+
+            values[row] = rs.getLong(index);
+        }
+
+        void trim(int size)
+        { values = Arrays.copyOf(values, size); }
+
+        void writeTo(int row, Object instance, Field field) throws IllegalAccessException {
+            if (field.getType() == long.class)
+            { field.setLong(instance, values[row]); }
+
+            else
+            { super.writeTo(row, instance, field); }
+        }
+
+        public Object get(int row)
+        { return isNull(row) ? null : values[row]; }
+
+        /**
+         * Gets the value of a row without boxing; 0 for NULL.
+         */
+        public long getLong(int row)
+        { return values[row]; }
+    }
+
+    /**
+     * Column of double or Double fields.
+     */
+    public static final class DoubleColumn extends SnapshotColumn {
+
+        private double[] values = new double[0];
+
+        DoubleColumn(String name)
+        { super(name); }
+
+        void loadValue(ResultSet rs, int index, int row) throws SQLException {
+            if (row >= values.length)
+            { values = Arrays.copyOf(values, grow(values.length, row)); }
+
+            values[row] = rs.getDouble(index);
+        }
+
+        void trim(int size)
+        { values = Arrays.copyOf(values, size); }
+
+        void writeTo(int row, Object instance, Field field) throws IllegalAccessException {
+            if (field.getType() == double.class)
+            { field.setDouble(instance, values[row]); }
+
+            else
+            { super.writeTo(row, instance, field); }
+        }
+
+        public Object get(int row)
+        { return isNull(row) ? null : values[row]; }
+
+        /**
+         * Gets the value of a row without boxing; 0 for NULL.
+         */
+        public double getDouble(int row)
+        { return values[row]; }
+    }
+
+    /**
+     * Column of boolean or Boolean fields, one bit per row.
+     */
+    public static final class BooleanColumn extends SnapshotColumn {
+
+        private final BitSet values = new BitSet();
+
+        BooleanColumn(String name)
+        { super(name); }
+
+        void loadValue(ResultSet rs, int index, int row) throws SQLException {
+            if (rs.getBoolean(index))
+            { values.set(row); }
+        }
+
+        void trim(int size)
+        { }
+
+        void writeTo(int row, Object instance, Field field) throws IllegalAccessException {
+            if (field.getType() == boolean.class)
+            { field.setBoolean(instance, values.get(row)); }
+
+            else
+            { super.writeTo(row, instance, field); }
+        }
+
+        public Object get(int row)
+        { return isNull(row) ? null : values.get(row); }
+
+        /**
+         * Gets the value of a row without boxing; false for NULL.
+         */
+        public boolean getBoolean(int row)
+        { return values.get(row); }
+    }
+
+    /**
+     * Column of String fields, dictionary-encoded: each distinct string is stored once and rows hold
+     * its int code. Equality scans can compare codes instead of strings.
+     */
+    public static final class StringColumn extends SnapshotColumn {
+
+        private int[] codes = new int[0];
+        private String[] dictionary = new String[0];
+        private final Map<String, Integer> codeByValue = new HashMap<>();
+
+        StringColumn(String name)
+        { super(name); }
+
+        void loadValue(ResultSet rs, int index, int row) throws SQLException {
+            if (row >= codes.length)
+            { codes = Arrays.copyOf(codes, grow(codes.length, row)); }
+
+            String value = rs.getString(index);
+            if (value == null) {
+                codes[row] = -1;
+                return;
+            }
+
+            Integer code = codeByValue.get(value);
+            if (code == null) {
+                code = codeByValue.size();
+                codeByValue.put(value, code);
+                if (code >= dictionary.length)
+                { dictionary = Arrays.copyOf(dictionary, grow(dictionary.length, code)); }
+
+                dictionary[code] = value;
+            }
+
+            codes[row] = code;
+        }
+
+        void trim(int size) {
+            codes = Arrays.copyOf(codes, size);
+            dictionary = Arrays.copyOf(dictionary, codeByValue.size());
+        }
+
+        public Object get(int row)
+        { return getString(row); }
+
+        public String getString(int row) {
+            int code = codes[row];
+            return code < 0 || isNull(row) ? null : dictionary[code];
+        }
+
+        /**
+         * Gets the dictionary code of a row.
+         *
+         * @param row The row index
+         * @return The code, or -1 for NULL
+         */
+        public int getCode(int row)
+        { return codes[row]; }
+
+        /**
+         * Gets the dictionary code of a value.
+         *
+         * @param value The string to look up
+         * @return The code, or -1 if no row holds this value
+         */
+        public int codeOf(String value) {
+            Integer code = value == null ? null : codeByValue.get(value);
+            return code != null ? code : -1;
+        }
+
+        /**
+         * Gets the number of distinct non-null values.
+         */
+        public int getDictionarySize()
+        { return codeByValue.size(); }
+    }
+
+    /**
+     * Column of any other field type, read with its converter and kept as objects.
+     */
+    public static final class ObjectColumn extends SnapshotColumn {
+
+        private final FieldConverter converter;
+        private Object[] values = new Object[0];
+
+        ObjectColumn(String name, FieldConverter converter) {
+            super(name);
+            this.converter = converter;
+        }
+
+        void loadValue(ResultSet rs, int index, int row) throws SQLException {
+            if (row >= values.length)
+            { values = Arrays.copyOf(values, grow(values.length, row)); }
+
+            values[row] = converter.read(rs, index);
+        }
+
+        void trim(int size)
+        { values = Arrays.copyOf(values, size); }
+
+        public Object get(int row)
+        { return values[row]; }
+    }
+}
@@ -0,0 +1,161 @@
+package mg.jwe.orm.snapshot;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.sql.DataSource;
+
+import mg.jwe.orm.base.BaseModel;
+
+/**
+ * Keeps the current {@link ColumnarSnapshot} of a table and replaces it when it is refreshed.
+ * <p>
+ * The snapshot is loaded on first use. After {@link #invalidate()} the next {@link #get()} reloads it;
+ * with {@link #refreshEvery(long)} a background thread also reloads it periodically. Readers always
+ * get a complete snapshot: a reload builds a new one and swaps it in, and a failed periodic reload
+ * keeps the previous snapshot. The failure is kept as the {@link #getLastFailure() last failure} and
+ * handed to the {@link #setFailureHandler(Consumer) failure handler}; the next period tries again.
+ * </p>
+ * Example usage:
+ * <pre>
+ * SnapshotHolder&lt;Country&gt; countries = new SnapshotHolder&lt;&gt;(dataSource, Country.class);
+ * countries.refreshEvery(60_000);
+ * Country france = countries.get().findById(33);
+ * </pre>
+ *
+ * @param <T> The entity type
+ */
+public class SnapshotHolder<T extends BaseModel> implements AutoCloseable {
+
+    private final DataSource dataSource;
+    private final Class<T> entityClass;
+
+    private volatile ColumnarSnapshot<T> snapshot;
+    private volatile boolean stale = true;
+    private ScheduledExecutorService scheduler;
+    private volatile Exception lastFailure;
+    private volatile Consumer<? super Exception> failureHandler;
+
+    /**
+     * @param dataSource The pool to load snapshots from
+     * @param entityClass The entity class to hold
+     */
+    public SnapshotHolder(DataSource dataSource, Class<T> entityClass) {
+        this.dataSource = dataSource;
+        this.entityClass = entityClass;
+    }
+
+    /**
+     * Gets the current snapshot, loading it first if none is loaded or it was invalidated.
+     *
+     * @return The current snapshot
+     * @throws SQLException If the snapshot has to be loaded and the load fails
+     */
+    public ColumnarSnapshot<T> get() throws SQLException {
+        if (stale) {
+            synchronized (this) {
+                if (stale)
+                { refresh(); }
+            }
+        }
+
+        return snapshot;
+    }
+
+    /**
+     * Loads a new snapshot and makes it current.
+     *
+     * @throws SQLException If the load fails; the previous snapshot stays current
+     */
+    public synchronized void refresh() throws SQLException {
+        // cleared before loading, so an invalidation arriving during the load is not lost
+        stale = false;
+
+        try (Connection connection = dataSource.getConnection()) {
+            snapshot = ColumnarSnapshot.load(connection, entityClass);
+            lastFailure = null;
+        }
+
+        catch (SQLException | RuntimeException e) {
+            stale = true;
+            throw e;
+        }
+    }
+
+    /**
+     * Marks the snapshot as outdated, after a write to the table. The next {@link #get()} reloads it.
+     */
+    public void invalidate()
+    { stale = true; }
+
+    /**
+     * Starts reloading the snapshot periodically on a daemon thread.
+     *
+     * @param periodMillis The time between two reloads, in milliseconds
+     */
+    public synchronized void refreshEvery(long periodMillis) {
+        if (scheduler != null)
+        { scheduler.shutdownNow(); }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "snapshot-" + entityClass.getSimpleName());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        scheduler.scheduleWithFixedDelay(() -> {
+            // any exception escaping the task would cancel every later reload
+            try
+            { refresh(); }
+
+            catch (SQLException | RuntimeException e)
+            { fail(e); }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void fail(Exception e) {
+        lastFailure = e;
+
+        Consumer<? super Exception> handler = failureHandler;
+        if (handler == null)
+        { return; }
+
+        try
+        { handler.accept(e); }
+
+        catch (RuntimeException ignored)
+        { }
+    }
+
+    /**
+     * Gets the failure of the last periodic reload.
+     *
+     * @return The exception, or null if the last reload succeeded
+     */
+    public Exception getLastFailure()
+    { return lastFailure; }
+
+    /**
+     * @param failureHandler Receives the failures of periodic reloads, on the reload thread; null for none
+     */
+    public void setFailureHandler(Consumer<? super Exception> failureHandler)
+    { this.failureHandler = failureHandler; }
+
+    /**
+     * Stops the periodic reloads.
+     */
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    public Class<T> getEntityClass()
+    { return entityClass; }
+}
@@ -0,0 +1,317 @@
+package mg.jwe.orm.transaction;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.sql.DataSource;
+
+import mg.jwe.orm.base.BaseModel;
+import mg.jwe.orm.batch.UtilBatch;
+import mg.jwe.orm.cache.EntityCache;
+import mg.jwe.orm.metadata.EntityMetadata;
+
+/**
+ * Coalesces inserts submitted by many threads into shared batched transactions: one commit, and
+ * one log flush on the database, for a whole group of rows instead of one per row.
+ * <p>
+ * Submitted entities wait in a bounded queue. A single writer thread takes them out in groups of at
+ * most {@link #setMaxBatchRows(int) max batch rows}, waiting at most {@link #setMaxDelayMillis(long)
+ * max delay} after the first one, inserts each group with {@link UtilBatch#insertAll} on a pooled
+ * connection and commits it. Each caller's future then completes with the generated id. When the
+ * queue is full, {@link #submit(BaseModel)} blocks until the writer catches up.
+ * </p>
+ * <p>
+ * If a group fails, it is rolled back, the ids and versions assigned by its batch are reverted, and
+ * its rows are inserted again one transaction each, so a bad row only fails its own future. The
+ * failure of the group is kept as the {@link #getLastFailure() last failure} and handed to the
+ * {@link #setFailureHandler(Consumer) failure handler}. An entity must not be changed between its submission and the
+ * completion of its future. Meant for independent rows such as audit or event records: a caller's
+ * row is committed apart from the caller's own transaction.
+ * </p>
+ * Example usage:
+ * <pre>
+ * GroupCommitExecutor executor = new GroupCommitExecutor(dataSource);
+ * executor.start();
+ * ...
+ * CompletableFuture&lt;Object&gt; id = executor.submit(new AuditEvent("login", userId));
+ * ...
+ * executor.close();    // writes what is still queued
+ * </pre>
+ */
+public class GroupCommitExecutor implements AutoCloseable {
+
+    private final DataSource dataSource;
+
+    private int maxBatchRows = 200;
+    private long maxDelayMillis = 5;
+    private int queueCapacity = 10_000;
+
+    private volatile BlockingQueue<Pending> queue;
+    private volatile Thread writer;
+    private volatile boolean closed;
+    /** Set by the writer once it stops taking groups, before it fails what is left in the queue. */
+    private volatile boolean stopped;
+    private volatile Exception lastFailure;
+    private volatile Consumer<? super Exception> failureHandler;
+
+    public GroupCommitExecutor(DataSource dataSource)
+    { this.dataSource = dataSource; }
+
+    /**
+     * Starts the writer thread.
+     */
+    public synchronized void start() {
+        if (writer != null)
+        { return; }
+
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        writer = new Thread(this::run, "group-commit-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queues an entity to insert, waiting while the queue is full.
+     *
+     * @param instance The new entity.
+     * @return A future completed with the id of the entity once its group is committed, or with
+     *         the failure of its insert, or with an IllegalStateException if the executor closed
+     *         while the entity was being queued.
+     * @throws InterruptedException If the caller is interrupted while the queue is full.
+     * @throws IllegalStateException If the executor is not started or already closed.
+     */
+    public CompletableFuture<Object> submit(BaseModel instance) throws InterruptedException {
+        if (writer == null || closed)
+        { throw new IllegalStateException("Group commit executor is not running"); }
+
+        Pending pending = new Pending(instance);
+        queue.put(pending);
+
+        // closed between the check and the put: the writer may have drained the queue already
+        if (stopped && queue.remove(pending))
+        { pending.future.completeExceptionally(new IllegalStateException("Group commit executor closed")); }
+
+        return pending.future;
+    }
+
+    /**
+     * Body of the writer thread: takes groups from the queue and commits them until closed and drained.
+     */
+    private void run() {
+        List<Pending> group = new ArrayList<>(maxBatchRows);
+
+        while (!closed || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(50, TimeUnit.MILLISECONDS);
+                if (first == null)
+                { continue; }
+
+                group.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+
+                while (group.size() < maxBatchRows) {
+                    long remaining = deadline - System.nanoTime();
+                    Pending next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null)
+                    { break; }
+
+                    group.add(next);
+                }
+            }
+
+            catch (InterruptedException e)
+            { closed = true; }
+
+            if (!group.isEmpty()) {
+                write(group);
+                group.clear();
+            }
+        }
+
+        // submitted while the writer was stopping; later submits fail their own future
+        stopped = true;
+        Pending late;
+        while ((late = queue.poll()) != null)
+        { late.future.completeExceptionally(new IllegalStateException("Group commit executor closed")); }
+    }
+
+    private void write(List<Pending> group) {
+        List<BaseModel> instances = new ArrayList<>(group.size());
+        List<Object[]> previousStates = new ArrayList<>(group.size());
+        for (Pending pending : group) {
+            instances.add(pending.instance);
+            previousStates.add(captureState(pending.instance));
+        }
+
+        try {
+            insert(instances);
+            complete(group);
+            lastFailure = null;
+            return;
+        }
+
+        catch (SQLException | RuntimeException e)
+        { fail(e); }
+
+        // ids and versions assigned before the failing batch were rolled back
+        for (int i = 0; i < group.size(); i++)
+        { restoreState(group.get(i).instance, previousStates.get(i)); }
+
+        for (int i = 0; i < group.size(); i++) {
+            Pending pending = group.get(i);
+            try {
+                insert(Collections.singletonList(pending.instance));
+                complete(Collections.singletonList(pending));
+            }
+
+            catch (SQLException | RuntimeException e) {
+                restoreState(pending.instance, previousStates.get(i));
+                pending.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Gets the id and version of an entity, reverted if its insert is rolled back.
+     */
+    private static Object[] captureState(BaseModel instance) {
+        EntityMetadata metadata = EntityMetadata.of(instance.getClass());
+        Object version = metadata.getVersionColumn() == null ? null : metadata.getVersionColumn().get(instance);
+        return new Object[] { metadata.getId(instance), version };
+    }
+
+    private static void restoreState(BaseModel instance, Object[] state) {
+        EntityMetadata metadata = EntityMetadata.of(instance.getClass());
+
+        if (metadata.getIdColumn() != null)
+        { metadata.getIdColumn().set(instance, state[0]); }
+
+        if (metadata.getVersionColumn() != null)
+        { metadata.getVersionColumn().set(instance, state[1]); }
+    }
+
+    private void fail(Exception e) {
+        lastFailure = e;
+
+        Consumer<? super Exception> handler = failureHandler;
+        if (handler == null)
+        { return; }
+
+        try
+        { handler.accept(e); }
+
+        catch (RuntimeException ignored)
+        { }
+    }
+
+    /**
+     * Inserts entities in one transaction on a pooled connection.
+     */
+    private void insert(List<BaseModel> instances) throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            if (autoCommit)
+            { connection.setAutoCommit(false); }
+
+            try {
+                UtilBatch.insertAll(connection, instances);
+                EntityCache.commit(connection);
+            }
+
+            catch (SQLException | RuntimeException e) {
+                EntityCache.rollback(connection);
+                throw e;
+            }
+
+            finally {
+                if (autoCommit)
+                { connection.setAutoCommit(true); }
+            }
+        }
+    }
+
+    private static void complete(List<Pending> group) {
+        for (Pending pending : group)
+        { pending.future.complete(EntityMetadata.of(pending.instance.getClass()).getId(pending.instance)); }
+    }
+
+    /**
+     * Stops accepting entities, writes those still queued, then stops the writer thread.
+     */
+    @Override
+    public void close() {
+        Thread thread;
+        synchronized (this) {
+            closed = true;
+            thread = writer;
+        }
+
+        if (thread == null)
+        { return; }
+
+        // the writer sees the flag within one poll, then drains the queue
+        try
+        { thread.join(); }
+
+        catch (InterruptedException e)
+        { Thread.currentThread().interrupt(); }
+    }
+
+    /**
+     * Gets the number of entities waiting to be written.
+     */
+    public int getQueuedCount()
+    { return queue == null ? 0 : queue.size(); }
+
+    /**
+     * Gets the failure of the last group that was retried row by row.
+     *
+     * @return The exception, or null if the last group was committed whole
+     */
+    public Exception getLastFailure()
+    { return lastFailure; }
+
+    /**
+     * @param failureHandler Receives the failures of groups before their rows are retried, on the writer thread; null for none
+     */
+    public void setFailureHandler(Consumer<? super Exception> failureHandler)
+    { this.failureHandler = failureHandler; }
+
+    /**
+     * @param maxBatchRows The most rows committed together, 200 by default
+     */
+    public void setMaxBatchRows(int maxBatchRows)
+    { this.maxBatchRows = maxBatchRows; }
+
+    /**
+     * @param maxDelayMillis How long the first row of a group waits for others, 5 ms by default
+     */
+    public void setMaxDelayMillis(long maxDelayMillis)
+    { this.maxDelayMillis = maxDelayMillis; }
+
+    /**
+     * @param queueCapacity The most rows waiting before submit blocks, 10 000 by default; set before start
+     */
+    public void setQueueCapacity(int queueCapacity)
+    { this.queueCapacity = queueCapacity; }
+
+    /**
+     * An entity waiting to be inserted, and the future of its caller.
+     */
+    private static final class Pending {
+
+        private final BaseModel instance;
+        private final CompletableFuture<Object> future = new CompletableFuture<>();
+
+        Pending(BaseModel instance)
+        { this.instance = instance; }
+    }
+}
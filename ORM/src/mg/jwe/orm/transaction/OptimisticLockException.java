@@ -0,0 +1,32 @@
+package mg.jwe.orm.transaction;
+
+/**
+ * Thrown when an update or delete of a {@link mg.jwe.orm.annotations.Version versioned} entity
+ * matches no row: the row was changed or deleted by someone else since it was read.
+ */
+public class OptimisticLockException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Class<?> entity;
+    private final Object id;
+    private final Object version;
+
+    public OptimisticLockException(Class<?> entity, Object id, Object version) {
+        super("Concurrent modification of " + entity.getSimpleName() + " with id " + id
+            + ": version " + version + " is no longer current");
+
+        this.entity = entity;
+        this.id = id;
+        this.version = version;
+    }
+
+    public Class<?> getEntity()
+    { return entity; }
+
+    public Object getId()
+    { return id; }
+
+    public Object getVersion()
+    { return version; }
+}
@@ -0,0 +1,283 @@
+package mg.jwe.orm.transaction;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import mg.jwe.orm.base.BaseModel;
+import mg.jwe.orm.batch.UtilBatch;
+import mg.jwe.orm.cache.EntityCache;
+import mg.jwe.orm.metadata.EntityMetadata;
+import mg.jwe.orm.metadata.ForeignKeyMetadata;
+
+/**
+ * Records new, dirty and deleted entities and writes them all at once on {@link #commit(Connection)}.
+ * <p>
+ * The flush runs in a single transaction and sends batches rather than one statement per object:
+ * <ul>
+ *   <li>Inserts are ordered by their {@link mg.jwe.orm.annotations.ForeignKey} references, so a
+ *       parent is inserted, and gets its generated id, before the children that reference it</li>
+ *   <li>Updates follow, grouped by statement shape</li>
+ *   <li>Deletes come last, children before parents</li>
+ * </ul>
+ * </p>
+ * Example usage:
+ * <pre>
+ * UnitOfWork unitOfWork = new UnitOfWork();
+ * unitOfWork.registerNew(order);
+ * unitOfWork.registerNew(line);       // line.order == order
+ * unitOfWork.registerDirty(customer);
+ * unitOfWork.commit(connection);
+ * </pre>
+ * A unit of work is not thread-safe; use one per request or per job.
+ */
+public class UnitOfWork {
+
+    private final List<BaseModel> newObjects = new ArrayList<>();
+    private final List<BaseModel> dirtyObjects = new ArrayList<>();
+    private final List<BaseModel> deletedObjects = new ArrayList<>();
+    private final Set<BaseModel> registered = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /**
+     * Registers an object to insert.
+     *
+     * @param instance The new entity
+     */
+    public void registerNew(BaseModel instance) {
+        if (containsIdentity(deletedObjects, instance))
+        { throw new IllegalStateException("Cannot register a deleted object as new: " + instance); }
+
+        if (registered.add(instance))
+        { newObjects.add(instance); }
+    }
+
+    /**
+     * Registers an object to update. Objects already registered as new are inserted with their
+     * current values instead.
+     *
+     * @param instance The modified entity
+     */
+    public void registerDirty(BaseModel instance) {
+        if (containsIdentity(deletedObjects, instance))
+        { throw new IllegalStateException("Cannot register a deleted object as dirty: " + instance); }
+
+        if (registered.add(instance))
+        { dirtyObjects.add(instance); }
+    }
+
+    /**
+     * Registers an object to delete. An object registered as new is simply forgotten.
+     *
+     * @param instance The entity to remove
+     */
+    public void registerDeleted(BaseModel instance) {
+        if (removeIdentity(newObjects, instance)) {
+            registered.remove(instance);
+            return;
+        }
+
+        removeIdentity(dirtyObjects, instance);
+        registered.add(instance);
+        if (!containsIdentity(deletedObjects, instance))
+        { deletedObjects.add(instance); }
+    }
+
+    /**
+     * Writes every registered change in one transaction.
+     * <p>
+     * If the connection is in auto-commit mode, auto-commit is turned off for the flush and restored
+     * afterwards. Otherwise the flush joins the caller's transaction, and is committed here too.
+     * On failure the transaction is rolled back, the ids and versions assigned during the flush
+     * are reverted and the registrations are kept, so the commit can be retried.
+     * </p>
+     *
+     * @param connection The connection to write with.
+     * @throws SQLException If a statement fails; the transaction is rolled back.
+     * @throws OptimisticLockException If a versioned object was changed concurrently; the transaction is rolled back.
+     */
+    public void commit(Connection connection) throws SQLException {
+        boolean autoCommit = connection.getAutoCommit();
+        if (autoCommit)
+        { connection.setAutoCommit(false); }
+
+        Map<BaseModel, Object[]> state = captureState();
+
+        try {
+            flush(connection);
+            EntityCache.commit(connection);
+            clear();
+        }
+
+        catch (SQLException | RuntimeException e) {
+            EntityCache.rollback(connection);
+            restoreState(state);
+            throw e;
+        }
+
+        finally {
+            if (autoCommit)
+            { connection.setAutoCommit(true); }
+        }
+    }
+
+    /**
+     * Sends the registered changes without committing, in insert, update, delete order.
+     *
+     * @param connection The connection to write with.
+     * @throws SQLException If a statement fails.
+     */
+    public void flush(Connection connection) throws SQLException {
+        for (List<BaseModel> level : insertLevels())
+        { UtilBatch.insertAll(connection, level); }
+
+        if (!dirtyObjects.isEmpty())
+        { UtilBatch.updateAll(connection, dirtyObjects); }
+
+        if (!deletedObjects.isEmpty())
+        { UtilBatch.deleteAll(connection, deleteOrder()); }
+    }
+
+    /**
+     * Saves the id and version of the new and dirty objects, which a flush may change.
+     */
+    private Map<BaseModel, Object[]> captureState() {
+        Map<BaseModel, Object[]> state = new IdentityHashMap<>();
+        for (List<BaseModel> objects : List.of(newObjects, dirtyObjects)) {
+            for (BaseModel instance : objects) {
+                EntityMetadata metadata = EntityMetadata.of(instance.getClass());
+                Object version = metadata.getVersionColumn() == null ? null : metadata.getVersionColumn().get(instance);
+                state.put(instance, new Object[] { metadata.getId(instance), version });
+            }
+        }
+
+        return state;
+    }
+
+    private void restoreState(Map<BaseModel, Object[]> state) {
+        for (Map.Entry<BaseModel, Object[]> entry : state.entrySet()) {
+            BaseModel instance = entry.getKey();
+            EntityMetadata metadata = EntityMetadata.of(instance.getClass());
+
+            if (metadata.getIdColumn() != null)
+            { metadata.getIdColumn().set(instance, entry.getValue()[0]); }
+
+            if (metadata.getVersionColumn() != null)
+            { metadata.getVersionColumn().set(instance, entry.getValue()[1]); }
+        }
+    }
+
+    /**
+     * Forgets every registration.
+     */
+    public void clear() {
+        newObjects.clear();
+        dirtyObjects.clear();
+        deletedObjects.clear();
+        registered.clear();
+    }
+
+    /**
+     * Splits the new objects into levels: level 0 references no other new object, and every object
+     * only references new objects of lower levels. Each level can then be inserted as batches once
+     * the previous levels have their generated ids.
+     */
+    private List<List<BaseModel>> insertLevels() {
+        Map<BaseModel, Integer> levels = new IdentityHashMap<>();
+        Set<BaseModel> pending = Collections.newSetFromMap(new IdentityHashMap<>());
+        Set<BaseModel> newSet = Collections.newSetFromMap(new IdentityHashMap<>());
+        newSet.addAll(newObjects);
+
+        List<List<BaseModel>> result = new ArrayList<>();
+        for (BaseModel instance : newObjects) {
+            int level = levelOf(instance, newSet, levels, pending);
+            while (result.size() <= level)
+            { result.add(new ArrayList<>()); }
+
+            result.get(level).add(instance);
+        }
+
+        return result;
+    }
+
+    private int levelOf(BaseModel instance, Set<BaseModel> newSet, Map<BaseModel, Integer> levels, Set<BaseModel> pending) {
+        Integer known = levels.get(instance);
+        if (known != null)
+        { return known; }
+
+        if (!pending.add(instance))
+        { throw new IllegalStateException("Cyclic foreign key references between new objects of " + instance.getClass().getName()); }
+
+        int level = 0;
+        for (ForeignKeyMetadata foreignKey : EntityMetadata.of(instance.getClass()).getForeignKeys()) {
+            BaseModel parent = foreignKey.get(instance);
+            if (parent != null && newSet.contains(parent))
+            { level = Math.max(level, levelOf(parent, newSet, levels, pending) + 1); }
+        }
+
+        pending.remove(instance);
+        levels.put(instance, level);
+        return level;
+    }
+
+    /**
+     * Orders deletions so that tables referencing others come first.
+     */
+    private List<BaseModel> deleteOrder() {
+        Map<Class<?>, Integer> depths = new HashMap<>();
+        List<BaseModel> ordered = new ArrayList<>(deletedObjects);
+        ordered.sort(Comparator.comparingInt(
+            (BaseModel instance) -> depthOf(instance.getClass(), depths, Collections.newSetFromMap(new IdentityHashMap<>()))
+        ).reversed());
+
+        return ordered;
+    }
+
+    /**
+     * Length of the longest foreign key chain starting at a class, ignoring cycles.
+     */
+    private int depthOf(Class<?> clazz, Map<Class<?>, Integer> depths, Set<Class<?>> visiting) {
+        Integer known = depths.get(clazz);
+        if (known != null)
+        { return known; }
+
+        if (!visiting.add(clazz))
+        { return 0; }
+
+        int depth = 0;
+        for (ForeignKeyMetadata foreignKey : EntityMetadata.of(clazz).getForeignKeys()) {
+            if (foreignKey.getTargetType() != clazz)
+            { depth = Math.max(depth, depthOf(foreignKey.getTargetType(), depths, visiting) + 1); }
+        }
+
+        visiting.remove(clazz);
+        depths.put(clazz, depth);
+        return depth;
+    }
+
+    private static boolean containsIdentity(List<BaseModel> list, BaseModel instance) {
+        for (BaseModel element : list) {
+            if (element == instance)
+            { return true; }
+        }
+
+        return false;
+    }
+
+    private static boolean removeIdentity(List<BaseModel> list, BaseModel instance) {
+        for (int i = 0; i < list.size(); i++) {
+            if (list.get(i) == instance) {
+                list.remove(i);
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,103 @@
+package mg.jwe.orm.type;
+
+import java.lang.reflect.Field;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Reads a column into a field and binds a field value to a statement, using the typed
+ * {@link ResultSet} getters and {@link PreparedStatement} setters matching the field type.
+ * <p>
+ * Converters are resolved once per field by {@link FieldConverters#forType(Class)} and are stateless,
+ * so a single instance is shared by every entity field of the same type.
+ * </p>
+ */
+public abstract class FieldConverter {
+
+    private final Class<?> javaType;
+    private final int sqlType;
+
+    /**
+     * @param javaType The (boxed) type of the values handled by this converter
+     * @param sqlType The {@link java.sql.Types} code used to bind nulls
+     */
+    protected FieldConverter(Class<?> javaType, int sqlType) {
+        this.javaType = javaType;
+        this.sqlType = sqlType;
+    }
+
+    /**
+     * Reads a column value with the typed getter of this converter.
+     *
+     * @param rs The ResultSet positioned on a row.
+     * @param index The 1-based column index.
+     * @return The value, or null if the column is SQL NULL.
+     * @throws SQLException If the driver cannot read the column as this type.
+     */
+    public abstract Object read(ResultSet rs, int index) throws SQLException;
+
+    /**
+     * Binds a non-null value of this converter's type.
+     */
+    protected abstract void bindValue(PreparedStatement stmt, int index, Object value) throws SQLException;
+
+    /**
+     * Binds a value to a statement parameter.
+     * <p>
+     * Nulls are bound with the SQL type of the converter. Values of another Java type, such as a
+     * {@link String} given for a numeric criterion, are left to the driver through setObject.
+     * </p>
+     *
+     * @param stmt The statement to bind to.
+     * @param index The 1-based parameter index.
+     * @param value The value to bind, may be null.
+     * @throws SQLException If the driver rejects the value.
+     */
+    public void bind(PreparedStatement stmt, int index, Object value) throws SQLException {
+        if (value == null)
+        { stmt.setNull(index, sqlType); }
+
+        else if (javaType.isInstance(value))
+        { bindValue(stmt, index, value); }
+
+        else
+        { stmt.setObject(index, value); }
+    }
+
+    /**
+     * Reads a column straight into a field of an instance.
+     * <p>
+     * Converters for primitive fields override this to use the primitive getters and setters, so no
+     * value is boxed, and leave the field at its default when the column is NULL.
+     * </p>
+     *
+     * @param rs The ResultSet positioned on a row.
+     * @param index The 1-based column index.
+     * @param instance The object to populate.
+     * @param field The accessible field to set.
+     * @throws SQLException If the driver cannot read the column as this type.
+     * @throws IllegalAccessException If the field cannot be set.
+     */
+    public void readInto(ResultSet rs, int index, Object instance, Field field)
+        throws SQLException, IllegalAccessException
+    {
+        field.set(instance, read(rs, index));
+    }
+
+    /**
+     * Gets the Java type handled by this converter, boxed for primitives.
+     *
+     * @return The value type
+     */
+    public Class<?> getJavaType()
+    { return javaType; }
+
+    /**
+     * Gets the SQL type used to bind nulls.
+     *
+     * @return The {@link java.sql.Types} code
+     */
+    public int getSqlType()
+    { return sqlType; }
+}
@@ -0,0 +1,493 @@
+package mg.jwe.orm.type;
+
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import mg.jwe.orm.lob.LobConverter;
+import mg.jwe.orm.lob.LobHandle;
+
+/**
+ * Resolves the {@link FieldConverter} for a field type.
+ * <p>
+ * Numbers, booleans, strings, dates and binary data use the dedicated typed getters and setters;
+ * java.time types and {@link UUID} go through {@code getObject(index, Class)} as defined by JDBC 4.2.
+ * Any other type falls back to getObject followed by {@link UtilType#convertToFieldType}.
+ * </p>
+ */
+public class FieldConverters {
+
+    private static final Map<Class<?>, FieldConverter> CONVERTERS = new HashMap<>();
+
+    static {
+        CONVERTERS.put(int.class, new IntConverter(true));
+        CONVERTERS.put(Integer.class, new IntConverter(false));
+        CONVERTERS.put(long.class, new LongConverter(true));
+        CONVERTERS.put(Long.class, new LongConverter(false));
+        CONVERTERS.put(double.class, new DoubleConverter(true));
+        CONVERTERS.put(Double.class, new DoubleConverter(false));
+        CONVERTERS.put(float.class, new FloatConverter(true));
+        CONVERTERS.put(Float.class, new FloatConverter(false));
+        CONVERTERS.put(short.class, new ShortConverter(true));
+        CONVERTERS.put(Short.class, new ShortConverter(false));
+        CONVERTERS.put(boolean.class, new BooleanConverter(true));
+        CONVERTERS.put(Boolean.class, new BooleanConverter(false));
+
+        CONVERTERS.put(String.class, new StringConverter());
+        CONVERTERS.put(BigDecimal.class, new BigDecimalConverter());
+        CONVERTERS.put(BigInteger.class, new BigIntegerConverter());
+        CONVERTERS.put(byte[].class, new BytesConverter());
+
+        CONVERTERS.put(Timestamp.class, new TimestampConverter());
+        CONVERTERS.put(Date.class, new DateConverter());
+        CONVERTERS.put(Time.class, new TimeConverter());
+        CONVERTERS.put(java.util.Date.class, new UtilDateConverter());
+        CONVERTERS.put(Instant.class, new InstantConverter());
+
+        CONVERTERS.put(LocalDate.class, new ObjectTypeConverter(LocalDate.class, Types.DATE));
+        CONVERTERS.put(LocalDateTime.class, new ObjectTypeConverter(LocalDateTime.class, Types.TIMESTAMP));
+        CONVERTERS.put(LocalTime.class, new ObjectTypeConverter(LocalTime.class, Types.TIME));
+        CONVERTERS.put(OffsetDateTime.class, new ObjectTypeConverter(OffsetDateTime.class, Types.TIMESTAMP_WITH_TIMEZONE));
+        CONVERTERS.put(UUID.class, new ObjectTypeConverter(UUID.class, Types.OTHER));
+
+        CONVERTERS.put(LobHandle.class, new LobConverter());
+    }
+
+    /**
+     * Gets the converter for a field type.
+     *
+     * @param type The declared type of the field.
+     * @return The converter to use for reading and binding the field.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public static FieldConverter forType(Class<?> type) {
+        FieldConverter converter = CONVERTERS.get(type);
+        if (converter != null)
+        { return converter; }
+
+        if (type.isEnum())
+        { return new EnumConverter((Class<? extends Enum>) type); }
+
+        return new FallbackConverter(type);
+    }
+
+    private static class IntConverter extends FieldConverter {
+        private final boolean primitive;
+
+        IntConverter(boolean primitive) {
+            super(Integer.class, Types.INTEGER);
+            this.primitive = primitive;
+        }
+
+        @Override
+        public Object read(ResultSet rs, int index) throws SQLException {
+            int value = rs.getInt(index);
+            return rs.wasNull() ? null : value;
+        }
+
+        @Override
+        protected void bindValue(PreparedStatement stmt, int index, Object value) throws SQLException
+        { stmt.setInt(index, (Integer) value); }
+
+        @Override
+        public void readInto(ResultSet rs, int index, Object instance, Field field)
+            throws SQLException, IllegalAccessException
+        {
+            if (!primitive) {
+                super.readInto(rs, index, instance, field);
+                return;
+            }
+
+            int value = rs.getInt(index);
+            if (!rs.wasNull())
+            { field.setInt(instance, value); }
+        }
+    }
+
+    private static class LongConverter extends FieldConverter {
+        private final boolean primitive;
+
+        LongConverter(boolean primitive) {
+            super(Long.class, Types.BIGINT);
+            this.primitive = primitive;
+        }
+
+        @Override
+        public Object read(ResultSet rs, int index) throws SQLException {
+            long value = rs.getLong(index);
+            return rs.wasNull() ? null : value;
+        }
+
+        @Override
+        protected void bindValue(PreparedStatement stmt, int index, Object value) throws SQLException
+        { stmt.setLong(index, (Long) value); }
+
+        @Override
+        public void bind(PreparedStatement stmt, int index, Object value) throws SQLException {
+            // ids are often passed as Integer for Long columns
+            if (value instanceof Integer || value instanceof Short)
+            { stmt.setLong(index, ((Number) value).longValue()); }
+
+            else
+            { super.bind(stmt, index, value); }
+        }
+
+        @Override
+        public void readInto(ResultSet rs, int index, Object instance, Field field)
+            throws SQLException, IllegalAccessException
+        {
+            if (!primitive) {
+                super.readInto(rs, index, instance, field);
+                return;
+            }
+
+            long value = rs.getLong(index);
+            if (!rs.wasNull())
+            { field.setLong(instance, value); }
+        }
+    }
+
+    private static class DoubleConverter extends FieldConverter {
+        private final boolean primitive;
+
+        DoubleConverter(boolean primitive) {
+            super(Double.class, Types.DOUBLE);
+            this.primitive = primitive;
+        }
+
+        @Override
+        public Object read(ResultSet rs, int index) throws SQLException {
+            double value = rs.getDouble(index);
+            return rs.wasNull() ? null : value;
+        }
+
+        @Override
+        protected void bindValue(PreparedStatement stmt, int index, Object value) throws SQLException
+        { stmt.setDouble(index, (Double) value); }
+
+        @Override
+        public void readInto(ResultSet rs, int index, Object instance, Field field)
+            throws SQLException, IllegalAccessException
+        {
+            if (!primitive) {
+                super.readInto(rs, index, instance, field);
+                return;
+            }
+
+            double value = rs.getDouble(index);
+            if (!rs.wasNull())
+            { field.setDouble(instance, value); }
+        }
+    }
+
+    private static class FloatConverter extends FieldConverter {
+        private final boolean primitive;
+
+        FloatConverter(boolean primitive) {
+            super(Float.class, Types.REAL);
+            this.primitive = primitive;
+        }
+
+        @Override
+        public Object read(ResultSet rs, int index) throws SQLException {
+            float value = rs.getFloat(index);
+            return rs.wasNull() ? null : value;
+        }
+
+        @Override
+        protected void bindValue(PreparedStatement stmt, int index, Object value) throws SQLException
+        { stmt.setFloat(index, (Float) value); }
+
+        @Override
+        public void readInto(ResultSet rs, int index, Object instance, Field field)
+            throws SQLException, IllegalAccessException
+        {
+            if (!primitive) {
+                super.readInto(rs, index, instance, field);
+                return;
+            }
+
+            float value = rs.getFloat(index);
+            if (!rs.wasNull())
+            { field.setFloat(instance, value); }
+        }
+    }
+
+    private static class ShortConverter extends FieldConverter {
+        private final boolean primitive;
+
+        ShortConverter(boolean primitive) {
+            super(Short.class, Types.SMALLINT);
+            this.primitive = primitive;
+        }
+
+        @Override
+        public Object read(ResultSet rs, int index) throws SQLException {
+            short value = rs.getShort(index);
+            return rs.wasNull() ? null : value;
+        }
+
+        @Override
+        protected void bindValue(PreparedStatement stmt, int index, Object value) throws SQLException
+        { stmt.setShort(index, (Short) value); }
+
+        @Override
+        public void readInto(ResultSet rs, int index, Object instance, Field field)
+            throws SQLException, IllegalAccessException
+        {
+            if (!primitive) {
+                super.readInto(rs, index, instance, field);
+                return;
+            }
+
+            short value = rs.getShort(index);
+            if (!rs.wasNull())
+            { field.setShort(instance, value); }
+        }
+    }
+
+    private static class BooleanConverter extends FieldConverter {
+        private final boolean primitive;
+
+        BooleanConverter(boolean primitive) {
+            super(Boolean.class, Types.BOOLEAN);
+            this.primitive = primitive;
+        }
+
+        @Override
+        public Object read(ResultSet rs, int index) throws SQLException {
+            boolean value = rs.getBoolean(index);
+            return rs.wasNull() ? null : value;
+        }
+
+        @Override
+        protected void bindValue(PreparedStatement stmt, int index, Object value) throws SQLException
+        { stmt.setBoolean(index, (Boolean) value); }
+
+        @Override
+        public void readInto(ResultSet rs, int index, Object instance, Field field)
+            throws SQLException, IllegalAccessException
+        {
+            if (!primitive) {
+                super.readInto(rs, index, instance, field);
+                return;
+            }
+
+            boolean value = rs.getBoolean(index);
+            if (!rs.wasNull())
+            { field.setBoolean(instance, value); }
+        }
+    }
+
+    private static class StringConverter extends FieldConverter {
+        StringConverter()
+        { super(String.class, Types.VARCHAR); }
+
+        @Override
+        public Object read(ResultSet rs, int index) throws SQLException
+        { return rs.getString(index); }
+
+        @Override
+        protected void bindValue(PreparedStatement stmt, int index, Object value) throws SQLException
+        { stmt.setString(index, (String) value); }
+    }
+
+    private static class BigDecimalConverter extends FieldConverter {
+        BigDecimalConverter()
+        { super(BigDecimal.class, Types.NUMERIC); }
+
+        @Override
+        public Object read(ResultSet rs, int index) throws SQLException
+        { return rs.getBigDecimal(index); }
+
+        @Override
+        protected void bindValue(PreparedStatement stmt, int index, Object value) throws SQLException
+        { stmt.setBigDecimal(index, (BigDecimal) value); }
+    }
+
+    private static class BigIntegerConverter extends FieldConverter {
+        BigIntegerConverter()
+        { super(BigInteger.class, Types.NUMERIC); }
+
+        @Override
+        public Object read(ResultSet rs, int index) throws SQLException {
+            BigDecimal value = rs.getBigDecimal(index);
+            return value == null ? null : value.toBigIntegerExact();
+        }
+
+        @Override
+        protected void bindValue(PreparedStatement stmt, int index, Object value) throws SQLException
+        { stmt.setBigDecimal(index, new BigDecimal((BigInteger) value)); }
+    }
+
+    private static class BytesConverter extends FieldConverter {
+        BytesConverter()
+        { super(byte[].class, Types.VARBINARY); }
+
+        @Override
+        public Object read(ResultSet rs, int index) throws SQLException
+        { return rs.getBytes(index); }
+
+        @Override
+        protected void bindValue(PreparedStatement stmt, int index, Object value) throws SQLException
+        { stmt.setBytes(index, (byte[]) value); }
+    }
+
+    private static class TimestampConverter extends FieldConverter {
+        TimestampConverter()
+        { super(Timestamp.class, Types.TIMESTAMP); }
+
+        @Override
+        public Object read(ResultSet rs, int index) throws SQLException
+        { return rs.getTimestamp(index); }
+
+        @Override
+        protected void bindValue(PreparedStatement stmt, int index, Object value) throws SQLException
+        { stmt.setTimestamp(index, (Timestamp) value); }
+    }
+
+    private static class DateConverter extends FieldConverter {
+        DateConverter()
+        { super(Date.class, Types.DATE); }
+
+        @Override
+        public Object read(ResultSet rs, int index) throws SQLException
+        { return rs.getDate(index); }
+
+        @Override
+        protected void bindValue(PreparedStatement stmt, int index, Object value) throws SQLException
+        { stmt.setDate(index, (Date) value); }
+    }
+
+    private static class TimeConverter extends FieldConverter {
+        TimeConverter()
+        { super(Time.class, Types.TIME); }
+
+        @Override
+        public Object read(ResultSet rs, int index) throws SQLException
+        { return rs.getTime(index); }
+
+        @Override
+        protected void bindValue(PreparedStatement stmt, int index, Object value) throws SQLException
+        { stmt.setTime(index, (Time) value); }
+    }
+
+    private static class UtilDateConverter extends FieldConverter {
+        UtilDateConverter()
+        { super(java.util.Date.class, Types.TIMESTAMP); }
+
+        @Override
+        public Object read(ResultSet rs, int index) throws SQLException {
+            Timestamp value = rs.getTimestamp(index);
+            return value == null ? null : new java.util.Date(value.getTime());
+        }
+
+        @Override
+        protected void bindValue(PreparedStatement stmt, int index, Object value) throws SQLException {
+            // java.sql.Date/Time/Timestamp are java.util.Date too, keep their own setter
+            if (value instanceof Timestamp)
+            { stmt.setTimestamp(index, (Timestamp) value); }
+
+            else if (value instanceof Date)
+            { stmt.setDate(index, (Date) value); }
+
+            else if (value instanceof Time)
+            { stmt.setTime(index, (Time) value); }
+
+            else
+            { stmt.setTimestamp(index, new Timestamp(((java.util.Date) value).getTime())); }
+        }
+    }
+
+    private static class InstantConverter extends FieldConverter {
+        InstantConverter()
+        { super(Instant.class, Types.TIMESTAMP); }
+
+        @Override
+        public Object read(ResultSet rs, int index) throws SQLException {
+            Timestamp value = rs.getTimestamp(index);
+            return value == null ? null : value.toInstant();
+        }
+
+        @Override
+        protected void bindValue(PreparedStatement stmt, int index, Object value) throws SQLException
+        { stmt.setTimestamp(index, Timestamp.from((Instant) value)); }
+    }
+
+    /**
+     * Types read with {@code getObject(index, type)} and bound with setObject: java.time and UUID.
+     */
+    private static class ObjectTypeConverter extends FieldConverter {
+        private final Class<?> type;
+
+        ObjectTypeConverter(Class<?> type, int sqlType) {
+            super(type, sqlType);
+            this.type = type;
+        }
+
+        @Override
+        public Object read(ResultSet rs, int index) throws SQLException
+        { return rs.getObject(index, type); }
+
+        @Override
+        protected void bindValue(PreparedStatement stmt, int index, Object value) throws SQLException
+        { stmt.setObject(index, value); }
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static class EnumConverter extends FieldConverter {
+        private final Class<? extends Enum> type;
+
+        EnumConverter(Class<? extends Enum> type) {
+            super(type, Types.VARCHAR);
+            this.type = type;
+        }
+
+        @Override
+        public Object read(ResultSet rs, int index) throws SQLException {
+            String value = rs.getString(index);
+            return value == null ? null : Enum.valueOf(type, value);
+        }
+
+        @Override
+        protected void bindValue(PreparedStatement stmt, int index, Object value) throws SQLException
+        { stmt.setString(index, ((Enum) value).name()); }
+    }
+
+    private static class FallbackConverter extends FieldConverter {
+        private final Class<?> type;
+        private final UtilType utilType = new UtilType();
+
+        FallbackConverter(Class<?> type) {
+            super(Object.class, Types.NULL);
+            this.type = type;
+        }
+
+        @Override
+        public Object read(ResultSet rs, int index) throws SQLException
+        { return utilType.convertToFieldType(rs.getObject(index), type); }
+
+        @Override
+        protected void bindValue(PreparedStatement stmt, int index, Object value) throws SQLException
+        { stmt.setObject(index, value); }
+
+        @Override
+        public void bind(PreparedStatement stmt, int index, Object value) throws SQLException
+        { stmt.setObject(index, value); }
+    }
+}
@@ -1,5 +1,7 @@
 package mg.jwe.orm.type;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.util.UUID;
 
 public class UtilType {
@@ -9,7 +11,8 @@ public class UtilType {
      * <p>
      * This method handles common type conversions such as converting between Number types,
      * String types, and UUIDs. It ensures that values are compatible with their intended fields
-     * in an object model before setting them.
+     * in an object model before setting them. It is used for generated ids and by the fallback
+     * {@link FieldConverter} of field types without a dedicated converter.
      * </p>
      *
      * @param value The value to convert to another type.
@@ -20,15 +23,36 @@ public class UtilType {
         if (value == null) 
         { return null; }
 
+        if (targetType.isInstance(value))
+        { return value; }
+
         // Handle common type conversions
-        if (targetType == Long.class || targetType == long.class) {
-            return ((Number) value).longValue();
-        } 
-        
-        else if (targetType == Integer.class || targetType == int.class) 
-        { return ((Number) value).intValue(); } 
+        if (value instanceof Number) {
+            Number number = (Number) value;
+
+            if (targetType == Long.class || targetType == long.class) 
+            { return number.longValue(); } 
+            
+            else if (targetType == Integer.class || targetType == int.class) 
+            { return number.intValue(); } 
+
+            else if (targetType == Short.class || targetType == short.class) 
+            { return number.shortValue(); } 
+
+            else if (targetType == Double.class || targetType == double.class) 
+            { return number.doubleValue(); } 
+
+            else if (targetType == Float.class || targetType == float.class) 
+            { return number.floatValue(); } 
+
+            else if (targetType == BigDecimal.class) 
+            { return new BigDecimal(number.toString()); } 
+
+            else if (targetType == BigInteger.class) 
+            { return new BigDecimal(number.toString()).toBigInteger(); } 
+        }
         
-        else if (targetType == String.class)
+        if (targetType == String.class)
         { return value.toString(); } 
         
         else if (targetType == UUID.class && value instanceof String) 
@@ -0,0 +1,38 @@
+@echo off
+
+:: Load the configuration file
+for /F "delims=" %%a in (_config.conf) do set "%%a"
+
+:: Build the derived paths after loading root from config
+set "temp=%root%\temp"
+set "src=%root%\src"
+set "lib=%root%\lib"
+set "bin=%root%\bin"
+set "results=%root%\results"
+
+:: Create temp, bin and results directories if they don't exist
+if not exist "%temp%" mkdir "%temp%"
+if not exist "%bin%" mkdir "%bin%"
+if not exist "%results%" mkdir "%results%"
+
+:: Copy the ORM and benchmark java files to temp directory
+for /r "%orm_src%" %%f in (*.java) do (
+    xcopy "%%f" "%temp%"
+)
+for /r "%src%" %%f in (*.java) do (
+    xcopy "%%f" "%temp%"
+)
+
+:: Compile, letting the JMH annotation processor generate the benchmark harness
+cd "%temp%"
+javac -d "%bin%" -cp "%lib%\*" -processorpath "%lib%\*" *.java
+
+:: Run the benchmarks, results go to results\<release>.csv
+cd "%root%"
+java -cp "%bin%;%lib%\*" org.openjdk.jmh.Main %jmh_options% -rff "%results%\%release%.csv" %*
+
+:: Clean up
+rmdir /s /q "%temp%"
+
+echo Benchmarks complete, results written to %results%\%release%.csv
+pause
\ No newline at end of file
@@ -0,0 +1,47 @@
+package mg.jwe.benchmark;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+
+import mg.jwe.benchmark.fake.FakeDatabase;
+import mg.jwe.benchmark.fake.FakeTable;
+
+/**
+ * Builds the fake databases shared by the benchmarks.
+ * <p>
+ * Every value is computed from the row number, without randomness, so that every run, on every
+ * release, maps exactly the same rows.
+ * </p>
+ */
+public class BenchFixtures {
+
+    /** Number of customers referenced by the orders; a small set, as in typical reference data. */
+    public static final int CUSTOMERS = 100;
+
+    /**
+     * Creates a database with {@value #CUSTOMERS} customers and the given number of orders.
+     *
+     * @param orders The number of rows in the orders table
+     * @return The populated fake database
+     */
+    public static FakeDatabase database(int orders) {
+        FakeTable customer = new FakeTable("customer", "id", "name", "email", "balance", "created_at");
+        FakeTable order = new FakeTable("orders", "id", "reference", "amount", "id_customer");
+
+        long epoch = 1_700_000_000_000L;
+        for (int i = 1; i <= Math.max(CUSTOMERS, orders); i++) {
+            if (i <= CUSTOMERS) {
+                customer.addRow(
+                    i, "Customer " + i, "customer" + i + "@example.com",
+                    BigDecimal.valueOf(i * 1_250L, 2), new Timestamp(epoch + i * 60_000L)
+                );
+            }
+
+            if (i <= orders) {
+                order.addRow(i, "ORD-" + i, BigDecimal.valueOf(i * 99L, 2), 1 + (i * 31) % CUSTOMERS);
+            }
+        }
+
+        return new FakeDatabase().add(customer).add(order);
+    }
+}
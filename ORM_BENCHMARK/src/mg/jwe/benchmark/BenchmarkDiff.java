@@ -0,0 +1,99 @@
+package mg.jwe.benchmark;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares two JMH CSV result files, typically two releases written by {@code _run.bat}.
+ * <p>
+ * Usage: {@code java -cp bin mg.jwe.benchmark.BenchmarkDiff results\1.0.csv results\dev.csv}
+ * </p>
+ * Rows are matched on benchmark name and parameters; secondary metrics from the GC profiler
+ * (allocation rate per operation, GC count...) are compared like primary scores.
+ */
+public class BenchmarkDiff {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("Usage: BenchmarkDiff <baseline.csv> <candidate.csv>");
+            return;
+        }
+
+        Map<String, String[]> baseline = read(args[0]);
+        Map<String, String[]> candidate = read(args[1]);
+
+        System.out.printf("%-90s %14s %14s %9s  %s%n", "Benchmark", "Baseline", "Candidate", "Change", "Unit");
+        for (Map.Entry<String, String[]> entry : candidate.entrySet()) {
+            String[] before = baseline.get(entry.getKey());
+            String[] after = entry.getValue();
+
+            double newScore = Double.parseDouble(after[1]);
+            if (before == null) {
+                System.out.printf("%-90s %14s %14.3f %9s  %s%n", entry.getKey(), "-", newScore, "new", after[2]);
+                continue;
+            }
+
+            double oldScore = Double.parseDouble(before[1]);
+            double change = oldScore == 0 ? 0 : (newScore - oldScore) * 100 / oldScore;
+            System.out.printf("%-90s %14.3f %14.3f %+8.1f%%  %s%n",
+                entry.getKey(), oldScore, newScore, change, after[2]);
+        }
+    }
+
+    /**
+     * Reads a JMH CSV file into "benchmark [params] (mode)" -> {mode, score, unit}.
+     */
+    private static Map<String, String[]> read(String path) throws IOException {
+        List<String> lines = Files.readAllLines(Paths.get(path), StandardCharsets.UTF_8);
+        Map<String, String[]> results = new LinkedHashMap<>();
+        if (lines.isEmpty())
+        { return results; }
+
+        List<String> header = parseLine(lines.get(0));
+        for (String line : lines.subList(1, lines.size())) {
+            List<String> cells = parseLine(line);
+            if (cells.size() < 7)
+            { continue; }
+
+            StringBuilder key = new StringBuilder(cells.get(0));
+            for (int i = 7; i < cells.size() && i < header.size(); i++) {
+                key.append(' ').append(header.get(i).replace("Param: ", ""))
+                   .append('=').append(cells.get(i));
+            }
+            key.append(" (").append(cells.get(1)).append(", ").append(cells.get(2)).append(" threads)");
+
+            results.put(key.toString(), new String[] { cells.get(1), cells.get(4), cells.get(6) });
+        }
+
+        return results;
+    }
+
+    private static List<String> parseLine(String line) {
+        List<String> cells = new ArrayList<>();
+        StringBuilder cell = new StringBuilder();
+        boolean quoted = false;
+
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"')
+            { quoted = !quoted; }
+
+            else if (c == ',' && !quoted) {
+                cells.add(cell.toString());
+                cell.setLength(0);
+            }
+
+            else
+            { cell.append(c); }
+        }
+
+        cells.add(cell.toString());
+        return cells;
+    }
+}
@@ -0,0 +1,71 @@
+package mg.jwe.benchmark;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import mg.jwe.benchmark.fake.FakeDatabase;
+import mg.jwe.benchmark.model.BenchCustomer;
+import mg.jwe.benchmark.model.BenchOrderEager;
+import mg.jwe.orm.base.BaseModel;
+
+/**
+ * Multi-threaded reads and writes against one shared database, each thread on its own connection,
+ * to expose contention on any state the ORM shares between threads (metadata caches, counters...).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ContentionBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class SharedDatabase {
+        public FakeDatabase database;
+
+        @Setup
+        public void setUp() {
+            database = BenchFixtures.database(100);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadConnection {
+        public Connection connection;
+        public int next;
+
+        @Setup
+        public void setUp(SharedDatabase shared) {
+            connection = shared.database.connection();
+        }
+    }
+
+    @Benchmark
+    @Threads(8)
+    public BenchOrderEager[] getAllEager(ThreadConnection state) throws SQLException {
+        return BaseModel.getAll(state.connection, BenchOrderEager.class);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(6)
+    public BenchCustomer findById(ThreadConnection state) throws SQLException {
+        state.next = state.next % BenchFixtures.CUSTOMERS + 1;
+        return BaseModel.findById(state.connection, BenchCustomer.class, state.next);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(2)
+    public BenchCustomer save(ThreadConnection state) throws SQLException {
+        BenchCustomer customer = new BenchCustomer();
+        customer.setName("Concurrent");
+        customer.setEmail("concurrent@example.com");
+
+        customer.save(state.connection);
+        return customer;
+    }
+}
@@ -0,0 +1,58 @@
+package mg.jwe.benchmark;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import mg.jwe.orm.foreignkey.UtilFK;
+import mg.jwe.orm.type.UtilType;
+
+/**
+ * Micro-benchmarks of the small helpers called on every row or every statement:
+ * {@link UtilType#convertToFieldType} and {@link UtilFK#camelToSnake}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class ConversionBenchmark {
+
+    private UtilType type;
+    private Object integerId;
+    private Object longId;
+    private Object uuidText;
+
+    private String[] fieldNames;
+
+    @Setup
+    public void setUp() {
+        type = new UtilType();
+        integerId = 42;
+        longId = 42L;
+        uuidText = "123e4567-e89b-12d3-a456-426614174000";
+
+        fieldNames = new String[] { "id_customer", "id_shippingAddress", "id_parentCategoryOfProduct" };
+    }
+
+    @Benchmark
+    public void convertNumbers(Blackhole blackhole) {
+        blackhole.consume(type.convertToFieldType(integerId, Long.class));
+        blackhole.consume(type.convertToFieldType(longId, int.class));
+        blackhole.consume(type.convertToFieldType(longId, String.class));
+    }
+
+    @Benchmark
+    public Object convertUuid() {
+        return type.convertToFieldType(uuidText, UUID.class);
+    }
+
+    @Benchmark
+    public void camelToSnake(Blackhole blackhole) {
+        for (String name : fieldNames)
+        { blackhole.consume(UtilFK.camelToSnake(name)); }
+    }
+}
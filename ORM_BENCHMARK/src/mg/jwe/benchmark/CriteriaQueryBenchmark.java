@@ -0,0 +1,54 @@
+package mg.jwe.benchmark;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import mg.jwe.benchmark.model.BenchCustomer;
+import mg.jwe.orm.base.BaseModel;
+import mg.jwe.orm.criteria.Criterion;
+import mg.jwe.orm.query.UtilQuery;
+
+/**
+ * SQL building for {@link BaseModel#findByCriteria}, alone and as part of a full call returning a single row.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class CriteriaQueryBenchmark {
+
+    @Param({ "1", "3", "8" })
+    public int criteriaCount;
+
+    private Criterion[] criteria;
+    private Connection connection;
+
+    @Setup
+    public void setUp() {
+        connection = BenchFixtures.database(0).connection();
+
+        criteria = new Criterion[criteriaCount];
+        criteria[0] = new Criterion("id", "=", 42);
+        for (int i = 1; i < criteriaCount; i++) {
+            criteria[i] = i % 2 == 0
+                ? new Criterion("name", "LIKE", "Customer%")
+                : new Criterion("balance", ">=", BigDecimal.ONE);
+        }
+    }
+
+    @Benchmark
+    public String buildCriteriaQuery() {
+        return new UtilQuery().buildCriteriaQuery("customer", criteria, "AND");
+    }
+
+    @Benchmark
+    public BenchCustomer[] findByCriteria() throws SQLException {
+        return BaseModel.findByCriteria(connection, BenchCustomer.class, criteria);
+    }
+}
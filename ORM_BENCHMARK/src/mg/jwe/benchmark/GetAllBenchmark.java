@@ -0,0 +1,44 @@
+package mg.jwe.benchmark;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import mg.jwe.benchmark.model.BenchOrderEager;
+import mg.jwe.benchmark.model.BenchOrderLazy;
+import mg.jwe.orm.base.BaseModel;
+
+/**
+ * Full table reads through {@link BaseModel#getAll}, with the foreign key left lazy or loaded eagerly.
+ * The gap between the two is the cost of foreign key resolution.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class GetAllBenchmark {
+
+    @Param({ "10", "1000" })
+    public int rows;
+
+    private Connection connection;
+
+    @Setup
+    public void setUp() {
+        connection = BenchFixtures.database(rows).connection();
+    }
+
+    @Benchmark
+    public BenchOrderLazy[] getAllLazyForeignKeys() throws SQLException {
+        return BaseModel.getAll(connection, BenchOrderLazy.class);
+    }
+
+    @Benchmark
+    public BenchOrderEager[] getAllEagerForeignKeys() throws SQLException {
+        return BaseModel.getAll(connection, BenchOrderEager.class);
+    }
+}
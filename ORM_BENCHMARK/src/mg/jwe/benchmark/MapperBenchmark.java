@@ -0,0 +1,94 @@
+package mg.jwe.benchmark;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import mg.jwe.benchmark.fake.FakeTable;
+import mg.jwe.benchmark.model.BenchCustomer;
+import mg.jwe.orm.mapper.UtilMapper;
+
+/**
+ * Row hydration cost of {@link UtilMapper#mapResultSetToObject} and {@link UtilMapper#mapAll},
+ * per result set of {@code rows} rows.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class MapperBenchmark {
+
+    @Param({ "1", "100", "10000" })
+    public int rows;
+
+    private Connection connection;
+
+    @Setup
+    public void setUp() {
+        // the customer table is the one being mapped: size it to the requested row count
+        connection = BenchFixtures.database(0).add(customers(rows)).connection();
+    }
+
+    private static FakeTable customers(int rows) {
+        FakeTable table = new FakeTable(
+            "customer", "id", "name", "email", "balance", "created_at"
+        );
+        for (int i = 1; i <= rows; i++) {
+            table.addRow(
+                i, "Customer " + i, "customer" + i + "@example.com",
+                BigDecimal.valueOf(i * 1_250L, 2), new Timestamp(1_700_000_000_000L + i)
+            );
+        }
+
+        return table;
+    }
+
+    @Benchmark
+    public void mapResultSet(Blackhole blackhole) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT * FROM customer ORDER BY id");
+             ResultSet rs = stmt.executeQuery()) {
+
+            while (rs.next())
+            { blackhole.consume(UtilMapper.mapResultSetToObject(rs, BenchCustomer.class)); }
+        }
+    }
+
+    /**
+     * Maps the whole result set with a column plan resolved once, as getAll and findByCriteria do.
+     */
+    @Benchmark
+    public void mapAll(Blackhole blackhole) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT * FROM customer ORDER BY id");
+             ResultSet rs = stmt.executeQuery()) {
+
+            blackhole.consume(UtilMapper.mapAll(rs, BenchCustomer.class));
+        }
+    }
+
+    /**
+     * Reads every column without building entities: the cost of the fake driver alone.
+     */
+    @Benchmark
+    public void baselineIteration(Blackhole blackhole) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT * FROM customer ORDER BY id");
+             ResultSet rs = stmt.executeQuery()) {
+
+            while (rs.next()) {
+                blackhole.consume(rs.getObject(1));
+                blackhole.consume(rs.getObject(2));
+                blackhole.consume(rs.getObject(3));
+                blackhole.consume(rs.getObject(4));
+                blackhole.consume(rs.getObject(5));
+            }
+        }
+    }
+}
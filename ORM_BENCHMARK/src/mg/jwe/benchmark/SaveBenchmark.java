@@ -0,0 +1,59 @@
+package mg.jwe.benchmark;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import mg.jwe.benchmark.model.BenchCustomer;
+import mg.jwe.benchmark.model.BenchOrderLazy;
+
+/**
+ * Single-row insert cost of {@link mg.jwe.orm.base.BaseModel#save}: statement building, binding
+ * and generated id handling, with and without a foreign key to resolve.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class SaveBenchmark {
+
+    private Connection connection;
+    private BenchCustomer existingCustomer;
+
+    @Setup
+    public void setUp() {
+        connection = BenchFixtures.database(0).connection();
+
+        existingCustomer = new BenchCustomer();
+        existingCustomer.setId(1);
+    }
+
+    @Benchmark
+    public BenchCustomer saveCustomer() throws SQLException {
+        BenchCustomer customer = new BenchCustomer();
+        customer.setName("Jane Doe");
+        customer.setEmail("jane@example.com");
+        customer.setBalance(new BigDecimal("12.50"));
+        customer.setCreatedAt(new Timestamp(1_700_000_000_000L));
+
+        customer.save(connection);
+        return customer;
+    }
+
+    @Benchmark
+    public BenchOrderLazy saveOrderWithForeignKey() throws SQLException {
+        BenchOrderLazy order = new BenchOrderLazy();
+        order.setReference("ORD-1");
+        order.setAmount(new BigDecimal("99.90"));
+        order.setCustomer(existingCustomer);
+
+        order.save(connection);
+        return order;
+    }
+}
@@ -0,0 +1,151 @@
+package mg.jwe.benchmark.fake;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory stand-in for a JDBC database, used to benchmark the ORM without network or disk.
+ * <p>
+ * Connections, statements and result sets are dynamic proxies over {@link FakeTable}s. Statements
+ * understand just enough SQL for the ORM: the table after FROM/INTO/UPDATE, and simple
+ * "column op ?" conditions joined by AND. The proxy dispatch cost is the same in every benchmark and
+ * is measured on its own by {@code MapperBenchmark.baselineIteration}.
+ * </p>
+ */
+public class FakeDatabase {
+
+    private final Map<String, FakeTable> tables = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong(1_000_000);
+
+    public FakeDatabase add(FakeTable table) {
+        tables.put(table.getName().toLowerCase(), table);
+        return this;
+    }
+
+    public FakeTable table(String name) {
+        FakeTable table = tables.get(name.toLowerCase());
+        if (table == null)
+        { throw new IllegalArgumentException("Unknown fake table: " + name); }
+
+        return table;
+    }
+
+    long nextId()
+    { return sequence.incrementAndGet(); }
+
+    /**
+     * Opens a new fake connection. Connections are cheap and share the tables of this database.
+     *
+     * @return A connection proxy
+     */
+    public Connection connection() {
+        return (Connection) Proxy.newProxyInstance(
+            Connection.class.getClassLoader(), new Class<?>[] { Connection.class }, new ConnectionHandler()
+        );
+    }
+
+    static Object defaultValue(Class<?> type) {
+        if (!type.isPrimitive() || type == void.class)
+        { return null; }
+
+        if (type == boolean.class)
+        { return false; }
+
+        if (type == char.class)
+        { return '\0'; }
+
+        // Number-typed primitives: box the zero with the right wrapper
+        if (type == long.class)
+        { return 0L; }
+
+        if (type == double.class)
+        { return 0d; }
+
+        if (type == float.class)
+        { return 0f; }
+
+        if (type == short.class)
+        { return (short) 0; }
+
+        if (type == byte.class)
+        { return (byte) 0; }
+
+        return 0;
+    }
+
+    private class ConnectionHandler implements InvocationHandler {
+
+        private boolean autoCommit = true;
+        private boolean closed;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "prepareStatement":
+                    return PreparedStatement.class.cast(FakeStatementHandler.newStatement(
+                        FakeDatabase.this, (Connection) proxy, (String) args[0]
+                    ));
+                case "getAutoCommit":
+                    return autoCommit;
+                case "setAutoCommit":
+                    autoCommit = (Boolean) args[0];
+                    return null;
+                case "close":
+                    closed = true;
+                    return null;
+                case "isClosed":
+                    return closed;
+                case "isValid":
+                    return !closed;
+                case "getMetaData":
+                    return metaData();
+                case "createArrayOf":
+                    return array((Object[]) args[1]);
+                case "isWrapperFor":
+                    return false;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return "FakeConnection@" + Integer.toHexString(System.identityHashCode(proxy));
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        }
+    }
+
+    /**
+     * An array parameter, for {@code column = ANY(?)} conditions.
+     */
+    private static Array array(Object[] elements) {
+        return (Array) Proxy.newProxyInstance(
+            Array.class.getClassLoader(), new Class<?>[] { Array.class },
+            (proxy, method, args) -> method.getName().equals("getArray") ? elements : defaultValue(method.getReturnType())
+        );
+    }
+
+    private DatabaseMetaData metaData() {
+        return (DatabaseMetaData) Proxy.newProxyInstance(
+            DatabaseMetaData.class.getClassLoader(), new Class<?>[] { DatabaseMetaData.class },
+            (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getDatabaseProductName":
+                        return "PostgreSQL";
+                    case "getURL":
+                        return "jdbc:fake:benchmark";
+                    default:
+                        return defaultValue(method.getReturnType());
+                }
+            }
+        );
+    }
+}
@@ -0,0 +1,167 @@
+package mg.jwe.benchmark.fake;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Forward-only result set proxy over a list of rows.
+ * <p>
+ * Every getter is served generically: the column is resolved by index or label, and the raw value
+ * is converted to the getter's return type (or to the requested class for {@code getObject(i, Class)}),
+ * the way a driver would.
+ * </p>
+ */
+class FakeResultSetHandler implements InvocationHandler {
+
+    private final String[] columns;
+    private final Map<String, Integer> indexByLabel = new HashMap<>();
+    private final List<Object[]> rows;
+    private int cursor = -1;
+    private boolean wasNull;
+    private boolean closed;
+
+    private FakeResultSetHandler(String[] columns, List<Object[]> rows) {
+        this.columns = columns;
+        this.rows = rows;
+
+        for (int i = 0; i < columns.length; i++)
+        { indexByLabel.put(columns[i].toLowerCase(), i + 1); }
+    }
+
+    static ResultSet newResultSet(String[] columns, List<Object[]> rows) {
+        return (ResultSet) Proxy.newProxyInstance(
+            ResultSet.class.getClassLoader(), new Class<?>[] { ResultSet.class },
+            new FakeResultSetHandler(columns, rows)
+        );
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Exception {
+        String name = method.getName();
+
+        switch (name) {
+            case "next":
+                return ++cursor < rows.size();
+            case "wasNull":
+                return wasNull;
+            case "close":
+                closed = true;
+                return null;
+            case "isClosed":
+                return closed;
+            case "findColumn":
+                return columnIndex(args[0]);
+            case "getMetaData":
+                return metaData();
+            case "getFetchSize":
+                return 0;
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            default:
+                break;
+        }
+
+        if (name.startsWith("get") && args != null && args.length >= 1
+            && (args[0] instanceof Integer || args[0] instanceof String))
+        {
+            Object raw = rows.get(cursor)[columnIndex(args[0]) - 1];
+            wasNull = raw == null;
+
+            Class<?> target = args.length == 2 && args[1] instanceof Class
+                ? (Class<?>) args[1]
+                : method.getReturnType();
+
+            return convert(raw, target);
+        }
+
+        return FakeDatabase.defaultValue(method.getReturnType());
+    }
+
+    private int columnIndex(Object key) throws java.sql.SQLException {
+        if (key instanceof Integer)
+        { return (Integer) key; }
+
+        Integer index = indexByLabel.get(((String) key).toLowerCase());
+        if (index == null)
+        { throw new java.sql.SQLException("The column name " + key + " was not found in this ResultSet."); }
+
+        return index;
+    }
+
+    static Object convert(Object raw, Class<?> target) {
+        if (raw == null)
+        { return FakeDatabase.defaultValue(target); }
+
+        if (target == Object.class || target.isInstance(raw))
+        { return raw; }
+
+        if (raw instanceof Number) {
+            Number number = (Number) raw;
+            if (target == int.class || target == Integer.class)
+            { return number.intValue(); }
+
+            if (target == long.class || target == Long.class)
+            { return number.longValue(); }
+
+            if (target == double.class || target == Double.class)
+            { return number.doubleValue(); }
+
+            if (target == float.class || target == Float.class)
+            { return number.floatValue(); }
+
+            if (target == short.class || target == Short.class)
+            { return number.shortValue(); }
+
+            if (target == BigDecimal.class)
+            { return new BigDecimal(number.toString()); }
+        }
+
+        if (raw instanceof Timestamp) {
+            Timestamp timestamp = (Timestamp) raw;
+            if (target == Date.class)
+            { return new Date(timestamp.getTime()); }
+
+            if (target == java.time.LocalDateTime.class)
+            { return timestamp.toLocalDateTime(); }
+
+            if (target == java.time.LocalDate.class)
+            { return timestamp.toLocalDateTime().toLocalDate(); }
+        }
+
+        if (target == String.class)
+        { return raw.toString(); }
+
+        if (target == boolean.class || target == Boolean.class)
+        { return Boolean.valueOf(raw.toString()); }
+
+        return raw;
+    }
+
+    private ResultSetMetaData metaData() {
+        return (ResultSetMetaData) Proxy.newProxyInstance(
+            ResultSetMetaData.class.getClassLoader(), new Class<?>[] { ResultSetMetaData.class },
+            (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getColumnCount":
+                        return columns.length;
+                    case "getColumnLabel":
+                    case "getColumnName":
+                        return columns[(Integer) args[0] - 1];
+                    default:
+                        return FakeDatabase.defaultValue(method.getReturnType());
+                }
+            }
+        );
+    }
+}
@@ -0,0 +1,225 @@
+package mg.jwe.benchmark.fake;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Prepared statement proxy of a {@link FakeDatabase}.
+ * <p>
+ * The SQL is parsed once, when the statement is prepared, into a target table and a list of
+ * "column op ?" conditions; "column = ANY(?)" matches any element of an array parameter. Anything
+ * the parser does not understand is ignored, which makes the query return every row of the table.
+ * </p>
+ */
+class FakeStatementHandler implements InvocationHandler {
+
+    private final FakeDatabase database;
+    private final Connection connection;
+    private final String kind;
+    private final FakeTable table;
+    private final List<String[]> conditions = new ArrayList<>();
+    private final Object[] params = new Object[256];
+    private final List<Object> generatedIds = new ArrayList<>();
+    private int batchSize;
+
+    private FakeStatementHandler(FakeDatabase database, Connection connection, String sql) {
+        this.database = database;
+        this.connection = connection;
+
+        String upper = sql.trim().toUpperCase(Locale.ROOT);
+        this.kind = upper.substring(0, upper.indexOf(' '));
+        this.table = database.table(tableName(sql, upper));
+
+        int where = upper.indexOf(" WHERE ");
+        if (where >= 0 && !upper.contains(" OR ")) {
+            int end = firstOf(upper, where + 7, " ORDER BY ", " LIMIT ", " RETURNING ");
+            String clause = sql.substring(where + 7, end);
+
+            for (String condition : clause.split("(?i) AND ")) {
+                String[] parts = condition.trim().split("\\s+", 3);
+                if (parts.length == 3 && parts[2].contains("?"))
+                { conditions.add(new String[] { parts[0], parts[1].toUpperCase(Locale.ROOT) }); }
+            }
+        }
+    }
+
+    static Object newStatement(FakeDatabase database, Connection connection, String sql) {
+        return Proxy.newProxyInstance(
+            PreparedStatement.class.getClassLoader(), new Class<?>[] { PreparedStatement.class },
+            new FakeStatementHandler(database, connection, sql)
+        );
+    }
+
+    private static String tableName(String sql, String upper) {
+        int start;
+        if (upper.startsWith("INSERT"))
+        { start = upper.indexOf(" INTO ") + 6; }
+
+        else if (upper.startsWith("UPDATE"))
+        { start = 7; }
+
+        else
+        { start = upper.indexOf(" FROM ") + 6; }
+
+        int end = start;
+        while (end < sql.length() && !Character.isWhitespace(sql.charAt(end)) && sql.charAt(end) != '(')
+        { end++; }
+
+        return sql.substring(start, end);
+    }
+
+    private static int firstOf(String text, int from, String... markers) {
+        int result = text.length();
+        for (String marker : markers) {
+            int index = text.indexOf(marker, from);
+            if (index >= 0 && index < result)
+            { result = index; }
+        }
+
+        return result;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        String name = method.getName();
+
+        if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+            params[(Integer) args[0] - 1] = name.equals("setNull") ? null : args[1];
+            return null;
+        }
+
+        switch (name) {
+            case "executeQuery":
+                return FakeResultSetHandler.newResultSet(table.getColumns(), select());
+            case "executeUpdate":
+                return execute();
+            case "execute":
+                return "SELECT".equals(kind);
+            case "addBatch":
+                batchSize++;
+                execute();
+                return null;
+            case "executeBatch":
+                int[] counts = new int[batchSize];
+                Arrays.fill(counts, 1);
+                batchSize = 0;
+                return counts;
+            case "getGeneratedKeys":
+                List<Object[]> rows = new ArrayList<>();
+                for (Object id : generatedIds)
+                { rows.add(new Object[] { id }); }
+                generatedIds.clear();
+                return FakeResultSetHandler.newResultSet(new String[] { "id" }, rows);
+            case "getConnection":
+                return connection;
+            case "clearParameters":
+                Arrays.fill(params, null);
+                return null;
+            case "isClosed":
+            case "isWrapperFor":
+                return false;
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            default:
+                return FakeDatabase.defaultValue(method.getReturnType());
+        }
+    }
+
+    private int execute() {
+        if ("INSERT".equals(kind))
+        { generatedIds.add(database.nextId()); }
+
+        return 1;
+    }
+
+    private List<Object[]> select() {
+        if (conditions.isEmpty())
+        { return table.getRows(); }
+
+        List<Object[]> result = new ArrayList<>();
+        for (Object[] row : table.getRows()) {
+            if (matches(row))
+            { result.add(row); }
+        }
+
+        return result;
+    }
+
+    private boolean matches(Object[] row) {
+        for (int i = 0; i < conditions.size(); i++) {
+            String[] condition = conditions.get(i);
+            int column = table.indexOf(condition[0]);
+            if (column < 0)
+            { continue; }
+
+            if (params[i] instanceof Array) {
+                if (!testAny(row[column], (Array) params[i]))
+                { return false; }
+            }
+
+            else if (!test(row[column], condition[1], params[i]))
+            { return false; }
+        }
+
+        return true;
+    }
+
+    private static boolean testAny(Object value, Array param) {
+        try {
+            for (Object element : (Object[]) param.getArray()) {
+                if (test(value, "=", element))
+                { return true; }
+            }
+
+            return false;
+        }
+
+        catch (SQLException e)
+        { throw new RuntimeException(e); }
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static boolean test(Object value, String operator, Object param) {
+        if (value == null || param == null)
+        { return false; }
+
+        int comparison;
+        if (value instanceof Number && param instanceof Number)
+        { comparison = Double.compare(((Number) value).doubleValue(), ((Number) param).doubleValue()); }
+
+        else if (value instanceof Comparable && value.getClass() == param.getClass())
+        { comparison = ((Comparable) value).compareTo(param); }
+
+        else
+        { comparison = value.toString().compareTo(param.toString()); }
+
+        switch (operator) {
+            case "=":
+                return comparison == 0;
+            case "!=":
+            case "<>":
+                return comparison != 0;
+            case "<":
+                return comparison < 0;
+            case "<=":
+                return comparison <= 0;
+            case ">":
+                return comparison > 0;
+            case ">=":
+                return comparison >= 0;
+            default:
+                return true;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package mg.jwe.benchmark.fake;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An in-memory table served by a {@link FakeDatabase}: a fixed list of column names and rows of values.
+ */
+public class FakeTable {
+
+    private final String name;
+    private final String[] columns;
+    private final Map<String, Integer> indexByLabel = new HashMap<>();
+    private final List<Object[]> rows = new ArrayList<>();
+
+    public FakeTable(String name, String... columns) {
+        this.name = name;
+        this.columns = columns;
+
+        for (int i = 0; i < columns.length; i++)
+        { indexByLabel.put(columns[i].toLowerCase(), i); }
+    }
+
+    /**
+     * Appends a row; values are given in column order.
+     *
+     * @param values The row values
+     * @return This table, for chaining
+     */
+    public FakeTable addRow(Object... values) {
+        if (values.length != columns.length)
+        { throw new IllegalArgumentException("Expected " + columns.length + " values for " + name); }
+
+        rows.add(values);
+        return this;
+    }
+
+    public String getName()
+    { return name; }
+
+    public String[] getColumns()
+    { return columns; }
+
+    public List<Object[]> getRows()
+    { return rows; }
+
+    /**
+     * Gets the zero-based index of a column.
+     *
+     * @param label The column name, case insensitive
+     * @return The index, or -1 if the table has no such column
+     */
+    public int indexOf(String label) {
+        Integer index = indexByLabel.get(label.toLowerCase());
+        return index != null ? index : -1;
+    }
+}
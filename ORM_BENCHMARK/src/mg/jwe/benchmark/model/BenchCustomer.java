@@ -0,0 +1,67 @@
+package mg.jwe.benchmark.model;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+
+import mg.jwe.orm.annotations.*;
+import mg.jwe.orm.base.BaseModel;
+
+@Table(name = "customer")
+public class BenchCustomer extends BaseModel {
+
+    @Id
+    @Column(name = "id")
+    private Integer id;
+
+    @Column(name = "name")
+    private String name;
+
+    @Column(name = "email")
+    private String email;
+
+    @Column(name = "balance")
+    private BigDecimal balance;
+
+    @Column(name = "created_at")
+    private Timestamp createdAt;
+
+    public Integer getId() {
+        return id;
+    }
+
+    public void setId(Integer id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public void setEmail(String email) {
+        this.email = email;
+    }
+
+    public BigDecimal getBalance() {
+        return balance;
+    }
+
+    public void setBalance(BigDecimal balance) {
+        this.balance = balance;
+    }
+
+    public Timestamp getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Timestamp createdAt) {
+        this.createdAt = createdAt;
+    }
+}
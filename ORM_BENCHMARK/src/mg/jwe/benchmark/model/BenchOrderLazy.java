@@ -0,0 +1,55 @@
+package mg.jwe.benchmark.model;
+
+import java.math.BigDecimal;
+
+import mg.jwe.orm.annotations.*;
+import mg.jwe.orm.base.BaseModel;
+
+@Table(name = "orders")
+public class BenchOrderLazy extends BaseModel {
+
+    @Id
+    @Column(name = "id")
+    private Integer id;
+
+    @Column(name = "reference")
+    private String reference;
+
+    @Column(name = "amount")
+    private BigDecimal amount;
+
+    @ForeignKey(table = "customer", column = "id", lazy = true)
+    private BenchCustomer customer;
+
+    public Integer getId() {
+        return id;
+    }
+
+    public void setId(Integer id) {
+        this.id = id;
+    }
+
+    public String getReference() {
+        return reference;
+    }
+
+    public void setReference(String reference) {
+        this.reference = reference;
+    }
+
+    public BigDecimal getAmount() {
+        return amount;
+    }
+
+    public void setAmount(BigDecimal amount) {
+        this.amount = amount;
+    }
+
+    public BenchCustomer getCustomer() {
+        return customer;
+    }
+
+    public void setCustomer(BenchCustomer customer) {
+        this.customer = customer;
+    }
+}